@@ -2,6 +2,8 @@ package org.janelia.workstation.core.api;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
@@ -12,6 +14,7 @@ import org.janelia.workstation.core.util.ConsoleProperties;
 import org.janelia.workstation.core.filecache.LocalFileCache;
 import org.janelia.workstation.core.filecache.URLProxy;
 import org.janelia.workstation.core.filecache.StorageClientMgr;
+import org.janelia.workstation.core.filecache.ThumbnailFileCache;
 import org.janelia.workstation.core.filecache.WebDavUploader;
 import org.janelia.workstation.core.options.OptionConstants;
 import org.slf4j.Logger;
@@ -202,6 +205,33 @@ public class FileMgr {
         return file;
     }
 
+    /**
+     * Opens a read only channel on the specified system file. Only the parts
+     * of the file that are read are retrieved and cached, so this is the
+     * way to read headers or regions of large files (e.g. 3D stacks).
+     *
+     * @param standardPath the standard system path for the file.
+     *
+     * @return channel positioned at the start of the file.
+     *
+     * @throws FileNotFoundException if the file does not exist.
+     * @throws IOException if the local file cache is disabled, or the channel cannot be opened.
+     */
+    public SeekableByteChannel openChannel(String standardPath) throws IOException {
+        if (!isFileCacheAvailable()) {
+            throw new IOException("Local file cache is not available");
+        }
+        return localFileCache.openChannel(standardPath);
+    }
+
+    /**
+     * @return the cache of downsampled images, or null if the local file cache is disabled.
+     */
+    public ThumbnailFileCache getThumbnailCache() {
+        LocalFileCache cache = localFileCache;
+        return cache == null ? null : cache.getThumbnailCache();
+    }
+
     /**
      * Get the URL for a standard path. It may be a local URL, if the file has
      * been cached, or a remote URL on the WebDAV server. It might even be a
@@ -1,6 +1,8 @@
 package org.janelia.workstation.core.api.services;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
 
 import org.janelia.workstation.integration.api.FileAccessController;
 import org.janelia.workstation.core.api.FileMgr;
@@ -13,5 +15,10 @@ public class CoreFileAccessController implements FileAccessController {
     public File getCachedFile(String standardPath, boolean forceRefresh) {
         return FileMgr.getFileMgr().getFile(standardPath, forceRefresh);
     }
+
+    @Override
+    public SeekableByteChannel openChannel(String standardPath) throws IOException {
+        return FileMgr.getFileMgr().openChannel(standardPath);
+    }
     
 }
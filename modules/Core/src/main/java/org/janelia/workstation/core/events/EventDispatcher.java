@@ -0,0 +1,356 @@
+package org.janelia.workstation.core.events;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+
+import javax.swing.SwingUtilities;
+
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dispatches posted events to the {@link Subscribe} methods of registered objects.
+ *
+ * Subscribers are called on the UI thread, unless they are also annotated with
+ * {@link SubscribeInBackground}, in which case each is called on the background
+ * executor. Either way, events are queued, and each queue delivers the events
+ * posted before it was drained as one frame. Within a frame, events of a type
+ * which has a merger are merged into one, e.g. many invalidations become one
+ * invalidation of all of their objects. The merged event takes the place of
+ * the latest of the events it replaces.
+ *
+ * Each subscriber receives the events of any one type in the order they were
+ * posted. Queues are bounded: posting to a full queue waits for it to drain, for
+ * a while, except on the UI thread or the queue's own thread, which never wait.
+ */
+public class EventDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(EventDispatcher.class);
+
+    static final String UI_QUEUE_NAME = "EDT";
+
+    private static final EventMetrics NO_METRICS = new EventMetrics() {
+        @Override
+        public void queueDepth(String queueName, int depth) {
+        }
+
+        @Override
+        public void eventHandled(String subscriberName, Class<?> eventType, long queuedNanos, long handlingNanos) {
+        }
+    };
+
+    private final Executor backgroundExecutor;
+    private final int queueCapacity;
+    private final long fullQueueWaitMillis;
+    private final DispatchQueue uiQueue;
+    private final Map<Class<?>, Set<Subscriber>> subscribersByType = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Set<Class<?>>> eventTypeHierarchies = new ConcurrentHashMap<>();
+    private final Map<Class<?>, BinaryOperator<Object>> mergers = new ConcurrentHashMap<>();
+    private volatile EventMetrics metrics = NO_METRICS;
+
+    /**
+     * @param uiExecutor runs the UI subscribers, in order, e.g. EventQueue::invokeLater
+     * @param backgroundExecutor runs the background subscribers
+     * @param queueCapacity number of events a queue holds before posting waits
+     * @param fullQueueWaitMillis how long posting waits for a full queue before queueing anyway
+     */
+    public EventDispatcher(Executor uiExecutor, Executor backgroundExecutor, int queueCapacity, long fullQueueWaitMillis) {
+        this.backgroundExecutor = backgroundExecutor;
+        this.queueCapacity = queueCapacity;
+        this.fullQueueWaitMillis = fullQueueWaitMillis;
+        this.uiQueue = new DispatchQueue(UI_QUEUE_NAME, uiExecutor);
+    }
+
+    /**
+     * Merges the events of the given type which are queued for the same subscribers
+     * in the same frame. The merger is given the earlier event first.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void setMerger(Class<T> eventType, BinaryOperator<T> merger) {
+        mergers.put(eventType, (BinaryOperator<Object>) merger);
+    }
+
+    public void setMetrics(EventMetrics metrics) {
+        this.metrics = metrics == null ? NO_METRICS : metrics;
+    }
+
+    /**
+     * Registers all the subscriber methods of the given object.
+     *
+     * @throws IllegalArgumentException if a subscriber method doesn't take exactly one argument
+     */
+    public void register(Object target) {
+        for (Subscriber subscriber : findSubscribers(target)) {
+            subscribersByType.computeIfAbsent(subscriber.eventType, k -> new CopyOnWriteArraySet<>()).add(subscriber);
+        }
+    }
+
+    /**
+     * Unregisters all the subscriber methods of the given object. Events which were
+     * already queued for it are still delivered.
+     *
+     * @throws IllegalArgumentException if the object isn't registered
+     */
+    public void unregister(Object target) {
+        for (Subscriber subscriber : findSubscribers(target)) {
+            Set<Subscriber> subscribers = subscribersByType.get(subscriber.eventType);
+            if (subscribers == null || !subscribers.remove(subscriber)) {
+                throw new IllegalArgumentException("Missing event subscriber for an annotated method. Is " + target + " registered?");
+            }
+        }
+    }
+
+    /**
+     * Queues the event for every subscriber to its type, or to any of its supertypes.
+     */
+    public void post(Object event) {
+        long postedNanos = System.nanoTime();
+        List<Subscriber> uiSubscribers = new ArrayList<>();
+        boolean delivered = false;
+        for (Class<?> eventType : getTypeHierarchy(event.getClass())) {
+            Set<Subscriber> subscribers = subscribersByType.get(eventType);
+            if (subscribers == null) {
+                continue;
+            }
+            for (Subscriber subscriber : subscribers) {
+                if (subscriber.queue == null) {
+                    uiSubscribers.add(subscriber);
+                }
+                else {
+                    subscriber.queue.add(event, Collections.singletonList(subscriber), postedNanos);
+                }
+                delivered = true;
+            }
+        }
+        if (!uiSubscribers.isEmpty()) {
+            uiQueue.add(event, uiSubscribers, postedNanos);
+        }
+        if (!delivered) {
+            log.trace("No subscribers for {}", event);
+        }
+    }
+
+    private Set<Class<?>> getTypeHierarchy(Class<?> eventType) {
+        return eventTypeHierarchies.computeIfAbsent(eventType,
+                type -> Collections.unmodifiableSet(TypeToken.of(type).getTypes().rawTypes()));
+    }
+
+    private List<Subscriber> findSubscribers(Object target) {
+        Map<String, Subscriber> subscribers = new HashMap<>();
+        for (Class<?> type : TypeToken.of(target.getClass()).getTypes().rawTypes()) {
+            for (Method method : type.getDeclaredMethods()) {
+                if (!method.isAnnotationPresent(Subscribe.class) || method.isSynthetic()) {
+                    continue;
+                }
+                Class<?>[] parameterTypes = method.getParameterTypes();
+                if (parameterTypes.length != 1) {
+                    throw new IllegalArgumentException("Method " + method + " has @Subscribe annotation but has "
+                            + parameterTypes.length + " parameters. Subscriber methods must have exactly 1 parameter.");
+                }
+                // overridden methods are only registered once, and called virtually
+                String signature = method.getName() + Arrays.toString(parameterTypes);
+                if (!subscribers.containsKey(signature)) {
+                    subscribers.put(signature, new Subscriber(target, method));
+                }
+            }
+        }
+        return new ArrayList<>(subscribers.values());
+    }
+
+    /**
+     * A subscriber method of a registered object.
+     */
+    private final class Subscriber {
+
+        private final Object target;
+        private final Method method;
+        private final Class<?> eventType;
+        private final String name;
+        // queue of a background subscriber, or null for the UI queue
+        private final DispatchQueue queue;
+
+        private Subscriber(Object target, Method method) {
+            this.target = target;
+            this.method = method;
+            this.eventType = method.getParameterTypes()[0];
+            this.name = target.getClass().getName() + "." + method.getName();
+            method.setAccessible(true);
+            this.queue = method.isAnnotationPresent(SubscribeInBackground.class)
+                    ? new DispatchQueue(name, backgroundExecutor) : null;
+        }
+
+        private void dispatch(Object event, long postedNanos) {
+            long startNanos = System.nanoTime();
+            try {
+                method.invoke(target, event);
+            }
+            catch (InvocationTargetException e) {
+                log.error("Exception thrown by subscriber {} handling {}", name, event, e.getCause());
+            }
+            catch (IllegalAccessException e) {
+                log.error("Cannot call subscriber {}", name, e);
+            }
+            metrics.eventHandled(name, event.getClass(), startNanos - postedNanos, System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Subscriber)) {
+                return false;
+            }
+            Subscriber that = (Subscriber) o;
+            return target == that.target && method.equals(that.method);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 + method.hashCode()) * 31 + System.identityHashCode(target);
+        }
+    }
+
+    private static final class QueuedEvent {
+
+        private final Object event;
+        private final List<Subscriber> subscribers;
+        private final long postedNanos;
+        private boolean replaced;
+
+        private QueuedEvent(Object event, List<Subscriber> subscribers, long postedNanos) {
+            this.event = event;
+            this.subscribers = subscribers;
+            this.postedNanos = postedNanos;
+        }
+    }
+
+    /**
+     * Queue of events for the subscribers run by one executor, drained one frame at a time.
+     */
+    private final class DispatchQueue implements Runnable {
+
+        private final String name;
+        private final Executor executor;
+        // guarded by this
+        private final ArrayDeque<QueuedEvent> events = new ArrayDeque<>();
+        private final Map<Class<?>, QueuedEvent> mergeableEvents = new HashMap<>();
+        private int size;
+        private int replacedCount;
+        private boolean scheduled;
+        private volatile Thread drainingThread;
+
+        private DispatchQueue(String name, Executor executor) {
+            this.name = name;
+            this.executor = executor;
+        }
+
+        private void add(Object event, List<Subscriber> subscribers, long postedNanos) {
+            boolean schedule;
+            int depth;
+            synchronized (this) {
+                waitForSpace();
+                BinaryOperator<Object> merger = mergers.get(event.getClass());
+                QueuedEvent queuedEvent;
+                if (merger == null) {
+                    queuedEvent = new QueuedEvent(event, subscribers, postedNanos);
+                    size++;
+                }
+                else {
+                    QueuedEvent pendingEvent = mergeableEvents.get(event.getClass());
+                    if (pendingEvent != null && pendingEvent.subscribers.equals(subscribers)) {
+                        pendingEvent.replaced = true;
+                        replacedCount++;
+                        queuedEvent = new QueuedEvent(merger.apply(pendingEvent.event, event), subscribers, pendingEvent.postedNanos);
+                    }
+                    else {
+                        queuedEvent = new QueuedEvent(event, subscribers, postedNanos);
+                        size++;
+                    }
+                    mergeableEvents.put(event.getClass(), queuedEvent);
+                }
+                events.add(queuedEvent);
+                if (replacedCount > size) {
+                    events.removeIf(e -> e.replaced);
+                    replacedCount = 0;
+                }
+                depth = size;
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            metrics.queueDepth(name, depth);
+            if (schedule) {
+                executor.execute(this);
+            }
+        }
+
+        private void waitForSpace() {
+            if (size < queueCapacity || Thread.currentThread() == drainingThread || SwingUtilities.isEventDispatchThread()) {
+                return;
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fullQueueWaitMillis);
+            try {
+                long remainingNanos;
+                while (size >= queueCapacity && (remainingNanos = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (size >= queueCapacity) {
+                log.warn("Event queue {} is still full after {} ms, queueing anyway", name, fullQueueWaitMillis);
+            }
+        }
+
+        /**
+         * Delivers the events queued so far, then schedules the next frame if more arrived.
+         */
+        @Override
+        public void run() {
+            List<QueuedEvent> frame;
+            synchronized (this) {
+                frame = new ArrayList<>(events);
+                events.clear();
+                mergeableEvents.clear();
+                size = 0;
+                replacedCount = 0;
+                notifyAll();
+            }
+            drainingThread = Thread.currentThread();
+            try {
+                for (QueuedEvent queuedEvent : frame) {
+                    if (queuedEvent.replaced) {
+                        continue;
+                    }
+                    for (Subscriber subscriber : queuedEvent.subscribers) {
+                        subscriber.dispatch(queuedEvent.event, queuedEvent.postedNanos);
+                    }
+                }
+            }
+            finally {
+                drainingThread = null;
+                boolean reschedule;
+                synchronized (this) {
+                    reschedule = !events.isEmpty();
+                    scheduled = reschedule;
+                }
+                if (reschedule) {
+                    executor.execute(this);
+                }
+            }
+        }
+    }
+}
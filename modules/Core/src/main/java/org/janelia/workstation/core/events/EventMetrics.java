@@ -0,0 +1,27 @@
+package org.janelia.workstation.core.events;
+
+/**
+ * Receives measurements from the event bus, e.g. to find slow subscribers.
+ * Calls are made on the dispatching threads, so implementations must be quick
+ * and thread safe.
+ */
+public interface EventMetrics {
+
+    /**
+     * Called when events are queued for a dispatch queue.
+     *
+     * @param queueName the EDT queue, or the queue of a background subscriber
+     * @param depth number of events waiting in the queue
+     */
+    void queueDepth(String queueName, int depth);
+
+    /**
+     * Called after a subscriber has handled an event.
+     *
+     * @param subscriberName class and method of the subscriber
+     * @param eventType class of the event
+     * @param queuedNanos time from when the event was posted until the subscriber was called
+     * @param handlingNanos time the subscriber took to handle the event
+     */
+    void eventHandled(String subscriberName, Class<?> eventType, long queuedNanos, long handlingNanos);
+}
@@ -1,14 +1,18 @@
 package org.janelia.workstation.core.events;
 
-import com.google.common.eventbus.AsyncEventBus;
-import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.awt.EventQueue;
-import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import org.janelia.workstation.core.events.model.DomainObjectInvalidationEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Global event bus singleton. 
+ * 
+ * Subscribers are called on the EDT, unless they're annotated with {@link SubscribeInBackground}.
+ * Invalidations posted within one frame are merged, so that bulk invalidations cause a single 
+ * refresh of each subscriber. See {@link EventDispatcher}.
  *
  * @author <a href="mailto:rokickik@janelia.hhmi.org">Konrad Rokicki</a>
  */
@@ -25,26 +29,33 @@ public class Events {
         return instance;
     }
     
-    private final EventBus eventBus;
+    private static final int BACKGROUND_THREADS = 4;
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final long FULL_QUEUE_WAIT_MILLIS = 1000;
+
+    private final EventDispatcher eventBus;
             
     private Events() {
-        this.eventBus = new AsyncEventBus("awt", new Executor() {
-            @Override
-            public void execute(Runnable cmd) {
-                // TODO: this should queue the command on a queue that is aware of entity invalidation, 
-                // and does not generate other events for an entity if an invalidation is coming. 
-                // This will eliminate the "Instance mismatch" issues that we sometimes have.
-                EventQueue.invokeLater(cmd);
-            }
-        });
+        this.eventBus = new EventDispatcher(EventQueue::invokeLater,
+                Executors.newFixedThreadPool(BACKGROUND_THREADS, new ThreadFactoryBuilder()
+                        .setNameFormat("event-dispatch-%d")
+                        .setDaemon(true)
+                        .build()),
+                QUEUE_CAPACITY, FULL_QUEUE_WAIT_MILLIS);
+        eventBus.setMerger(DomainObjectInvalidationEvent.class, DomainObjectInvalidationEvent::merge);
+    }
+
+    /**
+     * Sets the receiver of queue depths and subscriber latencies, or null for none.
+     */
+    public void setMetrics(EventMetrics metrics) {
+        eventBus.setMetrics(metrics);
     }
     
     public void registerOnEventBus(Object object) {
         log.debug("Registering: {}",object);
         try {
-            synchronized (Events.class) {
-                eventBus.register(object);
-            }
+            eventBus.register(object);
         }
         catch (IllegalArgumentException e) {
             log.warn("Cannot register object on event bus: {}", e.getMessage());
@@ -54,9 +65,7 @@ public class Events {
     public void unregisterOnEventBus(Object object) {
         log.debug("Unregistering: {}",object);
         try {
-            synchronized (Events.class) {
-                eventBus.unregister(object);
-            }
+            eventBus.unregister(object);
         }
         catch (IllegalArgumentException e) {
             log.warn("Cannot unregister object on event bus: {}",e.getMessage());
@@ -71,9 +80,7 @@ public class Events {
                         Thread.currentThread().getContextClassLoader() + " in thread " + 
                         Thread.currentThread());
             }
-            synchronized (Events.class) {
-                eventBus.post(object);
-            }
+            eventBus.post(object);
         }
         catch (IllegalArgumentException e) {
             log.warn("Cannot post event on event bus: {}",e.getMessage());
@@ -0,0 +1,17 @@
+package org.janelia.workstation.core.events;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link com.google.common.eventbus.Subscribe} method which should be called on a
+ * background thread instead of the EDT. Each such subscriber still receives its events
+ * one at a time, in the order they were posted, but it must not touch Swing components
+ * directly.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface SubscribeInBackground {
+}
@@ -2,8 +2,11 @@ package org.janelia.workstation.core.events.model;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.janelia.model.domain.DomainObject;
+import org.janelia.model.domain.Reference;
 
 /**
  * One or more domain objects have been invalidated. The client receiving this 
@@ -35,4 +38,23 @@ public class DomainObjectInvalidationEvent {
     public boolean isTotalInvalidation() {
         return domainObjects == null;
     }
+
+    /**
+     * Merges two invalidations into one, of all the objects of both. If the same object 
+     * appears in both, the instance from the later invalidation is kept.
+     */
+    public static DomainObjectInvalidationEvent merge(DomainObjectInvalidationEvent earlier, DomainObjectInvalidationEvent later) {
+        if (earlier.isTotalInvalidation() || later.isTotalInvalidation()) {
+            return new DomainObjectInvalidationEvent();
+        }
+        Map<Reference, DomainObject> objects = new LinkedHashMap<>();
+        for (DomainObject object : earlier.getDomainObjects()) {
+            objects.put(Reference.createFor(object), object);
+        }
+        for (DomainObject object : later.getDomainObjects()) {
+            objects.remove(Reference.createFor(object));
+            objects.put(Reference.createFor(object), object);
+        }
+        return new DomainObjectInvalidationEvent(objects.values());
+    }
 }
@@ -121,6 +121,13 @@ class AbstractWebDav {
         return kilobytes;
     }
 
+    /**
+     * @return the number of bytes in the file, or null if the length was not reported.
+     */
+    Long getContentLength() {
+        return contentLength;
+    }
+
     String getStorageRootDir() {
         return storageRootDir;
     }
@@ -0,0 +1,233 @@
+package org.janelia.workstation.core.filecache;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalListeners;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class manages a directory of fixed size blocks of remote files,
+ * which are retrieved with range requests as they are read. It allows
+ * random access into files that are too large to be cached whole,
+ * and reading the header of a large file without retrieving the rest.
+ *
+ * Blocks are evicted individually, least recently used first, once the
+ * blocks exceed their capacity. They are not kept between sessions.
+ */
+public class BlockFileCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockFileCache.class);
+
+    static final int DEFAULT_BLOCK_SIZE = 4 * 1024 * 1024; // 4Mb
+
+    // Remote file lengths and URLs are looked up once per file, rather than once per block
+    private static final int MAX_REMOTE_FILES = 1000;
+    private static final long REMOTE_FILE_EXPIRATION_MINUTES = 10;
+
+    private final File directory;
+    private final int blockSize;
+    private final StorageClientMgr storageClientMgr;
+    private final RemoteFileCacheLoader loader;
+    private final Cache<String, WebDavFile> remoteFiles;
+    private final Cache<String, File> blocks;
+
+    /**
+     * @param  directory         directory for the block files, whose previous contents are removed.
+     * @param  kilobyteCapacity  number of kilobytes of blocks to keep before removing
+     *                           least recently used blocks.
+     * @param  blockSize         number of bytes in each block (except the last block of a file).
+     * @param  storageClientMgr  for finding remote files.
+     * @param  loader            for retrieving blocks.
+     */
+    BlockFileCache(File directory,
+                   long kilobyteCapacity,
+                   int blockSize,
+                   StorageClientMgr storageClientMgr,
+                   RemoteFileCacheLoader loader) {
+        this.directory = directory;
+        this.blockSize = blockSize;
+        this.storageClientMgr = storageClientMgr;
+        this.loader = loader;
+        this.remoteFiles = CacheBuilder.newBuilder()
+                .maximumSize(MAX_REMOTE_FILES)
+                .expireAfterWrite(REMOTE_FILE_EXPIRATION_MINUTES, TimeUnit.MINUTES)
+                .build();
+        // Setting concurrency level to 1 ensures global LRU eviction, as for the whole file cache
+        this.blocks = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(Math.max(1, kilobyteCapacity))
+                .weigher(new Weigher<String, File>() {
+                    @Override
+                    public int weigh(String blockKey, File blockFile) {
+                        // zero weights are not supported
+                        return (int) Math.max(1, (blockFile.length() + 1023) / 1024);
+                    }
+                })
+                .removalListener(RemovalListeners.asynchronous(
+                        new RemovalListener<String, File>() {
+                            @Override
+                            public void onRemoval(RemovalNotification<String, File> removal) {
+                                FileUtils.deleteQuietly(removal.getValue());
+                            }
+                        },
+                        Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                                .setNameFormat("block-file-cache-removal-%d")
+                                .setDaemon(true)
+                                .build())))
+                .build();
+
+        final File[] staleFiles = directory.listFiles();
+        if ((staleFiles != null) && (staleFiles.length > 0)) {
+            LOG.info("removing {} blocks left in {} by a prior session", staleFiles.length, directory);
+            for (File staleFile : staleFiles) {
+                FileUtils.deleteQuietly(staleFile);
+            }
+        }
+    }
+
+    /**
+     * Opens a read only channel on the specified remote file. Blocks are
+     * retrieved (on the reading thread) as they are first read, and are
+     * then served from the cache.
+     *
+     * @param  remoteFileRefName  remote file reference name.
+     *
+     * @return channel positioned at the start of the file.
+     *
+     * @throws FileNotFoundException
+     *   if the file does not exist.
+     *
+     * @throws IOException
+     *   if the file's length cannot be determined.
+     */
+    public SeekableByteChannel openChannel(String remoteFileRefName) throws IOException {
+        final WebDavFile webDavFile = getRemoteFile(remoteFileRefName);
+        if (webDavFile.isDirectory()) {
+            throw new IOException("Cannot open a channel on directory " + remoteFileRefName);
+        }
+        final Long size = webDavFile.getContentLength();
+        if (size == null) {
+            throw new IOException("No content length reported for " + remoteFileRefName);
+        }
+        return new BlockFileChannel(this, remoteFileRefName, size, blockSize);
+    }
+
+    /**
+     * @return the number of blocks currently in the cache.
+     */
+    public long getNumberOfBlocks() {
+        return blocks.size();
+    }
+
+    /**
+     * Removes all blocks. The block files are removed asynchronously.
+     */
+    public void clear() {
+        LOG.info("clear: entry, scheduling removal of {} blocks from cache", blocks.size());
+        blocks.invalidateAll();
+        remoteFiles.invalidateAll();
+    }
+
+    /**
+     * @return the directory that contains the block files.
+     */
+    File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the local file for the specified block, retrieving it first
+     * if it is not cached. Concurrent requests for the same block share
+     * one retrieval.
+     *
+     * @param  remoteFileRefName  remote file reference name.
+     * @param  blockIndex         index of the block within the file.
+     *
+     * @return local file with the block's bytes.
+     */
+    File getBlock(final String remoteFileRefName, final long blockIndex) throws IOException {
+        final String blockKey = remoteFileRefName + '#' + blockIndex;
+        try {
+            return blocks.get(blockKey, () -> retrieveBlock(remoteFileRefName, blockIndex));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("failed to retrieve block " + blockIndex + " of " + remoteFileRefName, e.getCause());
+        }
+    }
+
+    /**
+     * Drops the specified block, e.g. when its file was found to be missing.
+     */
+    void invalidateBlock(String remoteFileRefName, long blockIndex) {
+        blocks.invalidate(remoteFileRefName + '#' + blockIndex);
+    }
+
+    private WebDavFile getRemoteFile(final String remoteFileRefName) throws IOException {
+        try {
+            return remoteFiles.get(remoteFileRefName, () -> storageClientMgr.findFile(remoteFileRefName));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("failed to find " + remoteFileRefName, e.getCause());
+        }
+    }
+
+    private File retrieveBlock(String remoteFileRefName, long blockIndex) throws IOException {
+        final WebDavFile webDavFile = getRemoteFile(remoteFileRefName);
+        final long size = webDavFile.getContentLength() == null ? 0 : webDavFile.getContentLength();
+        final long start = blockIndex * blockSize;
+        final long length = Math.min(blockSize, size - start);
+        if (length <= 0) {
+            throw new IOException("block " + blockIndex + " is beyond the end of " + remoteFileRefName);
+        }
+        // A unique name, so that the asynchronous removal of an evicted block
+        // never removes a block that was retrieved again meanwhile
+        final String blockFileName =
+                Hashing.sha256().hashString(remoteFileRefName, StandardCharsets.UTF_8).toString() +
+                "-" + blockIndex + "-" + UUID.randomUUID();
+        final File blockFile = new File(directory, blockFileName);
+        try {
+            loader.retrieveRange(webDavFile, start, length, blockFile);
+        } catch (WebDavException e) {
+            FileUtils.deleteQuietly(blockFile);
+            remoteFiles.invalidate(remoteFileRefName);
+            throw new IOException("failed to retrieve block " + blockIndex + " of " + remoteFileRefName, e);
+        }
+        if (blockFile.length() != length) {
+            FileUtils.deleteQuietly(blockFile);
+            remoteFiles.invalidate(remoteFileRefName);
+            throw new IOException("retrieved " + blockFile.length() + " instead of " + length +
+                    " bytes for block " + blockIndex + " of " + remoteFileRefName);
+        }
+        LOG.debug("retrieveBlock: retrieved block {} of {}", blockIndex, remoteFileRefName);
+        return blockFile;
+    }
+
+    @Override
+    public String toString() {
+        return "BlockFileCache{" +
+                "directory=" + directory +
+                ", blockSize=" + blockSize +
+                '}';
+    }
+}
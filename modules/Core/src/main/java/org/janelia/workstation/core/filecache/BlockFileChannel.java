@@ -0,0 +1,134 @@
+package org.janelia.workstation.core.filecache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read only channel on a remote file, which reads the file's blocks
+ * through a {@link BlockFileCache}.
+ */
+class BlockFileChannel implements SeekableByteChannel {
+
+    private final BlockFileCache blockCache;
+    private final String remoteFileRefName;
+    private final long size;
+    private final int blockSize;
+    private long position;
+    private volatile boolean open = true;
+
+    BlockFileChannel(BlockFileCache blockCache, String remoteFileRefName, long size, int blockSize) {
+        this.blockCache = blockCache;
+        this.remoteFileRefName = remoteFileRefName;
+        this.size = size;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        int bytesRead = 0;
+        while (dst.hasRemaining() && position < size) {
+            final long blockIndex = position / blockSize;
+            final long blockOffset = position % blockSize;
+            final int n = readFromBlock(dst, blockIndex, blockOffset);
+            position += n;
+            bytesRead += n;
+        }
+        return bytesRead;
+    }
+
+    /**
+     * Reads from the block, retrieving it again if it was evicted from
+     * the cache after it was looked up.
+     */
+    private int readFromBlock(ByteBuffer dst, long blockIndex, long blockOffset) throws IOException {
+        final int limit = dst.limit();
+        // don't read past the block, in case it's longer than expected
+        dst.limit((int) Math.min(limit, dst.position() + blockSize - blockOffset));
+        try {
+            for (int attempt = 0; ; attempt++) {
+                try (FileChannel blockChannel = FileChannel.open(
+                        blockCache.getBlock(remoteFileRefName, blockIndex).toPath(), StandardOpenOption.READ)) {
+                    final int n = blockChannel.read(dst, blockOffset);
+                    if (n <= 0) {
+                        throw new IOException("block " + blockIndex + " of " + remoteFileRefName + " is too short");
+                    }
+                    return n;
+                } catch (NoSuchFileException e) {
+                    blockCache.invalidateBlock(remoteFileRefName, blockIndex);
+                    if (attempt > 0) {
+                        throw e;
+                    }
+                }
+            }
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("negative position " + newPosition);
+        }
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BlockFileChannel{" +
+                "remoteFileRefName='" + remoteFileRefName + '\'' +
+                ", size=" + size +
+                ", position=" + position +
+                '}';
+    }
+}
@@ -6,15 +6,25 @@ import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalListeners;
 import com.google.common.cache.RemovalNotification;
 import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import org.janelia.it.jacs.shared.utils.StringUtils;
 import org.janelia.workstation.core.api.http.HttpClientProxy;
 import org.slf4j.Logger;
@@ -33,13 +43,24 @@ public class LocalFileCache {
     private static final String CACHE_DIRECTORY_NAME = ".jacs-file-cache";
     private static final String ACTIVE_DIRECTORY_NAME = "active";
     private static final String TEMP_DIRECTORY_NAME = "temp";
+    private static final String THUMBNAIL_DIRECTORY_NAME = "thumbnails";
+    private static final String BLOCK_DIRECTORY_NAME = "blocks";
+
+    // Share of the cache capacity set aside for thumbnails, which are not counted in the capacity itself
+    private static final int THUMBNAIL_CAPACITY_DIVISOR = 50;
+    // Share of the cache capacity set aside for blocks of partially read files
+    private static final int BLOCK_CAPACITY_DIVISOR = 4;
 
     private File tempDirectory;
     private File activeDirectory;
+    private final ThumbnailFileCache thumbnailCache;
+    private final File blockDirectory;
+    private BlockFileCache blockCache;
 
     private long kilobyteCapacity;
 
     private final ExecutorService asyncLoadService;
+    private final ConcurrentMap<String, Future<File>> pendingAsyncLoads = new ConcurrentHashMap<>();
     private final Weigher<String, CachedFile> weigher;
     private final RemovalListener<String, CachedFile> asyncRemovalListener;
     private final StorageClientMgr storageClientMgr;
@@ -87,10 +108,18 @@ public class LocalFileCache {
             this.kilobyteCapacity = kilobyteCapacity;
         }
 
+        this.thumbnailCache = new ThumbnailFileCache(
+                createAndValidateDirectoryAsNeeded(cacheRootDirectory, THUMBNAIL_DIRECTORY_NAME),
+                this.kilobyteCapacity * 1024 / THUMBNAIL_CAPACITY_DIVISOR);
+        this.blockDirectory = createAndValidateDirectoryAsNeeded(cacheRootDirectory, BLOCK_DIRECTORY_NAME);
+
         this.cacheLoadEventListener = cacheLoadEventListener;
 
         // separate thread pool for async addition of files to the cache
-        this.asyncLoadService = Executors.newFixedThreadPool(4);
+        this.asyncLoadService = Executors.newFixedThreadPool(4, new ThreadFactoryBuilder()
+                .setNameFormat("file-cache-async-load-%d")
+                .setDaemon(true)
+                .build());
 
         this.weigher = new Weigher<String, CachedFile>() {
 
@@ -128,6 +157,7 @@ public class LocalFileCache {
 
         this.storageClientMgr = storageClientMgr;
         this.defaultLoader = new RemoteFileCacheLoader(httpClient, storageClientMgr, this);
+        this.blockCache = buildBlockCache();
 
         final File[] tempFiles = tempDirectory.listFiles();
         if ((tempFiles != null) && (tempFiles.length > 0)) {
@@ -164,6 +194,20 @@ public class LocalFileCache {
         return activeDirectory;
     }
 
+    /**
+     * @return the cache of downsampled images, which lives beside the cached files.
+     */
+    public ThumbnailFileCache getThumbnailCache() {
+        return thumbnailCache;
+    }
+
+    /**
+     * @return the cache of blocks of partially read files.
+     */
+    public BlockFileCache getBlockCache() {
+        return blockCache;
+    }
+
     /**
      * @return the number of files currently in the cache.
      */
@@ -208,6 +252,8 @@ public class LocalFileCache {
     public void setKilobyteCapacity(long kilobyteCapacity) {
         LOG.info("setKilobyteCapacity: entry, kilobyteCapacity={}", kilobyteCapacity);
         this.kilobyteCapacity = kilobyteCapacity;
+        blockCache.clear();
+        this.blockCache = buildBlockCache();
         buildCacheAndScheduleLoad();
     }
 
@@ -258,6 +304,36 @@ public class LocalFileCache {
         return localFile;
     }
 
+    /**
+     * Opens a read only channel on the specified resource. If the whole
+     * file is already cached, the channel reads the local copy. Otherwise
+     * only the blocks that are read are retrieved, with range requests,
+     * so that the file's header can be read without retrieving the rest,
+     * and files larger than the cache capacity can be read at all.
+     *
+     * @param  remoteFileRefName  remote file reference name.
+     *
+     * @return channel positioned at the start of the file.
+     *
+     * @throws FileNotFoundException
+     *   if the file does not exist.
+     *
+     * @throws IOException
+     *   if the channel cannot be opened.
+     */
+    public SeekableByteChannel openChannel(String remoteFileRefName) throws IOException {
+        CachedFile cachedFile = remoteNameToFileCache.getIfPresent(remoteFileRefName);
+        File localFile = getVerifiedLocalFile(cachedFile);
+        if (localFile != null) {
+            try {
+                return FileChannel.open(localFile.toPath(), StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                LOG.debug("openChannel: {} was removed, reading blocks instead", localFile);
+            }
+        }
+        return blockCache.openChannel(remoteFileRefName);
+    }
+
     /**
      * Looks for the specified resource in the cache and returns the
      * corresponding local file URL if it exists.
@@ -283,17 +359,7 @@ public class LocalFileCache {
                     LOG.trace("Cannot cache directory: "+remoteFileRefName);
                 }
                 else {   
-                    asyncLoadService.submit(new Callable<File>() {
-                        @Override
-                        public File call() throws Exception {
-                            try {
-                                return getFile(remoteFileRefName, false);
-                            } catch (FileNotCacheableException e) {
-                                LOG.warn("Problem encountered caching file asynchronously",e);
-                                throw e;
-                            }
-                        }
-                    });
+                    submitAsyncLoad(remoteFileRefName);
                 }
             }
             return storageClientMgr.getDownloadFileURL(remoteFileRefName);
@@ -308,7 +374,50 @@ public class LocalFileCache {
     }
 
     /**
-     * Clears and removes all locally cached files.
+     * Submits an asynchronous load of the specified file, unless one is
+     * already pending, so that repeated requests for a file that is not
+     * yet cached (e.g. while tiles are redrawn) queue only one load.
+     */
+    private void submitAsyncLoad(String remoteFileRefName) {
+        FutureTask<File> loadTask = new FutureTask<>(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                try {
+                    return getFile(remoteFileRefName, false);
+                } catch (FileNotCacheableException e) {
+                    LOG.warn("Problem encountered caching file asynchronously",e);
+                    throw e;
+                }
+            }
+        }) {
+            @Override
+            protected void done() {
+                pendingAsyncLoads.remove(remoteFileRefName, this);
+            }
+        };
+        if (pendingAsyncLoads.putIfAbsent(remoteFileRefName, loadTask) == null) {
+            asyncLoadService.submit(loadTask);
+        } else {
+            LOG.trace("Asynchronous load of {} is already pending", remoteFileRefName);
+        }
+    }
+
+    /**
+     * Waits for the asynchronous loads which are pending when this is called.
+     * Failed loads are not reported, since they were logged already.
+     */
+    void waitForPendingAsyncLoads() throws InterruptedException {
+        for (Future<File> pendingLoad : pendingAsyncLoads.values()) {
+            try {
+                pendingLoad.get();
+            } catch (ExecutionException e) {
+                LOG.trace("Pending asynchronous load failed", e);
+            }
+        }
+    }
+
+    /**
+     * Clears and removes all locally cached files, including thumbnails.
      * Entries will be removed from the in-memory metadata cache immediately.
      * The locally cached files will be removed from the file system
      * asynchronously by a separate pool of threads.
@@ -316,6 +425,8 @@ public class LocalFileCache {
     public void clear() {
         LOG.info("clear: entry, scheduling removal of {} files from cache", remoteNameToFileCache.size());
         remoteNameToFileCache.invalidateAll();
+        thumbnailCache.clear();
+        blockCache.clear();
     }
 
     @Override
@@ -364,6 +475,14 @@ public class LocalFileCache {
         return directory;
     }
 
+    private BlockFileCache buildBlockCache() {
+        return new BlockFileCache(blockDirectory,
+                                  getKilobyteCapacity() / BLOCK_CAPACITY_DIVISOR,
+                                  BlockFileCache.DEFAULT_BLOCK_SIZE,
+                                  storageClientMgr,
+                                  defaultLoader);
+    }
+
     /**
      * Builds a new empty cache using the current capacity and then
      * launches a separate thread to load the cache from the filesystem.
@@ -1,15 +1,22 @@
 package org.janelia.workstation.core.filecache;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
 
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.common.cache.CacheLoader;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.io.IOUtils;
 import org.janelia.workstation.core.api.http.HttpClientProxy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,15 +30,16 @@ import org.slf4j.LoggerFactory;
  */
 public class RemoteFileCacheLoader extends CacheLoader<String, CachedFile> {
     private static final Logger LOG = LoggerFactory.getLogger(RemoteFileCacheLoader.class);
-    private static final int EOF = -1;
-    // Use 2Mb buffer to reduce likelihood of out of memory errors
-    // when concurrent threads are loading images.
     // Most of the dynamic image files are around 1Mb.
-    private static final int BUFFER_SIZE = 2 * 1024 * 1024; // 2Mb
+    private static final long TRANSFER_SIZE = 2 * 1024 * 1024; // 2Mb
+    // Concurrent downloads allowed from each storage agent, so that a burst
+    // of requests does not overwhelm one agent while others sit idle.
+    static final int MAX_DOWNLOADS_PER_AGENT = 6;
 
     private final HttpClientProxy httpClient;
     private final StorageClientMgr storageClientMgr;
     private final LocalFileCache loadedCache;
+    private final ConcurrentMap<String, Semaphore> agentDownloadPermits = new ConcurrentHashMap<>();
 
     public RemoteFileCacheLoader(HttpClientProxy httpClient, StorageClientMgr storageClientMgr, LocalFileCache loadedCache) {
         this.httpClient = httpClient;
@@ -128,7 +136,12 @@ public class RemoteFileCacheLoader extends CacheLoader<String, CachedFile> {
                     "Requested load of directory " + remoteFileUrl +
                             ".  Only files may be requested.");
         }
-        tempFile = retrieveFile(remoteFileUrl, tempFile);
+        Semaphore downloadPermits = acquireDownloadPermit(remoteFileUrl);
+        try {
+            tempFile = retrieveFile(remoteFileUrl, tempFile, 0, -1);
+        } finally {
+            downloadPermits.release();
+        }
 
         createParentDirectroiesIfNeccesary(activeFile);
 
@@ -155,30 +168,81 @@ public class RemoteFileCacheLoader extends CacheLoader<String, CachedFile> {
         return cachedFile;
     }
 
+    /**
+     * Retrieves a range of bytes of the specified remote file, with an HTTP
+     * range request where the file is served over HTTP.
+     *
+     * @param  webDavFile  identifies remote file to load.
+     * @param  start       offset of the first byte to retrieve.
+     * @param  length      number of bytes to retrieve.
+     * @param  outputFile  local file in which to store the bytes.
+     *
+     * @return the specified output file.
+     *
+     * @throws WebDavException
+     *   if the range cannot be retrieved.
+     */
+    File retrieveRange(WebDavFile webDavFile, long start, long length, File outputFile) throws WebDavException {
+        final URLProxy remoteFileUrl = webDavFile.getRemoteFileURLProxy();
+        Semaphore downloadPermits = acquireDownloadPermit(remoteFileUrl);
+        try {
+            return retrieveFile(remoteFileUrl, outputFile, start, length);
+        } finally {
+            downloadPermits.release();
+        }
+    }
+
+    /**
+     * Waits until another download from the storage agent serving the URL is allowed.
+     *
+     * @return the agent's permits, to which the caller must return the acquired permit.
+     */
+    private Semaphore acquireDownloadPermit(URLProxy remoteFileUrl) throws WebDavException {
+        Semaphore downloadPermits = agentDownloadPermits.computeIfAbsent(
+                String.valueOf(remoteFileUrl.getAuthority()), agent -> new Semaphore(MAX_DOWNLOADS_PER_AGENT));
+        try {
+            downloadPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebDavException("interrupted while waiting to retrieve " + remoteFileUrl, e);
+        }
+        return downloadPermits;
+    }
+
     /**
      * Retrieves the file identified by the URL and writes its contents to the
      * specified output file.
      *
      * @param  remoteFileUrl  file URL to retrieve.
      * @param  outputFile     local file in which to store contents.
+     * @param  rangeStart     offset of the first byte to retrieve.
+     * @param  rangeLength    number of bytes to retrieve, or -1 for the rest of the file.
      *
      * @return the specified output file.
      *
      * @throws WebDavException
      *   if the file cannot be retrieved.
      */
-    private File retrieveFile(URLProxy remoteFileUrl, File outputFile) throws WebDavException {
+    private File retrieveFile(URLProxy remoteFileUrl, File outputFile, long rangeStart, long rangeLength) throws WebDavException {
         InputStream input = null;
-        FileOutputStream output = null;
         final String prototcol = remoteFileUrl.getProtocol();
+        final boolean isRange = rangeStart > 0 || rangeLength >= 0;
+        // bytes to skip, for sources which return the whole file
+        long skipLength = rangeStart;
         GetMethod getMethod = null;
         if (prototcol.startsWith("http")) {
             // this is the only case which if fails we need to handle the proxy error
             try {
                 getMethod = new GetMethod(remoteFileUrl.toString());
+                if (isRange) {
+                    getMethod.setRequestHeader("Range", "bytes=" + rangeStart + "-" +
+                            (rangeLength >= 0 ? String.valueOf(rangeStart + rangeLength - 1) : ""));
+                }
                 final int responseCode = httpClient.executeMethod(getMethod);
                 LOG.trace("retrieveFile: {} returned for GET {}", responseCode, remoteFileUrl);
-                if (responseCode != HttpServletResponse.SC_OK) {
+                if (isRange && responseCode == HttpServletResponse.SC_PARTIAL_CONTENT) {
+                    skipLength = 0;
+                } else if (responseCode != HttpServletResponse.SC_OK) {
                     throw new WebDavException(responseCode + " returned for GET " + remoteFileUrl, responseCode);
                 }
                 input = getMethod.getResponseBodyAsStream();
@@ -205,12 +269,17 @@ public class RemoteFileCacheLoader extends CacheLoader<String, CachedFile> {
                         "failed to open " + remoteFileUrl + " in order to write to " + outputFile.getAbsolutePath(), e);
             }
         }
-        try {
-            output = new FileOutputStream(outputFile);
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int n;
-            while (EOF != (n = input.read(buffer))) {
-                output.write(buffer, 0, n);
+        // Stream straight into the file's channel, rather than through a heap buffer per loading thread
+        try (ReadableByteChannel inputChannel = Channels.newChannel(input);
+             FileChannel outputChannel = FileChannel.open(outputFile.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            IOUtils.skipFully(input, skipLength);
+            final long limit = rangeLength >= 0 ? rangeLength : Long.MAX_VALUE;
+            long position = 0;
+            long transferred;
+            while (position < limit &&
+                    (transferred = outputChannel.transferFrom(inputChannel, position, Math.min(TRANSFER_SIZE, limit - position))) > 0) {
+                position += transferred;
             }
         } catch (Exception e) {
             throw new WebDavException(
@@ -224,13 +293,6 @@ public class RemoteFileCacheLoader extends CacheLoader<String, CachedFile> {
             } catch (IOException e) {
                 LOG.warn("retrieveFile: failed to close " + remoteFileUrl, e);
             }
-            if (output != null) {
-                try {
-                    output.close();
-                } catch (IOException e) {
-                    LOG.warn("retrieveFile: failed to close " + outputFile.getAbsolutePath(), e);
-                }
-            }
         }
         return outputFile;
     }
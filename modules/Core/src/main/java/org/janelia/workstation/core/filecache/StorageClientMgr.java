@@ -6,8 +6,15 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.stream.IntStream;
 import java.util.stream.StreamSupport;
@@ -22,6 +29,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Splitter;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * {@link AbstractStorageClient} manager.
@@ -34,10 +42,15 @@ public class StorageClientMgr {
             .maximumSize(100)
             .build();
     private static Consumer<Throwable> NOOP_ERROR_CONN_HANDLER = (t) -> {};
+    // Path components which group lookups that wait for each other, e.g. /nrs/mouselight
+    private static final int LOOKUP_GROUP_COMPONENTS = 2;
+    private static final ExecutorService LOOKUP_EXECUTOR = Executors.newFixedThreadPool(4,
+            new ThreadFactoryBuilder().setNameFormat("storage-lookup-%d").setDaemon(true).build());
 
     private final HttpClientProxy httpClient;
     private final MasterStorageClient masterStorageClient;
     private final ObjectMapper objectMapper;
+    private final ConcurrentMap<String, PendingLookup> pendingLookups = new ConcurrentHashMap<>();
 
     /**
      * Constructs a client with default authentication credentials.
@@ -60,8 +73,72 @@ public class StorageClientMgr {
         return storageClient.getDownloadFileURL(standardPathName);
     }
 
-    private AgentStorageClient getStorageClientForStandardPath(String standardPathName) throws FileNotFoundException {
+    /**
+     * Resolves the storage agent for the given path, without holding any lock while the master is queried.
+     * Concurrent lookups for the same directory share one request to the master, and a lookup waits for the
+     * ones in flight under the same top level prefix first, since those are likely to find the same storage.
+     *
+     * @param  standardPathName  standard path of a file.
+     *
+     * @return a future which completes with the storage client, or with a FileNotFoundException
+     *   if no storage serves the path.
+     */
+    CompletableFuture<AgentStorageClient> resolveStorageClient(String standardPathName) {
         Path standardPath = Paths.get(standardPathName.replaceFirst("^jade:\\/\\/", ""));
+        List<String> storagePathPrefixCandidates = getStoragePathPrefixCandidates(standardPath);
+        LOG.debug("storagePathPrefixCandidates={}", storagePathPrefixCandidates);
+        AgentStorageClient storageClient = findCachedStorageClient(storagePathPrefixCandidates);
+        if (storageClient != null) {
+            return CompletableFuture.completedFuture(storageClient);
+        }
+        // The candidates are ordered from the longest, which is the file's directory
+        String lookupKey = storagePathPrefixCandidates.isEmpty() ? standardPathName : storagePathPrefixCandidates.get(0);
+        String lookupGroup = getLookupGroup(standardPath);
+        CompletableFuture<AgentStorageClient> lookup;
+        // Lookups in other directories of the group must not start in between the scan and the insert
+        synchronized (pendingLookups) {
+            lookup = pendingLookups.computeIfAbsent(lookupKey, key -> {
+                List<CompletableFuture<?>> lookupsInGroup = new ArrayList<>();
+                for (PendingLookup pendingLookup : pendingLookups.values()) {
+                    if (pendingLookup.group.equals(lookupGroup)) {
+                        lookupsInGroup.add(pendingLookup);
+                    }
+                }
+                PendingLookup pendingLookup = new PendingLookup(lookupGroup);
+                CompletableFuture.allOf(lookupsInGroup.toArray(new CompletableFuture<?>[0]))
+                        .handleAsync((result, error) -> {
+                            try {
+                                pendingLookup.complete(lookupStorageClient(standardPathName, standardPath, storagePathPrefixCandidates));
+                            } catch (Exception e) {
+                                pendingLookup.completeExceptionally(e);
+                            }
+                            return null;
+                        }, LOOKUP_EXECUTOR);
+                return pendingLookup;
+            });
+        }
+        lookup.whenComplete((client, error) -> pendingLookups.remove(lookupKey, lookup));
+        return lookup;
+    }
+
+    private AgentStorageClient getStorageClientForStandardPath(String standardPathName) throws FileNotFoundException {
+        try {
+            return resolveStorageClient(standardPathName).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while looking up storage for " + standardPathName, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof FileNotFoundException) {
+                throw (FileNotFoundException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Failed to look up storage for " + standardPathName, cause);
+        }
+    }
+
+    private List<String> getStoragePathPrefixCandidates(Path standardPath) {
         int nPathComponents = standardPath.getNameCount();
         List<String> storagePathPrefixCandidates = new LinkedList<>();
         IntStream.range(1, nPathComponents)
@@ -73,47 +150,71 @@ public class StorageClientMgr {
                     }
                 })
                 .forEach(p -> storagePathPrefixCandidates.add(0, p));
-        LOG.debug("storagePathPrefixCandidates={}", storagePathPrefixCandidates);
-        AgentStorageClient storageClient;
-        synchronized(STORAGE_WORKERS_CACHE) {
-            for (String pathPrefix : storagePathPrefixCandidates) {
-                storageClient = STORAGE_WORKERS_CACHE.getIfPresent(pathPrefix);
-                if (storageClient != null) {
-                    LOG.debug("Found storage client for {} in cache", pathPrefix);
-                    return storageClient;
-                }
-            }
-            WebDavStorage storage = masterStorageClient.findStorage(standardPathName);
-            String storageBindName = storage.getStorageBindName();
-            String storageRootDir = storage.getStorageRootDir();
-            String storageKey;
-            Consumer<Throwable> agentErrorHandler;
-            if  (storageBindName != null && standardPath.startsWith(storageBindName)) {
-                storageKey = storageBindName;
-                agentErrorHandler = t -> STORAGE_WORKERS_CACHE.invalidate(storageKey);
-            } else if (storageRootDir != null && standardPath.startsWith(storageRootDir)) {
-                storageKey = storageRootDir;
-                agentErrorHandler = t -> STORAGE_WORKERS_CACHE.invalidate(storageKey);
-            } else {
-                storageKey = null;
-                agentErrorHandler = t -> {};
-            }
-            storageClient = new AgentStorageClient(
-                    storage.getRemoteFileUrl(),
-                    httpClient,
-                    objectMapper,
-                    agentErrorHandler
-            );
-            if (storageKey != null) {
-                STORAGE_WORKERS_CACHE.put(storageKey, storageClient);
-                LOG.info("Created storage client for {}", storageKey);
-            } else {
-                LOG.warn("No storage agent cached for {}", standardPathName);
+        return storagePathPrefixCandidates;
+    }
+
+    /**
+     * @return the first path components, which group the lookups that are likely to find the same storage.
+     */
+    private String getLookupGroup(Path standardPath) {
+        int groupComponents = Math.min(LOOKUP_GROUP_COMPONENTS, standardPath.getNameCount());
+        if (groupComponents == 0) {
+            return standardPath.toString();
+        }
+        Path group = standardPath.subpath(0, groupComponents);
+        return standardPath.getRoot() == null ? group.toString() : standardPath.getRoot().resolve(group).toString();
+    }
+
+    private AgentStorageClient findCachedStorageClient(List<String> storagePathPrefixCandidates) {
+        for (String pathPrefix : storagePathPrefixCandidates) {
+            AgentStorageClient storageClient = STORAGE_WORKERS_CACHE.getIfPresent(pathPrefix);
+            if (storageClient != null) {
+                LOG.debug("Found storage client for {} in cache", pathPrefix);
+                return storageClient;
             }
         }
+        return null;
+    }
+
+    /**
+     * Queries the master for the storage serving the path, unless a lookup that finished meanwhile already found it.
+     */
+    private AgentStorageClient lookupStorageClient(String standardPathName, Path standardPath, List<String> storagePathPrefixCandidates)
+            throws FileNotFoundException {
+        AgentStorageClient storageClient = findCachedStorageClient(storagePathPrefixCandidates);
+        if (storageClient != null) {
+            return storageClient;
+        }
+        WebDavStorage storage = masterStorageClient.findStorage(standardPathName);
+        String storageBindName = storage.getStorageBindName();
+        String storageRootDir = storage.getStorageRootDir();
+        String storageKey;
+        Consumer<Throwable> agentErrorHandler;
+        if  (storageBindName != null && standardPath.startsWith(storageBindName)) {
+            storageKey = storageBindName;
+            agentErrorHandler = t -> STORAGE_WORKERS_CACHE.invalidate(storageKey);
+        } else if (storageRootDir != null && standardPath.startsWith(storageRootDir)) {
+            storageKey = storageRootDir;
+            agentErrorHandler = t -> STORAGE_WORKERS_CACHE.invalidate(storageKey);
+        } else {
+            storageKey = null;
+            agentErrorHandler = t -> {};
+        }
+        storageClient = new AgentStorageClient(
+                storage.getRemoteFileUrl(),
+                httpClient,
+                objectMapper,
+                agentErrorHandler
+        );
+        if (storageKey != null) {
+            STORAGE_WORKERS_CACHE.put(storageKey, storageClient);
+            LOG.info("Created storage client for {}", storageKey);
+        } else {
+            LOG.warn("No storage agent cached for {}", standardPathName);
+        }
         return storageClient;
     }
-    
+
     /**
      * Finds information about the specified file.
      *
@@ -164,4 +265,15 @@ public class StorageClientMgr {
                     .map(pc -> urlEncodeComp(pc))
                     .reduce(null, (c1, c2) -> c1 == null ? c2 : c1 + File.separatorChar + c2);
     }
+
+    /**
+     * A storage lookup in flight, tagged with its lookup group.
+     */
+    private static class PendingLookup extends CompletableFuture<AgentStorageClient> {
+        private final String group;
+
+        PendingLookup(String group) {
+            this.group = group;
+        }
+    }
 }
@@ -0,0 +1,208 @@
+package org.janelia.workstation.core.filecache;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class manages a directory of downsampled images, so that
+ * thumbnails of large images don't need to be retrieved and
+ * decoded again in later sessions.
+ *
+ * Thumbnails are stored as PNG files, named by a hash of the image's
+ * remote name and the thumbnail width. Reading a thumbnail touches its
+ * modification time, and once the directory grows beyond its capacity,
+ * the least recently used thumbnails are removed.
+ */
+public class ThumbnailFileCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThumbnailFileCache.class);
+
+    private static final String FORMAT = "png";
+    // Prune down to this fraction of the capacity, so that pruning is infrequent
+    private static final double PRUNED_FRACTION = 0.8;
+
+    private final File directory;
+    private final long byteCapacity;
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    // Thumbnails are written, and the directory pruned, off of the loading threads
+    private final ExecutorService writeService = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("thumbnail-file-cache-%d").setDaemon(true).build());
+
+    /**
+     * @param  directory     directory for the thumbnail files, which is created as needed.
+     * @param  byteCapacity  number of bytes to allow in the directory before
+     *                       removing least recently used thumbnails.
+     */
+    ThumbnailFileCache(File directory, long byteCapacity) {
+        this.directory = directory;
+        this.byteCapacity = byteCapacity;
+        writeService.submit(new Runnable() {
+            @Override
+            public void run() {
+                long total = 0;
+                for (File file : listThumbnails()) {
+                    total += file.length();
+                }
+                usedBytes.addAndGet(total);
+                LOG.info("Found {} KB of thumbnails in {}", total / 1024, ThumbnailFileCache.this.directory);
+                pruneIfNeeded();
+            }
+        });
+    }
+
+    /**
+     * @return the cached thumbnail of the given width, or null if there is none.
+     */
+    public BufferedImage get(String remoteFileRefName, int width) {
+        File file = getThumbnailFile(remoteFileRefName, width);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            BufferedImage image = ImageIO.read(file);
+            if (image != null) {
+                file.setLastModified(System.currentTimeMillis());
+            }
+            return image;
+        }
+        catch (IOException e) {
+            LOG.warn("Removing unreadable thumbnail {}", file, e);
+            delete(file);
+            return null;
+        }
+    }
+
+    /**
+     * Asynchronously saves a thumbnail of the given width.
+     */
+    public void put(final String remoteFileRefName, final int width, final BufferedImage image) {
+        writeService.submit(new Runnable() {
+            @Override
+            public void run() {
+                File file = getThumbnailFile(remoteFileRefName, width);
+                File tempFile = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+                try {
+                    FileUtils.forceMkdir(file.getParentFile());
+                    if (!ImageIO.write(image, FORMAT, tempFile)) {
+                        LOG.warn("No writer for thumbnail of {}", remoteFileRefName);
+                        return;
+                    }
+                    long previousLength = file.length();
+                    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    usedBytes.addAndGet(file.length() - previousLength);
+                }
+                catch (IOException e) {
+                    LOG.warn("Failed to save thumbnail of {}", remoteFileRefName, e);
+                    FileUtils.deleteQuietly(tempFile);
+                }
+                pruneIfNeeded();
+            }
+        });
+    }
+
+    /**
+     * Asynchronously removes all thumbnails.
+     */
+    public void clear() {
+        writeService.submit(new Runnable() {
+            @Override
+            public void run() {
+                LOG.info("Removing all thumbnails from {}", directory);
+                for (File file : listThumbnails()) {
+                    delete(file);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the directory that contains the thumbnail files.
+     */
+    File getDirectory() {
+        return directory;
+    }
+
+    public long getNumberOfKilobytes() {
+        return usedBytes.get() / 1024;
+    }
+
+    @Override
+    public String toString() {
+        return "ThumbnailFileCache{" +
+                "directory=" + directory +
+                ", byteCapacity=" + byteCapacity +
+                '}';
+    }
+
+    private File getThumbnailFile(String remoteFileRefName, int width) {
+        String hash = Hashing.sha256().hashString(remoteFileRefName, StandardCharsets.UTF_8).toString();
+        // Spread the thumbnails over subdirectories, to keep directory listings short
+        return new File(new File(directory, hash.substring(0, 2)), hash + "_" + width + "." + FORMAT);
+    }
+
+    private Collection<File> listThumbnails() {
+        if (!directory.exists()) {
+            return new ArrayList<>();
+        }
+        return FileUtils.listFiles(directory, new String[] { FORMAT }, true);
+    }
+
+    private void delete(File file) {
+        long length = file.length();
+        if (file.delete()) {
+            usedBytes.addAndGet(-length);
+        }
+    }
+
+    private void pruneIfNeeded() {
+        if (usedBytes.get() <= byteCapacity) {
+            return;
+        }
+        List<File> files = new ArrayList<>(listThumbnails());
+        final long[] lastModified = new long[files.size()];
+        Integer[] order = new Integer[files.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            lastModified[i] = files.get(i).lastModified();
+        }
+        // Oldest first; the modification times are read once, since reads keep touching them
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(lastModified[a], lastModified[b]);
+            }
+        });
+        long target = (long) (byteCapacity * PRUNED_FRACTION);
+        int removed = 0;
+        for (Integer i : order) {
+            if (usedBytes.get() <= target) {
+                break;
+            }
+            delete(files.get(i));
+            removed++;
+        }
+        LOG.info("Pruned {} thumbnails from {}, {} KB remain", removed, directory, getNumberOfKilobytes());
+    }
+}
@@ -27,6 +27,10 @@ public class URLProxy {
         return url.getProtocol();
     }
 
+    public String getAuthority() {
+        return url.getAuthority();
+    }
+
     public String getPath() {
         return url.getPath();
     }
@@ -101,6 +101,7 @@ public class ResultIterator<T,S> implements Iterator<T> {
             }
                         
             T object = objects.isEmpty() ? null : objects.get(currIndex);
+            searchResults.reading(currPage, currIndex, bias != Position.Bias.Backward);
 
             if (currPage==startPage && currIndex==startIndex && skipStartingIndex) {
                 // We have looped back to the starting index, which was initially skipped,
@@ -44,6 +44,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 
@@ -336,8 +337,9 @@ public class SearchConfiguration {
         this.query = builder.getQuery();
         log.debug("Searching for: ", query);
         
-        DomainObjectResultPage firstPage = performSearch(0);
-        SolrSearchResults searchResults = new SolrSearchResults(this, firstPage);
+        final SolrQuery searchQuery = query;
+        DomainObjectResultPage firstPage = performSearch(searchQuery, Collections.singletonList(0)).get(0);
+        SolrSearchResults searchResults = new SolrSearchResults(pages -> performSearch(searchQuery, pages), firstPage);
         log.debug("Got {} results", firstPage.getNumPageResults());
         
         return searchResults;
@@ -352,6 +354,25 @@ public class SearchConfiguration {
      * @throws Exception
      */
     DomainObjectResultPage performSearch(int page) throws Exception {
+        return performSearch(Collections.singletonList(page)).get(0);
+    }
+
+    /**
+     * Perform a search for several pages, and load the domain objects and annotations for all of them 
+     * in one batch. This method is package-protected for the same reason as performSearch(int).
+     * @param pages pages of results to search for and return
+     * @return result pages, in the same order as the requested pages
+     * @throws Exception
+     */
+    List<DomainObjectResultPage> performSearch(List<Integer> pages) throws Exception {
+        return performSearch(query, pages);
+    }
+    
+    /**
+     * Pages may be searched concurrently when they are read ahead, so each page is searched with 
+     * its own copy of the query.
+     */
+    private List<DomainObjectResultPage> performSearch(SolrQuery searchQuery, List<Integer> pages) throws Exception {
 
         if (SwingUtilities.isEventDispatchThread()) {
             throw new RuntimeException("SearchConfiguration.performSearch called in the EDT");
@@ -359,60 +380,56 @@ public class SearchConfiguration {
 
         StopWatch stopWatch = new LoggingStopWatch();
 
-        query.setStart(pageSize * page);
-        query.setRows(pageSize);
         DomainModel model = DomainMgr.getDomainMgr().getModel();
-        SolrParams queryParams = SolrQueryBuilder.serializeSolrQuery(query);
-        SolrJsonResults results = model.search(queryParams);
-
-        List<Reference> refs = new ArrayList<>();
+        List<List<Reference>> pageRefs = new ArrayList<>();
+        List<Reference> allRefs = new ArrayList<>();
         long numFound = 0;
 
-        if (results != null) {
-            for (SolrDocument doc : results.getResults()) {
-                Long id = new Long(doc.get("id").toString());
-                String type = (String) doc.getFieldValue(SOLR_TYPE_FIELD);
-                String className = DomainUtils.getClassNameForSearchType(type);
-                if (className != null) {
-                    refs.add(Reference.createFor(className, id));
-                } else {
-                    log.warn("Unrecognized type has no collection mapping: " + type);
-                }
-            }
+        for(int page : pages) {
+            SolrQuery pageQuery = searchQuery.getCopy();
+            pageQuery.setStart(pageSize * page);
+            pageQuery.setRows(pageSize);
+            SolrParams queryParams = SolrQueryBuilder.serializeSolrQuery(pageQuery);
+            SolrJsonResults results = model.search(queryParams);
+
+            List<Reference> refs = new ArrayList<>();
             
-            numFound = results.getNumFound();
-
-            facetValues.clear();
-            if (results.getFacetValues()!=null) {
-
-                // Sort each facet list in place. The mutability isn't great, but no one else will see this list.
-                for(String facet : results.getFacetValues().keySet()) {
-                    List<FacetValue> facetValueList = results.getFacetValues().get(facet);
-                    Collections.sort(facetValueList, new Comparator<FacetValue>() {
-                        @Override
-                        public int compare(FacetValue o1, FacetValue o2) {
-                            return ComparisonChain.start()
-                                    .compare(o1.getValue(), o2.getValue(), Ordering.natural())
-                                    .result();
-                        }
-                    });
+            if (results != null) {
+                for (SolrDocument doc : results.getResults()) {
+                    Long id = new Long(doc.get("id").toString());
+                    String type = (String) doc.getFieldValue(SOLR_TYPE_FIELD);
+                    String className = DomainUtils.getClassNameForSearchType(type);
+                    if (className != null) {
+                        refs.add(Reference.createFor(className, id));
+                    } else {
+                        log.warn("Unrecognized type has no collection mapping: " + type);
+                    }
                 }
+                
+                numFound = results.getNumFound();
 
-                facetValues.putAll(results.getFacetValues());
+                // The facets are the same for every page, so they are only taken from the first page. This also 
+                // keeps pages which are read ahead in the background from changing them while they are displayed.
+                if (page==0) {
+                    updateFacetValues(results);
+                }
             }
+            
+            pageRefs.add(refs);
+            allRefs.addAll(refs);
         }
 
         stopWatch.lap("performSolrSearch");
 
-        List<DomainObject> domainObjects = model.getDomainObjects(refs);
-        List<Annotation> annotations = model.getAnnotations(refs);
-        log.info("Search found {} objects. Current page {} includes {} objects and {} annotations.", numFound, page, domainObjects.size(), annotations.size());
+        List<DomainObject> domainObjects = model.getDomainObjects(allRefs);
+        List<Annotation> annotations = model.getAnnotations(allRefs);
+        log.info("Search found {} objects. Pages {} include {} objects and {} annotations.", numFound, pages, domainObjects.size(), annotations.size());
 
-        if (refs.size()>domainObjects.size()) {
-            log.warn("SOLR index is out of date! It refers to {} objects which no longer exist.", refs.size()-domainObjects.size());
+        if (allRefs.size()>domainObjects.size()) {
+            log.warn("SOLR index is out of date! It refers to {} objects which no longer exist.", allRefs.size()-domainObjects.size());
             
             if (log.isTraceEnabled()) {
-                for(Reference ref : refs) {
+                for(Reference ref : allRefs) {
                     if (model.getDomainObject(ref)==null) {
                         log.trace("Could not find "+ref);
                     }
@@ -420,8 +437,47 @@ public class SearchConfiguration {
             }
         }
         
+        // Split the objects and annotations back into their pages
+        Map<Reference, DomainObject> objectsByRef = DomainUtils.getMapByReference(domainObjects);
+        ListMultimap<Reference, Annotation> annotationsByRef = DomainUtils.getAnnotationsByDomainObjectReference(annotations);
+        List<DomainObjectResultPage> resultPages = new ArrayList<>();
+        for(List<Reference> refs : pageRefs) {
+            List<DomainObject> pageObjects = new ArrayList<>();
+            List<Annotation> pageAnnotations = new ArrayList<>();
+            for(Reference ref : refs) {
+                DomainObject domainObject = objectsByRef.get(ref);
+                if (domainObject!=null) {
+                    pageObjects.add(domainObject);
+                    pageAnnotations.addAll(annotationsByRef.get(ref));
+                }
+            }
+            resultPages.add(new DomainObjectResultPage(pageObjects, pageAnnotations, numFound));
+        }
+        
         stopWatch.stop("performMongoSearch");
 
-        return new DomainObjectResultPage(domainObjects, annotations, numFound);
+        return resultPages;
+    }
+
+    private void updateFacetValues(SolrJsonResults results) {
+        
+        facetValues.clear();
+        if (results.getFacetValues()!=null) {
+
+            // Sort each facet list in place. The mutability isn't great, but no one else will see this list.
+            for(String facet : results.getFacetValues().keySet()) {
+                List<FacetValue> facetValueList = results.getFacetValues().get(facet);
+                Collections.sort(facetValueList, new Comparator<FacetValue>() {
+                    @Override
+                    public int compare(FacetValue o1, FacetValue o2) {
+                        return ComparisonChain.start()
+                                .compare(o1.getValue(), o2.getValue(), Ordering.natural())
+                                .result();
+                    }
+                });
+            }
+
+            facetValues.putAll(results.getFacetValues());
+        }
     }
 }
@@ -31,5 +31,15 @@ public interface SearchResults<T,S> {
     public ResultPage<T,S> getPage(int page) throws Exception;
 
     public boolean updateIfFound(T object);
+
+    /**
+     * Called by iterators as they read through the results, so that the following pages may be
+     * loaded ahead of time. Does nothing by default.
+     * @param page page being read
+     * @param index index of the result being read, within the page
+     * @param forward true if reading towards the end of the results
+     */
+    public default void reading(int page, int index, boolean forward) {
+    }
    
 }
@@ -1,31 +1,171 @@
 package org.janelia.workstation.core.model.search;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Search results backed by a SOLR search.
- * 
+ *
+ * As an iterator reads through the results, the following pages are loaded ahead of time in the
+ * background, so that the iterator doesn't wait for the server at every page boundary. Pages which
+ * are read ahead together are loaded in one batch.
+ *
  * @author <a href="mailto:rokickik@janelia.hhmi.org">Konrad Rokicki</a>
  */
 public class SolrSearchResults extends DomainObjectSearchResults {
 
-    private final SearchConfiguration searchConfig;
-    
+    private static final Logger log = LoggerFactory.getLogger(SolrSearchResults.class);
+
+    // Fraction of a page which is read before the following pages are loaded
+    private static final float DEFAULT_READ_AHEAD_FRACTION = 0.5f;
+    // Number of pages which are loaded ahead of the one being read
+    private static final int DEFAULT_READ_AHEAD_PAGES = 2;
+
+    private static final ExecutorService readAheadExecutor = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder()
+            .setNameFormat("search-read-ahead-%d")
+            .setDaemon(true)
+            .build());
+
+    /**
+     * Loads pages of results. The pages loaded in one call are hydrated together.
+     */
+    interface PageLoader {
+        List<DomainObjectResultPage> loadPages(List<Integer> pages) throws Exception;
+    }
+
+    /**
+     * A page being read ahead, as part of a batch.
+     */
+    private static class PendingPage {
+        private final Future<List<DomainObjectResultPage>> batch;
+        private final int index;
+
+        private PendingPage(Future<List<DomainObjectResultPage>> batch, int index) {
+            this.batch = batch;
+            this.index = index;
+        }
+    }
+
+    private final PageLoader pageLoader;
+    private final ExecutorService executor;
+    private final float readAheadFraction;
+    private final int readAheadPages;
+    private final Map<Integer, PendingPage> pendingPages = new ConcurrentHashMap<>();
+    private volatile boolean cancelled;
+
     public SolrSearchResults(SearchConfiguration searchConfig, DomainObjectResultPage firstPage) {
+        this(searchConfig::performSearch, firstPage);
+    }
+
+    SolrSearchResults(PageLoader pageLoader, DomainObjectResultPage firstPage) {
+        this(pageLoader, firstPage, readAheadExecutor, DEFAULT_READ_AHEAD_FRACTION, DEFAULT_READ_AHEAD_PAGES);
+    }
+
+    SolrSearchResults(PageLoader pageLoader, DomainObjectResultPage firstPage, ExecutorService executor,
+            float readAheadFraction, int readAheadPages) {
         super(firstPage);
-        this.searchConfig = searchConfig;
+        this.pageLoader = pageLoader;
+        this.executor = executor;
+        this.readAheadFraction = readAheadFraction;
+        this.readAheadPages = readAheadPages;
     }
 
     @Override
     public DomainObjectResultPage getPage(int page) throws Exception {
         DomainObjectResultPage resultPage = super.getPage(page);
         if (resultPage==null) {
-            resultPage = searchConfig.performSearch(page);
+            resultPage = getPendingPage(page);
+            if (resultPage==null) {
+                resultPage = pageLoader.loadPages(Collections.singletonList(page)).get(0);
+            }
             setPage(page, resultPage);
         }
         return resultPage;
     }
-    
+
+    /**
+     * Waits for the given page, if it's being read ahead.
+     * @return the page, or null if it's not being read ahead, or reading it failed
+     */
+    private DomainObjectResultPage getPendingPage(int page) throws InterruptedException {
+        PendingPage pendingPage = pendingPages.remove(page);
+        if (pendingPage==null) {
+            return null;
+        }
+        try {
+            return pendingPage.batch.get().get(pendingPage.index);
+        }
+        catch (CancellationException e) {
+            return null;
+        }
+        catch (ExecutionException e) {
+            log.warn("Reading ahead page {} failed, loading it again", page, e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Loads the pages following the given one in the background, once the reader is far enough into it.
+     */
+    @Override
+    public synchronized void reading(int page, int index, boolean forward) {
+        if (cancelled || readAheadPages<1) return;
+
+        DomainObjectResultPage resultPage = pages.size()>page ? pages.get(page) : null;
+        if (resultPage==null || resultPage.getNumPageResults()==0) return;
+
+        long numPageResults = resultPage.getNumPageResults();
+        long numRead = forward ? index+1 : numPageResults-index;
+        if (numRead < numPageResults*readAheadFraction) return;
+
+        int numTotalPages = getNumTotalPages();
+        List<Integer> batchPages = new ArrayList<>();
+        for(int i=1; i<=readAheadPages; i++) {
+            // Iterators wrap around at either end
+            int nextPage = Math.floorMod(forward ? page+i : page-i, numTotalPages);
+            if (nextPage==page) break;
+            if (!loadedPages.contains(nextPage) && !pendingPages.containsKey(nextPage) && !batchPages.contains(nextPage)) {
+                batchPages.add(nextPage);
+            }
+        }
+        if (batchPages.isEmpty()) return;
+
+        log.debug("Reading ahead pages {}", batchPages);
+        Future<List<DomainObjectResultPage>> batch = executor.submit(() -> pageLoader.loadPages(batchPages));
+        for(int i=0; i<batchPages.size(); i++) {
+            pendingPages.put(batchPages.get(i), new PendingPage(batch, i));
+        }
+    }
+
+    /**
+     * Cancels the pages being read ahead, and stops reading ahead. Call this when the results are
+     * replaced by another search. Pages which are requested afterwards are loaded as they are needed.
+     */
+    public synchronized void cancelReadAhead() {
+        this.cancelled = true;
+        for(PendingPage pendingPage : pendingPages.values()) {
+            pendingPage.batch.cancel(true);
+        }
+        pendingPages.clear();
+    }
+
+    int getNumPendingPages() {
+        return pendingPages.size();
+    }
+
     @Override
     public List<DomainObjectResultPage> getPages() {
         return pages;
@@ -1,47 +1,210 @@
 package org.janelia.workstation.core.util;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * An constrained-size image cache with an LRU eviction policy.
+ * An image cache with an LRU eviction policy, constrained by the number of bytes of decoded image data.
+ *
+ * Besides the full size image, a few pre-scaled thumbnails are kept for each image, at the fixed
+ * widths in THUMBNAIL_WIDTHS. Displays scale down from the closest thumbnail, which is much cheaper
+ * than rescaling the full size image every time the display size changes.
  *
  * @author <a href="mailto:rokickik@janelia.hhmi.org">Konrad Rokicki</a>
  */
 public class ImageCache {
 
-    private static final int MAX_NUM_IMAGES = 500; // 500 images total
-    private final Cache<String, BufferedImage> cache;
+    private static final Logger log = LoggerFactory.getLogger(ImageCache.class);
+
+    private static final String MAX_MEGABYTES_PROPERTY = "console.images.cacheMegabytes";
+    private static final long DEFAULT_MAX_BYTES = Math.min(512L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4);
+
+    /**
+     * Widths of the thumbnails which are cached, in increasing order. Requests for larger images need the full size image.
+     */
+    public static final int[] THUMBNAIL_WIDTHS = { 160, 320, 640 };
+
+    /**
+     * Width used as a key for full size images.
+     */
+    public static final int FULL_SIZE = 0;
+
+    private final Cache<Key, BufferedImage> cache;
+    // Widths cached for each identifier; only a hint for getAtLeast, which checks the cache itself
+    private final ConcurrentMap<String, Set<Integer>> cachedWidths = new ConcurrentHashMap<>();
 
     public ImageCache() {
-        this(MAX_NUM_IMAGES);
+        this(getMaxBytes());
     }
 
-    public ImageCache(int size) {
+    public ImageCache(long maxBytes) {
+        log.debug("Caching up to {} MB of images", maxBytes / 1024 / 1024);
         this.cache = CacheBuilder.newBuilder()
-                .concurrencyLevel(16)
-                .maximumSize(size)
-                .softValues()
+                // Each segment evicts on its own, so keep them few and large enough for big images
+                .concurrencyLevel(4)
+                .maximumWeight(Math.max(1, maxBytes / 1024))
+                .weigher(new Weigher<Key, BufferedImage>() {
+                    @Override
+                    public int weigh(Key key, BufferedImage image) {
+                        return (int) Math.max(1, getByteCount(image) / 1024);
+                    }
+                })
+                .removalListener(new RemovalListener<Key, BufferedImage>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Key, BufferedImage> notification) {
+                        if (notification.getCause() != RemovalCause.REPLACED) {
+                            removeWidth(notification.getKey());
+                        }
+                    }
+                })
                 .build();
     }
 
+    /**
+     * @return the smallest thumbnail width which is at least the given display width,
+     * or FULL_SIZE if the display is wider than all the thumbnails
+     */
+    public static int getThumbnailWidth(int displayWidth) {
+        for (int width : THUMBNAIL_WIDTHS) {
+            if (displayWidth <= width) {
+                return width;
+            }
+        }
+        return FULL_SIZE;
+    }
+
+    /**
+     * Estimates the heap used by the image's pixels.
+     */
+    public static long getByteCount(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
     public boolean contains(String identifier) {
-        return cache.getIfPresent(identifier) != null;
+        return get(identifier) != null;
     }
 
+    /**
+     * Returns the full size image.
+     */
     public BufferedImage get(String identifier) {
-        return cache.getIfPresent(identifier);
+        return get(identifier, FULL_SIZE);
+    }
+
+    /**
+     * Returns the image cached with the given width, which is one of THUMBNAIL_WIDTHS, or FULL_SIZE.
+     */
+    public BufferedImage get(String identifier, int width) {
+        return cache.getIfPresent(new Key(identifier, width));
+    }
+
+    /**
+     * Returns the narrowest cached image, either a thumbnail or the full size image, which is at least
+     * as wide as the given width. Returns null if there is no such image. Asking for FULL_SIZE returns
+     * only the full size image, since no thumbnail can stand in for it.
+     */
+    public BufferedImage getAtLeast(String identifier, int width) {
+        if (width == FULL_SIZE) {
+            return get(identifier, FULL_SIZE);
+        }
+        Set<Integer> widths = cachedWidths.get(identifier);
+        if (widths == null) {
+            return null;
+        }
+        List<Integer> candidates = new ArrayList<>(widths);
+        candidates.sort(null);
+        // The full size image (width 0) is the last resort
+        if (!candidates.isEmpty() && candidates.get(0) == FULL_SIZE) {
+            candidates.add(candidates.remove(0));
+        }
+        for (Integer candidate : candidates) {
+            if (candidate == FULL_SIZE || candidate >= width) {
+                BufferedImage image = get(identifier, candidate);
+                if (image != null && (candidate != FULL_SIZE || image.getWidth() >= width)) {
+                    return image;
+                }
+            }
+        }
+        return null;
     }
 
+    /**
+     * Caches the full size image.
+     */
     public BufferedImage put(String identifier, BufferedImage image) {
+        return put(identifier, FULL_SIZE, image);
+    }
+
+    /**
+     * Caches an image with the given width, which is one of THUMBNAIL_WIDTHS, or FULL_SIZE.
+     */
+    public BufferedImage put(String identifier, int width, BufferedImage image) {
         if (image==null) return null;
-        cache.put(identifier, image);
+        cachedWidths.computeIfAbsent(identifier, k -> ConcurrentHashMap.newKeySet()).add(width);
+        cache.put(new Key(identifier, width), image);
         return image;
     }
 
     public void invalidateAll() {
         cache.invalidateAll();
+        cachedWidths.clear();
+    }
+
+    private static long getMaxBytes() {
+        int megabytes = ConsoleProperties.getInt(MAX_MEGABYTES_PROPERTY, 0);
+        return megabytes > 0 ? megabytes * 1024L * 1024L : DEFAULT_MAX_BYTES;
+    }
+
+    private void removeWidth(Key key) {
+        if (key == null || cache.asMap().containsKey(key)) {
+            // Collected, or already cached again
+            return;
+        }
+        Set<Integer> widths = cachedWidths.get(key.identifier);
+        if (widths != null) {
+            widths.remove(key.width);
+            if (widths.isEmpty()) {
+                cachedWidths.remove(key.identifier, widths);
+            }
+        }
+    }
+
+    private static final class Key {
+
+        private final String identifier;
+        private final int width;
+
+        Key(String identifier, int width) {
+            this.identifier = identifier;
+            this.width = width;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return width == key.width && identifier.equals(key.identifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * identifier.hashCode() + width;
+        }
     }
 }
@@ -2,11 +2,15 @@
 package org.janelia.workstation.core;
 
 
+import org.janelia.workstation.core.events.EventDispatcherTest;
 import org.janelia.workstation.core.filecache.AgentStorageClientTest;
+import org.janelia.workstation.core.filecache.BlockFileCacheTest;
 import org.janelia.workstation.core.filecache.LocalFileCacheTest;
 import org.janelia.workstation.core.filecache.MasterStorageClientTest;
 import org.janelia.workstation.core.filecache.RemoteFileCacheLoaderTest;
 import org.janelia.workstation.core.filecache.WebDavUploaderTest;
+import org.janelia.workstation.core.model.search.SolrSearchResultsTest;
+import org.janelia.workstation.core.util.ImageCacheTest;
 import org.janelia.it.jacs.model.TestCategories;
 import org.junit.experimental.categories.Categories;
 import org.junit.runner.RunWith;
@@ -17,8 +21,12 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
         RemoteFileCacheLoaderTest.class,
         LocalFileCacheTest.class,
+        BlockFileCacheTest.class,
         AgentStorageClientTest.class,
         MasterStorageClientTest.class,
-        WebDavUploaderTest.class
+        WebDavUploaderTest.class,
+        ImageCacheTest.class,
+        EventDispatcherTest.class,
+        SolrSearchResultsTest.class
 })
 public class BrowserModuleFastTestsSuite {}
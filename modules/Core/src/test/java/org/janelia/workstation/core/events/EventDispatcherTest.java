@@ -0,0 +1,363 @@
+package org.janelia.workstation.core.events;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.model.domain.sample.Sample;
+import org.janelia.workstation.core.events.model.DomainObjectInvalidationEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link EventDispatcher} class, with a single thread standing in for the EDT.
+ */
+@Category(TestCategories.FastTests.class)
+public class EventDispatcherTest {
+
+    private static final int QUEUE_CAPACITY = 1000;
+
+    private ExecutorService uiExecutor;
+    private ExecutorService backgroundExecutor;
+    private EventDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        uiExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("test-ui").build());
+        backgroundExecutor = Executors.newFixedThreadPool(4, new ThreadFactoryBuilder().setNameFormat("test-background-%d").build());
+        dispatcher = new EventDispatcher(uiExecutor, backgroundExecutor, QUEUE_CAPACITY, 5000);
+        dispatcher.setMerger(MergeableEvent.class, MergeableEvent::merge);
+    }
+
+    @After
+    public void tearDown() {
+        uiExecutor.shutdownNow();
+        backgroundExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testSubscriberThreads() throws Exception {
+        CountDownLatch received = new CountDownLatch(2);
+        Map<String, String> threads = new ConcurrentHashMap<>();
+        dispatcher.register(new Object() {
+            @Subscribe
+            public void onUi(SequencedEvent event) {
+                threads.put("ui", Thread.currentThread().getName());
+                received.countDown();
+            }
+
+            @Subscribe
+            @SubscribeInBackground
+            public void onBackground(SequencedEvent event) {
+                threads.put("background", Thread.currentThread().getName());
+                received.countDown();
+            }
+        });
+        dispatcher.post(new SequencedEvent(0, 0));
+
+        assertTrue("events were not delivered", received.await(5, TimeUnit.SECONDS));
+        assertEquals("test-ui", threads.get("ui"));
+        assertTrue(threads.get("background").startsWith("test-background-"));
+    }
+
+    @Test
+    public void testMergeWithinFrame() throws Exception {
+        List<Object> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        Object subscriber = new Object() {
+            @Subscribe
+            public void onMergeable(MergeableEvent event) {
+                received.add(event);
+            }
+
+            @Subscribe
+            public void onSequenced(SequencedEvent event) {
+                received.add(event);
+                if (event.getSequence() == 2) {
+                    done.countDown();
+                }
+            }
+        };
+        dispatcher.register(subscriber);
+
+        // hold the UI thread so that everything is posted within one frame
+        CountDownLatch release = new CountDownLatch(1);
+        uiExecutor.execute(() -> awaitQuietly(release));
+        dispatcher.post(new SequencedEvent(0, 0));
+        for (int i = 0; i < 500; i++) {
+            dispatcher.post(new MergeableEvent(i));
+        }
+        dispatcher.post(new SequencedEvent(0, 1));
+        for (int i = 500; i < 1000; i++) {
+            dispatcher.post(new MergeableEvent(i));
+        }
+        dispatcher.post(new SequencedEvent(0, 2));
+        release.countDown();
+
+        assertTrue("events were not delivered", done.await(5, TimeUnit.SECONDS));
+        assertEquals(4, received.size());
+        assertEquals(0, ((SequencedEvent) received.get(0)).getSequence());
+        assertEquals(1, ((SequencedEvent) received.get(1)).getSequence());
+        // the merged event takes the place of the latest one
+        assertEquals(1000, ((MergeableEvent) received.get(2)).getValues().size());
+        assertEquals(2, ((SequencedEvent) received.get(3)).getSequence());
+
+        // unregistered subscribers receive nothing further
+        dispatcher.unregister(subscriber);
+        dispatcher.post(new SequencedEvent(0, 3));
+        CountDownLatch drained = new CountDownLatch(1);
+        uiExecutor.execute(drained::countDown);
+        assertTrue(drained.await(5, TimeUnit.SECONDS));
+        assertEquals(4, received.size());
+    }
+
+    @Test
+    public void testSubscriberFailure() throws Exception {
+        CountDownLatch received = new CountDownLatch(2);
+        dispatcher.register(new Object() {
+            @Subscribe
+            public void onSequenced(SequencedEvent event) {
+                received.countDown();
+                throw new IllegalStateException("failure handling " + event.getSequence());
+            }
+        });
+        dispatcher.post(new SequencedEvent(0, 0));
+        dispatcher.post(new SequencedEvent(0, 1));
+        assertTrue("failure stopped delivery", received.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnregisterUnknown() {
+        dispatcher.unregister(new Object() {
+            @Subscribe
+            public void onSequenced(SequencedEvent event) {
+            }
+        });
+    }
+
+    @Test
+    public void testMergeInvalidations() {
+        Sample sample1 = new Sample();
+        sample1.setId(1L);
+        Sample sample2 = new Sample();
+        sample2.setId(2L);
+        Sample sample2Copy = new Sample();
+        sample2Copy.setId(2L);
+
+        DomainObjectInvalidationEvent merged = DomainObjectInvalidationEvent.merge(
+                new DomainObjectInvalidationEvent(Arrays.asList(sample1, sample2)),
+                new DomainObjectInvalidationEvent(Collections.singletonList(sample2Copy)));
+        assertFalse(merged.isTotalInvalidation());
+        assertEquals(2, merged.getDomainObjects().size());
+        assertTrue(merged.getDomainObjects().contains(sample1));
+        assertTrue("later instance should be kept", merged.getDomainObjects().stream().anyMatch(o -> o == sample2Copy));
+
+        merged = DomainObjectInvalidationEvent.merge(merged, new DomainObjectInvalidationEvent());
+        assertTrue(merged.isTotalInvalidation());
+    }
+
+    /**
+     * Posts 100k events of several types from several threads, and checks that each
+     * subscriber receives the events of each type in order, with none lost.
+     */
+    @Test
+    public void testOrderingUnderLoad() throws Exception {
+        final int producerCount = 4;
+        final int eventsPerProducer = 25000;
+        final int mergeableEvery = 10;
+
+        AtomicInteger maxDepth = new AtomicInteger();
+        AtomicLong handledCount = new AtomicLong();
+        dispatcher.setMetrics(new EventMetrics() {
+            @Override
+            public void queueDepth(String queueName, int depth) {
+                maxDepth.accumulateAndGet(depth, Math::max);
+            }
+
+            @Override
+            public void eventHandled(String subscriberName, Class<?> eventType, long queuedNanos, long handlingNanos) {
+                handledCount.incrementAndGet();
+            }
+        });
+
+        OrderCheckingSubscriber uiSubscriber = new OrderCheckingSubscriber(producerCount);
+        BackgroundOrderCheckingSubscriber backgroundSubscriber = new BackgroundOrderCheckingSubscriber(producerCount);
+        dispatcher.register(uiSubscriber);
+        dispatcher.register(backgroundSubscriber);
+
+        ExecutorService producers = Executors.newFixedThreadPool(producerCount);
+        long start = System.currentTimeMillis();
+        for (int p = 0; p < producerCount; p++) {
+            final int producer = p;
+            producers.execute(() -> {
+                for (int i = 0; i < eventsPerProducer; i++) {
+                    if (i % mergeableEvery == 0) {
+                        dispatcher.post(new MergeableEvent(producer * eventsPerProducer + i));
+                    }
+                    else {
+                        dispatcher.post(new SequencedEvent(producer, i));
+                    }
+                }
+                dispatcher.post(new SequencedEvent(producer, Integer.MAX_VALUE));
+            });
+        }
+        producers.shutdown();
+        assertTrue(producers.awaitTermination(60, TimeUnit.SECONDS));
+        assertTrue("UI subscriber did not finish", uiSubscriber.await(60));
+        assertTrue("background subscriber did not finish", backgroundSubscriber.await(60));
+        long elapsed = System.currentTimeMillis() - start;
+
+        int expectedSequenced = producerCount * (eventsPerProducer - eventsPerProducer / mergeableEvery);
+        int expectedMergeable = producerCount * eventsPerProducer / mergeableEvery;
+        for (OrderCheckingSubscriber subscriber : Arrays.asList(uiSubscriber, backgroundSubscriber)) {
+            assertEquals("events out of order", 0, subscriber.outOfOrder.get());
+            assertEquals(expectedSequenced, subscriber.sequencedCount.get());
+            assertEquals(expectedMergeable, subscriber.mergedValues.size());
+            assertTrue(subscriber.mergeableCount.get() <= expectedMergeable);
+        }
+        assertTrue("queue exceeded its capacity: " + maxDepth.get(), maxDepth.get() <= QUEUE_CAPACITY);
+        assertTrue(handledCount.get() > 0);
+        System.out.println(String.format("Dispatched %d events in %d ms, max queue depth %d, %d merged events per subscriber",
+                producerCount * eventsPerProducer, elapsed, maxDepth.get(), uiSubscriber.mergeableCount.get()));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class SequencedEvent {
+        private final int producer;
+        private final int sequence;
+
+        SequencedEvent(int producer, int sequence) {
+            this.producer = producer;
+            this.sequence = sequence;
+        }
+
+        int getProducer() {
+            return producer;
+        }
+
+        int getSequence() {
+            return sequence;
+        }
+    }
+
+    private static class MergeableEvent {
+        private final Set<Integer> values;
+
+        MergeableEvent(int value) {
+            this.values = Collections.singleton(value);
+        }
+
+        private MergeableEvent(Set<Integer> values) {
+            this.values = values;
+        }
+
+        Set<Integer> getValues() {
+            return values;
+        }
+
+        static MergeableEvent merge(MergeableEvent earlier, MergeableEvent later) {
+            Set<Integer> values = new HashSet<>(earlier.values);
+            values.addAll(later.values);
+            return new MergeableEvent(values);
+        }
+    }
+
+    /**
+     * Checks that the events from each producer arrive in the order they were posted.
+     */
+    public static class OrderCheckingSubscriber {
+        private final int[] lastSequence;
+        private final CountDownLatch finished;
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        final AtomicInteger sequencedCount = new AtomicInteger();
+        final AtomicInteger mergeableCount = new AtomicInteger();
+        final Set<Integer> mergedValues = ConcurrentHashMap.newKeySet();
+
+        OrderCheckingSubscriber(int producerCount) {
+            this.lastSequence = new int[producerCount];
+            Arrays.fill(lastSequence, -1);
+            this.finished = new CountDownLatch(producerCount);
+        }
+
+        @Subscribe
+        public void onSequenced(SequencedEvent event) {
+            handleSequenced(event);
+        }
+
+        @Subscribe
+        public void onMergeable(MergeableEvent event) {
+            handleMergeable(event);
+        }
+
+        synchronized void handleSequenced(SequencedEvent event) {
+            if (event.getSequence() <= lastSequence[event.getProducer()]) {
+                outOfOrder.incrementAndGet();
+            }
+            lastSequence[event.getProducer()] = event.getSequence();
+            if (event.getSequence() == Integer.MAX_VALUE) {
+                finished.countDown();
+            }
+            else {
+                sequencedCount.incrementAndGet();
+            }
+        }
+
+        void handleMergeable(MergeableEvent event) {
+            mergeableCount.incrementAndGet();
+            mergedValues.addAll(event.getValues());
+        }
+
+        boolean await(int seconds) throws InterruptedException {
+            return finished.await(seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public static class BackgroundOrderCheckingSubscriber extends OrderCheckingSubscriber {
+
+        BackgroundOrderCheckingSubscriber(int producerCount) {
+            super(producerCount);
+        }
+
+        @Override
+        @Subscribe
+        @SubscribeInBackground
+        public void onSequenced(SequencedEvent event) {
+            handleSequenced(event);
+        }
+
+        @Override
+        @Subscribe
+        @SubscribeInBackground
+        public void onMergeable(MergeableEvent event) {
+            handleMergeable(event);
+        }
+    }
+}
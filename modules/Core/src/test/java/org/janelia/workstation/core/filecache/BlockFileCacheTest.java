@@ -0,0 +1,138 @@
+package org.janelia.workstation.core.filecache;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.jackrabbit.webdav.MultiStatusResponse;
+import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.workstation.core.api.http.HttpClientProxy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link BlockFileCache} class, with a local file standing in for the remote file.
+ */
+@Category(TestCategories.FastTests.class)
+public class BlockFileCacheTest {
+
+    private static final int BLOCK_SIZE = 4096;
+    private static final int MAX_BLOCKS = 2;
+
+    private File blockDirectory;
+    private File remoteFile;
+    private byte[] remoteBytes;
+    private StorageClientMgr storageClientMgr;
+    private BlockFileCache blockCache;
+
+    @Before
+    public void setUp() throws Exception {
+        final String ts = TestFileUtils.buildTimestampName();
+        blockDirectory = new File("test-blocks-" + ts).getCanonicalFile();
+        if (!blockDirectory.mkdir()) {
+            throw new IllegalStateException("failed to create " + blockDirectory.getAbsolutePath());
+        }
+        // several blocks, the last of them partial
+        remoteBytes = new byte[BLOCK_SIZE * 5 + 123];
+        new Random(1L).nextBytes(remoteBytes);
+        remoteFile = new File("test-remote-" + ts + ".bin").getCanonicalFile();
+        Files.write(remoteFile.toPath(), remoteBytes);
+
+        final String remoteFileName = remoteFile.getAbsolutePath();
+        storageClientMgr = Mockito.mock(StorageClientMgr.class);
+        Mockito.when(storageClientMgr.findFile(ArgumentMatchers.anyString()))
+                .then(invocation -> {
+                    MultiStatusResponse multiStatusResponse =
+                            new MultiStatusResponse(remoteFile.toURI().toString(), "desc");
+                    multiStatusResponse.add(new DefaultDavProperty<>(DavPropertyName.GETCONTENTLENGTH,
+                            String.valueOf(remoteFile.length())), 200);
+                    return new WebDavFile(remoteFileName, multiStatusResponse, (t) -> {});
+                });
+        HttpClientProxy httpClientProxy = new HttpClientProxy(Mockito.mock(HttpClient.class));
+        RemoteFileCacheLoader loader = new RemoteFileCacheLoader(httpClientProxy, storageClientMgr, null);
+        blockCache = new BlockFileCache(blockDirectory, MAX_BLOCKS * BLOCK_SIZE / 1024, BLOCK_SIZE,
+                                        storageClientMgr, loader);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        blockCache.clear();
+        // give removal a chance to complete
+        Thread.sleep(200);
+        File[] blockFiles = blockDirectory.listFiles();
+        if (blockFiles != null) {
+            for (File blockFile : blockFiles) {
+                TestFileUtils.deleteFile(blockFile);
+            }
+        }
+        TestFileUtils.deleteFile(blockDirectory);
+        TestFileUtils.deleteFile(remoteFile);
+    }
+
+    @Test
+    public void testRandomAccessReads() throws Exception {
+        try (SeekableByteChannel channel = blockCache.openChannel(remoteFile.getAbsolutePath())) {
+            assertEquals("invalid channel size", remoteBytes.length, channel.size());
+
+            // a read across a block boundary
+            assertRead(channel, BLOCK_SIZE - 100, 300);
+            // a read of the partial last block, which stops at the end of the file
+            assertRead(channel, remoteBytes.length - 50, 50);
+            ByteBuffer buffer = ByteBuffer.allocate(10);
+            assertEquals("read at end of file should return -1", -1, channel.read(buffer));
+            // the header again, after it may have been evicted
+            assertRead(channel, 0, 16);
+        }
+
+        assertTrue("too many blocks in cache", blockCache.getNumberOfBlocks() <= MAX_BLOCKS);
+        Mockito.verify(storageClientMgr, Mockito.times(1)).findFile(ArgumentMatchers.anyString());
+    }
+
+    @Test
+    public void testSequentialRead() throws Exception {
+        byte[] readBytes = new byte[remoteBytes.length];
+        try (SeekableByteChannel channel = blockCache.openChannel(remoteFile.getAbsolutePath())) {
+            ByteBuffer buffer = ByteBuffer.allocate(1000);
+            int offset = 0;
+            int n;
+            while ((n = channel.read(buffer)) > 0) {
+                buffer.flip();
+                buffer.get(readBytes, offset, n);
+                offset += n;
+                buffer.clear();
+            }
+            assertEquals("invalid number of bytes read", remoteBytes.length, offset);
+        }
+        assertArrayEquals("invalid bytes read", remoteBytes, readBytes);
+        assertTrue("too many blocks in cache", blockCache.getNumberOfBlocks() <= MAX_BLOCKS);
+    }
+
+    private void assertRead(SeekableByteChannel channel, int position, int length) throws Exception {
+        channel.position(position);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        assertEquals("invalid number of bytes read at " + position, length, buffer.position());
+        assertArrayEquals("invalid bytes read at " + position,
+                          Arrays.copyOfRange(remoteBytes, position, position + length),
+                          buffer.array());
+        assertEquals("invalid position after read", position + length, channel.position());
+    }
+}
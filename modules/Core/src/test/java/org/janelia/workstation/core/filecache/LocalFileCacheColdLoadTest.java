@@ -0,0 +1,191 @@
+package org.janelia.workstation.core.filecache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.io.FileUtils;
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.workstation.core.api.http.HttpClientProxy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Loads files into a cold {@link LocalFileCache} from many threads at once,
+ * against a local server standing in for the storage master, the agent and
+ * the content, to show that concurrent requests for a file share one lookup
+ * and one download.
+ */
+public class LocalFileCacheColdLoadTest {
+
+    private static final int THREAD_COUNT = 16;
+    private static final int FILE_COUNT = 8;
+    private static final int FILE_BYTES = 256 * 1024;
+    // stands in for the time a remote agent takes to start sending a file
+    private static final long DOWNLOAD_LATENCY_MS = 50;
+
+    private HttpServer server;
+    private ExecutorService serverService;
+    private String serverUrl;
+    private byte[] content;
+    private final AtomicInteger storageLookups = new AtomicInteger();
+    private final AtomicInteger fileLookups = new AtomicInteger();
+    private final AtomicInteger downloads = new AtomicInteger();
+    // storage clients are cached across instances, so each run looks up storage of its own
+    private String storageRootDir;
+    private File cacheRootParentDirectory;
+    private ExecutorService loadService;
+
+    @Before
+    public void setUp() throws Exception {
+        content = new byte[FILE_BYTES];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        serverService = Executors.newCachedThreadPool();
+        server.setExecutor(serverService);
+        serverUrl = "http://localhost:" + server.getAddress().getPort();
+        server.createContext("/master/data_storage_path", exchange -> {
+            storageLookups.incrementAndGet();
+            sendMultiStatus(exchange, serverUrl + "/agent",
+                    "<J:storageRootDir>" + storageRootDir + "</J:storageRootDir>");
+        });
+        server.createContext("/agent/data_storage_path", exchange -> {
+            fileLookups.incrementAndGet();
+            String path = exchange.getRequestURI().getPath().substring("/agent/data_storage_path".length());
+            sendMultiStatus(exchange, serverUrl + "/content" + path,
+                    "<D:getcontentlength>" + content.length + "</D:getcontentlength>");
+        });
+        server.createContext("/content", exchange -> {
+            downloads.incrementAndGet();
+            ByteStreams.exhaust(exchange.getRequestBody());
+            try {
+                Thread.sleep(DOWNLOAD_LATENCY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+        });
+        server.start();
+
+        cacheRootParentDirectory = new File(new File(".").getCanonicalFile(), "test-cold-cache-" + TestFileUtils.buildTimestampName());
+        loadService = Executors.newFixedThreadPool(THREAD_COUNT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        loadService.shutdownNow();
+        server.stop(0);
+        serverService.shutdownNow();
+        FileUtils.deleteDirectory(cacheRootParentDirectory);
+    }
+
+    private static void sendMultiStatus(HttpExchange exchange, String href, String properties) throws IOException {
+        ByteStreams.exhaust(exchange.getRequestBody());
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<D:multistatus xmlns:D=\"DAV:\" xmlns:J=\"JADE:\">" +
+                "<D:response><D:href>" + href + "</D:href>" +
+                "<D:propstat><D:prop>" + properties + "</D:prop>" +
+                "<D:status>HTTP/1.1 200 OK</D:status></D:propstat>" +
+                "</D:response></D:multistatus>").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/xml; charset=UTF-8");
+        exchange.sendResponseHeaders(207, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Test
+    @Category(TestCategories.SlowTests.class)
+    public void benchmarkConcurrentColdLoads() throws Exception {
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(THREAD_COUNT * 2);
+        connectionManager.getParams().setMaxTotalConnections(THREAD_COUNT * 2);
+        HttpClientProxy httpClientProxy = new HttpClientProxy(new HttpClient(connectionManager));
+        try {
+            for (int run = 0; run < 3; run++) {
+                storageRootDir = "/test-storage-" + TestFileUtils.buildTimestampName() + "/data";
+                List<String> fileNames = new ArrayList<>();
+                for (int i = 0; i < FILE_COUNT; i++) {
+                    fileNames.add(storageRootDir + "/tiles/tile-" + i + ".bin");
+                }
+
+                // every thread downloads every file itself, as each would with no load to share
+                downloads.set(0);
+                long start = System.currentTimeMillis();
+                runOnEveryThread(() -> {
+                    for (String fileName : fileNames) {
+                        HttpURLConnection connection = (HttpURLConnection) new URL(serverUrl + "/content" + fileName).openConnection();
+                        try (InputStream in = connection.getInputStream()) {
+                            assertEquals(FILE_BYTES, ByteStreams.toByteArray(in).length);
+                        }
+                    }
+                    return null;
+                });
+                long unsharedMs = System.currentTimeMillis() - start;
+                int unsharedDownloads = downloads.get();
+
+                LocalFileCache cache = new LocalFileCache(new File(cacheRootParentDirectory, "run-" + run), 100 * 1024, null,
+                        httpClientProxy, new StorageClientMgr(serverUrl + "/master", httpClientProxy));
+                storageLookups.set(0);
+                fileLookups.set(0);
+                downloads.set(0);
+                start = System.currentTimeMillis();
+                runOnEveryThread(() -> {
+                    for (String fileName : fileNames) {
+                        assertEquals(FILE_BYTES, cache.getFile(fileName, false).length());
+                    }
+                    return null;
+                });
+                long cachedMs = System.currentTimeMillis() - start;
+
+                assertEquals(THREAD_COUNT * FILE_COUNT, unsharedDownloads);
+                assertEquals(1, storageLookups.get());
+                assertEquals(FILE_COUNT, fileLookups.get());
+                assertEquals(FILE_COUNT, downloads.get());
+                System.out.println(String.format("%d threads x %d files of %d KB: unshared %dms (%d downloads), " +
+                                "cold cache %dms (%d storage lookups, %d file lookups, %d downloads)",
+                        THREAD_COUNT, FILE_COUNT, FILE_BYTES / 1024, unsharedMs, unsharedDownloads,
+                        cachedMs, storageLookups.get(), fileLookups.get(), downloads.get()));
+            }
+        } finally {
+            connectionManager.shutdown();
+        }
+    }
+
+    private void runOnEveryThread(Callable<Void> task) throws Exception {
+        List<Future<Void>> results = new ArrayList<>();
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            results.add(loadService.submit(task));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+    }
+}
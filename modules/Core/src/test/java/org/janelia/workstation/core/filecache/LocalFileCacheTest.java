@@ -28,8 +28,14 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.apache.jackrabbit.webdav.property.DavPropertyName;
 import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
+import org.apache.jackrabbit.webdav.xml.Namespace;
 
 import static org.junit.Assert.*;
 
@@ -120,6 +126,9 @@ public class LocalFileCacheTest {
                     }
                     MultiStatusResponse multiStatusResponse = new MultiStatusResponse("http://test", "desc");
                     multiStatusResponse.add(new DefaultDavProperty<>(DavPropertyName.GETETAG, storagePrefix.toString()));
+                    // so that the storage client is cached for the prefix
+                    multiStatusResponse.add(new DefaultDavProperty<>(
+                            DavPropertyName.create("storageRootDir", Namespace.getNamespace("JADE:")), storagePrefix.toString()));
                     return new WebDavStorage(invocation.getArgument(0), multiStatusResponse);
                 });
         Mockito.when(agentStorageClient.findFile(ArgumentMatchers.anyString()))
@@ -146,6 +155,8 @@ public class LocalFileCacheTest {
         directoriesToDeleteDuringTearDown.add(cacheRootParentDirectory);
         directoriesToDeleteDuringTearDown.add(cache.getActiveDirectory());
         directoriesToDeleteDuringTearDown.add(cache.getTempDirectory());
+        directoriesToDeleteDuringTearDown.add(cache.getThumbnailCache().getDirectory());
+        directoriesToDeleteDuringTearDown.add(cache.getBlockCache().getDirectory());
         directoriesToDeleteDuringTearDown.add(remoteTestDirectory);
         directoriesToDeleteDuringTearDown.add(nestedRemoteDirectory);
     }
@@ -298,6 +309,56 @@ public class LocalFileCacheTest {
         assertTrue("effective URL should be a local file URL", effectiveUrl.toString().startsWith("file:/"));
     }
 
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testConcurrentLoadsAreCoalesced() throws Exception {
+        final File remoteFile = testRemoteFiles.get(1);
+        final String remoteFileName = remoteFile.getAbsolutePath();
+        final int numberOfRequests = 8;
+        final CountDownLatch requestsMade = new CountDownLatch(numberOfRequests);
+        Mockito.reset(testGetMethod);
+        Mockito.when(testGetMethod.getResponseBodyAsStream()).then(invocation -> {
+            // keep the download in flight until every request has been made
+            assertTrue("requests were not made", requestsMade.await(10, TimeUnit.SECONDS));
+            return new FileInputStream(remoteFile);
+        });
+
+        ExecutorService requestService = Executors.newFixedThreadPool(numberOfRequests);
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        List<Future<File>> requests = new ArrayList<>();
+        try {
+            for (int i = 0; i < numberOfRequests; i++) {
+                final boolean loadAsync = i % 2 == 0;
+                requests.add(requestService.submit(() -> {
+                    startSignal.await();
+                    requestsMade.countDown();
+                    if (loadAsync) {
+                        cache.getEffectiveUrl(remoteFileName, true);
+                        return null;
+                    } else {
+                        return cache.getFile(remoteFileName, false);
+                    }
+                }));
+            }
+            startSignal.countDown();
+            for (Future<File> request : requests) {
+                File localFile = request.get(10, TimeUnit.SECONDS);
+                if (localFile != null) {
+                    assertEquals("cached file has invalid length", remoteFile.length(), localFile.length());
+                }
+            }
+        } finally {
+            requestService.shutdownNow();
+        }
+
+        cache.waitForPendingAsyncLoads();
+
+        assertEquals("invalid number of files in cache", 1, cache.getNumberOfFiles());
+        // storage clients are cached across tests, so an earlier test may have done the lookup already
+        Mockito.verify(masterStorageClient, Mockito.atMost(1)).findStorage(ArgumentMatchers.anyString());
+        Mockito.verify(testGetMethod, Mockito.times(1)).getResponseBodyAsStream();
+    }
+
     @Test
     @Category(TestCategories.FastTests.class)
     public void testCleanUpInconsistentData() throws Exception {
@@ -3,7 +3,15 @@ package org.janelia.workstation.core.filecache;
 import java.io.File;
 import java.io.FileInputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
@@ -25,7 +33,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -109,6 +119,56 @@ public class RemoteFileCacheLoaderTest {
         validateDirectoryFileCount("after remove", testCache.getActiveDirectory(), 0);
     }
 
+    @Test
+    public void testDownloadsPerAgentAreLimited() throws Exception {
+        final int maxDownloads = RemoteFileCacheLoader.MAX_DOWNLOADS_PER_AGENT;
+        final AtomicInteger downloadsInFlight = new AtomicInteger();
+        final AtomicInteger maxDownloadsInFlight = new AtomicInteger();
+        final CountDownLatch permittedDownloadsStarted = new CountDownLatch(maxDownloads);
+        final CountDownLatch extraDownloadStarted = new CountDownLatch(maxDownloads + 1);
+        final CountDownLatch releaseDownloads = new CountDownLatch(1);
+        GetMethod testMethod = Mockito.mock(GetMethod.class);
+
+        PowerMockito.whenNew(GetMethod.class).withAnyArguments().thenReturn(testMethod);
+        Mockito.when(httpClient.executeMethod(ArgumentMatchers.any(HttpMethod.class))).thenReturn(200);
+        Mockito.when(testMethod.getResponseBodyAsStream()).then(invocation -> {
+            maxDownloadsInFlight.accumulateAndGet(downloadsInFlight.incrementAndGet(), Math::max);
+            permittedDownloadsStarted.countDown();
+            extraDownloadStarted.countDown();
+            try {
+                assertTrue("downloads were not released", releaseDownloads.await(10, TimeUnit.SECONDS));
+                return new FileInputStream(testRemoteFile);
+            } finally {
+                downloadsInFlight.decrementAndGet();
+            }
+        });
+        // every file is served by the same agent
+        Mockito.when(storageClientMgr.findFile(ArgumentMatchers.anyString())).then(invocation ->
+                new WebDavFile(invocation.getArgument(0), new MultiStatusResponse("http://test", "desc"), (t) -> {}));
+
+        final int numberOfLoads = maxDownloads + 2;
+        ExecutorService loadService = Executors.newFixedThreadPool(numberOfLoads);
+        List<Future<CachedFile>> loads = new ArrayList<>();
+        try {
+            for (int i = 0; i < numberOfLoads; i++) {
+                final String remoteFileName = testRemoteFile.getAbsolutePath() + "-" + i;
+                loads.add(loadService.submit(() -> remoteFileCacheLoader.load(remoteFileName)));
+            }
+            assertTrue("permitted downloads did not start", permittedDownloadsStarted.await(10, TimeUnit.SECONDS));
+            // the remaining loads wait for a permit, so this times out unless the limit is broken
+            assertFalse("more downloads than permitted started", extraDownloadStarted.await(200, TimeUnit.MILLISECONDS));
+            releaseDownloads.countDown();
+            for (Future<CachedFile> load : loads) {
+                CachedFile cachedFile = load.get(10, TimeUnit.SECONDS);
+                assertEquals("remote and local file lengths differ", testRemoteFile.length(), cachedFile.getLocalFile().length());
+                cachedFile.remove(testCache.getActiveDirectory());
+            }
+        } finally {
+            loadService.shutdownNow();
+        }
+        assertEquals("invalid maximum number of concurrent downloads", maxDownloads, maxDownloadsInFlight.get());
+    }
+
     private File createDirectory(File parent,
                                  String name) throws IllegalStateException {
         File directory = new File(parent, name);
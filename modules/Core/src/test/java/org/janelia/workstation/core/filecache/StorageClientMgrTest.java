@@ -0,0 +1,112 @@
+package org.janelia.workstation.core.filecache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.jackrabbit.webdav.MultiStatusResponse;
+import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
+import org.apache.jackrabbit.webdav.xml.Namespace;
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.workstation.core.api.http.HttpClientProxy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link StorageClientMgr} class.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({StorageClientMgr.class})
+@Category(TestCategories.FastTests.class)
+public class StorageClientMgrTest {
+
+    private static final int NUMBER_OF_LOOKUPS = 8;
+
+    private MasterStorageClient masterStorageClient;
+    private StorageClientMgr storageClientMgr;
+    private ExecutorService lookupService;
+    // storage clients are cached across tests, so each test looks up storage of its own
+    private String storageRootDir;
+    private CountDownLatch lookupsMade;
+
+    @Before
+    public void setUp() throws Exception {
+        masterStorageClient = Mockito.mock(MasterStorageClient.class);
+        HttpClientProxy httpClientProxy = new HttpClientProxy(Mockito.mock(HttpClient.class));
+        PowerMockito.whenNew(MasterStorageClient.class)
+                .withArguments(ArgumentMatchers.anyString(), ArgumentMatchers.any(HttpClientProxy.class), ArgumentMatchers.any(ObjectMapper.class))
+                .thenReturn(masterStorageClient);
+        PowerMockito.whenNew(AgentStorageClient.class).withAnyArguments()
+                .then(invocation -> Mockito.mock(AgentStorageClient.class));
+
+        storageRootDir = "/test-storage-" + TestFileUtils.buildTimestampName() + "/data";
+        lookupsMade = new CountDownLatch(NUMBER_OF_LOOKUPS);
+        Mockito.when(masterStorageClient.findStorage(ArgumentMatchers.anyString()))
+                .then(invocation -> {
+                    // keep the lookup in flight until every lookup has been made
+                    assertTrue("lookups were not made", lookupsMade.await(10, TimeUnit.SECONDS));
+                    MultiStatusResponse multiStatusResponse = new MultiStatusResponse("http://test-agent/data", "desc");
+                    multiStatusResponse.add(new DefaultDavProperty<>(
+                            DavPropertyName.create("storageRootDir", Namespace.getNamespace("JADE:")), storageRootDir));
+                    return new WebDavStorage(invocation.getArgument(0), multiStatusResponse);
+                });
+
+        storageClientMgr = new StorageClientMgr("http://basewebdav", httpClientProxy);
+        lookupService = Executors.newFixedThreadPool(NUMBER_OF_LOOKUPS);
+    }
+
+    @After
+    public void tearDown() {
+        lookupService.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentLookupsUnderOnePrefixQueryTheMasterOnce() throws Exception {
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        List<Future<CompletableFuture<AgentStorageClient>>> lookups = new ArrayList<>();
+        for (int i = 0; i < NUMBER_OF_LOOKUPS; i++) {
+            // files in the same and in different directories of the storage
+            final String fileName = storageRootDir + "/dir" + (i % 3) + "/file" + i + ".tif";
+            lookups.add(lookupService.submit(() -> {
+                startSignal.await();
+                CompletableFuture<AgentStorageClient> lookup = storageClientMgr.resolveStorageClient(fileName);
+                lookupsMade.countDown();
+                return lookup;
+            }));
+        }
+        startSignal.countDown();
+
+        AgentStorageClient storageClient = null;
+        for (Future<CompletableFuture<AgentStorageClient>> lookup : lookups) {
+            AgentStorageClient lookupClient = lookup.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS);
+            if (storageClient == null) {
+                storageClient = lookupClient;
+            }
+            assertSame("lookups resolved different storage clients", storageClient, lookupClient);
+        }
+        Mockito.verify(masterStorageClient, Mockito.times(1)).findStorage(ArgumentMatchers.anyString());
+
+        // Later lookups are served from the cache
+        assertSame(storageClient, storageClientMgr.resolveStorageClient(storageRootDir + "/dir4/file.tif").get(10, TimeUnit.SECONDS));
+        Mockito.verify(masterStorageClient, Mockito.times(1)).findStorage(ArgumentMatchers.anyString());
+    }
+}
@@ -0,0 +1,184 @@
+package org.janelia.workstation.core.model.search;
+
+import static org.janelia.workstation.core.model.search.SearchResults.PAGE_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.Position;
+
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.model.domain.DomainObject;
+import org.janelia.model.domain.ontology.Annotation;
+import org.janelia.model.domain.sample.Sample;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Tests reading ahead through search results, against a fake search with injected latency.
+ */
+@Category(TestCategories.FastTests.class)
+public class SolrSearchResultsTest {
+
+    private static final int NUM_PAGES = 5;
+    private static final long LATENCY_MILLIS = 50;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder().setNameFormat("test-read-ahead-%d").build());
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testReadAheadWhileIterating() throws Exception {
+        FakeSearch search = new FakeSearch();
+        SolrSearchResults results = new SolrSearchResults(search, search.createPage(0), executor, 0.5f, 2);
+
+        ResultIterator<DomainObject, ?> iterator = new ResultIterator<>(results, 0, Position.Bias.Forward, false);
+        long expectedId = 0;
+        while (iterator.hasNext()) {
+            DomainObject domainObject = iterator.next();
+            assertNotNull(domainObject);
+            assertEquals(expectedId++, domainObject.getId().longValue());
+        }
+        assertEquals(NUM_PAGES * PAGE_SIZE, expectedId);
+
+        // Every page after the first was read ahead, once, with the first two in one batch
+        assertEquals(Arrays.asList(1, 2), search.batches.get(0));
+        List<Integer> loadedPages = new ArrayList<>();
+        for (List<Integer> batch : search.batches) {
+            loadedPages.addAll(batch);
+        }
+        Collections.sort(loadedPages);
+        assertEquals(Arrays.asList(1, 2, 3, 4), loadedPages);
+        for (String threadName : search.threadNames) {
+            assertTrue("page was loaded by the iterator: " + threadName, threadName.startsWith("test-read-ahead-"));
+        }
+        assertEquals(NUM_PAGES, results.getNumLoadedPages());
+        assertEquals(0, results.getNumPendingPages());
+    }
+
+    @Test
+    public void testReadAheadBackward() throws Exception {
+        FakeSearch search = new FakeSearch();
+        SolrSearchResults results = new SolrSearchResults(search, search.createPage(0), executor, 0.5f, 2);
+
+        // Not far enough into the page yet
+        results.reading(0, PAGE_SIZE - 100, false);
+        assertEquals(0, results.getNumPendingPages());
+
+        // Reading backward from the first page wraps around to the last pages
+        results.reading(0, 100, false);
+        assertEquals(2, results.getNumPendingPages());
+        assertEquals(NUM_PAGES - 1, firstId(results.getPage(NUM_PAGES - 1)) / PAGE_SIZE);
+        assertEquals(NUM_PAGES - 2, firstId(results.getPage(NUM_PAGES - 2)) / PAGE_SIZE);
+        assertEquals(Collections.singletonList(Arrays.asList(4, 3)), search.batches);
+    }
+
+    @Test
+    public void testCancelReadAhead() throws Exception {
+        FakeSearch search = new FakeSearch();
+        SolrSearchResults results = new SolrSearchResults(search, search.createPage(0), executor, 0.5f, 2);
+        search.blocked = new CountDownLatch(1);
+
+        results.reading(0, PAGE_SIZE - 1, true);
+        assertEquals(2, results.getNumPendingPages());
+        assertTrue(search.started.await(5, TimeUnit.SECONDS));
+
+        results.cancelReadAhead();
+        assertEquals(0, results.getNumPendingPages());
+        assertTrue("in-flight search was not interrupted", search.interrupted.await(5, TimeUnit.SECONDS));
+
+        // Once cancelled, pages are loaded when they're needed
+        search.blocked = null;
+        results.reading(1, PAGE_SIZE - 1, true);
+        assertEquals(0, results.getNumPendingPages());
+        assertEquals(PAGE_SIZE, firstId(results.getPage(1)));
+        assertEquals(Thread.currentThread().getName(), search.threadNames.get(search.threadNames.size() - 1));
+    }
+
+    @Test
+    public void testFailedReadAheadIsLoadedAgain() throws Exception {
+        FakeSearch search = new FakeSearch();
+        SolrSearchResults results = new SolrSearchResults(search, search.createPage(0), executor, 0.5f, 1);
+        search.failures = 1;
+
+        results.reading(0, PAGE_SIZE - 1, true);
+        assertEquals(PAGE_SIZE, firstId(results.getPage(1)));
+        assertEquals(2, search.batches.size());
+        assertEquals(2, results.getNumLoadedPages());
+    }
+
+    private static long firstId(DomainObjectResultPage page) {
+        return page.getObjects().get(0).getId();
+    }
+
+    /**
+     * Stands in for the search and hydration of pages, with a delay per page.
+     */
+    private static class FakeSearch implements SolrSearchResults.PageLoader {
+
+        private final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+        private final List<String> threadNames = new CopyOnWriteArrayList<>();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch interrupted = new CountDownLatch(1);
+        private volatile CountDownLatch blocked;
+        private volatile int failures;
+
+        @Override
+        public List<DomainObjectResultPage> loadPages(List<Integer> pages) throws Exception {
+            batches.add(new ArrayList<>(pages));
+            threadNames.add(Thread.currentThread().getName());
+            started.countDown();
+            try {
+                if (blocked != null) {
+                    blocked.await();
+                }
+                Thread.sleep(LATENCY_MILLIS * pages.size());
+            }
+            catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            if (failures > 0) {
+                failures--;
+                throw new IllegalStateException("Search failed");
+            }
+            List<DomainObjectResultPage> resultPages = new ArrayList<>();
+            for (int page : pages) {
+                resultPages.add(createPage(page));
+            }
+            return resultPages;
+        }
+
+        DomainObjectResultPage createPage(int page) {
+            List<DomainObject> domainObjects = new ArrayList<>();
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                Sample sample = new Sample();
+                sample.setId((long) page * PAGE_SIZE + i);
+                domainObjects.add(sample);
+            }
+            return new DomainObjectResultPage(domainObjects, new ArrayList<Annotation>(), NUM_PAGES * PAGE_SIZE);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.janelia.workstation.core.util;
+
+import java.awt.image.BufferedImage;
+
+import org.janelia.it.jacs.model.TestCategories;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ImageCache} class.
+ */
+public class ImageCacheTest {
+
+    private static BufferedImage image(int width) {
+        return new BufferedImage(width, width / 2, BufferedImage.TYPE_INT_RGB);
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testNarrowestWideEnoughImage() {
+        ImageCache cache = new ImageCache(64L * 1024 * 1024);
+        BufferedImage full = cache.put("a", image(1000));
+        BufferedImage thumbnail = cache.put("a", 320, image(320));
+
+        assertEquals(320, ImageCache.getThumbnailWidth(300));
+        assertEquals(ImageCache.FULL_SIZE, ImageCache.getThumbnailWidth(800));
+        assertSame(thumbnail, cache.getAtLeast("a", 160));
+        assertSame(thumbnail, cache.getAtLeast("a", 320));
+        assertSame(full, cache.getAtLeast("a", 640));
+        assertSame(full, cache.get("a"));
+        assertNull(cache.getAtLeast("a", 2000));
+        assertNull(cache.getAtLeast("b", 160));
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testFullSizeIsNotReplacedByThumbnails() {
+        ImageCache cache = new ImageCache(64L * 1024 * 1024);
+        for (int width : ImageCache.THUMBNAIL_WIDTHS) {
+            cache.put("a", width, image(width));
+        }
+        assertNull(cache.getAtLeast("a", ImageCache.FULL_SIZE));
+
+        BufferedImage full = cache.put("a", image(1000));
+        assertSame(full, cache.getAtLeast("a", ImageCache.FULL_SIZE));
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testBoundedByBytes() {
+        BufferedImage first = image(1000);
+        long imageBytes = ImageCache.getByteCount(first);
+        assertEquals(1000 * 500 * 4, imageBytes);
+
+        ImageCache cache = new ImageCache(20 * imageBytes);
+        cache.put("first", first);
+        for (int i = 0; i < 100; i++) {
+            cache.put("image" + i, image(1000));
+        }
+        assertNull(cache.get("first"));
+        assertNull(cache.getAtLeast("first", 160));
+        // Many small thumbnails fit in the same budget
+        for (int i = 0; i < 100; i++) {
+            cache.put("thumbnail" + i, 160, image(160));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertNotNull(cache.get("thumbnail" + i, 160));
+        }
+    }
+}
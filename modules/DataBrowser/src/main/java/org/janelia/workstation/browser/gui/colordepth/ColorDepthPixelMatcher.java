@@ -0,0 +1,170 @@
+package org.janelia.workstation.browser.gui.colordepth;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Pixel matching kernel for color depth MIP searches.
+ *
+ * The mask's signal pixels are extracted once, as parallel arrays of pixel offsets and depths, where the depth
+ * of a pixel is the hue of its color in the color depth look up table. A target MIP, as an array of packed RGB
+ * ints of the same dimensions as the mask, matches at a mask pixel if the target pixel is brighter than the
+ * data threshold and its depth is within the color fluctuation of the mask's depth. Depths are compared around
+ * the hue circle, so that reds on either side of 0 degrees are close.
+ *
+ * The inner loop is branch-light and runs over primitive arrays, in blocks, so that the JIT can unroll it.
+ * After each block, targets which can no longer reach the required number of matching pixels are rejected.
+ *
+ * Instances are immutable and may be shared between search threads.
+ */
+public class ColorDepthPixelMatcher {
+
+    // Depths are hues, in degrees
+    private static final int DEPTH_RANGE = 360;
+    // Mask pixels checked between early rejection tests
+    private static final int BLOCK_SIZE = 1024;
+    // Depth of each color, quantized to 5 bits per channel
+    private static final short[] DEPTH_LUT = createDepthLut();
+
+    private final int width;
+    private final int height;
+    private final int[] maskOffsets;
+    private final short[] maskDepths;
+    private final int dataThreshold;
+    private final int depthTolerance;
+    private final int requiredMatches;
+
+    /**
+     * @param mask color depth mask image
+     * @param maskThreshold mask pixels at or below this brightness (0-255) are ignored
+     * @param dataThreshold target pixels at or below this brightness (0-255) never match
+     * @param pixColorFluctuation allowed depth difference, as a percentage of the depth range
+     * @param pctPositivePixels percentage of the mask pixels which must match for a target to match
+     */
+    public ColorDepthPixelMatcher(BufferedImage mask, int maskThreshold, int dataThreshold,
+            double pixColorFluctuation, double pctPositivePixels) {
+
+        this.width = mask.getWidth();
+        this.height = mask.getHeight();
+        int[] pixels = getPackedRGB(mask);
+
+        int count = 0;
+        for (int pixel : pixels) {
+            if (getBrightness(pixel) > maskThreshold) {
+                count++;
+            }
+        }
+        this.maskOffsets = new int[count];
+        this.maskDepths = new short[count];
+        int i = 0;
+        for (int offset = 0; offset < pixels.length; offset++) {
+            int pixel = pixels[offset];
+            if (getBrightness(pixel) > maskThreshold) {
+                maskOffsets[i] = offset;
+                maskDepths[i] = getDepth(pixel);
+                i++;
+            }
+        }
+
+        this.dataThreshold = dataThreshold;
+        this.depthTolerance = (int) Math.round(pixColorFluctuation / 100 * DEPTH_RANGE);
+        this.requiredMatches = Math.max(1, (int) Math.ceil(pctPositivePixels / 100 * count));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the number of signal pixels in the mask
+     */
+    public int getMaskSize() {
+        return maskOffsets.length;
+    }
+
+    /**
+     * @return the number of matching pixels a target needs to match the mask
+     */
+    public int getRequiredMatches() {
+        return requiredMatches;
+    }
+
+    /**
+     * Counts the mask pixels which match the target.
+     * @param target packed RGB pixels, with the same dimensions as the mask
+     * @return the number of matching pixels, or -1 if the target was rejected because it could not reach
+     * getRequiredMatches()
+     */
+    public int countMatches(int[] target) {
+        if (target.length != width * height) {
+            throw new IllegalArgumentException("Target has "+target.length+" pixels, but the mask has "+(width*height));
+        }
+        final int[] offsets = maskOffsets;
+        final short[] depths = maskDepths;
+        final int n = offsets.length;
+        int matches = 0;
+        for (int start = 0; start < n; start += BLOCK_SIZE) {
+            int end = Math.min(n, start + BLOCK_SIZE);
+            for (int i = start; i < end; i++) {
+                int pixel = target[offsets[i]];
+                int r = (pixel >>> 16) & 0xff;
+                int g = (pixel >>> 8) & 0xff;
+                int b = pixel & 0xff;
+                int max = Math.max(r, Math.max(g, b));
+                int depth = DEPTH_LUT[((r >>> 3) << 10) | ((g >>> 3) << 5) | (b >>> 3)];
+                int diff = Math.abs(depth - depths[i]);
+                // Hues wrap around, e.g. 359 degrees is as close to 0 as 1 is
+                diff = Math.min(diff, DEPTH_RANGE - diff);
+                // Count without branching: the pixel matches when both differences are negative
+                matches += ((dataThreshold - max) & (diff - depthTolerance - 1)) >>> 31;
+            }
+            if (matches + (n - end) < requiredMatches) {
+                return -1;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the pixels of the image as packed RGB ints, without copying when the image is already stored that way.
+     */
+    public static int[] getPackedRGB(BufferedImage image) {
+        int type = image.getType();
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt
+                && image.getRaster().getDataBuffer().getNumBanks() == 1
+                && image.getRaster().getParent() == null) {
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static int getBrightness(int pixel) {
+        return Math.max((pixel >>> 16) & 0xff, Math.max((pixel >>> 8) & 0xff, pixel & 0xff));
+    }
+
+    private static short getDepth(int pixel) {
+        int r = (pixel >>> 16) & 0xff;
+        int g = (pixel >>> 8) & 0xff;
+        int b = pixel & 0xff;
+        return DEPTH_LUT[((r >>> 3) << 10) | ((g >>> 3) << 5) | (b >>> 3)];
+    }
+
+    private static short[] createDepthLut() {
+        short[] lut = new short[1 << 15];
+        float[] hsb = new float[3];
+        for (int i = 0; i < lut.length; i++) {
+            int r = ((i >>> 10) & 0x1f) << 3;
+            int g = ((i >>> 5) & 0x1f) << 3;
+            int b = (i & 0x1f) << 3;
+            Color.RGBtoHSB(r, g, b, hsb);
+            lut[i] = (short) Math.round(hsb[0] * DEPTH_RANGE);
+        }
+        return lut;
+    }
+}
@@ -392,6 +392,32 @@ public class ColorDepthResultPanel extends JPanel implements SearchProvider, Pre
         worker.execute(); 
     }
 
+    /**
+     * Shows the matches of a local search against a library directory. These matches are not bound to samples,
+     * so they are shown as they are, in descending order of score. May be called repeatedly while the search runs,
+     * with the matches found so far.
+     */
+    public void showLocalResults(ColorDepthMask mask, List<ColorDepthMatch> matches, boolean isUserDriven) {
+
+        log.debug("showLocalResults(mask={}, matches.size={})", mask.getFilepath(), matches.size());
+        
+        this.mask = mask;
+        this.imageModel = new ColorDepthResultImageModel(matches, new ArrayList<>(), new HashMap<>());
+        resultsPanel.setImageModel(imageModel);
+
+        if (matches.isEmpty()) {
+            showNoMatches();
+            return;
+        }
+
+        List<ColorDepthMatch> orderedMatches = matches.stream()
+                .sorted(Comparator.comparing(ColorDepthMatch::getScore).reversed())
+                .collect(Collectors.toList());
+        this.searchResults = new ColorDepthSearchResults(orderedMatches);
+        resultsPanel.showSearchResults(searchResults, isUserDriven, null);
+        showMatches();
+    }
+
     /**
      * Runs in background thread.
      */
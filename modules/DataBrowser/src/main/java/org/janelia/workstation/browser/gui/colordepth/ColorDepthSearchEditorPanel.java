@@ -10,6 +10,8 @@ import java.awt.event.ActionListener;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -20,12 +22,14 @@ import java.util.concurrent.Callable;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.SwingConstants;
+import javax.swing.Timer;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -37,6 +41,7 @@ import org.janelia.workstation.browser.gui.progress.ProgressMeterMgr;
 import org.janelia.workstation.browser.gui.support.SelectablePanel;
 import org.janelia.workstation.core.api.DomainMgr;
 import org.janelia.workstation.core.api.DomainModel;
+import org.janelia.workstation.core.api.FileMgr;
 import org.janelia.workstation.core.api.web.AsyncServiceClient;
 import org.janelia.workstation.core.events.Events;
 import org.janelia.workstation.core.events.model.DomainObjectChangeEvent;
@@ -52,6 +57,7 @@ import org.janelia.workstation.common.gui.support.Icons;
 import org.janelia.workstation.common.gui.support.MouseForwarder;
 import org.janelia.workstation.core.nodes.DomainObjectNode;
 import org.janelia.workstation.core.util.HelpTextUtils;
+import org.janelia.workstation.core.util.Utils;
 import org.janelia.workstation.core.workers.AsyncServiceMonitoringWorker;
 import org.janelia.workstation.core.activity_logging.ActivityLogHelper;
 import org.janelia.workstation.core.events.selection.DomainObjectSelectionEvent;
@@ -80,6 +86,12 @@ public class ColorDepthSearchEditorPanel extends JPanel implements DomainObjectE
 
     private final static Logger log = LoggerFactory.getLogger(ColorDepthSearchEditorPanel.class);
 
+    // Local search parameters used when the mask or search doesn't define them
+    private static final int DEFAULT_MASK_THRESHOLD = 100;
+    private static final int DEFAULT_DATA_THRESHOLD = 100;
+    private static final double DEFAULT_PIX_COLOR_FLUCTUATION = 2.0;
+    private static final double DEFAULT_PCT_POSITIVE_PIXELS = 10.0;
+
     // Utilities
     private final Debouncer debouncer = new Debouncer();
     private final AsyncServiceClient asyncServiceClient = new AsyncServiceClient();
@@ -91,6 +103,7 @@ public class ColorDepthSearchEditorPanel extends JPanel implements DomainObjectE
     private final JSplitPane splitPane;
     private final JPanel helpPanel;
     private final JButton searchButton;
+    private final JButton localSearchButton;
     private final JPanel executingPanel;
     private final JLabel executionErrorLabel;
     private final SelectablePanelListPanel maskListPanel;
@@ -105,6 +118,8 @@ public class ColorDepthSearchEditorPanel extends JPanel implements DomainObjectE
     private List<ColorDepthResult> results; // cached results
     private Reference selectedMaskRef = null;
     private Map<ColorDepthMask,MaskPanel> maskPanelMap = new HashMap<>();
+    private File localLibraryDir;
+    private LocalColorDepthSearch localSearch; // running local search
     
     public ColorDepthSearchEditorPanel() {
 
@@ -161,6 +176,19 @@ public class ColorDepthSearchEditorPanel extends JPanel implements DomainObjectE
             }
         });
         
+        localSearchButton = new JButton("Search Locally...");
+        localSearchButton.setToolTipText("Search the selected mask against a directory of color depth MIPs on this computer");
+        localSearchButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (localSearch != null) {
+                    localSearch.cancel();
+                    return;
+                }
+                executeLocalSearch();
+            }
+        });
+        
         executingPanel = new JPanel(new BorderLayout());
         executingPanel.setVisible(false);
         executingPanel.add(new JLabel("Executing...", Icons.getLoadingIcon(), SwingConstants.RIGHT));
@@ -371,6 +399,7 @@ public class ColorDepthSearchEditorPanel extends JPanel implements DomainObjectE
         maskListPanel.clearPanels();
         searchOptionsPanel.refresh();
         searchOptionsPanel.addConfigComponent(searchButton);
+        searchOptionsPanel.addConfigComponent(localSearchButton);
         searchOptionsPanel.addConfigComponent(executingPanel);
         searchOptionsPanel.addConfigComponent(executionErrorLabel);
         
@@ -563,6 +592,99 @@ public class ColorDepthSearchEditorPanel extends JPanel implements DomainObjectE
         });
     }
     
+    /**
+     * Searches the selected mask against a library directory of color depth MIPs chosen by the user, on this computer.
+     * The matches are shown as they are found, and are not saved as a search result.
+     */
+    private void executeLocalSearch() {
+
+        if (!(maskListPanel.getSelectedPanel() instanceof MaskPanel)) {
+            JOptionPane.showMessageDialog(FrameworkAccess.getMainFrame(), "You need to select a mask to search with.");
+            return;
+        }
+        final ColorDepthMask mask = ((MaskPanel)maskListPanel.getSelectedPanel()).getMask();
+
+        JFileChooser fileChooser = new JFileChooser(localLibraryDir);
+        fileChooser.setDialogTitle("Choose a directory of color depth MIPs");
+        fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (fileChooser.showOpenDialog(FrameworkAccess.getMainFrame()) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        localLibraryDir = fileChooser.getSelectedFile();
+
+        final LocalColorDepthSearch currSearch = new LocalColorDepthSearch();
+        final LocalColorDepthSearch.Listener progressListener = new LocalColorDepthSearch.Listener() {
+            private volatile String progress = "";
+            @Override
+            public void matchFound(ColorDepthMatch match) {
+            }
+            @Override
+            public void progress(int searched, int total) {
+                progress = searched+"/"+total;
+            }
+            @Override
+            public String toString() {
+                return progress;
+            }
+        };
+        
+        // Show the matches found so far every second, rather than on every match
+        final Timer refreshTimer = new Timer(1000, new ActionListener() {
+            private int shownMatches = -1;
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                localSearchButton.setText("Cancel Local Search ("+progressListener+")");
+                List<ColorDepthMatch> matches = currSearch.getResults();
+                if (matches.size() != shownMatches) {
+                    shownMatches = matches.size();
+                    colorDepthResultPanel.showLocalResults(mask, matches, false);
+                }
+            }
+        });
+        
+        SimpleWorker worker = new SimpleWorker() {
+
+            private List<ColorDepthMatch> matches;
+            
+            @Override
+            protected void doStuff() throws Exception {
+                search = searchOptionsPanel.saveChanges();
+                
+                File maskFile = FileMgr.getFileMgr().getFile(mask.getFilepath(), false);
+                BufferedImage maskImage = Utils.readImage(maskFile.getAbsolutePath());
+                ColorDepthPixelMatcher matcher = new ColorDepthPixelMatcher(maskImage,
+                        mask.getMaskThreshold()==null ? DEFAULT_MASK_THRESHOLD : mask.getMaskThreshold(),
+                        search.getDataThreshold()==null ? DEFAULT_DATA_THRESHOLD : search.getDataThreshold(),
+                        search.getPixColorFluctuation()==null ? DEFAULT_PIX_COLOR_FLUCTUATION : search.getPixColorFluctuation(),
+                        search.getPctPositivePixels()==null ? DEFAULT_PCT_POSITIVE_PIXELS : search.getPctPositivePixels());
+                
+                List<File> mips = LocalColorDepthSearch.findLibraryMips(localLibraryDir);
+                matches = currSearch.search(matcher, mips, progressListener);
+            }
+
+            @Override
+            protected void hadSuccess() {
+                refreshTimer.stop();
+                localSearch = null;
+                localSearchButton.setText("Search Locally...");
+                colorDepthResultPanel.showLocalResults(mask, matches, true);
+            }
+
+            @Override
+            protected void hadError(Throwable error) {
+                refreshTimer.stop();
+                localSearch = null;
+                localSearchButton.setText("Search Locally...");
+                FrameworkAccess.handleException(error);
+            }
+        };
+
+        localSearch = currSearch;
+        localSearchButton.setText("Cancel Local Search");
+        refreshTimer.start();
+        worker.execute();
+    }
+    
     private void setProcessing(boolean isRunning) {
         executingPanel.setVisible(isRunning);
     }
@@ -0,0 +1,166 @@
+package org.janelia.workstation.browser.gui.colordepth;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.FileUtils;
+import org.janelia.model.domain.gui.colordepth.ColorDepthMatch;
+import org.janelia.workstation.core.util.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Searches a local library directory of color depth MIPs against a mask, using all the available cores.
+ * Each instance runs a single search.
+ *
+ * Matches are reported to the listener as they are found, from the search threads, and a snapshot of the
+ * matches found so far can be taken at any time with getResults(). The file paths of the matches are file
+ * URLs, which LoadImageWorker reads locally.
+ */
+public class LocalColorDepthSearch {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalColorDepthSearch.class);
+
+    private static final String[] MIP_EXTENSIONS = { "png", "PNG", "tif", "TIF", "tiff", "TIFF", "jpg", "JPG" };
+
+    /**
+     * Callbacks made from the search threads.
+     */
+    public interface Listener {
+
+        void matchFound(ColorDepthMatch match);
+
+        void progress(int searched, int total);
+    }
+
+    private final ConcurrentLinkedQueue<ColorDepthMatch> matches = new ConcurrentLinkedQueue<>();
+    private volatile boolean cancelled;
+
+    /**
+     * @return all the color depth MIPs in the given directory and its subdirectories
+     */
+    public static List<File> findLibraryMips(File libraryDir) {
+        return new ArrayList<>(FileUtils.listFiles(libraryDir, MIP_EXTENSIONS, true));
+    }
+
+    /**
+     * Searches the given MIPs, blocking until they have all been searched, or the search is cancelled.
+     * @return the matches, in descending order of score
+     */
+    public List<ColorDepthMatch> search(final ColorDepthPixelMatcher matcher, Collection<File> mips, final Listener listener)
+            throws InterruptedException {
+
+        log.info("Searching {} MIPs for {} mask pixels, requiring {} matching pixels",
+                mips.size(), matcher.getMaskSize(), matcher.getRequiredMatches());
+        long start = System.currentTimeMillis();
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService searchService = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("local-cds-%d").setDaemon(true).build());
+
+        final int total = mips.size();
+        final AtomicInteger searched = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+        try {
+            for (final File mip : mips) {
+                searchService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (cancelled) {
+                            return;
+                        }
+                        try {
+                            ColorDepthMatch match = searchMip(matcher, mip);
+                            if (match != null) {
+                                matches.add(match);
+                                if (listener != null) {
+                                    listener.matchFound(match);
+                                }
+                            }
+                        }
+                        catch (Exception e) {
+                            log.warn("Could not search {}", mip, e);
+                            skipped.incrementAndGet();
+                        }
+                        int count = searched.incrementAndGet();
+                        if (listener != null) {
+                            listener.progress(count, total);
+                        }
+                    }
+                });
+            }
+            searchService.shutdown();
+            while (!searchService.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Keep waiting, the search threads check the cancellation flag
+            }
+        }
+        finally {
+            searchService.shutdownNow();
+        }
+
+        log.info("Searched {} of {} MIPs in {} ms, found {} matches ({} could not be searched)",
+                searched.get(), total, System.currentTimeMillis() - start, matches.size(), skipped.get());
+        return getResults();
+    }
+
+    /**
+     * Stops the search. MIPs which are being searched are finished, but no others are started.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the matches found so far, in descending order of score
+     */
+    public List<ColorDepthMatch> getResults() {
+        List<ColorDepthMatch> results = new ArrayList<>(matches);
+        results.sort(Comparator.comparing(ColorDepthMatch::getScore).reversed());
+        return results;
+    }
+
+    private ColorDepthMatch searchMip(ColorDepthPixelMatcher matcher, File mip) throws Exception {
+
+        BufferedImage image = ImageIO.read(mip);
+        if (image == null) {
+            // Not a format that ImageIO knows, e.g. TIFF on older JREs
+            image = Utils.readImage(mip.getAbsolutePath());
+        }
+        if (image == null) {
+            throw new IllegalStateException("Could not read image");
+        }
+
+        if (image.getWidth() != matcher.getWidth() || image.getHeight() != matcher.getHeight()) {
+            log.trace("Skipping {}, which has different dimensions than the mask", mip);
+            return null;
+        }
+
+        int score = matcher.countMatches(ColorDepthPixelMatcher.getPackedRGB(image));
+        if (score < matcher.getRequiredMatches()) {
+            return null;
+        }
+
+        ColorDepthMatch match = new ColorDepthMatch();
+        // A file URL marks the MIP as local, so that it's not looked for on the server
+        match.setFilepath(mip.toURI().toString());
+        match.setScore(score);
+        match.setScorePercent((double) score / matcher.getMaskSize());
+        return match;
+    }
+}
@@ -39,6 +39,7 @@ import org.janelia.workstation.core.model.search.DomainObjectSearchResults;
 import org.janelia.workstation.core.model.search.ResultPage;
 import org.janelia.workstation.core.model.search.SearchConfiguration;
 import org.janelia.workstation.core.model.search.SearchResults;
+import org.janelia.workstation.core.model.search.SolrSearchResults;
 import org.janelia.workstation.browser.actions.ExportResultsAction;
 import org.janelia.workstation.core.activity_logging.ActivityLogHelper;
 import org.janelia.workstation.core.api.ClientDomainUtils;
@@ -129,7 +130,7 @@ public class FilterEditorPanel
     private SearchConfiguration searchConfig;
     
     // Results
-    private DomainObjectSearchResults searchResults;
+    private SolrSearchResults searchResults;
 
     public FilterEditorPanel() {
 
@@ -418,6 +419,10 @@ public class FilterEditorPanel
 
             @Override
             protected void doStuff() throws Exception {
+                if (searchResults!=null) {
+                    // The current results are being replaced, so stop loading their pages ahead
+                    searchResults.cancelReadAhead();
+                }
                 searchResults = searchConfig.performSearch();
             }
 
@@ -15,6 +15,7 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.net.URI;
 
 import javax.swing.ImageIcon;
 import javax.swing.JCheckBox;
@@ -38,6 +39,7 @@ import org.janelia.workstation.core.util.Utils;
 import org.janelia.workstation.core.api.FileMgr;
 import org.janelia.workstation.common.gui.dialogs.ModalDialog;
 import org.janelia.workstation.browser.gui.support.ImageTypeSelectionButton;
+import org.janelia.workstation.browser.gui.listview.icongrid.LoadImageWorker;
 import org.janelia.workstation.common.gui.support.MissingIcon;
 import org.janelia.workstation.core.workers.SimpleWorker;
 import org.janelia.workstation.gui.viewer3d.Mip3d;
@@ -329,7 +331,8 @@ public class Hud extends ModalDialog {
                     // Ensure we have an image and that it is cached.
                     if (image == null) {
                         log.debug("Must load image.");
-                        final File imageFile = FileMgr.getFileMgr().getFile(filepath, false);
+                        final File imageFile = filepath.startsWith(LoadImageWorker.LOCAL_FILE_PREFIX)
+                                ? new File(new URI(filepath)) : FileMgr.getFileMgr().getFile(filepath, false);
                         if (imageFile != null) {
                             image = Utils.readImage(imageFile.getAbsolutePath());
                             if (ic != null) {
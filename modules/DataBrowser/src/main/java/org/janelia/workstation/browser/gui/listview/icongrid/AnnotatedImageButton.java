@@ -337,6 +337,12 @@ public abstract class AnnotatedImageButton<T,S> extends SelectablePanel {
         return wantViewable;
     }
 
+    /**
+     * Tell the button that it is just outside the visible area, so its image may be loaded ahead of time.
+     */
+    public void setPrefetch(boolean wantPrefetch) {
+    }
+
     public void toggleEditMode(boolean mode) {
         // if hiding edit mode, clear out checkbox
         if (!mode) {
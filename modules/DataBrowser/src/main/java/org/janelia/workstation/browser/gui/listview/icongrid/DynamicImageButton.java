@@ -39,9 +39,11 @@ public class DynamicImageButton<T,S> extends AnnotatedImageButton<T,S> {
     
     // State
     private BufferedImage maxSizeImage;
+    private boolean maxSizeImageIsFullSize = false;
     private int displaySize;
     private boolean viewable = false;
     private LoadImageWorker loadWorker;
+    private LoadImageWorker prefetchWorker;
     
     
     public DynamicImageButton(T imageObject, ImageModel<T,S> imageModel, SelectionModel<T,S> selectionModel, String filepath) {
@@ -59,8 +61,9 @@ public class DynamicImageButton<T,S> extends AnnotatedImageButton<T,S> {
     }
 
     public boolean cancelLoad() {
+        setPrefetch(false);
         if (loadWorker != null && !loadWorker.isDone()) {
-            return loadWorker.cancel(true);
+            return loadWorker.cancelLoad();
         }
         return false;
     }
@@ -89,6 +92,14 @@ public class DynamicImageButton<T,S> extends AnnotatedImageButton<T,S> {
     
             this.displaySize = width;
             invalidate();
+
+            if (viewable && maxSizeImage != null && !maxSizeImageIsFullSize && maxSizeImage.getWidth() < width) {
+                // The thumbnail is too small for the new size. Show it scaled up until a larger one loads.
+                if (loadWorker != null && !loadWorker.isDone()) {
+                    loadWorker.cancelLoad();
+                }
+                loadImage();
+            }
         }
     }
 
@@ -109,65 +120,8 @@ public class DynamicImageButton<T,S> extends AnnotatedImageButton<T,S> {
         if (imageFilename != null) {
             if (wantViewable) {
                 if (!this.viewable) {
-
-                    log.trace("LoadImageWorker: {}",imageFilename);
-                    
-                    loadWorker = new LoadImageWorker(imageFilename, displaySize) {
-
-                        @Override
-                        protected void hadSuccess() {
-
-                            log.trace("Load complete: {}",imageFilename);
-                                                        
-                            if (isCancelled()) {
-                                log.debug("Load was cancelled");
-                                return;
-                            }
-
-                            setDisplaySize(getNewDisplaySize());
-
-                            BufferedImage image = getNewMaxSizeImage();
-                            setMaxSizeImage(image);
-                            registerAspectRatio(image.getWidth(), image.getHeight());
-
-                            BufferedImage scaledImage = getNewScaledImage();
-                            if (scaledImage == null) {
-                                log.warn("Scaled image is null: {}",imageFilename);
-                                return;
-                            }
-
-                            imagePanel.setImage(scaledImage);
-                            setMainComponent(imagePanel);
-
-                            loadWorker = null;
-                        }
-
-                        @Override
-                        protected void hadError(Throwable error) {
-                            
-                            String errorType;
-                            if (error instanceof FileNotFoundException) {
-                                log.warn("File not found: " + imageFilename);
-                                errorType = "File not found";
-                            }
-                            else if (error.getCause() != null && (error.getCause() instanceof FormatException)) {
-                                log.warn("Image format not supported for: " + imageFilename, error);
-                                errorType = "Image format not supported";
-                            }
-                            else {
-                                log.warn("Image could not be loaded: " + imageFilename, error);
-                                errorType = "Image could not be loaded";
-                            }
-
-                            imagePanel.setImage(Icons.getImage("file_error.png"));
-                            imagePanel.setText(errorType, Color.red);
-                            setMainComponent(imagePanel);
-                            
-                            loadWorker = null;
-                        }
-                    };
-                    
-                    loadWorker.executeInImagePool();
+                    setPrefetch(false);
+                    loadImage();
                 }
             }
             else {
@@ -175,12 +129,13 @@ public class DynamicImageButton<T,S> extends AnnotatedImageButton<T,S> {
                     return;
                 }
                 if (loadWorker != null && !loadWorker.isDone()) {
-                    loadWorker.cancel(true);
+                    loadWorker.cancelLoad();
                     loadWorker = null;
                 }
                 if (isUnloadImages()) {
                     // Clear all references to the image data so that it can be cleared out of memory
                     maxSizeImage = null;
+                    maxSizeImageIsFullSize = false;
                     imagePanel.setImage(null);
                     // Show the loading label until the image needs to be loaded again
                     setMainComponent(loadingLabel);
@@ -190,6 +145,103 @@ public class DynamicImageButton<T,S> extends AnnotatedImageButton<T,S> {
         this.viewable = wantViewable;
     }
 
+    private void loadImage() {
+        log.trace("LoadImageWorker: {}",imageFilename);
+        
+        loadWorker = new LoadImageWorker(imageFilename, displaySize) {
+
+            @Override
+            protected void hadSuccess() {
+
+                log.trace("Load complete: {}",imageFilename);
+                                            
+                if (isCancelled()) {
+                    log.debug("Load was cancelled");
+                    return;
+                }
+
+                setDisplaySize(getNewDisplaySize());
+
+                BufferedImage image = getNewMaxSizeImage();
+                setMaxSizeImage(image, isNewMaxSizeImageFullSize());
+                registerAspectRatio(image.getWidth(), image.getHeight());
+
+                BufferedImage scaledImage = getNewScaledImage();
+                if (scaledImage == null) {
+                    log.warn("Scaled image is null: {}",imageFilename);
+                    return;
+                }
+
+                imagePanel.setImage(scaledImage);
+                setMainComponent(imagePanel);
+
+                loadWorker = null;
+            }
+
+            @Override
+            protected void hadError(Throwable error) {
+                
+                String errorType;
+                if (error instanceof FileNotFoundException) {
+                    log.warn("File not found: " + imageFilename);
+                    errorType = "File not found";
+                }
+                else if (error.getCause() != null && (error.getCause() instanceof FormatException)) {
+                    log.warn("Image format not supported for: " + imageFilename, error);
+                    errorType = "Image format not supported";
+                }
+                else {
+                    log.warn("Image could not be loaded: " + imageFilename, error);
+                    errorType = "Image could not be loaded";
+                }
+
+                imagePanel.setImage(Icons.getImage("file_error.png"));
+                imagePanel.setText(errorType, Color.red);
+                setMainComponent(imagePanel);
+                
+                loadWorker = null;
+            }
+        };
+        
+        loadWorker.executeInImagePool();
+    }
+
+    /**
+     * Loads the image into the caches ahead of time, with a lower priority than
+     * the visible images, or cancels such a load.
+     *
+     * This method must be called from the EDT.
+     */
+    @Override
+    public void setPrefetch(boolean wantPrefetch) {
+        if (wantPrefetch) {
+            if (imageFilename == null || viewable || maxSizeImage != null || prefetchWorker != null || displaySize <= 0) {
+                return;
+            }
+            prefetchWorker = new LoadImageWorker(imageFilename, displaySize, LoadImageWorker.Priority.PREFETCH) {
+
+                @Override
+                protected void hadSuccess() {
+                    prefetchWorker = null;
+                }
+
+                @Override
+                protected void hadError(Throwable error) {
+                    // The error is reported if the image is ever viewed
+                    log.trace("Prefetch failed: {}", imageFilename, error);
+                    prefetchWorker = null;
+                }
+            };
+            prefetchWorker.executeInImagePool();
+        }
+        else if (prefetchWorker != null) {
+            if (!prefetchWorker.isDone()) {
+                prefetchWorker.cancelLoad();
+            }
+            prefetchWorker = null;
+        }
+    }
+
     private boolean isUnloadImages() {
         Boolean unloadImagesBool = (Boolean) FrameworkAccess.getModelProperty(OptionConstants.UNLOAD_IMAGES_PROPERTY);
         return unloadImagesBool != null && unloadImagesBool;
@@ -199,9 +251,10 @@ public class DynamicImageButton<T,S> extends AnnotatedImageButton<T,S> {
         return maxSizeImage;
     }
     
-    private void setMaxSizeImage(BufferedImage maxSizeImage) {
+    private void setMaxSizeImage(BufferedImage maxSizeImage, boolean isFullSize) {
         if (viewable && maxSizeImage != null) {
             this.maxSizeImage = maxSizeImage;
+            this.maxSizeImageIsFullSize = isFullSize;
         }
     }
 
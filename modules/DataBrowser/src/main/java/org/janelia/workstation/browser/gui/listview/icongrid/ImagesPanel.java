@@ -682,6 +682,9 @@ public abstract class ImagesPanel<T,S> extends JScrollPane {
                 if (buttonsPanel.getColumns() == 1) {
                     viewRect.setSize(viewRect.width, viewRect.height + 100);
                 }
+                // Images up to a screen away are prefetched, behind the visible ones
+                Rectangle prefetchRect = new Rectangle(viewRect.x, viewRect.y - viewRect.height,
+                        viewRect.width, viewRect.height * 3);
                 for (AnnotatedImageButton<T,S> button : buttons.values()) {
                     if (loadUnloadImagesInterrupt.get()) {
                         log.trace("loadUnloadImages interrupted");
@@ -691,6 +694,7 @@ public abstract class ImagesPanel<T,S> extends JScrollPane {
                         boolean wantViewable = viewRect.intersects(button.getBounds());
                         log.trace("viewRect.intersects(({}) = {}",button.getBounds(),wantViewable);
                         button.setViewable(wantViewable);
+                        button.setPrefetch(!wantViewable && prefetchRect.intersects(button.getBounds()));
                     }
                     catch (Exception e) {
                         FrameworkAccess.handleException(e);
@@ -2,18 +2,20 @@ package org.janelia.workstation.browser.gui.listview.icongrid;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.util.concurrent.ExecutorService;
+import java.net.URL;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.janelia.workstation.browser.api.state.DataBrowserMgr;
 import org.janelia.workstation.core.api.FileMgr;
 import org.janelia.workstation.core.util.ConsoleProperties;
 import org.janelia.workstation.core.util.ImageCache;
 import org.janelia.workstation.core.util.Utils;
+import org.janelia.workstation.core.filecache.ThumbnailFileCache;
 import org.janelia.workstation.core.filecache.URLProxy;
 import org.janelia.workstation.core.workers.SimpleWorker;
 import org.slf4j.Logger;
@@ -23,6 +25,10 @@ import org.slf4j.LoggerFactory;
  * SwingWorker class that loads the image and rescales it to the current imageSizePercent sizing. This
  * thread supports being canceled.
  * if an ImageCache has been set with setImageCache then this method will look there first.
+ * 
+ * When a display size is given, the image is loaded as the smallest cached thumbnail which is wide enough,
+ * looking in the memory cache, then the thumbnail file cache, and only then decoding the full size image.
+ * Loads are queued by priority, so visible images come before prefetched ones.
  *
  * @author <a href="mailto:rokickik@janelia.hhmi.org">Konrad Rokicki</a>
  */
@@ -33,6 +39,11 @@ public abstract class LoadImageWorker extends SimpleWorker {
     private static final String LOAD_IMAGE_WORKER_THREADS_PROPERTY = "console.images.workerThreads";
     private static final String CACHE_BEHIND_PROPERTY = "console.images.ayncCacheBehind";
 
+    /**
+     * Images named by file URLs are read from this computer, instead of through FileMgr.
+     */
+    public static final String LOCAL_FILE_PREFIX = "file:";
+
     public static final int numWorkerThreads = ConsoleProperties.getInt(LOAD_IMAGE_WORKER_THREADS_PROPERTY, 10);
     public static final boolean useCacheBehind = ConsoleProperties.getBoolean(CACHE_BEHIND_PROPERTY, true);
 
@@ -48,60 +59,136 @@ public abstract class LoadImageWorker extends SimpleWorker {
         }
     }
 
+    /**
+     * Visible images are loaded before prefetched ones.
+     */
+    public enum Priority {
+        VISIBLE,
+        PREFETCH
+    }
+
+    private static final AtomicLong requestCounter = new AtomicLong();
+
     private final String imageFilename;
     private final Integer displaySize;
-    
+    private final Priority priority;
+    private QueuedLoad queuedLoad;
+
     private BufferedImage maxSizeImage;
+    private boolean maxSizeImageIsFullSize;
     private BufferedImage scaledImage;
     
     public LoadImageWorker(String imageFilename) {
         this.imageFilename = imageFilename;
         this.displaySize = null;
+        this.priority = Priority.VISIBLE;
     }
     
     public LoadImageWorker(String imageFilename, int width) {
+        this(imageFilename, width, Priority.VISIBLE);
+    }
+
+    public LoadImageWorker(String imageFilename, int width, Priority priority) {
         this.imageFilename = imageFilename;
         this.displaySize = width;
+        this.priority = priority;
     }
 
     @Override
     protected void doStuff() throws Exception {
 
         ImageCache imageCache = DataBrowserMgr.getDataBrowserMgr().getImageCache();
+        // Displays no wider than the largest thumbnail are served from thumbnails
+        int thumbnailWidth = (displaySize != null && displaySize>0)
+                ? ImageCache.getThumbnailWidth(displaySize) : ImageCache.FULL_SIZE;
+
         if (imageCache != null) {
-            this.maxSizeImage = imageCache.get(imageFilename);
+            this.maxSizeImage = imageCache.getAtLeast(imageFilename, thumbnailWidth);
+            if (maxSizeImage != null) {
+                // A thumbnail narrower than its width was never downsampled
+                this.maxSizeImageIsFullSize = maxSizeImage == imageCache.get(imageFilename)
+                        || maxSizeImage.getWidth() < thumbnailWidth;
+                rescaleToDisplaySize();
+                return;
+            }
+        }
+
+        ThumbnailFileCache thumbnailCache = FileMgr.getFileMgr().getThumbnailCache();
+        if (thumbnailWidth != ImageCache.FULL_SIZE && thumbnailCache != null) {
+            this.maxSizeImage = thumbnailCache.get(imageFilename, thumbnailWidth);
             if (maxSizeImage != null) {
-                // Scale image to current image display size
+                log.trace("Loaded thumbnail from disk: {}", imageFilename);
+                this.maxSizeImageIsFullSize = maxSizeImage.getWidth() < thumbnailWidth;
+                if (imageCache != null) {
+                    imageCache.put(imageFilename, thumbnailWidth, maxSizeImage);
+                }
                 rescaleToDisplaySize();
                 return;
             }
         }
 
-        if (useCacheBehind) {
+        if (isCancelled()) {
+            return;
+        }
+
+        BufferedImage fullSizeImage;
+        if (imageFilename.startsWith(LOCAL_FILE_PREFIX)) {
+            // Local image, e.g. from a local color depth search library, which is not served by FileMgr
+            log.trace("Local loading: {}",imageFilename);
+            fullSizeImage = Utils.readImage(new URLProxy(new URL(imageFilename)));
+        }
+        else if (useCacheBehind) {
             // Async cache-behind
             log.trace("Async cache-behind loading: {}",imageFilename);
             URLProxy imageFileURL = FileMgr.getFileMgr().getURL(imageFilename, true);
             log.info("Loading image from {}", imageFileURL);
-            maxSizeImage = Utils.readImage(imageFileURL);
-            if (maxSizeImage != null && imageCache != null) {
-                imageCache.put(imageFilename, maxSizeImage);
-            }
+            fullSizeImage = Utils.readImage(imageFileURL);
         }
         else {
             // Sync cache-ahead
             log.trace("Cache-ahead loading: {}",imageFilename);
             File imageFile = FileMgr.getFileMgr().getFile(imageFilename, false);
-            maxSizeImage = Utils.readImage(new URLProxy(imageFile.toURI().toURL()));
+            fullSizeImage = Utils.readImage(new URLProxy(imageFile.toURI().toURL()));
+        }
+
+        if (fullSizeImage == null) {
+            return;
         }
 
-        if (maxSizeImage != null) {
-            // Scale image to current image display size
-            rescaleToDisplaySize();
+        if (thumbnailWidth == ImageCache.FULL_SIZE) {
+            this.maxSizeImage = fullSizeImage;
+            this.maxSizeImageIsFullSize = true;
+            if (imageCache != null) {
+                imageCache.put(imageFilename, fullSizeImage);
+            }
         }
+        else {
+            // Keep only the thumbnail, in memory and on disk; the full size image is rarely needed again
+            if (fullSizeImage.getWidth() > thumbnailWidth) {
+                this.maxSizeImage = Utils.getScaledImageByWidth(fullSizeImage, thumbnailWidth);
+            }
+            else {
+                this.maxSizeImage = fullSizeImage;
+                this.maxSizeImageIsFullSize = true;
+            }
+            if (imageCache != null) {
+                imageCache.put(imageFilename, thumbnailWidth, maxSizeImage);
+            }
+            if (thumbnailCache != null) {
+                thumbnailCache.put(imageFilename, thumbnailWidth, maxSizeImage);
+            }
+        }
+
+        // Scale image to current image display size
+        rescaleToDisplaySize();
     }
 
     private void rescaleToDisplaySize() {
-        if (displaySize != null && displaySize>0) {
+        if (priority == Priority.PREFETCH) {
+            // Only warming the caches
+            return;
+        }
+        if (displaySize != null && displaySize>0 && displaySize != maxSizeImage.getWidth()) {
             this.scaledImage = Utils.getScaledImageByWidth(maxSizeImage, displaySize);
         }
         else {
@@ -109,10 +196,22 @@ public abstract class LoadImageWorker extends SimpleWorker {
         }
     }
     
+    /**
+     * Returns the largest image that was loaded. This is a thumbnail, rather than the full size image,
+     * if the display size is small enough; see isNewMaxSizeImageFullSize().
+     */
     protected BufferedImage getNewMaxSizeImage() {
         return maxSizeImage;
     }
 
+    /**
+     * @return true if getNewMaxSizeImage() is the full size image, so that there is no point in
+     * loading the image again for a larger display size
+     */
+    protected boolean isNewMaxSizeImageFullSize() {
+        return maxSizeImageIsFullSize;
+    }
+
     protected BufferedImage getNewScaledImage() {
         return scaledImage;
     }
@@ -124,8 +223,8 @@ public abstract class LoadImageWorker extends SimpleWorker {
     /**
      * Adapted from SimpleWorker so that we can use a separate thread pool and customize the number of threads
      */
-    private static ExecutorService executorService;
-    private static synchronized ExecutorService getWorkersExecutorService() {
+    private static ThreadPoolExecutor executorService;
+    private static synchronized ThreadPoolExecutor getWorkersExecutorService() {
         if (executorService == null) {
             //this creates daemon threads.
             ThreadFactory threadFactory = new ThreadFactory() {
@@ -138,9 +237,10 @@ public abstract class LoadImageWorker extends SimpleWorker {
                 }
             };
 
+            // Only QueuedLoads are executed, so that the queue can order them
             executorService = new ThreadPoolExecutor(numWorkerThreads, numWorkerThreads,
                             10L, TimeUnit.MINUTES,
-                            new LinkedBlockingQueue<Runnable>(),
+                            new PriorityBlockingQueue<Runnable>(),
                             threadFactory);
         }
 
@@ -148,6 +248,46 @@ public abstract class LoadImageWorker extends SimpleWorker {
     }
 
     public void executeInImagePool() {
-        getWorkersExecutorService().execute(this);
+        this.queuedLoad = new QueuedLoad(this);
+        getWorkersExecutorService().execute(queuedLoad);
+    }
+
+    /**
+     * Cancels the load, and drops it from the queue if it has not started yet, so that
+     * loads for images which were scrolled out of view don't hold up the visible ones.
+     */
+    public boolean cancelLoad() {
+        if (queuedLoad != null) {
+            getWorkersExecutorService().remove(queuedLoad);
+        }
+        return cancel(true);
+    }
+
+    /**
+     * Orders loads by priority, and then the most recently requested first, since those are
+     * most likely to still be on screen.
+     */
+    private static class QueuedLoad implements Runnable, Comparable<QueuedLoad> {
+
+        private final LoadImageWorker worker;
+        private final long requestNumber = requestCounter.incrementAndGet();
+
+        QueuedLoad(LoadImageWorker worker) {
+            this.worker = worker;
+        }
+
+        @Override
+        public void run() {
+            worker.run();
+        }
+
+        @Override
+        public int compareTo(QueuedLoad other) {
+            int c = worker.priority.compareTo(other.worker.priority);
+            if (c != 0) {
+                return c;
+            }
+            return Long.compare(other.requestNumber, requestNumber);
+        }
     }
 }
@@ -0,0 +1,110 @@
+package org.janelia.workstation.browser.gui.colordepth;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.janelia.it.jacs.model.TestCategories;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the {@link ColorDepthPixelMatcher} class against hand-computed scores.
+ */
+public class ColorDepthPixelMatcherTest {
+
+    private static final int RED = 0xff0000;
+    private static final int GREEN = 0x00ff00;
+    private static final int BLUE = 0x0000ff;
+    // Hue of 358 degrees, just below red
+    private static final int MAGENTA_RED = 0xff0008;
+    private static final int DIM_RED = 0x100000;
+    private static final int DIM_GREEN = 0x004000;
+
+    private static BufferedImage image(int width, int... pixels) {
+        BufferedImage image = new BufferedImage(width, pixels.length / width, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, pixels.length / width, pixels, 0, width);
+        return image;
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testHandComputedScore() {
+        // Signal at depths 0, 120, 240 and 358. The dim pixel is below the mask threshold.
+        BufferedImage mask = image(3,
+                RED, GREEN, BLUE,
+                0, DIM_RED, MAGENTA_RED);
+        // Tolerance of 2% of 360 degrees is 7 degrees
+        ColorDepthPixelMatcher matcher = new ColorDepthPixelMatcher(mask, 20, 100, 2, 25);
+        assertEquals(4, matcher.getMaskSize());
+        assertEquals(1, matcher.getRequiredMatches());
+
+        int[] target = ColorDepthPixelMatcher.getPackedRGB(image(3,
+                MAGENTA_RED, GREEN, RED,
+                GREEN, GREEN, RED));
+        // 358 matches 0 and 0 matches 358 across the wrap, 120 matches 120, 0 does not match 240
+        assertEquals(3, matcher.countMatches(target));
+
+        // Target pixels at or below the data threshold never match
+        int[] dimTarget = ColorDepthPixelMatcher.getPackedRGB(image(3,
+                MAGENTA_RED, DIM_GREEN, RED,
+                0, 0, 0));
+        assertEquals(1, matcher.countMatches(dimTarget));
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testTargetRejectedBelowRequiredMatches() {
+        BufferedImage mask = image(2, RED, GREEN, BLUE, MAGENTA_RED);
+        ColorDepthPixelMatcher matcher = new ColorDepthPixelMatcher(mask, 20, 100, 2, 100);
+        assertEquals(4, matcher.getRequiredMatches());
+        assertEquals(4, matcher.countMatches(ColorDepthPixelMatcher.getPackedRGB(mask)));
+        assertEquals(-1, matcher.countMatches(ColorDepthPixelMatcher.getPackedRGB(image(2, RED, GREEN, BLUE, GREEN))));
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testRandomImagesMatchReference() {
+        Random random = new Random(42);
+        int width = 64;
+        int[] maskPixels = new int[width * width];
+        int[] targetPixels = new int[width * width];
+        for (int i = 0; i < maskPixels.length; i++) {
+            maskPixels[i] = random.nextInt(0x1000000);
+            targetPixels[i] = random.nextInt(0x1000000);
+        }
+        int maskThreshold = 50;
+        int dataThreshold = 80;
+        double fluctuation = 5;
+        ColorDepthPixelMatcher matcher = new ColorDepthPixelMatcher(image(width, maskPixels),
+                maskThreshold, dataThreshold, fluctuation, 0);
+
+        int tolerance = (int) Math.round(fluctuation / 100 * 360);
+        int expected = 0;
+        for (int i = 0; i < maskPixels.length; i++) {
+            if (brightness(maskPixels[i]) > maskThreshold && brightness(targetPixels[i]) > dataThreshold) {
+                int diff = Math.abs(hue(maskPixels[i]) - hue(targetPixels[i]));
+                if (Math.min(diff, 360 - diff) <= tolerance) {
+                    expected++;
+                }
+            }
+        }
+        assertEquals(expected, matcher.countMatches(ColorDepthPixelMatcher.getPackedRGB(image(width, targetPixels))));
+    }
+
+    private static int brightness(int pixel) {
+        return Math.max((pixel >> 16) & 0xff, Math.max((pixel >> 8) & 0xff, pixel & 0xff));
+    }
+
+    /**
+     * Hue in degrees of the color, quantized to 5 bits per channel like the matcher's look up table.
+     */
+    private static int hue(int pixel) {
+        int r = (pixel >> 16) & 0xf8;
+        int g = (pixel >> 8) & 0xf8;
+        int b = pixel & 0xf8;
+        return Math.round(Color.RGBtoHSB(r, g, b, null)[0] * 360);
+    }
+}
@@ -44,6 +44,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.function.Consumer;
 import java.util.prefs.Preferences;
 import javax.imageio.ImageIO;
 import javax.media.opengl.GLAutoDrawable;
@@ -115,6 +116,7 @@ import org.janelia.horta.loader.TarFileLoader;
 import org.janelia.horta.loader.TgzFileLoader;
 import org.janelia.horta.loader.TilebaseYamlLoader;
 import org.janelia.horta.movie.HortaMovieSource;
+import org.janelia.horta.neuronvbo.NeuronPick;
 import org.janelia.horta.nodes.BasicHortaWorkspace;
 import org.janelia.horta.nodes.WorkspaceUtil;
 import org.janelia.horta.volume.BrickActor;
@@ -1978,6 +1980,11 @@ public final class NeuronTracerTopComponent extends TopComponent
         return neuronMPRenderer.isVolumeDensityAt(xy);
     }
 
+    @Override
+    public void pickNeuronAt(Point2D xy, Consumer<NeuronPick> listener) {
+        neuronMPRenderer.pickNeuronAt(xy, listener);
+    }
+
     void registerLoneDisplayedTile(BrickActor boxMesh) {
         volumeCache.registerLoneDisplayedTile(boxMesh);
     }
@@ -2051,6 +2058,10 @@ public final class NeuronTracerTopComponent extends TopComponent
         return sceneWindow.getVantage();
     }
 
+    public GLAutoDrawable getGLAutoDrawable() {
+        return sceneWindow.getGLAutoDrawable();
+    }
+
     public void redrawImmediately() {
         GLAutoDrawable glad = sceneWindow.getGLAutoDrawable();
         glad.display();
@@ -0,0 +1,117 @@
+package org.janelia.horta;
+
+import java.util.Arrays;
+
+/**
+ * PickIdRegistry hands out contiguous ranges of positive integer pick IDs,
+ * one range per batch of rendered primitives, so a shader can compute the ID
+ * of each primitive as the first ID of its range plus the primitive index.
+ *
+ * Ranges live in sorted primitive arrays, so looking up the owner of an ID is
+ * a binary search over the number of ranges, not the number of primitives.
+ * IDs of released ranges are not handed out again until the ID space wraps
+ * around, so an ID read back from an older frame resolves to nothing, rather
+ * than to some unrelated primitive.
+ *
+ * ID zero is never assigned; it means "nothing here" in a cleared pick buffer.
+ */
+public class PickIdRegistry
+{
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] firstIds = new int[INITIAL_CAPACITY];
+    private int[] idCounts = new int[INITIAL_CAPACITY];
+    private Object[] owners = new Object[INITIAL_CAPACITY];
+    private int rangeCount = 0;
+    private int nextId = 1;
+
+    /**
+     * @return the first ID of a new range of idCount IDs, or zero if idCount is zero
+     */
+    public synchronized int reserve(Object owner, int idCount) {
+        if (idCount < 0)
+            throw new IllegalArgumentException("Negative pick id count " + idCount);
+        if (idCount == 0)
+            return 0;
+        int firstId = findFreeRange(nextId, idCount);
+        if (firstId == 0) // wrap around, and reuse IDs released long ago
+            firstId = findFreeRange(1, idCount);
+        if (firstId == 0)
+            throw new IllegalStateException("No room for " + idCount + " more pick ids");
+        int slot = slotAtOrAfter(firstId);
+        if (rangeCount == firstIds.length) {
+            int capacity = 2 * firstIds.length;
+            firstIds = Arrays.copyOf(firstIds, capacity);
+            idCounts = Arrays.copyOf(idCounts, capacity);
+            owners = Arrays.copyOf(owners, capacity);
+        }
+        int tail = rangeCount - slot;
+        System.arraycopy(firstIds, slot, firstIds, slot + 1, tail);
+        System.arraycopy(idCounts, slot, idCounts, slot + 1, tail);
+        System.arraycopy(owners, slot, owners, slot + 1, tail);
+        firstIds[slot] = firstId;
+        idCounts[slot] = idCount;
+        owners[slot] = owner;
+        rangeCount += 1;
+        nextId = (int) Math.min((long) firstId + idCount, Integer.MAX_VALUE);
+        return firstId;
+    }
+
+    /**
+     * Releases the range that begins with firstId, as returned by reserve().
+     */
+    public synchronized void release(int firstId) {
+        if (firstId == 0)
+            return;
+        int slot = Arrays.binarySearch(firstIds, 0, rangeCount, firstId);
+        if (slot < 0)
+            return;
+        int tail = rangeCount - slot - 1;
+        System.arraycopy(firstIds, slot + 1, firstIds, slot, tail);
+        System.arraycopy(idCounts, slot + 1, idCounts, slot, tail);
+        System.arraycopy(owners, slot + 1, owners, slot, tail);
+        rangeCount -= 1;
+        owners[rangeCount] = null;
+    }
+
+    /**
+     * @return the owner of the range containing id, or null if no live range contains it
+     */
+    public synchronized Object ownerForId(int id) {
+        if (id <= 0)
+            return null;
+        int slot = slotAtOrAfter(id + 1) - 1; // last range starting at or before id
+        if (slot < 0)
+            return null;
+        if (id - firstIds[slot] >= idCounts[slot])
+            return null;
+        return owners[slot];
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(owners, 0, rangeCount, null);
+        rangeCount = 0;
+        nextId = 1;
+    }
+
+    // Index of the first range starting at or after id
+    private int slotAtOrAfter(int id) {
+        int slot = Arrays.binarySearch(firstIds, 0, rangeCount, id);
+        return slot >= 0 ? slot : -slot - 1;
+    }
+
+    // First ID, at or after startId, of a gap between live ranges that holds idCount IDs; zero if there is none
+    private int findFreeRange(int startId, int idCount) {
+        long firstId = startId;
+        int slot = slotAtOrAfter(startId);
+        if (slot > 0) // the previous range might overlap the start
+            firstId = Math.max(firstId, (long) firstIds[slot - 1] + idCounts[slot - 1]);
+        while (slot < rangeCount && firstIds[slot] < firstId + idCount) {
+            firstId = (long) firstIds[slot] + idCounts[slot];
+            slot += 1;
+        }
+        if (firstId + idCount > Integer.MAX_VALUE)
+            return 0;
+        return (int) firstId;
+    }
+}
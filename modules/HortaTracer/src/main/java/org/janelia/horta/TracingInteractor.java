@@ -62,6 +62,7 @@ import org.janelia.horta.actors.ParentVertexActor;
 import org.janelia.horta.actors.SpheresActor;
 import org.janelia.horta.actors.VertexHighlightActor;
 import org.janelia.horta.nodes.BasicNeuronModel;
+import org.janelia.horta.neuronvbo.NeuronPick;
 import org.janelia.horta.nodes.BasicSwcVertex;
 import org.janelia.horta.options.TileLoadingPanel;
 import org.janelia.workstation.core.api.AccessManager;
@@ -677,72 +678,43 @@ public class TracingInteractor extends MouseAdapter
     }
 
     // Show provisional Anchor radius and position for current mouse location
-    private NeuronSet unsupportedSet = null; // Cache set lacking spatial index, so we only warn about it one time.
     private Point previousHoverPoint = null;
     public void moveHoverCursor(Point screenPoint) {
         if (screenPoint == previousHoverPoint)
             return; // no change from last time
         previousHoverPoint = screenPoint;
         
+        // The GPU pick buffer answers a frame or two later, on the OpenGL thread
+        final Point hoverPoint = screenPoint;
+        volumeProjection.pickNeuronAt(hoverPoint, pick -> SwingUtilities.invokeLater(() -> {
+            if (hoverPoint == previousHoverPoint) // skip answers for earlier mouse positions
+                updateHoverCursor(hoverPoint, pick);
+        }));
+    }
+    
+    private void updateHoverCursor(Point hoverPoint, NeuronPick pick) {
         // Question: Which of these three locations is the current mouse cursor in?
         //  1) upon an existing neuron model vertex
         //  2) upon a region of image density
         //  3) neither
         
         // 1) (maybe) Highlight existing neuron annotation model vertex
-        Point hoverPoint = screenPoint;
         boolean foundGoodHighlightVertex = true; // start optimistic...
         NeuronVertex nearestVertex = null;
         NeuronModel neuronModel = null;
-        if (volumeProjection.isNeuronModelAt(hoverPoint)) { // found an existing annotation model under the cursor
+        if ( (pick != null) && volumeProjection.isNeuronModelAt(hoverPoint) ) { // found an existing annotation model under the cursor
             Vector3 cursorXyz = volumeProjection.worldXyzForScreenXy(hoverPoint);
-            // NeuronVertexSpatialIndex vix = volumeProjection.getVertexIndex();
-
-            if (defaultWorkspace != null) {
-                try {
-                    double[] loc = new double[]{cursorXyz.getX(), cursorXyz.getY(), cursorXyz.getZ()};
-                    final boolean bSearchMultipleAnchors = true;
-                    if (bSearchMultipleAnchors) {
-                        // Skip hidden neurons
-                        List<NeuronVertex> nearestVertexes = defaultWorkspace.getAnchorClosestToMicronLocation(loc, 3);
-                        float minDistSquared = Float.MAX_VALUE;
-                        for (NeuronVertex v : nearestVertexes) {
-                            if (v == null)
-                                continue;
-                            NeuronModel neuron = defaultWorkspace.getNeuronForAnchor(v);
-                            if (neuron == null) 
-                                continue;
-                            if (!neuron.isVisible() || neuron.isNonInteractable()) {
-                                // log.info("skipping invisible neuron");
-                                continue;
-                            }
-                            
-                            Vector3 xyz = new Vector3(v.getLocation()).minus(cursorXyz);
-                            float d2 = xyz.dot(xyz);
-                            // log.info("vertex distance = {} um", Math.sqrt(d2));
-                            if (d2 < minDistSquared) {
-                                nearestVertex = v;
-                                minDistSquared = d2;
-                            }
-                        }
-                    }
-                    else {
-                        nearestVertex = defaultWorkspace.getAnchorClosestToMicronLocation(loc);
-                    }
-                }
-                catch (UnsupportedOperationException e) {
-                    // TODO: this needs to be fixed so that Horta doesn't need to maintain its own spatial index for every neuron.
-                    if (unsupportedSet != defaultWorkspace) {
-                        log.warn("Workspace does not support spatial queries. Falling back on old Horta spatial index.");
-                        unsupportedSet = defaultWorkspace;
-                    }
+            // Hidden neurons are not drawn into the pick buffer, and non-interactable ones are skipped there.
+            // For a picked edge, take the nearer end.
+            neuronModel = pick.getNeuron();
+            float minDistSquared = Float.MAX_VALUE;
+            for (NeuronVertex v : pick.getVertexes()) {
+                Vector3 xyz = new Vector3(v.getLocation()).minus(cursorXyz);
+                float d2 = xyz.dot(xyz);
+                if (d2 < minDistSquared) {
+                    nearestVertex = v;
+                    minDistSquared = d2;
                 }
-                if (nearestVertex != null) {
-                    neuronModel = defaultWorkspace.getNeuronForAnchor(nearestVertex);
-                }
-            }
-            else {
-                log.error("No default workspace found");
             }
             
             if (nearestVertex == null) // no vertices to be found?
@@ -2,7 +2,9 @@ package org.janelia.horta;
 
 import java.awt.Component;
 import java.awt.geom.Point2D;
+import java.util.function.Consumer;
 import org.janelia.geometry3d.Vector3;
+import org.janelia.horta.neuronvbo.NeuronPick;
 
 /**
  *
@@ -16,4 +18,6 @@ public interface VolumeProjection {
     public float getPixelsPerSceneUnit();
     public boolean isNeuronModelAt(Point2D xy);
     public boolean isVolumeDensityAt(Point2D xy);
+    // Asynchronous; the listener is called on the OpenGL thread
+    public void pickNeuronAt(Point2D xy, Consumer<NeuronPick> listener);
 }
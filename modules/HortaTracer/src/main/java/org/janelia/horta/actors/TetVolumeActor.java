@@ -43,6 +43,7 @@ import org.janelia.horta.blocks.KtxOctreeBlockTileData;
 import org.janelia.horta.blocks.KtxOctreeBlockTileKey;
 import org.janelia.horta.blocks.KtxOctreeBlockTileSource;
 import org.janelia.horta.blocks.KtxTileCache;
+import org.janelia.horta.blocks.PredictiveBlockChooser;
 import org.openide.util.Exceptions;
 import org.openide.util.lookup.Lookups;
 
@@ -78,7 +79,7 @@ public class TetVolumeActor extends BasicGL3Actor implements DepthSlabClipper {
 
     private final BlockSorter blockSorter = new BlockSorter();    
     private final KtxTileCache dynamicTiles = new KtxTileCache(null);
-    private final BlockChooser<KtxOctreeBlockTileKey, KtxOctreeBlockTileSource> chooser8 = new Finest8DisplayBlockChooser();
+    private final BlockChooser<KtxOctreeBlockTileKey, KtxOctreeBlockTileSource> chooser8 = new PredictiveBlockChooser(new Finest8DisplayBlockChooser());
     private final BlockDisplayUpdater<KtxOctreeBlockTileKey, KtxOctreeBlockTileSource> blockDisplayUpdater = new BlockDisplayUpdater<>(chooser8);
     private final Collection<GL3Resource> obsoleteActors = new ArrayList<>();
 
@@ -103,7 +104,7 @@ public class TetVolumeActor extends BasicGL3Actor implements DepthSlabClipper {
         blockDisplayUpdater.getDisplayChangeObservable().addObserver(new Observer() {
             @Override
             public void update(Observable o, Object arg) {
-                dynamicTiles.updateDesiredTiles(blockDisplayUpdater.getDesiredBlocks());
+                dynamicTiles.updateDesiredTiles(blockDisplayUpdater.getDesiredBlocks(), blockDisplayUpdater.getPrefetchBlocks());
             }
         });
 
@@ -431,7 +432,7 @@ public class TetVolumeActor extends BasicGL3Actor implements DepthSlabClipper {
     }
     
     public void clearAllBlocks() {
-        dynamicTiles.updateDesiredTiles(Collections.<KtxOctreeBlockTileKey>emptyList());
+        dynamicTiles.clearDesiredTiles();
         for (Object3d actor : getChildren()) {
             if (! (actor instanceof GL3Resource))
                 continue;
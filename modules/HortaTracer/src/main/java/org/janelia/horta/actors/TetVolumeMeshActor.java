@@ -227,6 +227,14 @@ implements SortableBlockActor, SortableBlockActorSource
         return cachedResolution;
     }
 
+    /**
+     * Gives the mipmap buffers back to their pool. Call only after dispose(),
+     * once the texture will not be created from them again.
+     */
+    public void releaseTextureData() {
+        ktxData.releaseMipmaps();
+    }
+
     private static class TetVolumeMeshGeometry extends MeshGeometry {
 
         public TetVolumeMeshGeometry(KtxData ktxData)
@@ -3,6 +3,7 @@ package org.janelia.horta.blocks;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -37,10 +38,21 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
         TILE_DATA loadTile(TILE_KEY key) throws InterruptedException, IOException;
     }
 
+    // Tiles the camera just left are kept this long, in case it turns back. This is a
+    // time rather than a number of updates, because a dragged camera updates every frame.
+    private static final long RETAIN_MILLIS = 1000;
+    // Load processor queues are ordered by task priority
+    private static final int DISPLAY_PRIORITY = Thread.NORM_PRIORITY;
+    private static final int PREFETCH_PRIORITY = Thread.MIN_PRIORITY;
+
     private final Map<TILE_KEY, RequestProcessor.Task> queuedTiles = new ConcurrentHashMap<>();
     private final Map<TILE_KEY, RequestProcessor.Task> loadingTiles = new ConcurrentHashMap<>();
 
     private final Set<TILE_KEY> nearVolumeMetadata = new ConcurrentHashSet<>();
+    // Time in milliseconds when each tile was last desired or prefetched
+    private final Map<TILE_KEY, Long> wantedTiles = new ConcurrentHashMap<>();
+    private long displayHitCount = 0;
+    private long displayMissCount = 0;
 
     protected final Map<TILE_KEY, TILE_DATA> nearVolumeInRam = new ConcurrentHashMap<>();
     protected final Map<TILE_KEY, TILE_DATA> obsoleteTiles = new ConcurrentHashMap<>();
@@ -70,6 +82,13 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
 
     abstract LoadRunner<TILE_KEY, TILE_DATA> getLoadRunner();
 
+    /**
+     * Frees a tile that was loaded but is not kept. It was never displayed,
+     * so it holds no GL resources.
+     */
+    void disposeUnusedTile(TILE_DATA tile) {
+    }
+
     public int getBlockCount() {
         return nearVolumeMetadata.size();
     }
@@ -79,22 +98,42 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
             return; // already queued
         }
         nearVolumeMetadata.add(key);
+        wantedTiles.put(key, System.currentTimeMillis());
         if (nearVolumeInRam.containsKey(key)) {
             return; // already loaded
         }
-        queueLoad(key, getLoadRunner());
+        queueLoad(key, getLoadRunner(), DISPLAY_PRIORITY);
     }
 
     public synchronized void updateDesiredTiles(List<TILE_KEY> desiredTiles) {
+        updateDesiredTiles(desiredTiles, Collections.<TILE_KEY>emptyList());
+    }
+
+    /**
+     * @param desiredTiles tiles to display, in order of decreasing importance
+     * @param prefetchTiles tiles expected to be displayed soon; these are
+     * loaded after the desired tiles, but not displayed yet
+     */
+    public synchronized void updateDesiredTiles(List<TILE_KEY> desiredTiles, List<TILE_KEY> prefetchTiles) {
+        long now = System.currentTimeMillis();
         List<TILE_KEY> newTiles = new ArrayList<>();
         Set<TILE_KEY> desiredSet = new HashSet<>();
         for (TILE_KEY key : desiredTiles) {
             desiredSet.add(key);
+            wantedTiles.put(key, now);
             if (!nearVolumeMetadata.contains(key)) {
                 nearVolumeMetadata.add(key);
+                // Was the tile ready by the time it came into view?
+                if (nearVolumeInRam.containsKey(key)) {
+                    displayHitCount += 1;
+                } else {
+                    displayMissCount += 1;
+                }
             }
 
-            if (queuedTiles.containsKey(key)) {
+            RequestProcessor.Task task = queuedTiles.get(key);
+            if (task != null) {
+                task.setPriority(DISPLAY_PRIORITY);
                 continue; // already queued
             }
             if (loadingTiles.containsKey(key)) {
@@ -105,8 +144,19 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
             }
             newTiles.add(key);
         }
+        List<TILE_KEY> newPrefetchTiles = new ArrayList<>();
+        for (TILE_KEY key : prefetchTiles) {
+            if (desiredSet.contains(key)) {
+                continue;
+            }
+            wantedTiles.put(key, now);
+            if (queuedTiles.containsKey(key) || loadingTiles.containsKey(key) || nearVolumeInRam.containsKey(key)) {
+                continue;
+            }
+            newPrefetchTiles.add(key);
+        }
 
-        // Remove obsolete tiles from loading and loaded
+        // Only desired tiles are displayed, and they load first
         Iterator<TILE_KEY> iter = nearVolumeMetadata.iterator();
         while (iter.hasNext()) {
             TILE_KEY key = iter.next();
@@ -114,53 +164,72 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
                 iter.remove();
             }
         }
-        Iterator<Map.Entry<TILE_KEY, RequestProcessor.Task>> mapIter = queuedTiles.entrySet().iterator();
-        while (mapIter.hasNext()) {
-            Map.Entry<TILE_KEY, RequestProcessor.Task> entry = mapIter.next();
-            TILE_KEY key = entry.getKey();
-            if (!desiredSet.contains(key)) {
-                RequestProcessor.Task task = queuedTiles.get(key);
-                if (task != null) {
-                    task.cancel();
-                }
-                mapIter.remove();
+        for (Map.Entry<TILE_KEY, RequestProcessor.Task> entry : queuedTiles.entrySet()) {
+            if (!desiredSet.contains(entry.getKey())) {
+                entry.getValue().setPriority(PREFETCH_PRIORITY);
             }
         }
-        mapIter = loadingTiles.entrySet().iterator();
-        while (mapIter.hasNext()) {
-            Map.Entry<TILE_KEY, RequestProcessor.Task> entry = mapIter.next();
-            TILE_KEY key = entry.getKey();
-            if (!desiredSet.contains(key)) {
-                RequestProcessor.Task task = loadingTiles.get(key);
-                if (task != null) {
-                    task.cancel();
-                }
-                mapIter.remove();
+
+        // Remove tiles from loading and loaded once they have been unwanted for a while
+        List<TILE_KEY> obsoleteKeys = new ArrayList<>();
+        for (Map.Entry<TILE_KEY, Long> entry : wantedTiles.entrySet()) {
+            if (now - entry.getValue() > RETAIN_MILLIS) {
+                obsoleteKeys.add(entry.getKey());
             }
         }
-        boolean displayChanged = false;
-        Iterator<Map.Entry<TILE_KEY, TILE_DATA>> mapIter2 = nearVolumeInRam.entrySet().iterator();
-        while (mapIter2.hasNext()) {
-            Map.Entry<TILE_KEY, TILE_DATA> entry = mapIter2.next();
-            TILE_KEY key = entry.getKey();
-            if (!desiredSet.contains(key)) {
-                TILE_DATA data = entry.getValue();
-                log.info("Preparing to dispose of tile {}", key.toString());
-                obsoleteTiles.put(key, data);
-                mapIter2.remove();
-                displayChanged = true;
-            }
+        for (TILE_KEY key : obsoleteKeys) {
+            forgetTile(key);
         }
 
         for (TILE_KEY key : newTiles) {
-            queueLoad(key, getLoadRunner());
+            queueLoad(key, getLoadRunner(), DISPLAY_PRIORITY);
         }
+        for (TILE_KEY key : newPrefetchTiles) {
+            queueLoad(key, getLoadRunner(), PREFETCH_PRIORITY);
+        }
+    }
+
+    /**
+     * Drops all tiles at once, without waiting for them to become obsolete.
+     */
+    public synchronized void clearDesiredTiles() {
+        nearVolumeMetadata.clear();
+        for (TILE_KEY key : new ArrayList<>(wantedTiles.keySet())) {
+            forgetTile(key);
+        }
+    }
 
-        if (displayChanged) {
-            // No, don't update when blocks are removed, only when they are added.
-            // displayChangeObservable.setChanged();
-            // displayChangeObservable.notifyObservers();
+    private void forgetTile(TILE_KEY key) {
+        wantedTiles.remove(key);
+        RequestProcessor.Task task = queuedTiles.remove(key);
+        if (task != null) {
+            task.cancel();
         }
+        task = loadingTiles.remove(key);
+        if (task != null) {
+            task.cancel();
+        }
+        TILE_DATA data = nearVolumeInRam.remove(key);
+        if (data != null) {
+            log.info("Preparing to dispose of tile {}", key.toString());
+            obsoleteTiles.put(key, data);
+        }
+    }
+
+    /**
+     * @return how many tiles were already loaded when they were first
+     * desired for display, e.g. thanks to prefetching.
+     */
+    public synchronized long getDisplayHitCount() {
+        return displayHitCount;
+    }
+
+    /**
+     * @return how many tiles still had to be loaded when they were first
+     * desired for display.
+     */
+    public synchronized long getDisplayMissCount() {
+        return displayMissCount;
     }
 
     public ObservableInterface getDisplayChangeObservable() {
@@ -177,7 +246,8 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
 
     private synchronized boolean queueLoad(
             final TILE_KEY key,
-            final LoadRunner<TILE_KEY, TILE_DATA> loadRunner) {
+            final LoadRunner<TILE_KEY, TILE_DATA> loadRunner,
+            int priority) {
         if (queuedTiles.containsKey(key)) {
             return false; // already queued
         }
@@ -210,12 +280,12 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
 
                 try {
                     // Check whether this tile is still relevant
-                    if (!nearVolumeMetadata.contains(key)) {
+                    if (!wantedTiles.containsKey(key)) {
                         return;
                     }
 
                     // Maybe after that wait, this tile is no longer needed
-                    if (!nearVolumeMetadata.contains(key)) {
+                    if (!wantedTiles.containsKey(key)) {
                         return;
                     }
 
@@ -230,19 +300,22 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
                         return;
                     }
 
-                    if (!nearVolumeMetadata.contains(key)) {
+                    if (!wantedTiles.containsKey(key)) {
                         log.info("Tile loaded was no longer needed {}", key.toString());
+                        disposeUnusedTile(tileTexture);
                         return; // no longer needed
                     }
 
-                    if (nearVolumeInRam.containsKey(key)) {
+                    if (nearVolumeInRam.putIfAbsent(key, tileTexture) != null) {
                         log.info("Tile loaded was already loaded {}", key.toString());
+                        disposeUnusedTile(tileTexture);
                         return; // already loaded by another thread?
                     }
 
-                    nearVolumeInRam.put(key, tileTexture);
-                    displayChangeObservable.setChanged();
-                    displayChangeObservable.notifyObservers();
+                    if (nearVolumeMetadata.contains(key)) { // prefetched tiles are not displayed yet
+                        displayChangeObservable.setChanged();
+                        displayChangeObservable.notifyObservers();
+                    }
                 } catch (IOException ex) {
                     Exceptions.printStackTrace(ex);
                 } catch (InterruptedException ex) {
@@ -260,7 +333,7 @@ public abstract class BasicTileCache<TILE_KEY, TILE_DATA> {
 
         synchronized (queuedTiles) {
             log.info("Queueing brick {} (queued={}, loading={})", key.toString(), queuedTiles.size(), loadingTiles.size());
-            queuedTiles.put(key, loadProcessor.post(loadTask));
+            queuedTiles.put(key, loadProcessor.post(loadTask, 0, priority));
         }
         return true;
     }
@@ -1,5 +1,6 @@
 package org.janelia.horta.blocks;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
@@ -22,8 +23,11 @@ public class BlockDisplayUpdater<BTK extends BlockTileKey, BTS extends BlockTile
     private Vantage vantage;
     private BTS blockTileSource;
     private ConstVector3 cachedFocus;
+    private float cachedSceneUnitsPerViewportHeight;
+    private final CameraMotion cameraMotion = new CameraMotion();
     private final BlockChooser blockChooser;
     private List<BTK> cachedDesiredBlocks;
+    private List<BTK> cachedPrefetchBlocks = Collections.emptyList();
     private boolean doAutoUpdate = true;
 
     public BlockDisplayUpdater(BlockChooser<BTK, BTS> blockChooser) {
@@ -38,6 +42,14 @@ public class BlockDisplayUpdater<BTK extends BlockTileKey, BTS extends BlockTile
         return cachedDesiredBlocks;
     }
 
+    /**
+     * @return blocks predicted to be needed soon, if the block chooser makes
+     * predictions; otherwise an empty list.
+     */
+    public List<BTK> getPrefetchBlocks() {
+        return cachedPrefetchBlocks;
+    }
+
     public void setVantage(Vantage vantage) {
         if (this.vantage == vantage) {
             return;
@@ -46,6 +58,7 @@ public class BlockDisplayUpdater<BTK extends BlockTileKey, BTS extends BlockTile
             this.vantage.deleteObserver(cameraObserver);
         }
         this.vantage = vantage;
+        cameraMotion.reset();
         vantage.addObserver(cameraObserver);
     }
 
@@ -66,16 +79,24 @@ public class BlockDisplayUpdater<BTK extends BlockTileKey, BTS extends BlockTile
         if (focus == null) {
             return;
         }
-        if (focus.equals(cachedFocus)) {
+        float sceneUnitsPerViewportHeight = vantage == null ? 0 : vantage.getSceneUnitsPerViewportHeight();
+        if (focus.equals(cachedFocus) && sceneUnitsPerViewportHeight == cachedSceneUnitsPerViewportHeight) {
             return; // short circuit when nothing has changed...
         }
         ConstVector3 previousFocus = cachedFocus;
         cachedFocus = new Vector3(focus);
+        cachedSceneUnitsPerViewportHeight = sceneUnitsPerViewportHeight;
+        cameraMotion.update(focus, sceneUnitsPerViewportHeight, System.nanoTime());
         List<BTK> desiredBlocks = blockChooser.chooseBlocks(blockTileSource, focus, previousFocus);
-        if (desiredBlocks.equals(cachedDesiredBlocks)) {
+        List<BTK> prefetchBlocks = Collections.emptyList();
+        if (blockChooser instanceof PrefetchBlockChooser) {
+            prefetchBlocks = ((PrefetchBlockChooser) blockChooser).choosePrefetchBlocks(blockTileSource, focus, cameraMotion, desiredBlocks);
+        }
+        if (desiredBlocks.equals(cachedDesiredBlocks) && prefetchBlocks.equals(cachedPrefetchBlocks)) {
             return; // no change in desired set
         }
         cachedDesiredBlocks = desiredBlocks;
+        cachedPrefetchBlocks = prefetchBlocks;
         displayChangeObservable.setChanged();
         displayChangeObservable.notifyObservers();
     }
@@ -0,0 +1,25 @@
+package org.janelia.horta.blocks;
+
+import java.util.Comparator;
+import org.janelia.geometry3d.ConstVector3;
+
+/**
+ * Sorts blocks by distance from focus to block centroid
+ */
+class BlockDistanceComparator implements Comparator<BlockTileKey> {
+
+    private final ConstVector3 focus;
+
+    BlockDistanceComparator(ConstVector3 focus) {
+        this.focus = focus;
+    }
+
+    @Override
+    public int compare(BlockTileKey block1, BlockTileKey block2) {
+        ConstVector3 c1 = block1.getCentroid().minus(focus);
+        ConstVector3 c2 = block2.getCentroid().minus(focus);
+        float d1 = c1.dot(c1); // distance squared
+        float d2 = c2.dot(c2);
+        return d1 < d2 ? -1 : d1 > d2 ? 1 : 0;
+    }
+}
@@ -0,0 +1,69 @@
+package org.janelia.horta.blocks;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import org.janelia.model.domain.tiledMicroscope.TmSample;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the blocks of another KTX block source through a local disk cache,
+ * so a block is fetched from the remote source only the first time it is
+ * needed.
+ */
+public class CachedKtxOctreeBlockTileSource extends KtxOctreeBlockTileSource {
+    private static final Logger LOG = LoggerFactory.getLogger(CachedKtxOctreeBlockTileSource.class);
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final KtxOctreeBlockTileSource remoteSource;
+    private final KtxBlockDiskCache diskCache;
+
+    CachedKtxOctreeBlockTileSource(KtxOctreeBlockTileSource remoteSource, KtxBlockDiskCache diskCache) {
+        super(remoteSource.getOriginatingSampleURL());
+        this.remoteSource = remoteSource;
+        this.diskCache = diskCache;
+    }
+
+    @Override
+    public KtxOctreeBlockTileSource init(TmSample sample) {
+        // The remote source only needs to know where to stream blocks from;
+        // the root block is read through the cache like all the others.
+        remoteSource.initLocation(sample);
+        return super.init(sample);
+    }
+
+    @Override
+    protected String getSourceServerURL(TmSample sample) {
+        return remoteSource.getSourceServerURL(sample);
+    }
+
+    @Override
+    protected URI getKeyBlockPathURI(KtxOctreeBlockTileKey key) {
+        return remoteSource.getKeyBlockPathURI(key);
+    }
+
+    @Override
+    protected InputStream streamKeyBlock(KtxOctreeBlockTileKey octreeKey) throws IOException {
+        String sourceKey = remoteSource.sourceServerURL + "|" + remoteSource.sampleKtxTilesBaseDir;
+        String blockPath = octreeKey.getKeyPath() + octreeKey.getKeyBlockName("_8_xy_");
+        Path blockFile = diskCache.get(sourceKey, blockPath);
+        if (blockFile != null) {
+            try {
+                LOG.debug("Loading block {} from local cache {}", octreeKey, blockFile);
+                return new BufferedInputStream(Files.newInputStream(blockFile), STREAM_BUFFER_SIZE);
+            } catch (NoSuchFileException e) {
+                LOG.debug("Cached block {} was evicted before it could be read", blockFile);
+            }
+        }
+        // The caller reads the block as it arrives, while it is copied into the cache
+        InputStream remoteStream = remoteSource.streamKeyBlock(octreeKey);
+        return new BufferedInputStream(diskCache.cacheWhileReading(sourceKey, blockPath, remoteStream), STREAM_BUFFER_SIZE);
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.janelia.horta.blocks;
+
+import org.janelia.geometry3d.ConstVector3;
+import org.janelia.geometry3d.Vector3;
+
+/**
+ * Smoothed estimate of how fast the camera focus moves, and whether the
+ * view is zooming in or out, from successive camera samples.
+ */
+public class CameraMotion {
+
+    // Weight of the newest sample in the running averages
+    private static final float SMOOTHING = 0.5f;
+    // After a longer pause, the camera is considered to start from rest
+    private static final long MAX_SAMPLE_GAP_NANOS = 500000000L;
+
+    private final Vector3 velocity = new Vector3(0, 0, 0); // scene units per second
+    private float zoomRate = 0; // relative change of the view height per second
+    private Vector3 lastFocus;
+    private float lastSceneUnitsPerViewportHeight;
+    private long lastSampleNanos;
+
+    public synchronized void update(ConstVector3 focus, float sceneUnitsPerViewportHeight, long sampleNanos) {
+        if (lastFocus == null || sampleNanos - lastSampleNanos > MAX_SAMPLE_GAP_NANOS) {
+            velocity.set(0, 0, 0);
+            zoomRate = 0;
+        } else if (sampleNanos > lastSampleNanos) {
+            float seconds = (sampleNanos - lastSampleNanos) / 1e9f;
+            Vector3 sampleVelocity = new Vector3(focus).sub(lastFocus).multiplyScalar(1.0f / seconds);
+            velocity.multiplyScalar(1.0f - SMOOTHING).add(sampleVelocity.multiplyScalar(SMOOTHING));
+            if (lastSceneUnitsPerViewportHeight > 0) {
+                float sampleZoomRate = (sceneUnitsPerViewportHeight / lastSceneUnitsPerViewportHeight - 1.0f) / seconds;
+                zoomRate = (1.0f - SMOOTHING) * zoomRate + SMOOTHING * sampleZoomRate;
+            }
+        } else {
+            return; // same instant, nothing to learn
+        }
+        lastFocus = new Vector3(focus);
+        lastSceneUnitsPerViewportHeight = sceneUnitsPerViewportHeight;
+        lastSampleNanos = sampleNanos;
+    }
+
+    public synchronized void reset() {
+        velocity.set(0, 0, 0);
+        zoomRate = 0;
+        lastFocus = null;
+    }
+
+    public synchronized ConstVector3 getVelocity() {
+        return new Vector3(velocity);
+    }
+
+    /**
+     * @return positive when zooming out, i.e. the view covers more of the
+     * scene every second, negative when zooming in.
+     */
+    public synchronized float getZoomRate() {
+        return zoomRate;
+    }
+
+    /**
+     * Extrapolates the focus, assuming the camera keeps its current velocity.
+     */
+    public synchronized Vector3 predictFocus(ConstVector3 focus, float seconds) {
+        return new Vector3(velocity).multiplyScalar(seconds).add(focus);
+    }
+
+}
@@ -2,7 +2,6 @@ package org.janelia.horta.blocks;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -37,11 +36,7 @@ public class FileKtxOctreeBlockTileSource extends KtxOctreeBlockTileSource {
     }
 
     @Override
-    protected InputStream streamKeyBlock(KtxOctreeBlockTileKey octreeKey) {
-        try {
-            return Files.newInputStream(Paths.get(getKeyBlockPathURI(octreeKey)));
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
-        }
+    protected InputStream streamKeyBlock(KtxOctreeBlockTileKey octreeKey) throws IOException {
+        return Files.newInputStream(Paths.get(getKeyBlockPathURI(octreeKey)));
     }
 }
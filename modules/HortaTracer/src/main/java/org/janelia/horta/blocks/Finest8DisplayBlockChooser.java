@@ -2,7 +2,6 @@ package org.janelia.horta.blocks;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import org.janelia.geometry3d.ConstVector3;
 import org.janelia.geometry3d.Vector3;
@@ -52,7 +51,7 @@ public class Finest8DisplayBlockChooser implements BlockChooser<KtxOctreeBlockTi
             }
         }
         // Sort the blocks strictly by distance to focus
-        Collections.sort(neighboringBlocks, new BlockComparator(focus));
+        Collections.sort(neighboringBlocks, new BlockDistanceComparator(focus));
 
         // Return only the closest 8 blocks
         List<KtxOctreeBlockTileKey> result = new ArrayList<>();
@@ -64,23 +63,4 @@ public class Finest8DisplayBlockChooser implements BlockChooser<KtxOctreeBlockTi
         return result;
     }
 
-    // Sort blocks by distance from focus to block centroid
-    private static class BlockComparator<K extends BlockTileKey> implements Comparator<K> {
-    
-        private final ConstVector3 focus;
-
-        BlockComparator(ConstVector3 focus) {
-            this.focus = focus;
-        }
-
-        @Override
-        public int compare(K block1, K block2) {
-            ConstVector3 c1 = block1.getCentroid().minus(focus);
-            ConstVector3 c2 = block2.getCentroid().minus(focus);
-            float d1 = c1.dot(c1); // distance squared
-            float d2 = c2.dot(c2);
-            return d1 < d2 ? -1 : d1 > d2 ? 1 : 0;
-        }
-    }
-
 }
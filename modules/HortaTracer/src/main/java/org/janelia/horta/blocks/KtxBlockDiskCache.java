@@ -0,0 +1,397 @@
+package org.janelia.horta.blocks;
+
+import com.google.common.hash.Hashing;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size-bounded cache of KTX octree blocks on the local disk, shared by all
+ * cached block sources.
+ *
+ * Each source gets its own sub-directory, and each block is stored as one
+ * file under its octree path. The least recently used blocks are evicted
+ * first. File modification times record the last use, so the order
+ * survives restarts.
+ */
+public class KtxBlockDiskCache {
+    private static final Logger LOG = LoggerFactory.getLogger(KtxBlockDiskCache.class);
+
+    private static final String CONSOLE_PREFS_DIR = System.getProperty("user.home") + ConsoleProperties.getString("Console.Home.Path");
+    private static final String LOCAL_CACHE_ROOT = ConsoleProperties.getString("console.localCache.rootDirectory", CONSOLE_PREFS_DIR);
+    private static final String CACHE_DIRECTORY_NAME = ConsoleProperties.getString("console.hortaKtxCache.name", ".horta-ktx-cache");
+    private static final long MAX_CACHE_SIZE = ConsoleProperties.getLong("console.hortaKtxCache.maxSizeBytes", 8L * 1024 * 1024 * 1024);
+    // Blocks are downloaded next to their final location, then moved into place
+    private static final String PARTIAL_FILE_EXT = ".part";
+    private static final int KTX_HEADER_SIZE = 64;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static KtxBlockDiskCache instance;
+    private static boolean instanceCreated = false;
+
+    /**
+     * @return the cache configured for this console, or null if the cache is
+     * disabled or its directory cannot be used.
+     */
+    public static synchronized KtxBlockDiskCache getInstance() {
+        if (!instanceCreated) {
+            instanceCreated = true;
+            if (MAX_CACHE_SIZE > 0) {
+                try {
+                    instance = new KtxBlockDiskCache(Paths.get(LOCAL_CACHE_ROOT, CACHE_DIRECTORY_NAME), MAX_CACHE_SIZE);
+                } catch (IOException e) {
+                    LOG.warn("Error opening KTX block cache in {}; blocks will not be cached", LOCAL_CACHE_ROOT, e);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static class Entry {
+        final long size;
+        boolean verified; // header checked against the file size since startup
+
+        Entry(long size, boolean verified) {
+            this.size = size;
+            this.verified = verified;
+        }
+    }
+
+    private final Path cacheDir;
+    private final long maxSizeBytes;
+    // In access order, so that iteration starts with the least recently used block
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private long totalBytes = 0;
+
+    KtxBlockDiskCache(Path cacheDir, long maxSizeBytes) throws IOException {
+        this.cacheDir = cacheDir;
+        this.maxSizeBytes = maxSizeBytes;
+        Files.createDirectories(cacheDir);
+        loadEntries();
+    }
+
+    private void loadEntries() throws IOException {
+        List<Path> blockFiles;
+        try (Stream<Path> files = Files.walk(cacheDir)) {
+            blockFiles = files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        List<Map.Entry<Path, FileTime>> lastUses = new ArrayList<>();
+        for (Path blockFile : blockFiles) {
+            try {
+                if (blockFile.getFileName().toString().endsWith(PARTIAL_FILE_EXT)) {
+                    Files.deleteIfExists(blockFile); // left behind by an interrupted download
+                } else {
+                    lastUses.add(new AbstractMap.SimpleImmutableEntry<>(blockFile, Files.getLastModifiedTime(blockFile)));
+                }
+            } catch (IOException e) {
+                LOG.warn("Error reading cached block {}", blockFile, e);
+            }
+        }
+        lastUses.sort(Comparator.comparing(Map.Entry::getValue));
+        synchronized (this) {
+            for (Map.Entry<Path, FileTime> lastUse : lastUses) {
+                try {
+                    long size = Files.size(lastUse.getKey());
+                    entries.put(lastUse.getKey(), new Entry(size, false));
+                    totalBytes += size;
+                } catch (IOException e) {
+                    LOG.warn("Error reading cached block {}", lastUse.getKey(), e);
+                }
+            }
+            evict();
+        }
+        LOG.info("KTX block cache {} holds {} blocks, {} bytes", cacheDir, entries.size(), totalBytes);
+    }
+
+    /**
+     * @param sourceKey identifies the block source, e.g. its server and base path
+     * @param blockPath relative path of the block within the source
+     * @return the cached block file, or null if the block is not cached or
+     * the cached copy is damaged.
+     */
+    public Path get(String sourceKey, String blockPath) {
+        Path blockFile = getBlockFile(sourceKey, blockPath);
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(blockFile);
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.verified) {
+            // Check each block once per session, in case the disk was tampered with
+            if (!isCompleteKtxBlock(blockFile)) {
+                LOG.warn("Removing damaged block {} from the cache", blockFile);
+                remove(blockFile);
+                return null;
+            }
+            entry.verified = true;
+        }
+        try {
+            Files.setLastModifiedTime(blockFile, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // It was evicted meanwhile
+            LOG.debug("Error touching cached block {}", blockFile, e);
+            remove(blockFile);
+            return null;
+        }
+        return blockFile;
+    }
+
+    /**
+     * Copies a block into the cache while it is read from the returned
+     * stream, so the caller does not wait for the whole block to download.
+     * The block is cached when the returned stream is closed, if it was read
+     * to the end and holds a complete KTX block; otherwise the copy is
+     * dropped. Closing the returned stream closes the block stream.
+     */
+    public InputStream cacheWhileReading(String sourceKey, String blockPath, InputStream blockStream) {
+        Path blockFile = getBlockFile(sourceKey, blockPath);
+        try {
+            Files.createDirectories(blockFile.getParent());
+            Path partialFile = Files.createTempFile(blockFile.getParent(), blockFile.getFileName().toString(), PARTIAL_FILE_EXT);
+            return new CachingInputStream(blockStream, blockFile, partialFile);
+        } catch (IOException e) {
+            LOG.warn("Error caching block {}; it will be read without caching", blockFile, e);
+            return blockStream;
+        }
+    }
+
+    /**
+     * Moves a completely downloaded block into place.
+     */
+    private void commit(Path partialFile, Path blockFile, long size) throws IOException {
+        if (!isCompleteKtxBlock(partialFile)) {
+            throw new IOException("Incomplete KTX block " + blockFile);
+        }
+        Files.move(partialFile, blockFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) {
+            Entry previous = entries.put(blockFile, new Entry(size, true));
+            if (previous != null) {
+                totalBytes -= previous.size;
+            }
+            totalBytes += size;
+            evict();
+        }
+    }
+
+    /**
+     * Passes a block through to its reader, writing each chunk to a partial
+     * file on the way. A failure to write only stops the caching.
+     */
+    private class CachingInputStream extends FilterInputStream {
+        private final Path blockFile;
+        private final Path partialFile;
+        private FileChannel channel;
+        private long size = 0;
+        private boolean endReached = false;
+        private boolean closed = false;
+
+        CachingInputStream(InputStream blockStream, Path blockFile, Path partialFile) throws IOException {
+            super(blockStream);
+            this.blockFile = blockFile;
+            this.partialFile = partialFile;
+            this.channel = FileChannel.open(partialFile, StandardOpenOption.WRITE);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int readCount = read(single, 0, 1);
+            return readCount < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int readCount = in.read(buffer, offset, length);
+            if (readCount < 0) {
+                endReached = true;
+            } else if (readCount > 0 && channel != null) {
+                try {
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, offset, readCount);
+                    while (chunk.hasRemaining()) {
+                        channel.write(chunk);
+                    }
+                    size += readCount;
+                } catch (IOException e) {
+                    LOG.warn("Error writing block {} to the cache", blockFile, e);
+                    closeChannel();
+                }
+            }
+            return readCount;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes are still needed in the cache
+            byte[] buffer = new byte[(int) Math.min(n, COPY_BUFFER_SIZE)];
+            long skipped = 0;
+            while (skipped < n) {
+                int readCount = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+                if (readCount < 0) {
+                    break;
+                }
+                skipped += readCount;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                in.close();
+            } finally {
+                boolean written = channel != null;
+                closeChannel();
+                try {
+                    if (written && endReached) {
+                        commit(partialFile, blockFile, size);
+                    } else {
+                        LOG.debug("Block {} was not read to the end, not caching it", blockFile);
+                    }
+                } catch (IOException e) {
+                    LOG.warn("Error caching block {}", blockFile, e);
+                } finally {
+                    Files.deleteIfExists(partialFile);
+                }
+            }
+        }
+
+        private void closeChannel() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    LOG.debug("Error closing {}", partialFile, e);
+                }
+                channel = null;
+            }
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    Path getBlockFile(String sourceKey, String blockPath) {
+        // Source keys are URLs and paths, so hash them into a safe directory name
+        String sourceDir = Hashing.sha256().hashString(sourceKey, StandardCharsets.UTF_8).toString();
+        return cacheDir.resolve(sourceDir).resolve(blockPath);
+    }
+
+    private synchronized void remove(Path blockFile) {
+        Entry entry = entries.remove(blockFile);
+        if (entry != null) {
+            totalBytes -= entry.size;
+        }
+        deleteBlockFile(blockFile);
+    }
+
+    private synchronized void evict() {
+        Iterator<Map.Entry<Path, Entry>> leastRecentlyUsed = entries.entrySet().iterator();
+        while (totalBytes > maxSizeBytes && leastRecentlyUsed.hasNext()) {
+            Map.Entry<Path, Entry> evicted = leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+            totalBytes -= evicted.getValue().size;
+            deleteBlockFile(evicted.getKey());
+        }
+    }
+
+    private void deleteBlockFile(Path blockFile) {
+        try {
+            Files.deleteIfExists(blockFile);
+        } catch (IOException e) {
+            // Most likely still open by a reader; it will be picked up again on the next start
+            LOG.debug("Error deleting cached block {}", blockFile, e);
+        }
+    }
+
+    /**
+     * Checks that the file is as long as its KTX header and mipmap sizes
+     * say it should be, so truncated downloads are never used.
+     */
+    static boolean isCompleteKtxBlock(Path blockFile) {
+        try (FileChannel channel = FileChannel.open(blockFile, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < KTX_HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer header = ByteBuffer.allocate(KTX_HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            // The endianness marker follows the 12 byte identifier
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(12) != 0x04030201) {
+                header.order(ByteOrder.BIG_ENDIAN);
+                if (header.getInt(12) != 0x04030201) {
+                    return false;
+                }
+            }
+            long mipmapLevels = header.getInt(56) & 0xffffffffL;
+            long keyValueBytes = header.getInt(60) & 0xffffffffL;
+            long position = KTX_HEADER_SIZE + keyValueBytes;
+            ByteBuffer sizeBuf = ByteBuffer.allocate(4);
+            sizeBuf.order(header.order());
+            for (long m = 0; m < Math.max(1, mipmapLevels); ++m) {
+                if (position + 4 > fileSize) {
+                    return false;
+                }
+                sizeBuf.clear();
+                readFully(channel, sizeBuf, position);
+                sizeBuf.flip();
+                long imageSize = sizeBuf.getInt() & 0xffffffffL;
+                position += 4 + imageSize;
+                if (position > fileSize) {
+                    return false;
+                }
+                position += 3 - ((imageSize + 3) % 4); // padding, optional after the last mipmap
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.debug("Error checking cached block {}", blockFile, e);
+            return false;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int readCount = channel.read(buffer, position);
+            if (readCount < 0) {
+                throw new IOException("Unexpected end of " + channel);
+            }
+            position += readCount;
+        }
+    }
+
+}
@@ -7,6 +7,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.janelia.console.viewerapi.ComposableObservable;
 import org.janelia.horta.actors.TetVolumeActor;
 import org.janelia.horta.actors.TetVolumeMeshActor;
+import org.janelia.horta.ktx.KtxBufferPool;
 import org.janelia.horta.ktx.KtxData;
 import org.janelia.horta.loader.DataSource;
 import org.slf4j.Logger;
@@ -33,6 +34,7 @@ public class KtxBlockLoadRunner
     private DataSource ktxStreamDataSource;
     private KtxOctreeBlockTileSource ktxBlockTileSource;
     private KtxOctreeBlockTileKey ktxOctreeBlockTileKey;
+    private KtxBufferPool bufferPool; // null for blocks that are kept for good
 
     public State state = State.INITIAL;
     public TetVolumeMeshActor blockActor;
@@ -46,6 +48,11 @@ public class KtxBlockLoadRunner
         this.ktxOctreeBlockTileKey = key;
     }
 
+    public KtxBlockLoadRunner(KtxOctreeBlockTileSource source, KtxOctreeBlockTileKey key, KtxBufferPool bufferPool) {
+        this(source, key);
+        this.bufferPool = bufferPool;
+    }
+
     private void loadFromBlockSource() {
         try (InputStream is = ktxBlockTileSource.streamKeyBlock(ktxOctreeBlockTileKey)) {
             URI sourceURI = ktxBlockTileSource.getKeyBlockPathURI(ktxOctreeBlockTileKey);
@@ -69,7 +76,7 @@ public class KtxBlockLoadRunner
     private void loadStream(String sourceName, InputStream stream) {
         long start = System.nanoTime();
         state = State.LOADING;
-        KtxData ktxData = new KtxData();
+        KtxData ktxData = new KtxData(bufferPool);
         String blockDescription = "Some Ktx block...";
         if (ktxOctreeBlockTileKey != null) {
             blockDescription = ktxOctreeBlockTileKey.toString();
@@ -43,9 +43,7 @@ public abstract class KtxOctreeBlockTileSource implements BlockTileSource<KtxOct
     }
 
     public KtxOctreeBlockTileSource init(TmSample sample) {
-        Preconditions.checkArgument(sample.getFilepath() != null && sample.getFilepath().trim().length() > 0);
-        this.sampleKtxTilesBaseDir = getKtxBaseDir(sample.getFilepath());
-        this.sourceServerURL = getSourceServerURL(sample);
+        initLocation(sample);
         this.rootKey = new KtxOctreeBlockTileKey(this, Collections.<Integer>emptyList());
         this.rootHeader = createKtxHeader(rootKey);
         this.maximumResolution = createKtxResolution(rootHeader);
@@ -55,6 +53,15 @@ public abstract class KtxOctreeBlockTileSource implements BlockTileSource<KtxOct
         return this;
     }
 
+    /**
+     * Resolves where the blocks of the sample live, without reading any of them.
+     */
+    void initLocation(TmSample sample) {
+        Preconditions.checkArgument(sample.getFilepath() != null && sample.getFilepath().trim().length() > 0);
+        this.sampleKtxTilesBaseDir = getKtxBaseDir(sample.getFilepath());
+        this.sourceServerURL = getSourceServerURL(sample);
+    }
+
     protected String getKtxSubDir() {
         return "ktx/";
     }
@@ -142,7 +149,7 @@ public abstract class KtxOctreeBlockTileSource implements BlockTileSource<KtxOct
         );
     }
 
-    protected abstract InputStream streamKeyBlock(KtxOctreeBlockTileKey octreeKey);
+    protected abstract InputStream streamKeyBlock(KtxOctreeBlockTileKey octreeKey) throws IOException;
 
     @Override
     public BlockTileResolution getMaximumResolution() {
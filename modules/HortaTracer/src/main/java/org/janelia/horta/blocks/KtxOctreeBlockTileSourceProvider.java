@@ -11,7 +11,13 @@ public class KtxOctreeBlockTileSourceProvider {
     public static KtxOctreeBlockTileSource createKtxOctreeBlockTileSource(TmSample sample, URL renderedOctreeUrl) {
         Preconditions.checkArgument(sample.getFilepath() != null && sample.getFilepath().trim().length() > 0);
         if (ApplicationOptions.getInstance().isUseHTTPForTileAccess()) {
-            return new JadeKtxOctreeBlockTileSource(new JadeServiceClient(), renderedOctreeUrl).init(sample);
+            KtxOctreeBlockTileSource remoteSource = new JadeKtxOctreeBlockTileSource(new JadeServiceClient(), renderedOctreeUrl);
+            KtxBlockDiskCache diskCache = KtxBlockDiskCache.getInstance();
+            if (diskCache != null) {
+                // Keep downloaded blocks around, so revisited regions load from the local disk
+                return new CachedKtxOctreeBlockTileSource(remoteSource, diskCache).init(sample);
+            }
+            return remoteSource.init(sample);
         } else {
             return new FileKtxOctreeBlockTileSource(renderedOctreeUrl).init(sample);
         }
@@ -5,6 +5,8 @@ import java.util.Collection;
 import java.util.Map;
 import javax.media.opengl.GL3;
 import org.janelia.horta.actors.SortableBlockActor;
+import org.janelia.horta.actors.TetVolumeMeshActor;
+import org.janelia.horta.ktx.KtxBufferPool;
 
 /**
  *
@@ -27,20 +29,28 @@ public class KtxTileCache extends BasicTileCache<KtxOctreeBlockTileKey, Sortable
         return new LoadRunner<KtxOctreeBlockTileKey, SortableBlockActor>() {
             @Override
             public SortableBlockActor loadTile(KtxOctreeBlockTileKey key) throws InterruptedException, IOException {
-                final KtxBlockLoadRunner loader = new KtxBlockLoadRunner(source, key);
+                final KtxBlockLoadRunner loader = new KtxBlockLoadRunner(source, key, KtxBufferPool.getInstance());
                 loader.run();
                 return loader.blockActor;
             }
         };
     }
 
+    @Override
+    void disposeUnusedTile(SortableBlockActor actor) {
+        // Only its mipmaps need to go back to the pool
+        if (actor instanceof TetVolumeMeshActor) {
+            ((TetVolumeMeshActor) actor).releaseTextureData();
+        }
+    }
+
     public void disposeObsoleteTiles(GL3 gl) {
         Collection<SortableBlockActor> obs = popObsoleteTiles();
         if (!obs.isEmpty()) {
             // log.info("Disposing {} tile(s)", obs.size());
         }
         for (SortableBlockActor actor : obs) {
-            actor.dispose(gl);
+            disposeActor(gl, actor);
         }
     }
 
@@ -50,8 +60,16 @@ public class KtxTileCache extends BasicTileCache<KtxOctreeBlockTileKey, Sortable
 
     private void disposeActorGroup(GL3 gl, Map<KtxOctreeBlockTileKey, SortableBlockActor> group) {
         for (SortableBlockActor actor : group.values()) {
-            actor.dispose(gl);
+            disposeActor(gl, actor);
         }
         group.clear();
     }
+
+    private void disposeActor(GL3 gl, SortableBlockActor actor) {
+        actor.dispose(gl);
+        // The texture is gone from the GPU, so its mipmaps can be reused for the next block
+        if (actor instanceof TetVolumeMeshActor) {
+            ((TetVolumeMeshActor) actor).releaseTextureData();
+        }
+    }
 }
@@ -0,0 +1,97 @@
+package org.janelia.horta.blocks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.janelia.geometry3d.ConstVector3;
+import org.janelia.geometry3d.Vector3;
+
+/**
+ * Displays the same blocks as another chooser, and prefetches the maximum
+ * resolution blocks around where the camera focus is heading.
+ */
+public class PredictiveBlockChooser implements PrefetchBlockChooser<KtxOctreeBlockTileKey, KtxOctreeBlockTileSource> {
+
+    // How far ahead to extrapolate the camera motion
+    private static final float LOOKAHEAD_SECONDS = 0.5f;
+    // Never predict more than this many blocks away from the current focus
+    private static final float MAX_LOOKAHEAD_BLOCKS = 1.5f;
+    private static final int MAX_PREFETCH_BLOCKS = 8;
+    // Relative change of the view height per second, beyond which the view counts as zooming out
+    private static final float ZOOM_OUT_RATE = 0.2f;
+
+    private final BlockChooser<KtxOctreeBlockTileKey, KtxOctreeBlockTileSource> displayChooser;
+
+    public PredictiveBlockChooser(BlockChooser<KtxOctreeBlockTileKey, KtxOctreeBlockTileSource> displayChooser) {
+        this.displayChooser = displayChooser;
+    }
+
+    @Override
+    public List<KtxOctreeBlockTileKey> chooseBlocks(KtxOctreeBlockTileSource source, ConstVector3 focus, ConstVector3 previousFocus) {
+        return displayChooser.chooseBlocks(source, focus, previousFocus);
+    }
+
+    @Override
+    public List<KtxOctreeBlockTileKey> choosePrefetchBlocks(KtxOctreeBlockTileSource source, ConstVector3 focus,
+            CameraMotion motion, List<KtxOctreeBlockTileKey> displayedBlocks) {
+        ConstVector3 blockSize = source.getMaximumResolutionBlockSize();
+        Vector3 predictedFocus = clampedPrediction(motion.predictFocus(focus, LOOKAHEAD_SECONDS), focus, blockSize);
+
+        // What the display chooser would show from the predicted focus comes first...
+        Set<KtxOctreeBlockTileKey> candidates = new LinkedHashSet<>(
+                displayChooser.chooseBlocks(source, predictedFocus, focus));
+        // ...then the rest of the neighborhood, nearest to the predicted focus first
+        List<KtxOctreeBlockTileKey> neighbors = neighborhood(source, predictedFocus, blockSize);
+        neighbors.sort(new BlockDistanceComparator(predictedFocus));
+        candidates.addAll(neighbors);
+        candidates.removeAll(new HashSet<>(displayedBlocks));
+
+        // A widening view will soon show more of the neighborhood
+        int maxBlocks = motion.getZoomRate() > ZOOM_OUT_RATE ? 2 * MAX_PREFETCH_BLOCKS : MAX_PREFETCH_BLOCKS;
+        List<KtxOctreeBlockTileKey> result = new ArrayList<>();
+        for (KtxOctreeBlockTileKey key : candidates) {
+            if (result.size() >= maxBlocks) {
+                break;
+            }
+            result.add(key);
+        }
+        return result;
+    }
+
+    private static Vector3 clampedPrediction(Vector3 predictedFocus, ConstVector3 focus, ConstVector3 blockSize) {
+        Vector3 step = predictedFocus.minus(focus);
+        float[] maxSteps = {
+            MAX_LOOKAHEAD_BLOCKS * blockSize.getX(),
+            MAX_LOOKAHEAD_BLOCKS * blockSize.getY(),
+            MAX_LOOKAHEAD_BLOCKS * blockSize.getZ()};
+        float scale = 1.0f;
+        for (int i = 0; i < 3; ++i) {
+            float s = Math.abs(step.get(i));
+            if (s > maxSteps[i]) {
+                scale = Math.min(scale, maxSteps[i] / s);
+            }
+        }
+        return step.multiplyScalar(scale).add(focus);
+    }
+
+    // The up to 27 blocks in and next to the block containing the location
+    private static List<KtxOctreeBlockTileKey> neighborhood(KtxOctreeBlockTileSource source, ConstVector3 location, ConstVector3 blockSize) {
+        BlockTileResolution maxResolution = source.getMaximumResolution();
+        List<KtxOctreeBlockTileKey> result = new ArrayList<>();
+        for (int dx = -1; dx <= 1; ++dx) {
+            for (int dy = -1; dy <= 1; ++dy) {
+                for (int dz = -1; dz <= 1; ++dz) {
+                    Vector3 offset = new Vector3(dx * blockSize.getX(), dy * blockSize.getY(), dz * blockSize.getZ());
+                    KtxOctreeBlockTileKey tileKey = source.getBlockKeyAt(offset.add(location), maxResolution);
+                    if (tileKey != null && !result.contains(tileKey)) {
+                        result.add(tileKey);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,16 @@
+package org.janelia.horta.blocks;
+
+import java.util.List;
+import org.janelia.geometry3d.ConstVector3;
+
+/**
+ * Block chooser that also predicts which blocks will be needed next, so they
+ * can be loaded before the camera gets there.
+ */
+public interface PrefetchBlockChooser<K extends BlockTileKey, S extends BlockTileSource<K>> extends BlockChooser<K, S> {
+    /**
+     * @return blocks to load in the background, in order of decreasing
+     * importance, none of which are among the displayed blocks.
+     */
+    List<K> choosePrefetchBlocks(S source, ConstVector3 focus, CameraMotion motion, List<K> displayedBlocks);
+}
@@ -0,0 +1,106 @@
+package org.janelia.horta.ktx;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pool of direct byte buffers for KTX mipmap data.
+ *
+ * Requests are rounded up to a power-of-two size class, so the mipmaps of
+ * blocks from the same sample share a handful of classes and buffers freed
+ * by one block are reused for the next. Handed-out buffers have their limit
+ * set to the requested size. The number of idle bytes kept is bounded;
+ * anything above that is left for the garbage collector.
+ */
+public class KtxBufferPool {
+
+    private static final int MIN_CLASS_BYTES = 4096;
+    private static final long DEFAULT_MAX_IDLE_BYTES = 256L * 1024 * 1024;
+
+    private static final KtxBufferPool instance = new KtxBufferPool(DEFAULT_MAX_IDLE_BYTES);
+
+    public static KtxBufferPool getInstance() {
+        return instance;
+    }
+
+    private final Map<Integer, Deque<ByteBuffer>> freeBuffers = new HashMap<>();
+    private final long maxIdleBytes;
+    private long idleBytes = 0;
+
+    public KtxBufferPool(long maxIdleBytes) {
+        this.maxIdleBytes = maxIdleBytes;
+    }
+
+    static int sizeClass(int size) {
+        if (size <= MIN_CLASS_BYTES) {
+            return MIN_CLASS_BYTES;
+        }
+        int highBit = Integer.highestOneBit(size);
+        if (highBit == size) {
+            return size;
+        }
+        // Sizes beyond the largest int power of two get a buffer of their own
+        return highBit << 1 > 0 ? highBit << 1 : size;
+    }
+
+    /**
+     * Returns a direct buffer with position zero and limit at the requested
+     * size. Its capacity may be larger.
+     */
+    public ByteBuffer acquire(int size) {
+        int capacity = sizeClass(size);
+        ByteBuffer result = null;
+        synchronized (this) {
+            Deque<ByteBuffer> buffers = freeBuffers.get(capacity);
+            if (buffers != null) {
+                result = buffers.pollFirst();
+            }
+            if (result != null) {
+                idleBytes -= capacity;
+            }
+        }
+        if (result == null) {
+            result = ByteBuffer.allocateDirect(capacity);
+        }
+        result.clear();
+        result.limit(size);
+        return result;
+    }
+
+    /**
+     * Hands a buffer obtained from {@link #acquire(int)} back to the pool.
+     * The caller must not touch the buffer afterwards.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        if (sizeClass(capacity) != capacity) {
+            return; // not one of ours
+        }
+        if (idleBytes + capacity > maxIdleBytes) {
+            return;
+        }
+        Deque<ByteBuffer> buffers = freeBuffers.get(capacity);
+        if (buffers == null) {
+            buffers = new ArrayDeque<>();
+            freeBuffers.put(capacity, buffers);
+        }
+        buffers.addFirst(buffer);
+        idleBytes += capacity;
+    }
+
+    public synchronized void clear() {
+        freeBuffers.clear();
+        idleBytes = 0;
+    }
+
+    public synchronized long getIdleBytes() {
+        return idleBytes;
+    }
+
+}
@@ -3,6 +3,8 @@ package org.janelia.horta.ktx;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -15,73 +17,112 @@ public class KtxData {
     public final KtxHeader header = new KtxHeader();
     public final List<ByteBuffer> mipmaps = new ArrayList<>();
 
-    private final byte[] unused = new byte[4]; // for bulk reading of unused padding bytes
+    private final KtxBufferPool bufferPool; // null means allocate each mipmap afresh
+    private final ByteBuffer unused = ByteBuffer.allocate(4); // for bulk reading of unused padding bytes
     private final ByteBuffer sizeBuf = ByteBuffer.allocate(4); // to hold binary representation of image size
 
+    public KtxData() {
+        this(null);
+    }
+
+    /**
+     * @param bufferPool where to take mipmap buffers from; give them back
+     * with {@link #releaseMipmaps()} once the data is no longer needed.
+     */
+    public KtxData(KtxBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
     public KtxData loadStream(InputStream stream) throws IOException {
-        header.loadStream(stream);
-        sizeBuf.order(header.byteOrder);
-        mipmaps.clear();
-        for (int m = 0; m < header.numberOfMipmapLevels; ++m) {
-            mipmaps.add(loadOneMipmap(stream, m));
+        try {
+            load(stream, false);
+        } catch (InterruptedException ex) {
+            throw new IllegalStateException(ex); // only thrown by interruptible loads
         }
         return this;
     }
 
     // Version of loadStream that allows fine-grained interruptions of the load process
     public void loadStreamInterruptably(InputStream stream) throws IOException, InterruptedException {
-        if (Thread.interrupted()) {
+        load(stream, true);
+    }
+
+    private void load(InputStream stream, boolean interruptible) throws IOException, InterruptedException {
+        if (interruptible && Thread.interrupted()) {
             throw new InterruptedException();
         }
         header.loadStream(stream);
         sizeBuf.order(header.byteOrder);
-        mipmaps.clear();
-        for (int m = 0; m < header.numberOfMipmapLevels; ++m) {
-            // Check for interruption before loading only the first/largest mipmaps
-            if ((m < 3) && Thread.interrupted()) {
+        releaseMipmaps();
+        // Neither the header reader nor the channel read ahead, so they can share the stream
+        ReadableByteChannel channel = Channels.newChannel(stream);
+        try {
+            for (int m = 0; m < header.numberOfMipmapLevels; ++m) {
+                // Check for interruption before loading only the first/largest mipmaps
+                if (interruptible && (m < 3) && Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                mipmaps.add(loadOneMipmap(channel, m));
+            }
+            if (interruptible && Thread.interrupted()) {
                 throw new InterruptedException();
             }
-            mipmaps.add(loadOneMipmap(stream, m));
-        }
-        if (Thread.interrupted()) {
-            throw new InterruptedException();
+        } catch (IOException | InterruptedException | RuntimeException ex) {
+            releaseMipmaps();
+            throw ex;
         }
     }
 
-    private ByteBuffer loadOneMipmap(InputStream stream, int mipmapLevel) throws IOException {
-        stream.read(sizeBuf.array());
-        sizeBuf.rewind();
-        int imageSize = (int) ((long) sizeBuf.getInt() & 0xffffffffL);
-        // TODO: figure out how to stream straight into the direct buffer
-        // For now, copy into the direct buffer
-        byte[] b = new byte[imageSize];
-        int bytesRead = 0;
-        bytesRead = stream.read(b, bytesRead, imageSize - bytesRead);
-        if (bytesRead < 1) {
-            throw new IOException("Error reading bytes for mipmap level " + (mipmapLevel + 1));
-        }
-        while (bytesRead < imageSize) {
-            int moreBytes = stream.read(b, bytesRead, imageSize - bytesRead);
-            if (moreBytes < 1) {
-                throw new IOException("Error reading mipmap number " + mipmapLevel);
+    /**
+     * Returns the mipmap buffers to the pool they came from. The mipmaps
+     * must not be used afterwards, e.g. they have already been uploaded to
+     * the GPU and the texture will not be created again.
+     */
+    public void releaseMipmaps() {
+        if (bufferPool != null) {
+            for (ByteBuffer mipmap : mipmaps) {
+                bufferPool.release(mipmap);
             }
-            bytesRead += moreBytes;
         }
-        if (bytesRead != imageSize) {
-            throw new IOException("Error reading mipmap number " + mipmapLevel);
-        }
-        // Use a DIRECT buffer for later efficient slurping into OpenGL
-        final boolean useDirect = true;
+        mipmaps.clear();
+    }
+
+    // Reads straight into a direct buffer, for later efficient slurping into OpenGL
+    private ByteBuffer loadOneMipmap(ReadableByteChannel channel, int mipmapLevel) throws IOException {
+        sizeBuf.clear();
+        readFully(channel, sizeBuf, mipmapLevel);
+        sizeBuf.flip();
+        int imageSize = (int) ((long) sizeBuf.getInt() & 0xffffffffL);
         ByteBuffer mipmap;
-        if (useDirect) {
-            mipmap = ByteBuffer.allocateDirect(imageSize);
-            mipmap.put(b);
+        if (bufferPool != null) {
+            mipmap = bufferPool.acquire(imageSize);
         } else {
-            mipmap = ByteBuffer.wrap(b);
+            mipmap = ByteBuffer.allocateDirect(imageSize);
+        }
+        try {
+            readFully(channel, mipmap, mipmapLevel);
+            mipmap.flip();
+            int padding = 3 - ((imageSize + 3) % 4);
+            unused.clear();
+            unused.limit(padding);
+            // Tolerate a missing pad after the last mipmap
+            while (unused.hasRemaining() && channel.read(unused) >= 0) {
+            }
+        } catch (IOException | RuntimeException ex) {
+            if (bufferPool != null) {
+                bufferPool.release(mipmap);
+            }
+            throw ex;
         }
-        int padding = 3 - ((imageSize + 3) % 4);
-        stream.read(unused, 0, padding);
         return mipmap;
     }
 
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer, int mipmapLevel) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Error reading mipmap number " + mipmapLevel);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,438 @@
+package org.janelia.horta.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Contents of one SWC file, in primitive arrays.
+ *
+ * The parser scans the raw bytes directly, without creating a String per
+ * line or per field, so parsing is cheap enough to run many files in parallel.
+ * Larger files are memory mapped rather than read.
+ *
+ * As before, "# OFFSET x y z" header lines shift the coordinates of the
+ * vertices that follow, and "# COLOR r,g,b" sets the neuron color.
+ */
+public class SwcArrays
+{
+    // Smaller files are cheaper to read than to map
+    private static final long MAP_THRESHOLD_BYTES = 256 * 1024;
+    // Bytes per line, used to guess the initial vertex capacity
+    private static final int TYPICAL_LINE_BYTES = 40;
+    // Powers of ten that a double holds exactly
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    // Mantissas with more digits than this are not exact in a double
+    private static final int MAX_FAST_DIGITS = 15;
+    // The 29 low bits of a double mantissa that a float drops, when they are exactly one half
+    private static final long FLOAT_DROPPED_BITS = (1L << 29) - 1;
+    private static final long FLOAT_HALFWAY_BITS = 1L << 28;
+
+    private int vertexCount = 0;
+    private int[] labels;
+    private int[] typeIndexes;
+    private float[] xyz;
+    private float[] radii;
+    private int[] parentLabels;
+    private float[] color = null;
+
+    private SwcArrays(int capacity) {
+        labels = new int[capacity];
+        typeIndexes = new int[capacity];
+        xyz = new float[3 * capacity];
+        radii = new float[capacity];
+        parentLabels = new int[capacity];
+    }
+
+    public static SwcArrays read(File swcFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(swcFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("SWC file too large: " + swcFile.getAbsolutePath());
+            ByteBuffer bytes;
+            if (size >= MAP_THRESHOLD_BYTES) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            else {
+                bytes = ByteBuffer.allocate((int) size);
+                while (bytes.hasRemaining()) {
+                    if (channel.read(bytes) < 0)
+                        break;
+                }
+                bytes.flip();
+            }
+            return parse(bytes, swcFile.getName());
+        }
+    }
+
+    public static SwcArrays read(InputStream swcStream, String fileName) throws IOException {
+        return parse(ByteBuffer.wrap(IOUtils.toByteArray(swcStream)), fileName);
+    }
+
+    public static SwcArrays parse(ByteBuffer bytes, String fileName) throws IOException {
+        return new Parser(bytes, fileName).parse();
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getLabel(int index) {
+        return labels[index];
+    }
+
+    public int getTypeIndex(int index) {
+        return typeIndexes[index];
+    }
+
+    public float getX(int index) {
+        return xyz[3 * index];
+    }
+
+    public float getY(int index) {
+        return xyz[3 * index + 1];
+    }
+
+    public float getZ(int index) {
+        return xyz[3 * index + 2];
+    }
+
+    public float getRadius(int index) {
+        return radii[index];
+    }
+
+    public int getParentLabel(int index) {
+        return parentLabels[index];
+    }
+
+    /**
+     * @return red, green, blue in the range 0-1, or null if the file names no color
+     */
+    public float[] getColor() {
+        return color;
+    }
+
+    /**
+     * Resolves parent labels, after the whole file is read, in case node
+     * order is imperfect. A later vertex wins when labels repeat.
+     * @return for each vertex, the index of its parent vertex, or -1 for none
+     */
+    public int[] getParentIndexes() {
+        int[] result = new int[vertexCount];
+        int minLabel = Integer.MAX_VALUE;
+        int maxLabel = Integer.MIN_VALUE;
+        for (int i = 0; i < vertexCount; ++i) {
+            minLabel = Math.min(minLabel, labels[i]);
+            maxLabel = Math.max(maxLabel, labels[i]);
+        }
+        if ( (vertexCount > 0) && (minLabel >= 0) && (maxLabel < 4L * vertexCount + 1024) ) {
+            // Labels are usually 1..N, so a flat table beats a hash map
+            int[] indexForLabel = new int[maxLabel + 1];
+            Arrays.fill(indexForLabel, -1);
+            for (int i = 0; i < vertexCount; ++i)
+                indexForLabel[labels[i]] = i;
+            for (int i = 0; i < vertexCount; ++i) {
+                int parentLabel = parentLabels[i];
+                result[i] = ( (parentLabel >= 0) && (parentLabel <= maxLabel) ) ? indexForLabel[parentLabel] : -1;
+            }
+        }
+        else {
+            Map<Integer, Integer> indexForLabel = new HashMap<>();
+            for (int i = 0; i < vertexCount; ++i)
+                indexForLabel.put(labels[i], i);
+            for (int i = 0; i < vertexCount; ++i) {
+                Integer parentIndex = (parentLabels[i] >= 0) ? indexForLabel.get(parentLabels[i]) : null;
+                result[i] = (parentIndex == null) ? -1 : parentIndex;
+            }
+        }
+        for (int i = 0; i < vertexCount; ++i) {
+            if (result[i] == i)
+                result[i] = -1; // a vertex is not its own parent
+        }
+        return result;
+    }
+
+    private void addVertex(int label, int typeIndex, float x, float y, float z, float radius, int parentLabel) {
+        if (vertexCount == labels.length) {
+            int capacity = 2 * labels.length;
+            labels = Arrays.copyOf(labels, capacity);
+            typeIndexes = Arrays.copyOf(typeIndexes, capacity);
+            xyz = Arrays.copyOf(xyz, 3 * capacity);
+            radii = Arrays.copyOf(radii, capacity);
+            parentLabels = Arrays.copyOf(parentLabels, capacity);
+        }
+        labels[vertexCount] = label;
+        typeIndexes[vertexCount] = typeIndex;
+        xyz[3 * vertexCount] = x;
+        xyz[3 * vertexCount + 1] = y;
+        xyz[3 * vertexCount + 2] = z;
+        radii[vertexCount] = radius;
+        parentLabels[vertexCount] = parentLabel;
+        vertexCount += 1;
+    }
+
+    private static class Parser
+    {
+        private static final byte[] OFFSET_KEY = "OFFSET".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] COLOR_KEY = "COLOR".getBytes(StandardCharsets.US_ASCII);
+
+        private final ByteBuffer bytes;
+        private final String fileName;
+        private final int limit;
+        private int pos;
+        private int lineEnd;
+        private int lineNumber = 0;
+        // Start and end of the most recent token
+        private int tokenStart;
+        private int tokenEnd;
+        private final float[] offset = {0, 0, 0};
+        private final float[] triple = new float[3];
+
+        Parser(ByteBuffer bytes, String fileName) {
+            this.bytes = bytes;
+            this.fileName = fileName;
+            this.pos = bytes.position();
+            this.limit = bytes.limit();
+        }
+
+        SwcArrays parse() throws IOException {
+            SwcArrays result = new SwcArrays(Math.max(16, (limit - pos) / TYPICAL_LINE_BYTES));
+            while (pos < limit) {
+                lineNumber += 1;
+                lineEnd = pos;
+                while ( (lineEnd < limit) && (bytes.get(lineEnd) != '\n') )
+                    lineEnd += 1;
+                skipWhitespace();
+                if (pos < lineEnd) {
+                    if (bytes.get(pos) == '#')
+                        parseHeader(result);
+                    else
+                        parseVertex(result);
+                }
+                pos = lineEnd + 1;
+            }
+            return result;
+        }
+
+        // 1 2 77299.3 56354.5 22206.5 1.00 -1
+        private void parseVertex(SwcArrays result) throws IOException {
+            int lineStart = pos;
+            for (int f = 0; f < 7; ++f) {
+                if (! nextToken())
+                    return; // too few fields; blank line?
+            }
+            pos = lineStart;
+            nextToken();
+            int label = tokenToInt();
+            nextToken();
+            int typeIndex = tokenToInt();
+            nextToken();
+            float x = tokenToFloat();
+            nextToken();
+            float y = tokenToFloat();
+            nextToken();
+            float z = tokenToFloat();
+            nextToken();
+            float radius = tokenToFloat();
+            nextToken();
+            int parentLabel = tokenToInt();
+            result.addVertex(label, typeIndex,
+                    x + offset[0], y + offset[1], z + offset[2],
+                    radius, parentLabel);
+        }
+
+        // # OFFSET 77277.017247 44351.723117 24137.592725
+        // # COLOR 0.000000,1.000000,0.000000
+        private void parseHeader(SwcArrays result) {
+            pos += 1; // skip '#'
+            skipWhitespace();
+            if (matchKey(OFFSET_KEY)) {
+                if (parseTriple())
+                    System.arraycopy(triple, 0, offset, 0, 3);
+            }
+            else if (matchKey(COLOR_KEY)) {
+                if (parseTriple())
+                    result.color = triple.clone();
+            }
+            // other comments are ignored
+        }
+
+        private boolean matchKey(byte[] key) {
+            if (pos + key.length > lineEnd)
+                return false;
+            for (int i = 0; i < key.length; ++i) {
+                if (bytes.get(pos + i) != key[i])
+                    return false;
+            }
+            int after = pos + key.length;
+            if ( (after < lineEnd) && ! isWhitespace(bytes.get(after)) )
+                return false;
+            pos = after;
+            return true;
+        }
+
+        // Three numbers separated by spaces and/or commas, then nothing else
+        private boolean parseTriple() {
+            try {
+                for (int i = 0; i < 3; ++i) {
+                    while ( (pos < lineEnd) && (isWhitespace(bytes.get(pos)) || (bytes.get(pos) == ',')) )
+                        pos += 1;
+                    tokenStart = pos;
+                    while ( (pos < lineEnd) && ! isWhitespace(bytes.get(pos)) && (bytes.get(pos) != ',') )
+                        pos += 1;
+                    tokenEnd = pos;
+                    if (tokenEnd == tokenStart)
+                        return false;
+                    triple[i] = tokenToFloat();
+                }
+            } catch (IOException ex) {
+                return false; // malformed headers are ignored, like other comments
+            }
+            skipWhitespace();
+            return pos == lineEnd;
+        }
+
+        private boolean nextToken() {
+            skipWhitespace();
+            if (pos >= lineEnd)
+                return false;
+            tokenStart = pos;
+            while ( (pos < lineEnd) && ! isWhitespace(bytes.get(pos)) )
+                pos += 1;
+            tokenEnd = pos;
+            return true;
+        }
+
+        private void skipWhitespace() {
+            while ( (pos < lineEnd) && isWhitespace(bytes.get(pos)) )
+                pos += 1;
+        }
+
+        private static boolean isWhitespace(byte b) {
+            return (b == ' ') || (b == '\t') || (b == '\r') || (b == '\f');
+        }
+
+        private int tokenToInt() throws IOException {
+            int i = tokenStart;
+            boolean negative = false;
+            byte b = bytes.get(i);
+            if ( (b == '-') || (b == '+') ) {
+                negative = (b == '-');
+                i += 1;
+            }
+            if (i == tokenEnd)
+                throw badNumber();
+            long value = 0;
+            for (; i < tokenEnd; ++i) {
+                int digit = bytes.get(i) - '0';
+                if ( (digit < 0) || (digit > 9) )
+                    throw badNumber();
+                value = 10 * value + digit;
+                if (value > Integer.MAX_VALUE + 1L)
+                    throw badNumber();
+            }
+            if (negative)
+                value = -value;
+            if (value > Integer.MAX_VALUE)
+                throw badNumber();
+            return (int) value;
+        }
+
+        private float tokenToFloat() throws IOException {
+            int i = tokenStart;
+            boolean negative = false;
+            byte b = bytes.get(i);
+            if ( (b == '-') || (b == '+') ) {
+                negative = (b == '-');
+                i += 1;
+            }
+            long mantissa = 0;
+            int digitCount = 0;
+            int fractionDigits = 0;
+            boolean seenDigit = false;
+            boolean seenPoint = false;
+            for (; i < tokenEnd; ++i) {
+                b = bytes.get(i);
+                if ( (b >= '0') && (b <= '9') ) {
+                    seenDigit = true;
+                    if ( (mantissa == 0) && (b == '0') && ! seenPoint )
+                        continue; // leading zero
+                    mantissa = 10 * mantissa + (b - '0');
+                    digitCount += 1;
+                    if (seenPoint)
+                        fractionDigits += 1;
+                }
+                else if ( (b == '.') && ! seenPoint )
+                    seenPoint = true;
+                else
+                    break;
+            }
+            int exponent = 0;
+            if ( (i < tokenEnd) && ((b == 'e') || (b == 'E')) ) {
+                i += 1;
+                boolean negativeExponent = false;
+                if ( (i < tokenEnd) && ((bytes.get(i) == '-') || (bytes.get(i) == '+')) ) {
+                    negativeExponent = (bytes.get(i) == '-');
+                    i += 1;
+                }
+                int exponentStart = i;
+                for (; (i < tokenEnd) && (exponent < 1000); ++i) {
+                    int digit = bytes.get(i) - '0';
+                    if ( (digit < 0) || (digit > 9) )
+                        break;
+                    exponent = 10 * exponent + digit;
+                }
+                if (i == exponentStart)
+                    return slowTokenToFloat();
+                if (negativeExponent)
+                    exponent = -exponent;
+            }
+            if (i != tokenEnd)
+                return slowTokenToFloat(); // e.g. NaN, or junk
+            if (! seenDigit)
+                throw badNumber();
+            exponent -= fractionDigits;
+            if ( (digitCount > MAX_FAST_DIGITS) || (Math.abs(exponent) >= POWERS_OF_TEN.length) )
+                return slowTokenToFloat();
+            double value = mantissa;
+            if (exponent < 0)
+                value /= POWERS_OF_TEN[-exponent];
+            else
+                value *= POWERS_OF_TEN[exponent];
+            // The double is correctly rounded, and so is the float made from it,
+            // unless the double landed exactly halfway between two floats
+            if ( (Double.doubleToRawLongBits(value) & FLOAT_DROPPED_BITS) == FLOAT_HALFWAY_BITS )
+                return slowTokenToFloat();
+            return (float) (negative ? -value : value);
+        }
+
+        private float slowTokenToFloat() throws IOException {
+            byte[] token = new byte[tokenEnd - tokenStart];
+            for (int i = 0; i < token.length; ++i)
+                token[i] = bytes.get(tokenStart + i);
+            try {
+                return Float.parseFloat(new String(token, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException ex) {
+                throw badNumber();
+            }
+        }
+
+        private IOException badNumber() {
+            byte[] token = new byte[tokenEnd - tokenStart];
+            for (int i = 0; i < token.length; ++i)
+                token[i] = bytes.get(tokenStart + i);
+            return new IOException("Bad number '" + new String(token, StandardCharsets.US_ASCII)
+                    + "' at line " + lineNumber + " of " + fileName);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.janelia.horta.loader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Times bulk SWC parsing over a folder of synthetic neurons.
+ *
+ * Usage: SwcLoadBenchmark [neuronCount [verticesPerNeuron [folder]]]
+ *
+ * Compares the old String-splitting line parser with SwcArrays, on one thread
+ * and on all cores. Without a folder argument, the synthetic files go into a
+ * temporary folder that is deleted afterwards.
+ */
+public class SwcLoadBenchmark
+{
+    private static final int REPEATS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int neuronCount = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        int vertexCount = (args.length > 1) ? Integer.parseInt(args[1]) : 5000;
+        boolean isTemporary = (args.length <= 2);
+        File folder = isTemporary
+                ? Files.createTempDirectory("swcbenchmark").toFile()
+                : new File(args[2]);
+        try {
+            List<File> files = writeSyntheticNeurons(folder, neuronCount, vertexCount);
+            System.out.printf("%d neurons of %d vertices, in %s%n", neuronCount, vertexCount, folder);
+            for (int r = 0; r < REPEATS; ++r) {
+                time("split lines, 1 thread", files, 1, false);
+                time("SwcArrays,   1 thread", files, 1, true);
+                int threadCount = Runtime.getRuntime().availableProcessors();
+                time("SwcArrays, " + threadCount + " threads", files, threadCount, true);
+            }
+        }
+        finally {
+            if (isTemporary)
+                FileUtils.deleteQuietly(folder);
+        }
+    }
+
+    private static List<File> writeSyntheticNeurons(File folder, int neuronCount, int vertexCount)
+            throws IOException
+    {
+        folder.mkdirs();
+        Random random = new Random(1234);
+        List<File> result = new ArrayList<>();
+        for (int n = 0; n < neuronCount; ++n) {
+            File file = new File(folder, String.format("neuron_%05d.swc", n));
+            result.add(file);
+            if (file.exists())
+                continue;
+            try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+                out.println("# synthetic neuron for SwcLoadBenchmark");
+                out.println("# OFFSET 77277.017247 44351.723117 24137.592725");
+                out.println("# COLOR 0.000000,1.000000,0.000000");
+                double x = 0, y = 0, z = 0;
+                for (int v = 1; v <= vertexCount; ++v) {
+                    x += random.nextGaussian();
+                    y += random.nextGaussian();
+                    z += random.nextGaussian();
+                    int parent = (v == 1) ? -1 : Math.max(1, v - 1 - random.nextInt(3));
+                    out.println(String.format(Locale.US, "%d %d %.6f %.6f %.6f %.6f %d",
+                            v, 2, x, y, z, 1.0 + random.nextDouble(), parent));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void time(String label, List<File> files, int threadCount, final boolean useSwcArrays)
+            throws Exception
+    {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Integer>> counts = new ArrayList<>();
+            for (final File file : files) {
+                counts.add(pool.submit(() -> useSwcArrays
+                        ? SwcArrays.read(file).getVertexCount()
+                        : splitLines(file)));
+            }
+            long vertexTotal = 0;
+            for (Future<Integer> count : counts)
+                vertexTotal += count.get();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-24s %8.3f s  %12.0f vertices/s%n", label, seconds, vertexTotal / seconds);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    // The way BasicNeuronModel used to read SWC lines
+    private static int splitLines(File file) throws IOException {
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#"))
+                    continue;
+                String[] fields = line.split("\\s+");
+                if (fields.length < 7)
+                    continue;
+                Integer.parseInt(fields[0]);
+                Integer.parseInt(fields[1]);
+                Float.parseFloat(fields[2]);
+                Float.parseFloat(fields[3]);
+                Float.parseFloat(fields[4]);
+                Float.parseFloat(fields[5]);
+                Integer.parseInt(fields[6]);
+                count += 1;
+            }
+        }
+        return count;
+    }
+}
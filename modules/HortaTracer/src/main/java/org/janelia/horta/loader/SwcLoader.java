@@ -1,31 +1,47 @@
 package org.janelia.horta.loader;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.janelia.console.viewerapi.model.NeuronModel;
 import org.janelia.console.viewerapi.model.NeuronSet;
 import org.janelia.horta.nodes.BasicNeuronModel;
 import org.openide.util.Exceptions;
 
 /**
+ * Loads SWC files into a NeuronSet.
+ *
+ * Files are parsed in parallel, but the parsed neurons are only added to the
+ * neuron set in runAfterLoad(), all at once, so dropping thousands of files
+ * changes the membership just once.
  *
  * @author Christopher Bruns
  */
 public class SwcLoader implements FileTypeLoader
 {
+    private static final int PARSE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
     // We sometimes want to quickly load so many neuron models,
     // So load them asynchronously in new threads.
-    private ExecutorService pool = Executors.newFixedThreadPool(10);
-    
+    private ExecutorService pool = Executors.newFixedThreadPool(PARSE_THREADS);
+
     private final NeuronSet neuronSet;
-    
+    // Parsed, but not yet added to the neuron set
+    private final Queue<NeuronModel> parsedNeurons = new ConcurrentLinkedQueue<>();
+
     public SwcLoader(NeuronSet neuronSet) {
         this.neuronSet = neuronSet;
     }
-    
+
     @Override
     public boolean supports(DataSource source)
     {
@@ -38,16 +54,33 @@ public class SwcLoader implements FileTypeLoader
     @Override
     public boolean load(final DataSource source, FileHandler handler) throws IOException
     {
-        pool.submit(new Runnable() {
+        final String fileName = source.getFileName();
+        final File file;
+        final byte[] bytes;
+        if (source instanceof FileDataSource) {
+            // Map the file itself, rather than reading its stream
+            file = ((FileDataSource) source).getFile();
+            bytes = null;
+            IOUtils.closeQuietly(source.getInputStream());
+        }
+        else {
+            // Other streams, such as archive entries, are only valid until we return
+            file = null;
+            bytes = IOUtils.toByteArray(source.getInputStream());
+        }
+        final ExecutorService currentPool;
+        synchronized(this) {
+            currentPool = pool;
+        }
+        currentPool.submit(new Runnable() {
             @Override
             public void run()
             {
                 try {
-                    NeuronModel neuron = new BasicNeuronModel(source.getInputStream(), source.getFileName(), neuronSet);
-                    synchronized(neuronSet) {
-                        if (neuronSet.add(neuron))
-                            neuronSet.getMembershipChangeObservable().setChanged();
-                    }
+                    SwcArrays swc = (file != null)
+                            ? SwcArrays.read(file)
+                            : SwcArrays.parse(ByteBuffer.wrap(bytes), fileName);
+                    parsedNeurons.add(new BasicNeuronModel(swc, fileName, neuronSet));
                 } catch (IOException ex) {
                     Exceptions.printStackTrace(ex);
                 }
@@ -58,9 +91,10 @@ public class SwcLoader implements FileTypeLoader
 
     public void runAfterLoad(final Runnable onComplete)
     {
-        final ExecutorService closedPool = pool;
+        final ExecutorService closedPool;
         synchronized(this) {
-            pool = Executors.newFixedThreadPool(10);
+            closedPool = pool;
+            pool = Executors.newFixedThreadPool(PARSE_THREADS);
         }
         closedPool.shutdown();
         Thread thread = new Thread(new Runnable() {
@@ -73,11 +107,35 @@ public class SwcLoader implements FileTypeLoader
                 } catch (InterruptedException ex) {
                     Exceptions.printStackTrace(ex);
                 }
+                addParsedNeurons();
                 onComplete.run();
             }
-            
+
         });
         thread.start();
     }
-    
+
+    private void addParsedNeurons()
+    {
+        List<NeuronModel> batch = new ArrayList<>();
+        NeuronModel neuron;
+        while ((neuron = parsedNeurons.poll()) != null)
+            batch.add(neuron);
+        if (batch.isEmpty())
+            return;
+        synchronized(neuronSet) {
+            if (neuronSet.addAll(batch))
+                neuronSet.getMembershipChangeObservable().setChanged();
+        }
+        neuronsAdded(batch);
+    }
+
+    /**
+     * Called once per runAfterLoad(), after the batch of new neurons has
+     * joined the neuron set, and before the completion callback.
+     */
+    protected void neuronsAdded(List<NeuronModel> neurons)
+    {
+    }
+
 }
@@ -3,6 +3,7 @@ package org.janelia.horta.movie;
 import java.awt.image.BufferedImage;
 import java.util.Observable;
 import java.util.Observer;
+import javax.media.opengl.GLAutoDrawable;
 import javax.swing.SwingUtilities;
 import org.janelia.console.viewerapi.GenericObserver;
 import org.slf4j.Logger;
@@ -116,6 +117,18 @@ public class BasicMoviePlayState implements MoviePlayState
         return result;
     }
     
+    // Must be run in GUI thread
+    @Override
+    public void renderCurrentFrameNow() {
+        ViewerState state = timeline.viewerStateForTime((float)currentFrameTimeInVideo, doLoop);
+        movieSource.renderFrame(state);
+    }
+    
+    @Override
+    public GLAutoDrawable getFrameDrawable() {
+        return movieSource.getFrameDrawable();
+    }
+    
     class NextFrameThread extends Thread implements Runnable
     {
         @Override
@@ -0,0 +1,194 @@
+package org.janelia.horta.movie;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import javax.media.opengl.GL3;
+import javax.media.opengl.GLAutoDrawable;
+import javax.media.opengl.GLContext;
+
+/**
+ * Ring of OpenGL pixel buffer objects, for reading rendered movie frames back
+ * to the host without stalling the GPU. Each readback is only queued when the
+ * frame has been drawn; the pixels are collected a few frames later, once the
+ * GPU has long finished with them.
+ *
+ * All methods must be called from the GUI thread, like rendering itself.
+ */
+public class FrameReadbackRing
+{
+    // Wait this long on a fence before asking again
+    private static final long FENCE_WAIT_NANOS = 5000000L;
+
+    private final GLAutoDrawable drawable;
+    private final Slot[] slots;
+    private int oldestSlot = 0;
+    private int pendingCount = 0;
+
+    public FrameReadbackRing(GLAutoDrawable drawable, int slotCount) {
+        this.drawable = drawable;
+        this.slots = new Slot[slotCount];
+        for (int i = 0; i < slotCount; ++i) {
+            slots[i] = new Slot();
+        }
+    }
+
+    public boolean isFull() {
+        return pendingCount == slots.length;
+    }
+
+    public boolean hasPending() {
+        return pendingCount > 0;
+    }
+
+    /**
+     * Queues a copy of the most recently rendered frame into the next free
+     * pixel buffer. Call finishOldest() first, if the ring is full.
+     */
+    public void startReadback(int frameNumber) {
+        if (isFull())
+            throw new IllegalStateException("No free pixel buffer for frame " + frameNumber);
+        GLContext context = makeCurrent();
+        try {
+            GL3 gl = drawable.getGL().getGL3();
+            Slot slot = slots[(oldestSlot + pendingCount) % slots.length];
+            slot.width = drawable.getSurfaceWidth();
+            slot.height = drawable.getSurfaceHeight();
+            slot.frameNumber = frameNumber;
+            long byteCount = 4L * slot.width * slot.height;
+            if (slot.pixelBuffer == 0) {
+                int[] vals = new int[1];
+                gl.glGenBuffers(1, vals, 0);
+                slot.pixelBuffer = vals[0];
+            }
+            gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, slot.pixelBuffer);
+            if (slot.byteCapacity < byteCount) {
+                gl.glBufferData(GL3.GL_PIXEL_PACK_BUFFER, byteCount, null, GL3.GL_STREAM_READ);
+                slot.byteCapacity = byteCount;
+            }
+            gl.glPixelStorei(GL3.GL_PACK_ALIGNMENT, 4);
+            // BGRA bytes, read as little-endian ints, are exactly the ARGB ints of a BufferedImage
+            gl.glReadPixels(0, 0, slot.width, slot.height,
+                    GL3.GL_BGRA, GL3.GL_UNSIGNED_INT_8_8_8_8_REV, 0);
+            gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, 0);
+            slot.fence = gl.glFenceSync(GL3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            gl.glFlush();
+            pendingCount += 1;
+        }
+        finally {
+            context.release();
+        }
+    }
+
+    /**
+     * Waits for the oldest queued readback, and copies it into an image.
+     * @return null if no readback is queued
+     */
+    public Frame finishOldest() {
+        if (pendingCount == 0)
+            return null;
+        GLContext context = makeCurrent();
+        try {
+            GL3 gl = drawable.getGL().getGL3();
+            Slot slot = slots[oldestSlot];
+            int status;
+            do {
+                status = gl.glClientWaitSync(slot.fence, GL3.GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_WAIT_NANOS);
+            } while (status == GL3.GL_TIMEOUT_EXPIRED);
+            gl.glDeleteSync(slot.fence);
+            slot.fence = 0;
+            oldestSlot = (oldestSlot + 1) % slots.length;
+            pendingCount -= 1;
+            if (status == GL3.GL_WAIT_FAILED)
+                throw new IllegalStateException("Failed to read back frame " + slot.frameNumber);
+
+            BufferedImage image = new BufferedImage(slot.width, slot.height, BufferedImage.TYPE_INT_RGB);
+            int[] imagePixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, slot.pixelBuffer);
+            ByteBuffer mapped = gl.glMapBufferRange(GL3.GL_PIXEL_PACK_BUFFER,
+                    0, 4L * slot.width * slot.height, GL3.GL_MAP_READ_BIT);
+            try {
+                if (mapped == null)
+                    throw new IllegalStateException("Failed to map pixels of frame " + slot.frameNumber);
+                IntBuffer glPixels = mapped.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                // OpenGL rows run bottom to top
+                for (int y = 0; y < slot.height; ++y) {
+                    glPixels.position((slot.height - 1 - y) * slot.width);
+                    glPixels.get(imagePixels, y * slot.width, slot.width);
+                }
+            }
+            finally {
+                if (mapped != null)
+                    gl.glUnmapBuffer(GL3.GL_PIXEL_PACK_BUFFER);
+                gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, 0);
+            }
+            return new Frame(slot.frameNumber, image);
+        }
+        finally {
+            context.release();
+        }
+    }
+
+    /**
+     * Drops any queued readbacks, and releases the pixel buffers.
+     */
+    public void dispose() {
+        GLContext context = makeCurrent();
+        try {
+            GL3 gl = drawable.getGL().getGL3();
+            for (Slot slot : slots) {
+                if (slot.fence != 0) {
+                    gl.glDeleteSync(slot.fence);
+                    slot.fence = 0;
+                }
+                if (slot.pixelBuffer != 0) {
+                    gl.glDeleteBuffers(1, new int[] {slot.pixelBuffer}, 0);
+                    slot.pixelBuffer = 0;
+                    slot.byteCapacity = 0;
+                }
+            }
+            pendingCount = 0;
+        }
+        finally {
+            context.release();
+        }
+    }
+
+    private GLContext makeCurrent() {
+        GLContext context = drawable.getContext();
+        if (context.makeCurrent() == GLContext.CONTEXT_NOT_CURRENT)
+            throw new IllegalStateException("Could not make OpenGL context current");
+        return context;
+    }
+
+    public static class Frame
+    {
+        private final int frameNumber;
+        private final BufferedImage image;
+
+        private Frame(int frameNumber, BufferedImage image) {
+            this.frameNumber = frameNumber;
+            this.image = image;
+        }
+
+        public int getFrameNumber() {
+            return frameNumber;
+        }
+
+        public BufferedImage getImage() {
+            return image;
+        }
+    }
+
+    private static class Slot
+    {
+        private int pixelBuffer = 0;
+        private long byteCapacity = 0;
+        private long fence = 0;
+        private int width;
+        private int height;
+        private int frameNumber;
+    }
+}
@@ -13,6 +13,7 @@ import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import javax.media.opengl.GLAutoDrawable;
 import org.janelia.console.viewerapi.ComposableObservable;
 import org.janelia.console.viewerapi.ObservableInterface;
 import org.janelia.geometry3d.Quaternion;
@@ -85,6 +86,13 @@ public class HortaMovieSource implements MovieSource
 
     @Override
     public BufferedImage getRenderedFrame(ViewerState state) 
+    {
+        renderFrame(state);
+        return horta.getScreenShot();
+    }
+
+    @Override
+    public void renderFrame(ViewerState state) 
     {
         setViewerState(state);
         
@@ -92,8 +100,11 @@ public class HortaMovieSource implements MovieSource
 
         // We need to update the display immediately, not on the next monitor refresh.
         horta.redrawImmediately();
-        
-        return horta.getScreenShot();
+    }
+
+    @Override
+    public GLAutoDrawable getFrameDrawable() {
+        return horta.getGLAutoDrawable();
     }
 
     @Override
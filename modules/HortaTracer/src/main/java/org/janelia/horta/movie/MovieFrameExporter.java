@@ -0,0 +1,296 @@
+package org.janelia.horta.movie;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.media.opengl.GLAutoDrawable;
+import javax.swing.SwingUtilities;
+import org.openide.util.Cancellable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders every frame of a movie, and saves each as a numbered image file.
+ *
+ * The stages overlap: while the GUI thread renders frame N, the pixels of
+ * frame N-2 are still on their way back from the GPU, and earlier frames are
+ * being compressed and written by a small pool of encoder threads. At most a
+ * few frames are held in memory at any time; rendering waits whenever the
+ * encoders fall behind.
+ *
+ * Cancel, from any thread, stops rendering at the next frame, and drops frames
+ * that have not been written yet.
+ */
+public class MovieFrameExporter implements Cancellable
+{
+    public enum ImageFormat {
+        JPEG("jpeg", "jpg"),
+        PNG("png", "png");
+
+        private final String formatName;
+        private final String extension;
+
+        ImageFormat(String formatName, String extension) {
+            this.formatName = formatName;
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    public interface ProgressListener {
+        void framesSaved(int savedCount, int frameCount);
+    }
+
+    // Frames in flight between the GPU and the host
+    private static final int READBACK_SLOTS = 3;
+    private static final int MAX_ENCODER_THREADS = 4;
+    private static final float JPEG_QUALITY = 0.95f; // use rather high quality
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final MoviePlayState playState;
+    private final File folder;
+    private final String baseName;
+    private final ImageFormat format;
+    private final int frameCount;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final AtomicReference<IOException> writeError = new AtomicReference<>();
+    private final AtomicInteger savedCount = new AtomicInteger(0);
+
+    public MovieFrameExporter(MoviePlayState playState, File folder, String baseName,
+            ImageFormat format, float frameRate)
+    {
+        this.playState = playState;
+        this.folder = folder;
+        this.baseName = baseName;
+        this.format = format;
+        // frameCount is ALL rendered frames, not just Key Frames
+        this.frameCount = (int) Math.ceil(frameRate * (playState.getTotalDuration()
+                // smidgen added to round up to one from zero for zero-duration, single-frame movies
+                + 0.2/frameRate));
+    }
+
+    // e.g. "mymovie_00001.jpg"
+    public static File fileForFrameImage(File folder, String baseName, ImageFormat format, int frameNumber)
+    {
+        String imageName = baseName + "_" + String.format("%05d", frameNumber) + "." + format.getExtension();
+        return new File(folder, imageName);
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public boolean cancel() {
+        cancelled.set(true);
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Saves all frames. Must not be called from the GUI thread.
+     * @return false if the export was cancelled before all frames were saved
+     */
+    public boolean export(final ProgressListener progress)
+            throws IOException, InterruptedException
+    {
+        int threadCount = Math.max(1, Math.min(MAX_ENCODER_THREADS,
+                Runtime.getRuntime().availableProcessors() - 1));
+        ExecutorService encoders = Executors.newFixedThreadPool(threadCount,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("MovieFrameEncoder-%d")
+                        .setDaemon(true)
+                        .build());
+        // Each frame in flight holds a full size image
+        int maxFramesInFlight = 2 * threadCount;
+        Semaphore framesInFlight = new Semaphore(maxFramesInFlight);
+
+        GLAutoDrawable drawable = playState.getFrameDrawable();
+        final FrameReadbackRing readbacks = (drawable == null)
+                ? null : new FrameReadbackRing(drawable, READBACK_SLOTS);
+        try {
+            for (int f = 0; (f < frameCount) && (! isStopped()); ++f) {
+                float progressRatio = 0;
+                if (f > 0) // avoid divide by zero
+                    progressRatio = f / (float)(frameCount - 1);
+                final float frameInstant = playState.getTotalDuration() * progressRatio;
+                final int frameNumber = f + 1;
+                if (readbacks == null) {
+                    // Fall back to a synchronous read of each frame
+                    BufferedImage image = onGuiThread(new Callable<BufferedImage>() {
+                        @Override
+                        public BufferedImage call() {
+                            playState.skipToTime(frameInstant);
+                            return playState.getCurrentFrameImageNow();
+                        }
+                    });
+                    encode(encoders, framesInFlight, frameNumber, image, progress);
+                    continue;
+                }
+                FrameReadbackRing.Frame finished = onGuiThread(new Callable<FrameReadbackRing.Frame>() {
+                    @Override
+                    public FrameReadbackRing.Frame call() {
+                        FrameReadbackRing.Frame older = null;
+                        if (readbacks.isFull())
+                            older = readbacks.finishOldest();
+                        playState.skipToTime(frameInstant);
+                        playState.renderCurrentFrameNow();
+                        readbacks.startReadback(frameNumber);
+                        return older;
+                    }
+                });
+                if (finished != null)
+                    encode(encoders, framesInFlight, finished.getFrameNumber(), finished.getImage(), progress);
+            }
+            // Collect the last few frames
+            while ( (readbacks != null) && (! isStopped()) ) {
+                FrameReadbackRing.Frame finished = onGuiThread(new Callable<FrameReadbackRing.Frame>() {
+                    @Override
+                    public FrameReadbackRing.Frame call() {
+                        return readbacks.finishOldest();
+                    }
+                });
+                if (finished == null)
+                    break;
+                encode(encoders, framesInFlight, finished.getFrameNumber(), finished.getImage(), progress);
+            }
+            // Wait for the encoders to finish
+            framesInFlight.acquire(maxFramesInFlight);
+        }
+        finally {
+            encoders.shutdownNow();
+            if (readbacks != null) {
+                try {
+                    onGuiThread(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            readbacks.dispose();
+                            return null;
+                        }
+                    });
+                } catch (IOException | RuntimeException ex) {
+                    logger.warn("Failed to release frame readback buffers", ex);
+                }
+            }
+        }
+
+        IOException error = writeError.get();
+        if (error != null)
+            throw error;
+        return ! isCancelled();
+    }
+
+    private boolean isStopped() {
+        return isCancelled() || (writeError.get() != null);
+    }
+
+    // Hands the image to the encoder pool, once there is room for it
+    private void encode(ExecutorService encoders, final Semaphore framesInFlight,
+            final int frameNumber, BufferedImage image, final ProgressListener progress)
+            throws InterruptedException
+    {
+        framesInFlight.acquire();
+        final BufferedImage evenImage = evenSized(image);
+        try {
+            encoders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (isStopped())
+                            return;
+                        writeImage(evenImage, fileForFrameImage(folder, baseName, format, frameNumber));
+                        progress.framesSaved(savedCount.incrementAndGet(), frameCount);
+                    } catch (IOException ex) {
+                        writeError.compareAndSet(null, ex);
+                    } finally {
+                        framesInFlight.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            framesInFlight.release();
+            throw ex;
+        }
+    }
+
+    // FFMpeg h264 requires that image width and height be even
+    private static BufferedImage evenSized(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        if (w % 2 == 1)
+            w -= 1;
+        if (h % 2 == 1)
+            h -= 1;
+        if ( (w == image.getWidth()) && (h == image.getHeight()) )
+            return image;
+        return image.getSubimage(0, 0, w, h);
+    }
+
+    // ImageWriters are not thread safe, so each frame gets its own
+    private void writeImage(BufferedImage image, File imageFile) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format.formatName).next();
+        try {
+            // The output stream does not truncate an existing file
+            Files.deleteIfExists(imageFile.toPath());
+            try (ImageOutputStream out = ImageIO.createImageOutputStream(imageFile)) {
+                if (out == null)
+                    throw new IOException("Could not write to " + imageFile.getAbsolutePath());
+                writer.setOutput(out);
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                if (format == ImageFormat.JPEG) {
+                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                    param.setCompressionQuality(JPEG_QUALITY);
+                }
+                writer.write(null, new IIOImage(image, null, null), param);
+            }
+        }
+        finally {
+            writer.dispose();
+        }
+    }
+
+    private static <T> T onGuiThread(final Callable<T> task)
+            throws IOException, InterruptedException
+    {
+        final AtomicReference<T> result = new AtomicReference<>();
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        result.set(task.call());
+                    } catch (RuntimeException ex) {
+                        throw ex;
+                    } catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            });
+        } catch (InvocationTargetException ex) {
+            throw new IOException("Error rendering movie frame", ex.getCause());
+        }
+        return result.get();
+    }
+}
@@ -1,6 +1,7 @@
 package org.janelia.horta.movie;
 
 import java.awt.image.BufferedImage;
+import javax.media.opengl.GLAutoDrawable;
 
 /**
  *
@@ -9,6 +10,8 @@ import java.awt.image.BufferedImage;
 public interface MoviePlayState
 {
     BufferedImage getCurrentFrameImageNow(); // must be called from GUI thread
+    void renderCurrentFrameNow(); // must be called from GUI thread; leaves the frame on screen, for readback
+    GLAutoDrawable getFrameDrawable(); // null if frames can only be read with getCurrentFrameImageNow()
     float getFramesPerSecond();
     void setFramesPerSecond(float fps);
     float getTotalDuration();
@@ -1,6 +1,7 @@
 package org.janelia.horta.movie;
 
 import java.awt.image.BufferedImage;
+import javax.media.opengl.GLAutoDrawable;
 
 /**
  *
@@ -11,4 +12,8 @@ public interface MovieRenderer
     BufferedImage getRenderedFrame(ViewerState state);
     BufferedImage getRenderedFrame(ViewerState state, int imageWidth, int imageHeight);
     boolean supportsCustomSize();
+    // Draws state on screen, without reading it back; must be called from GUI thread
+    void renderFrame(ViewerState state);
+    // Where renderFrame() draws, for asynchronous readback; null if frames can only be read with getRenderedFrame()
+    GLAutoDrawable getFrameDrawable();
 }
@@ -2,13 +2,8 @@ package org.janelia.horta.movie;
 
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 import javax.swing.BorderFactory;
@@ -26,6 +21,9 @@ import javax.swing.JProgressBar;
 import javax.swing.JTextField;
 import javax.swing.JTextPane;
 import javax.swing.SwingUtilities;
+import org.janelia.horta.movie.MovieFrameExporter.ImageFormat;
+import org.netbeans.api.progress.ProgressHandle;
+import org.netbeans.api.progress.ProgressHandleFactory;
 import org.openide.DialogDisplayer;
 import org.openide.NotifyDescriptor;
 import org.slf4j.Logger;
@@ -73,6 +71,7 @@ public class SaveFramesPanel extends JPanel
     final JTextField outFolderField = new JTextField();
     final JTextField movieNameField = new JTextField("mymovie");
     final JComboBox<Float> fpsBox = new JComboBox<>(new Float[] {24.0f, 30.0f, 60.0f});
+    final JComboBox<ImageFormat> formatBox = new JComboBox<>(ImageFormat.values());
     final JProgressBar progressBar = new JProgressBar(JProgressBar.HORIZONTAL, 0, 100);
     
     private void buildGui() 
@@ -131,6 +130,16 @@ public class SaveFramesPanel extends JPanel
         frameRatePanel.add(Box.createHorizontalGlue());
         add(frameRatePanel);
         
+        // Frame image format combo box
+        JPanel formatPanel = new JPanel();
+        formatPanel.setBorder(BorderFactory.createTitledBorder("Frame Image Format"));
+        formatPanel.setLayout(new BoxLayout(formatPanel, BoxLayout.LINE_AXIS));
+        formatBox.setMaximumSize(formatBox.getPreferredSize());
+        formatPanel.add(formatBox);
+        formatPanel.add(new JLabel("PNG is lossless, JPEG is smaller"));
+        formatPanel.add(Box.createHorizontalGlue());
+        add(formatPanel);
+        
         // progress bar
         add(progressBar);        
         
@@ -162,17 +171,9 @@ public class SaveFramesPanel extends JPanel
         return true;
     }
     
-    // e.g. "/Users/"
-    private File fileForFrameImage(File folder, String baseName, int frameNumber) 
-    {
-        String imageName = baseName + "_" + String.format("%05d", frameNumber) + ".jpg";
-        File result = new File(folder, imageName);
-        return result;
-    }
-    
-    private boolean sanityCheckFrameName(File folder, String baseName) 
+    private boolean sanityCheckFrameName(File folder, String baseName, ImageFormat format) 
     {
-        File firstFrameImage = fileForFrameImage(folder, baseName, 1);
+        File firstFrameImage = MovieFrameExporter.fileForFrameImage(folder, baseName, format, 1);
         if (firstFrameImage.exists()) {
             int result = JOptionPane.showConfirmDialog(this,
                     "Overwrite existing image: '" + firstFrameImage.getAbsolutePath() + "'?",
@@ -192,7 +193,8 @@ public class SaveFramesPanel extends JPanel
         }});                           
     }
     
-    private void reportSuccess(final File frameFolder, final String baseFileName, final float frameRate) 
+    private void reportSuccess(final File frameFolder, final String baseFileName, 
+            final ImageFormat format, final float frameRate) 
     {
         final JComponent parent = this;
         // Report successful completion, in the GUI thread
@@ -213,7 +215,7 @@ public class SaveFramesPanel extends JPanel
                         + "<br>in folder &quot;" + frameFolder + "&quot;"
                         + "<br>To create a movie file, run ffmpeg from the command line:"
                         + "<br><br> <b>ffmpeg" // program name
-                        + " -i " + baseFileName + "_%5d.jpg" // input image file name pattern
+                        + " -i " + baseFileName + "_%05d." + format.getExtension() // input image file name pattern
                         + " -r " + frameRate // input frame rate
                         + " -b:v 5M" // use a decent bit rate
                         // + " -y" // always say "yes" to overwriting files
@@ -268,108 +270,58 @@ public class SaveFramesPanel extends JPanel
         });      
     }
     
-    private BufferedImage currentImage;
-    private BufferedImage getFrame(final MoviePlayState playState) 
-            throws InterruptedException, InvocationTargetException 
-    {
-        SwingUtilities.invokeAndWait(new Runnable() {
-            @Override
-            public void run() {
-                currentImage = playState.getCurrentFrameImageNow();
-            }
-        });
-        
-        // FFMpeg h264 requires that image width be even
-        int w = currentImage.getWidth();
-        int h = currentImage.getHeight();
-        // ensure width and height are even
-        if (w % 2 == 1)
-            w -= 1;
-        if (h % 2 == 1)
-            h -= 1;
-        currentImage = currentImage.getSubimage(0, 0, w, h);
-        
-        return currentImage;
-    }
-    
     private void saveFrameImages(final MoviePlayState playState) 
     {
         final File frameFolder = new File(outFolderField.getText());
         final String baseFileName = movieNameField.getText();
         final float frameRate = fpsBox.getItemAt(fpsBox.getSelectedIndex());
+        final ImageFormat format = formatBox.getItemAt(formatBox.getSelectedIndex());
         
         if (! sanityCheckOutputFolder(frameFolder))
             return;
 
-        if (! sanityCheckFrameName(frameFolder, baseFileName))
+        if (! sanityCheckFrameName(frameFolder, baseFileName, format))
             return;
-        // logger.info("Hey! I should save frames here...");
         
         progressBar.setValue(1);
-        final JComponent dialog = this;
+
+        final MovieFrameExporter exporter = new MovieFrameExporter(
+                playState, frameFolder, baseFileName, format, frameRate);
+        // The progress handle's cancel button stops the export
+        final ProgressHandle progress = ProgressHandleFactory.createHandle(
+                "Saving movie frame images", exporter);
 
         // launch a separate save thread
         Runnable saveFramesTask = new Runnable() {
             @Override
                 public void run() {
-                    float movieDuration = playState.getTotalDuration();
-                    // frameCount is ALL rendered frames, not just Key Frames
-                    int frameCount = (int) Math.ceil(frameRate * (movieDuration
-                            // smidgen added to round up to one from zero for zero-duration, single-frame movies
-                            + 0.2/frameRate)); 
-                    
-                    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
-                    ImageWriteParam param = writer.getDefaultWriteParam();
-                    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                    // float oldQuality = param.getCompressionQuality(); // default seems to be 0.75
-                    param.setCompressionQuality(0.95f); // use rather high quality
-                    
-                    for (int f = 0; f < frameCount; ++f) {
-                        float progressRatio = 0;
-                        if (f > 0) // avoid divide by zero
-                            progressRatio = f / (float)(frameCount - 1);
-                        float frameInstant = movieDuration * progressRatio;
-                        final File imageFile = fileForFrameImage(frameFolder, baseFileName, f+1);
-                        
-                        playState.skipToTime(frameInstant);
-                        
-                        try {
-                            // Collect and save the frames
-                            BufferedImage frameImage = getFrame(playState);
-                            if (frameImage != null) {
-                                try {
-                                    writer.setOutput(ImageIO.createImageOutputStream(imageFile));
-                                    writer.write(frameImage);
-                                    // ImageIO.write(frameImage, "JPG", imageFile);
-                                } catch (IOException ex) {
-                                    reportError(ex.getMessage());
-                                    return;
-                                }
+                    final int frameCount = exporter.getFrameCount();
+                    progress.start(frameCount);
+                    try {
+                        boolean finished = exporter.export(new MovieFrameExporter.ProgressListener() {
+                            @Override
+                            public void framesSaved(int savedCount, int frameCount) {
+                                progress.progress(savedCount);
+                                updateProgressBar(Math.round(100.0f * savedCount / frameCount));
                             }
-                        } catch (InterruptedException ex) {
-                            updateProgressBar(0);
+                        });
+                        if (finished)
+                            // Report successful completion, in the GUI thread
+                            reportSuccess(frameFolder, baseFileName, format, frameRate);
+                        else
                             reportCancel();
-                            return;
-                        } catch (InvocationTargetException ex) {
-                            logger.error("Error playing frames", ex);
-                        }
-                        
-                        // TODO: check for "Cancel" operation
-                        
-                        updateProgressBar(Math.round(100 * progressRatio));                
+                    } catch (InterruptedException ex) {
+                        reportCancel();
+                    } catch (IOException ex) {
+                        logger.error("Error saving movie frames", ex);
+                        reportError(ex.getMessage());
+                    } finally {
+                        progress.finish();
                     }
-                    
-                    // TODO: post run sanity checks
-                    
-                    // Report successful completion, in the GUI thread
-                    reportSuccess(frameFolder, baseFileName, frameRate);
                 }
         };
 
-        // Show the save dialog, so user can see progress bar
-        // setVisible(true);
-        
-        new Thread(saveFramesTask).start();
+        new Thread(saveFramesTask, "SaveMovieFrames").start();
     }
     
     public void showDialog(MoviePlayState playState) {
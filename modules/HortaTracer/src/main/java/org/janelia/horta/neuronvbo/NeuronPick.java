@@ -0,0 +1,42 @@
+package org.janelia.horta.neuronvbo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.janelia.console.viewerapi.model.NeuronModel;
+import org.janelia.console.viewerapi.model.NeuronVertex;
+
+/**
+ * One neuron anchor, or one edge between two anchors, found in the pick
+ * buffer near a screen location.
+ */
+public class NeuronPick
+{
+    private final NeuronModel neuron;
+    private final List<NeuronVertex> vertexes;
+
+    NeuronPick(NeuronModel neuron, NeuronVertex vertex) {
+        this.neuron = neuron;
+        this.vertexes = Collections.singletonList(vertex);
+    }
+
+    NeuronPick(NeuronModel neuron, NeuronVertex edgeStart, NeuronVertex edgeEnd) {
+        this.neuron = neuron;
+        this.vertexes = Collections.unmodifiableList(Arrays.asList(edgeStart, edgeEnd));
+    }
+
+    public NeuronModel getNeuron() {
+        return neuron;
+    }
+
+    /**
+     * @return the picked anchor, or both ends of the picked edge
+     */
+    public List<NeuronVertex> getVertexes() {
+        return vertexes;
+    }
+
+    public boolean isEdge() {
+        return vertexes.size() == 2;
+    }
+}
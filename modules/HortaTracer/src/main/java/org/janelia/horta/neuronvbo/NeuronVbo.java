@@ -5,6 +5,7 @@ import java.awt.Color;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -14,6 +15,7 @@ import java.util.Observable;
 import java.util.Observer;
 import java.util.Set;
 import javax.media.opengl.GL3;
+import org.janelia.horta.PickIdRegistry;
 import org.janelia.console.viewerapi.GenericObservable;
 import org.janelia.console.viewerapi.model.NeuronEdge;
 import org.janelia.console.viewerapi.model.NeuronModel;
@@ -40,6 +42,7 @@ public class NeuronVbo implements Iterable<NeuronModel>
     // Be sure to synchronize these constants with the actual shader vertex attribute (in) layout
     private final static int XYZR_ATTRIB = 1;
     private final static int RGBV_ATTRIB = 2;
+    private final static int PICK_ID_BASE_UNIFORM = 7;
     private final static float REVIEWED_GRAY_COLOR = 200;
 
     private final Set<NeuronModel> neurons = new HashSet<>();
@@ -55,6 +58,17 @@ public class NeuronVbo implements Iterable<NeuronModel>
     private IntBuffer edgeBuffer;
     private FloatBuffer vertexBuffer;
     
+    // Pick IDs: the shaders write the first ID of a range plus the vertex or edge index
+    private final PickIdRegistry pickIds;
+    private int vertexPickBase = 0;
+    private int edgePickBase = 0;
+    // What the current buffers were built from, indexed like the buffers
+    private NeuronVertex[] pickVertexes = new NeuronVertex[0];
+    private NeuronVertex[] pickEdgeVertexes = new NeuronVertex[0]; // two per edge
+    private NeuronModel[] pickNeurons = new NeuronModel[0];
+    private int[] neuronVertexStarts = new int[0]; // first vertex index of each pick neuron
+    private int[] neuronEdgeStarts = new int[0]; // first edge index of each pick neuron
+    
     // Cached indices
     private final Map<NeuronModel, Integer> neuronOffsets = new HashMap<>(); // for surgically updating buffers
     private final Map<NeuronModel, Integer> neuronVertexCounts = new HashMap<>(); // for sanity checking
@@ -63,6 +77,10 @@ public class NeuronVbo implements Iterable<NeuronModel>
     
     private final Logger log = LoggerFactory.getLogger(this.getClass());
     
+    NeuronVbo(PickIdRegistry pickIds) {
+        this.pickIds = pickIds;
+    }
+    
     int getNeuronCount() {
         return neurons.size();
     }
@@ -118,6 +136,7 @@ public class NeuronVbo implements Iterable<NeuronModel>
         if (edgeCount < 1) 
             return;
         setUpVbo(gl);
+        gl.glUniform1ui(PICK_ID_BASE_UNIFORM, edgePickBase);
         gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, vboEdgeIndices);        
         gl.glDrawElements(GL3.GL_LINES, 2 * edgeCount, GL3.GL_UNSIGNED_INT, 0);
     }
@@ -131,6 +150,7 @@ public class NeuronVbo implements Iterable<NeuronModel>
         if (vertexCount < 1) 
             return;
         setUpVbo(gl);
+        gl.glUniform1ui(PICK_ID_BASE_UNIFORM, vertexPickBase);
         gl.glDrawArrays(GL3.GL_POINTS, 0, vertexCount);
     }
     
@@ -304,8 +324,18 @@ public class NeuronVbo implements Iterable<NeuronModel>
         neuronOffsets.clear();
         neuronVertexCounts.clear();
         neuronEdgeCounts.clear();
+        List<NeuronVertex> vertexes = new ArrayList<>();
+        List<NeuronVertex> edgeVertexes = new ArrayList<>();
+        NeuronModel[] rebuiltNeurons = new NeuronModel[neurons.size()];
+        int[] vertexStarts = new int[neurons.size()];
+        int[] edgeStarts = new int[neurons.size()];
+        int neuronIndex = 0;
         for (NeuronModel neuron : neurons) {
             // if (! neuron.isVisible()) continue;
+            rebuiltNeurons[neuronIndex] = neuron;
+            vertexStarts[neuronIndex] = vertexCount;
+            edgeStarts[neuronIndex] = edgeCount;
+            neuronIndex += 1;
             neuronOffsets.put(neuron, vertexCount);
             neuronVertexCounts.put(neuron, neuron.getVertexes().size());
             neuronEdgeCounts.put(neuron, neuron.getEdges().size());
@@ -336,6 +366,7 @@ public class NeuronVbo implements Iterable<NeuronModel>
                     vertexAttributes.add(rgb[2]); // blue
                 }
                 vertexAttributes.add(visibility); // visibility
+                vertexes.add(vertex);
                 vertexCount += 1;
             }
             for (NeuronEdge edge : neuron.getEdges()) {
@@ -350,6 +381,8 @@ public class NeuronVbo implements Iterable<NeuronModel>
                 }
                 edgeIndexes.add(i1);
                 edgeIndexes.add(i2);
+                edgeVertexes.add(v1);
+                edgeVertexes.add(v2);
                 edgeCount += 1;
             }
         }
@@ -369,6 +402,17 @@ public class NeuronVbo implements Iterable<NeuronModel>
         }
         edgeBuffer.flip();
 
+        // Fresh pick IDs, so IDs read back from older frames no longer resolve
+        pickIds.release(vertexPickBase);
+        pickIds.release(edgePickBase);
+        vertexPickBase = pickIds.reserve(this, vertexCount);
+        edgePickBase = pickIds.reserve(this, edgeCount);
+        pickVertexes = vertexes.toArray(new NeuronVertex[vertexes.size()]);
+        pickEdgeVertexes = edgeVertexes.toArray(new NeuronVertex[edgeVertexes.size()]);
+        pickNeurons = rebuiltNeurons;
+        neuronVertexStarts = vertexStarts;
+        neuronEdgeStarts = edgeStarts;
+
         buffersNeedRebuild = false;
         buffersNeedAllocation = true;
 
@@ -433,6 +477,40 @@ public class NeuronVbo implements Iterable<NeuronModel>
         buffersNeedUpdate = false;
     }
 
+    /**
+     * @return the anchor or edge drawn with pick ID id, or null if this vbo
+     * does not currently draw it
+     */
+    synchronized NeuronPick pickForId(int id) {
+        if (buffersNeedRebuild)
+            return null; // the buffers no longer match the neurons
+        if ( (vertexPickBase > 0) && (id >= vertexPickBase) && (id - vertexPickBase < pickVertexes.length) ) {
+            int index = id - vertexPickBase;
+            return new NeuronPick(
+                    pickNeurons[neuronForIndex(neuronVertexStarts, index)],
+                    pickVertexes[index]);
+        }
+        if ( (edgePickBase > 0) && (id >= edgePickBase) && (id - edgePickBase < pickEdgeVertexes.length / 2) ) {
+            int index = id - edgePickBase;
+            return new NeuronPick(
+                    pickNeurons[neuronForIndex(neuronEdgeStarts, index)],
+                    pickEdgeVertexes[2 * index],
+                    pickEdgeVertexes[2 * index + 1]);
+        }
+        return null;
+    }
+    
+    // Last neuron whose first primitive comes at or before index
+    private static int neuronForIndex(int[] starts, int index) {
+        int n = Arrays.binarySearch(starts, index);
+        if (n < 0)
+            return -n - 2;
+        // Skip past neurons with no primitives of this kind
+        while ( (n + 1 < starts.length) && (starts[n + 1] == index) )
+            n += 1;
+        return n;
+    }
+
     boolean add(final NeuronModel neuron) 
     {
         if (neuron == null)
@@ -135,6 +135,10 @@ public class NeuronVboActor
         return vboPool.iterator();
     }
 
+    public NeuronPick pickForId(int pickId) {
+        return vboPool.pickForId(pickId);
+    }
+
     public void checkForChanges() {
         vboPool.checkForChanges();
     }
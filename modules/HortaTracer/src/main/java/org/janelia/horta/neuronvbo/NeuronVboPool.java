@@ -16,6 +16,7 @@ import org.janelia.gltools.BasicShaderProgram;
 import org.janelia.gltools.ShaderProgram;
 import org.janelia.gltools.ShaderStep;
 import org.janelia.gltools.texture.Texture2d;
+import org.janelia.horta.PickIdRegistry;
 import org.openide.util.Exceptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +40,8 @@ public class NeuronVboPool implements Iterable<NeuronModel> {
 
     // Maintain vbos in a structure sorted by how much stuff is in each one.
     private final NavigableMap<Integer, Deque<NeuronVbo>> vbos = new TreeMap<>();
+    // Vertices and edges of each vbo occupy ranges of pick IDs
+    private final PickIdRegistry pickIds = new PickIdRegistry();
     // private final List<NeuronVbo> vbos;
     // private int nextVbo = 0;
 
@@ -65,7 +68,7 @@ public class NeuronVboPool implements Iterable<NeuronModel> {
 
     public NeuronVboPool() {
         for (int i = 0; i < POOL_SIZE; ++i) {
-            insertVbo(new NeuronVbo());
+            insertVbo(new NeuronVbo(pickIds));
         }
 
         lightProbeTexture = new Texture2d();
@@ -227,6 +230,17 @@ public class NeuronVboPool implements Iterable<NeuronModel> {
         }
     }
 
+    /**
+     * @return the anchor or edge drawn with pick ID id, or null if none is
+     * drawn with that ID any more
+     */
+    NeuronPick pickForId(int id) {
+        Object owner = pickIds.ownerForId(id);
+        if (owner instanceof NeuronVbo)
+            return ((NeuronVbo) owner).pickForId(id);
+        return null;
+    }
+
     boolean contains(NeuronModel neuron) {
         for (Iterator<NeuronVbo> it = new VboIterator(); it.hasNext();) {
             NeuronVbo vbo = it.next();
@@ -1,30 +1,22 @@
 package org.janelia.horta.nodes;
 
 import java.awt.Color;
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.apache.commons.io.FilenameUtils;
 import org.janelia.console.viewerapi.ComposableObservable;
 import org.janelia.console.viewerapi.ObservableInterface;
 import org.janelia.console.viewerapi.model.BasicNeuronVertexCreationObservable;
 import org.janelia.console.viewerapi.model.BasicNeuronVertexDeletionObservable;
 import org.janelia.console.viewerapi.model.BasicNeuronVertexUpdateObservable;
-import org.janelia.geometry3d.Vector3;
 import org.janelia.console.viewerapi.model.NeuronEdge;
+import org.janelia.horta.loader.SwcArrays;
 import org.janelia.horta.modelapi.SwcVertex;
 import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
 import org.janelia.console.viewerapi.model.NeuronModel;
@@ -78,100 +70,44 @@ public class BasicNeuronModel implements NeuronModel
     
     public BasicNeuronModel(File swcFile, NeuronSet parentSet) throws FileNotFoundException, IOException
     {
-        this(new BufferedInputStream(new FileInputStream(swcFile)), swcFile.getName(), parentSet);
+        this(SwcArrays.read(swcFile), swcFile.getName(), parentSet);
     }
     
     public BasicNeuronModel(InputStream swcStream, String fileName, NeuronSet parentSet) throws IOException
+    {
+        this(SwcArrays.read(swcStream, fileName), fileName, parentSet);
+    }
+    
+    public BasicNeuronModel(SwcArrays swc, String fileName, NeuronSet parentSet)
     {
         this.parentSet = parentSet;
         this.membersAddedObservable = new BasicNeuronVertexCreationObservable();
         this.membersRemovedObservable = new BasicNeuronVertexDeletionObservable();
         this.vertexUpdatedObservable = new BasicNeuronVertexUpdateObservable();
-        BufferedReader br = new BufferedReader(new InputStreamReader(swcStream));
-        String line;
         
-        // Parse origin offset from header
-        // # OFFSET 77277.017247 44351.723117 24137.592725
-        Vector3 originOffset = new Vector3(0, 0, 0);
-        String sepRx = "[ ,]+";
-        String floatRx = "(-?[0-9\\.]+)";
-        Pattern offsetPattern = Pattern.compile("^\\s*#\\s*OFFSET\\s+"
-                +floatRx // x
-                +sepRx
-                +floatRx // y
-                +sepRx
-                +floatRx // z
-                +"\\s*$");
+        float[] rgb = swc.getColor();
+        if (rgb != null)
+            color = new Color(rgb[0], rgb[1], rgb[2]);
         
-        // Parse neuron color from header
-        // # COLOR 0.000000,1.000000,0.000000
-        Pattern colorPattern = Pattern.compile("^\\s*#\\s*COLOR\\s+"
-                +floatRx // red
-                +sepRx
-                +floatRx // green
-                +sepRx
-                +floatRx // blue
-                +"\\s*$");
-        
-        // Store parent relationships for resolution after reading
-        Map<Integer, Integer> childParentMap = new HashMap<>();
-        Map<Integer, SwcVertex> vertexMap = new HashMap<>();
-        while ((line = br.readLine()) != null) {
-            if (line.startsWith("#")) { 
-                // Parse origin offset
-                Matcher m = offsetPattern.matcher(line);
-                if (m.matches()) {
-                    float ox = Float.parseFloat(m.group(1));
-                    float oy = Float.parseFloat(m.group(2));
-                    float oz = Float.parseFloat(m.group(3));
-                    originOffset.setX(ox);
-                    originOffset.setY(oy);
-                    originOffset.setZ(oz);
-                }
-                // Parse color
-                m = colorPattern.matcher(line);
-                if (m.matches()) {
-                    float cr = Float.parseFloat(m.group(1));
-                    float cg = Float.parseFloat(m.group(2));
-                    float cb = Float.parseFloat(m.group(3));
-                    color = new Color(cr, cg, cb);
-                }
-                continue; // skip comments
-            }
-            // 1 2 77299.3 56354.5 22206.5 1.00 -1
-            String[] fields = line.split("\\s+");
-            if (fields.length < 7)
-                continue; // blank line?
-            int label = Integer.parseInt(fields[0]);
-            int type = Integer.parseInt(fields[1]);
-            float x = Float.parseFloat(fields[2]) + originOffset.getX();
-            float y = Float.parseFloat(fields[3]) + originOffset.getY();
-            float z = Float.parseFloat(fields[4]) + originOffset.getZ();
-            float radius = Float.parseFloat(fields[5]);
-            int parentLabel = Integer.parseInt(fields[6]);
-            SwcVertex node = new BasicSwcVertex(x, y, z);
-            node.setLabel(label);
-            node.setTypeIndex(type);
-            node.setRadius(radius);
-            vertexMap.put(label, node);
-            if (parentLabel >= 0)
-                childParentMap.put(label, parentLabel);
-            // node.setParentLabel(parentLabel);
+        int vertexCount = swc.getVertexCount();
+        SwcVertex[] vertexes = new SwcVertex[vertexCount];
+        nodes = new ArrayList<>(vertexCount);
+        for (int i = 0; i < vertexCount; ++i) {
+            SwcVertex node = new BasicSwcVertex(swc.getX(i), swc.getY(i), swc.getZ(i));
+            node.setLabel(swc.getLabel(i));
+            node.setTypeIndex(swc.getTypeIndex(i));
+            node.setRadius(swc.getRadius(i));
+            vertexes[i] = node;
             nodes.add(node);
         }
         // Assign parents  
         // ...after full load, in case node order is imperfect
-        for (int childLabel : childParentMap.keySet()) {
-            int parentLabel = childParentMap.get(childLabel);
-            if (parentLabel < 0)
-                continue;
-            SwcVertex parentVertex = vertexMap.get(parentLabel);
-            if (parentVertex == null)
+        int[] parentIndexes = swc.getParentIndexes();
+        edges = new ArrayList<>(vertexCount);
+        for (int i = 0; i < vertexCount; ++i) {
+            if (parentIndexes[i] < 0)
                 continue;
-            SwcVertex childVertex = vertexMap.get(childLabel); 
-            assert(childVertex != null);
-            assert(childVertex != parentVertex);
-            edges.add(new BasicNeuronEdge(parentVertex, childVertex));
+            edges.add(new BasicNeuronEdge(vertexes[parentIndexes[i]], vertexes[i]));
         }
         // Take name from file
         if (nodes.size() > 0) {
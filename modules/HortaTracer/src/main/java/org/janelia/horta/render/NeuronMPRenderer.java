@@ -14,6 +14,7 @@ import java.util.Observable;
 import java.util.Observer;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import javax.media.opengl.GL3;
 import javax.media.opengl.GLAutoDrawable;
 import org.janelia.console.viewerapi.ObservableInterface;
@@ -38,6 +39,7 @@ import org.janelia.console.viewerapi.model.ImageColorModel;
 import org.janelia.geometry3d.PerspectiveCamera;
 import org.janelia.gltools.GL3Resource;
 import org.janelia.gltools.MeshActor;
+import org.janelia.horta.neuronvbo.NeuronPick;
 import org.janelia.horta.neuronvbo.NeuronVboActor;
 import org.openide.util.Exceptions;
 import org.slf4j.Logger;
@@ -54,6 +56,7 @@ extends MultipassRenderer
     private final BackgroundRenderPass backgroundRenderPass;
     private final OpaqueRenderPass opaqueRenderPass;
     private final VolumeRenderPass volumeRenderPass;
+    private final NeuronPickPass pickPass;
     
     private final Set<NeuronSet> currentNeuronLists = new HashSet<>();
     private final HortaMetaWorkspace workspace;
@@ -93,6 +96,10 @@ extends MultipassRenderer
         opaqueRenderPass.addActor(allSwcActor);
         add(opaqueRenderPass);
         
+        // Neuron anchor and edge IDs, drawn off-screen only when a pick is requested
+        pickPass = new NeuronPickPass(drawable, allSwcActor);
+        add(pickPass);
+        
         volumeRenderPass = new VolumeRenderPass(drawable);
 
         // pass depth texture from opaque render pass as input to volume render pass
@@ -318,6 +325,7 @@ extends MultipassRenderer
 
     public final void setRelativeSlabThickness(float zNear, float zFar) {
         opaqueRenderPass.setRelativeSlabThickness(zNear, zFar);
+        pickPass.setRelativeSlabThickness(zNear, zFar);
         volumeRenderPass.setRelativeSlabThickness(zNear, zFar);
         volumeRenderPass.setOpaqueDepthTexture(
             opaqueRenderPass.getFlatDepthTarget());
@@ -429,6 +437,16 @@ extends MultipassRenderer
         return isVisibleTransparentAtScreenXy(xy);
     }
 
+    /**
+     * Finds the neuron anchor or edge drawn nearest to screen location xy,
+     * from the GPU pick buffer. The listener is called later, on the OpenGL
+     * thread, with null if no neuron is drawn near xy.
+     */
+    public void pickNeuronAt(Point2D xy, Consumer<NeuronPick> listener)
+    {
+        pickPass.requestPick(xy, listener);
+    }
+
     public void queueObsoleteResource(GL3Resource resource) {
         obsoleteGLResources.add(resource);
     }
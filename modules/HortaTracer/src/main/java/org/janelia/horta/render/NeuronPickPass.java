@@ -0,0 +1,263 @@
+package org.janelia.horta.render;
+
+import java.awt.Component;
+import java.awt.geom.Point2D;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.function.Consumer;
+import javax.media.opengl.GL3;
+import javax.media.opengl.GLAutoDrawable;
+import org.janelia.geometry3d.AbstractCamera;
+import org.janelia.geometry3d.camera.BasicViewSlab;
+import org.janelia.geometry3d.camera.ConstViewSlab;
+import org.janelia.geometry3d.camera.SlabbableCamera;
+import org.janelia.gltools.Framebuffer;
+import org.janelia.gltools.RenderPass;
+import org.janelia.gltools.RenderTarget;
+import org.janelia.horta.neuronvbo.NeuronPick;
+import org.janelia.horta.neuronvbo.NeuronVboActor;
+
+/**
+ * Off-screen pass that draws neuron models into an integer pick buffer, one
+ * ID per anchor and per edge, and reads back a small window around the most
+ * recently requested screen location.
+ *
+ * The pass only runs when a pick has been requested. The window is read into
+ * a pixel buffer object, and collected on a later frame once its fence has
+ * signaled, so the read never stalls the pipeline. Finding the primitive under
+ * the cursor costs the same, however many neurons are drawn.
+ */
+public class NeuronPickPass extends RenderPass
+{
+    // Look this many pixels around the requested location
+    private static final int PICK_RADIUS = 10;
+    private static final int PICK_WINDOW = 2 * PICK_RADIUS + 1;
+
+    private final GLAutoDrawable drawable;
+    private final NeuronVboActor neuronActor;
+    private final RenderTarget pickTarget;
+    private final int[] pickDrawBuffers = new int[] {GL3.GL_NONE, GL3.GL_COLOR_ATTACHMENT0};
+    private final int[] clearPick = new int[] {0, 0, 0, 0};
+    private final float[] depthOne = new float[] {1};
+    private float relativeZNear = 0.92f;
+    private float relativeZFar = 1.08f;
+
+    // Latest request, from any thread; older requests are simply superseded
+    private volatile PickRequest pendingRequest = null;
+    // Request whose window is on its way into the pixel buffer, on the GL thread only
+    private PickRequest inFlightRequest = null;
+    private long readbackFence = 0;
+    private int pixelBuffer = 0;
+    private int windowX, windowY, windowWidth, windowHeight;
+
+    public NeuronPickPass(GLAutoDrawable drawable, NeuronVboActor neuronActor)
+    {
+        super(new Framebuffer(drawable));
+        this.drawable = drawable;
+        this.neuronActor = neuronActor;
+        pickTarget = framebuffer.addRenderTarget(GL3.GL_R32UI, GL3.GL_COLOR_ATTACHMENT0);
+        framebuffer.addRenderTarget(GL3.GL_DEPTH_COMPONENT32, GL3.GL_DEPTH_ATTACHMENT);
+        addRenderTarget(pickTarget);
+    }
+
+    /**
+     * Asks for the neuron anchor or edge nearest to screen location xy. The
+     * listener is called on the OpenGL thread a frame or two later, with null
+     * if no neuron is drawn near xy. A newer request supersedes an older one
+     * that has not yet been answered.
+     */
+    public void requestPick(Point2D xy, Consumer<NeuronPick> listener) {
+        pendingRequest = new PickRequest(xy, listener);
+        requestRepaint();
+    }
+
+    public void setRelativeSlabThickness(float zNear, float zFar) {
+        relativeZNear = zNear;
+        relativeZFar = zFar;
+    }
+
+    @Override
+    public void init(GL3 gl) {
+        framebuffer.init(gl);
+        int[] vals = new int[1];
+        gl.glGenBuffers(1, vals, 0);
+        pixelBuffer = vals[0];
+        gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, pixelBuffer);
+        gl.glBufferData(GL3.GL_PIXEL_PACK_BUFFER,
+                PICK_WINDOW * PICK_WINDOW * Integer.BYTES,
+                null,
+                GL3.GL_STREAM_READ);
+        gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, 0);
+        super.init(gl);
+    }
+
+    @Override
+    public void dispose(GL3 gl) {
+        super.dispose(gl);
+        framebuffer.dispose(gl);
+        if (readbackFence != 0) {
+            gl.glDeleteSync(readbackFence);
+            readbackFence = 0;
+        }
+        inFlightRequest = null;
+        if (pixelBuffer != 0) {
+            gl.glDeleteBuffers(1, new int[] {pixelBuffer}, 0);
+            pixelBuffer = 0;
+        }
+    }
+
+    @Override
+    public void display(GL3 gl, AbstractCamera camera) {
+        if (inFlightRequest != null)
+            collectReadback(gl);
+        if (inFlightRequest != null)
+            return; // one readback at a time
+        PickRequest request = pendingRequest;
+        if (request == null)
+            return; // nobody is asking
+        if (pixelBuffer == 0)
+            return; // not initialized
+        if (! framebuffer.bind(gl))
+            return;
+        try {
+            renderScene(gl, camera);
+            if (startReadback(gl, request)) {
+                inFlightRequest = request;
+                requestRepaint(); // to collect the result
+            }
+        }
+        finally {
+            framebuffer.unbind(gl);
+        }
+    }
+
+    @Override
+    protected void renderScene(GL3 gl, AbstractCamera camera) {
+        gl.glDrawBuffers(pickDrawBuffers.length, pickDrawBuffers, 0);
+        gl.glEnable(GL3.GL_DEPTH_TEST);
+        gl.glDisable(GL3.GL_BLEND);
+        gl.glClearBufferfv(GL3.GL_DEPTH, 0, depthOne, 0);
+        gl.glClearBufferuiv(GL3.GL_COLOR, 1, clearPick, 0);
+        // Match the slab of the opaque pass, so picks agree with what is shown
+        boolean pushedSlab = false;
+        if (camera instanceof SlabbableCamera) {
+            ConstViewSlab slab = new BasicViewSlab(relativeZNear, relativeZFar);
+            ((SlabbableCamera)camera).pushInternalViewSlab(slab);
+            pushedSlab = true;
+        }
+        try {
+            if (neuronActor.isVisible())
+                neuronActor.display(gl, camera, null);
+        }
+        finally {
+            if (pushedSlab)
+                ((SlabbableCamera)camera).popInternalViewSlab();
+        }
+    }
+
+    private boolean startReadback(GL3 gl, PickRequest request) {
+        int width = framebuffer.getWidth();
+        int height = framebuffer.getHeight();
+        int x = (int) Math.round(request.xy.getX());
+        // y convention is opposite between screen and texture buffer
+        int y = height - 1 - (int) Math.round(request.xy.getY());
+        windowX = Math.max(0, x - PICK_RADIUS);
+        windowY = Math.max(0, y - PICK_RADIUS);
+        windowWidth = Math.min(width, x + PICK_RADIUS + 1) - windowX;
+        windowHeight = Math.min(height, y + PICK_RADIUS + 1) - windowY;
+        if ( (windowWidth <= 0) || (windowHeight <= 0) ) {
+            // Off screen, so nothing to pick
+            if (pendingRequest == request)
+                pendingRequest = null;
+            request.listener.accept(null);
+            return false;
+        }
+        gl.glReadBuffer(GL3.GL_COLOR_ATTACHMENT0);
+        gl.glPixelStorei(GL3.GL_PACK_ALIGNMENT, 4);
+        gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, pixelBuffer);
+        gl.glReadPixels(windowX, windowY, windowWidth, windowHeight,
+                GL3.GL_RED_INTEGER, GL3.GL_UNSIGNED_INT, 0);
+        gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, 0);
+        readbackFence = gl.glFenceSync(GL3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        return true;
+    }
+
+    private void collectReadback(GL3 gl) {
+        int status = gl.glClientWaitSync(readbackFence, GL3.GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+        if ( (status != GL3.GL_ALREADY_SIGNALED) && (status != GL3.GL_CONDITION_SATISFIED) ) {
+            if (status != GL3.GL_WAIT_FAILED) {
+                requestRepaint(); // not there yet; try again next frame
+                return;
+            }
+        }
+        gl.glDeleteSync(readbackFence);
+        readbackFence = 0;
+        PickRequest request = inFlightRequest;
+        inFlightRequest = null;
+        if (pendingRequest == request)
+            pendingRequest = null;
+        if (status == GL3.GL_WAIT_FAILED) {
+            request.listener.accept(null);
+            return;
+        }
+
+        int pixelCount = windowWidth * windowHeight;
+        int[] ids = new int[pixelCount];
+        gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, pixelBuffer);
+        ByteBuffer mapped = gl.glMapBufferRange(GL3.GL_PIXEL_PACK_BUFFER,
+                0, pixelCount * Integer.BYTES,
+                GL3.GL_MAP_READ_BIT);
+        if (mapped != null) {
+            IntBuffer pixels = mapped.order(ByteOrder.nativeOrder()).asIntBuffer();
+            pixels.get(ids);
+            gl.glUnmapBuffer(GL3.GL_PIXEL_PACK_BUFFER);
+        }
+        gl.glBindBuffer(GL3.GL_PIXEL_PACK_BUFFER, 0);
+
+        // Resolve here, on the GL thread, while the neuron buffers still match the IDs
+        request.listener.accept(nearestPick(ids, request));
+    }
+
+    // Interactable anchor or edge nearest the center of the window
+    private NeuronPick nearestPick(int[] ids, PickRequest request) {
+        int cx = (int) Math.round(request.xy.getX()) - windowX;
+        int cy = framebuffer.getHeight() - 1 - (int) Math.round(request.xy.getY()) - windowY;
+        NeuronPick result = null;
+        int bestId = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int j = 0; j < windowHeight; ++j) {
+            for (int i = 0; i < windowWidth; ++i) {
+                int id = ids[j * windowWidth + i];
+                if ( (id == 0) || (id == bestId) )
+                    continue;
+                int d2 = (i - cx) * (i - cx) + (j - cy) * (j - cy);
+                if (d2 >= bestDistance)
+                    continue;
+                NeuronPick pick = neuronActor.pickForId(id);
+                if ( (pick == null) || pick.getNeuron().isNonInteractable() )
+                    continue;
+                result = pick;
+                bestId = id;
+                bestDistance = d2;
+            }
+        }
+        return result;
+    }
+
+    private void requestRepaint() {
+        if (drawable instanceof Component)
+            ((Component) drawable).repaint();
+    }
+
+    private static class PickRequest
+    {
+        private final Point2D xy;
+        private final Consumer<NeuronPick> listener;
+
+        PickRequest(Point2D xy, Consumer<NeuronPick> listener) {
+            this.xy = xy;
+            this.listener = listener;
+        }
+    }
+}
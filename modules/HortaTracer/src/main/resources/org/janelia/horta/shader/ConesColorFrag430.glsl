@@ -9,6 +9,7 @@
 layout(location = 2) uniform mat4 projectionMatrix; // needed for proper depth calculation
 layout(location = 3) uniform sampler2D lightProbe; // for image-based-lighting (IBL)
 layout(location = 4) uniform vec2 screenSize = vec2(1280, 800);
+layout(location = 7) uniform uint pickIdBase = 0u; // pick ID of edge zero
 
 in float fragRadius; // average radius of cone
 in vec3 center; // center of cone, in camera frame
@@ -26,7 +27,8 @@ in float normalScale;
 in float bViewAlongCone; // Is view angle less than taper angle?
 in vec4 color;
 
-out vec4 fragColor;
+layout(location = 0) out vec4 fragColor;
+layout(location = 1) out uint pickId; // only kept when drawing into a pick buffer
 
 
 // forward declaraion of methods defined in imposter_fns330.glsl
@@ -46,6 +48,8 @@ vec3 image_based_lighting(
 
 void main() 
 {
+    pickId = pickIdBase + uint(gl_PrimitiveID);
+
     vec3 s, normal; // surface and normal
 
     // set up quadratic formula to solve cone ray-casting equation
@@ -67,6 +67,7 @@ void emit_one_vertex(vec3 offset) {
     cone_linear_coeffs(center, fragRadius, halfAxis, taper, imposterPos, 
         tAP, qe_c, qe_half_b, qe_undot_half_a);
 
+    gl_PrimitiveID = gl_PrimitiveIDIn; // edge index, for the pick buffer
     EmitVertex();
 }
 
@@ -9,6 +9,7 @@
 layout(location = 2) uniform mat4 projectionMatrix; // needed for proper sphere depth calculation
 layout(location = 3) uniform sampler2D lightProbe;
 layout(location = 4) uniform vec2 screenSize = vec2(1280, 800);
+layout(location = 7) uniform uint pickIdBase = 0u; // pick ID of vertex zero
 
 in vec3 imposterPos; // imposter geometry location, in camera frame
 in float pc, c2; // pre-computed ray-casting quadratic formula linear coefficients
@@ -16,7 +17,8 @@ in vec3 center; // sphere center in camera frame
 in float fragRadius; // sphere radius
 in vec4 color;
 
-out vec4 fragColor;
+layout(location = 0) out vec4 fragColor;
+layout(location = 1) out uint pickId; // only kept when drawing into a pick buffer
 
 
 // methods defined in imposter_fns330.glsl
@@ -34,6 +36,8 @@ vec3 image_based_lighting(
 
 
 void main() {
+    pickId = pickIdBase + uint(gl_PrimitiveID);
+
     vec2 a2_d = sphere_nonlinear_coeffs(imposterPos, pc, c2);
 
     vec3 s, normal;
@@ -80,6 +80,7 @@ void emit_one_vertex(vec3 offset) {
     imposterPos = center + trim * geomRadius[0] * offset;
     gl_Position = projectionMatrix * vec4(imposterPos, 1);
     pc = dot(imposterPos, center);
+    gl_PrimitiveID = gl_PrimitiveIDIn; // vertex index, for the pick buffer
     EmitVertex();
 }
 
@@ -0,0 +1,232 @@
+package org.janelia.horta.blocks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.io.FileUtils;
+import org.janelia.it.jacs.model.TestCategories;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that KTX blocks are read through the local disk cache, against a
+ * remote source in a temporary directory.
+ */
+public class CachedKtxOctreeBlockTileSourceTest {
+
+    private static final int IMAGE_SIZE = 1000;
+
+    private Path tempDir;
+    private Path cacheDir;
+    private CountingRemoteSource remoteSource;
+    private KtxOctreeBlockTileKey blockKey;
+    private byte[] block;
+
+    /**
+     * Reads blocks from files, counting the reads.
+     */
+    private static class CountingRemoteSource extends FileKtxOctreeBlockTileSource {
+        private final AtomicInteger streamCount = new AtomicInteger();
+        private volatile CountDownLatch headerRead;
+
+        CountingRemoteSource(URL sampleURL) {
+            super(sampleURL);
+            this.sourceServerURL = sampleURL.toString();
+            this.sampleKtxTilesBaseDir = getKtxSubDir();
+        }
+
+        @Override
+        protected InputStream streamKeyBlock(KtxOctreeBlockTileKey octreeKey) throws IOException {
+            streamCount.incrementAndGet();
+            InputStream blockStream = super.streamKeyBlock(octreeKey);
+            CountDownLatch latch = headerRead;
+            if (latch == null) {
+                return blockStream;
+            }
+            // Holds back everything after the header until the reader has seen it
+            return new InputStream() {
+                private int position = 0;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] single = new byte[1];
+                    return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    if (position >= 64) {
+                        try {
+                            assertTrue(latch.await(5, TimeUnit.SECONDS));
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                    } else {
+                        length = Math.min(length, 64 - position);
+                    }
+                    int readCount = blockStream.read(buffer, offset, length);
+                    position += Math.max(0, readCount);
+                    return readCount;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    blockStream.close();
+                }
+            };
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        tempDir = Files.createTempDirectory("ktx_cache_test");
+        cacheDir = tempDir.resolve("cache");
+        Path remoteDir = tempDir.resolve("remote");
+        block = createKtxBlock();
+        Path remoteBlock = remoteDir.resolve("ktx/1/2/block_8_xy_12.ktx");
+        Files.createDirectories(remoteBlock.getParent());
+        Files.write(remoteBlock, block);
+        // The directory exists, so its URL ends with a slash
+        remoteSource = new CountingRemoteSource(remoteDir.toUri().toURL());
+        blockKey = new KtxOctreeBlockTileKey(remoteSource, Arrays.asList(1, 2));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(tempDir.toFile());
+    }
+
+    /**
+     * @return a little endian KTX file with one mipmap level and no key/value data
+     */
+    private static byte[] createKtxBlock() {
+        ByteBuffer buffer = ByteBuffer.allocate(64 + 4 + IMAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(new byte[] {(byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'});
+        buffer.putInt(12, 0x04030201);
+        buffer.putInt(56, 1);
+        buffer.putInt(60, 0);
+        buffer.putInt(64, IMAGE_SIZE);
+        for (int i = 0; i < IMAGE_SIZE; i++) {
+            buffer.put(68 + i, (byte) i);
+        }
+        return buffer.array();
+    }
+
+    private CachedKtxOctreeBlockTileSource openCachedSource() throws IOException {
+        return new CachedKtxOctreeBlockTileSource(remoteSource, new KtxBlockDiskCache(cacheDir, 1 << 20));
+    }
+
+    private static byte[] readBlock(CachedKtxOctreeBlockTileSource source, KtxOctreeBlockTileKey key) throws IOException {
+        try (InputStream stream = source.streamKeyBlock(key)) {
+            return ByteStreams.toByteArray(stream);
+        }
+    }
+
+    private Path getCachedFile() throws IOException {
+        try (Stream<Path> files = Files.walk(cacheDir)) {
+            return files.filter(path -> path.getFileName().toString().equals("block_8_xy_12.ktx"))
+                    .findFirst()
+                    .orElse(null);
+        }
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testMissWritesThroughAndHitSkipsRemote() throws IOException {
+        CachedKtxOctreeBlockTileSource source = openCachedSource();
+        assertArrayEquals(block, readBlock(source, blockKey));
+        assertEquals(1, remoteSource.streamCount.get());
+        Path cachedFile = getCachedFile();
+        assertNotNull(cachedFile);
+        assertArrayEquals(block, Files.readAllBytes(cachedFile));
+
+        assertArrayEquals(block, readBlock(source, blockKey));
+        assertEquals(1, remoteSource.streamCount.get());
+
+        // Also after a restart
+        assertArrayEquals(block, readBlock(openCachedSource(), blockKey));
+        assertEquals(1, remoteSource.streamCount.get());
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testTruncatedCacheFileIsRefetched() throws IOException {
+        readBlock(openCachedSource(), blockKey);
+        try (FileChannel channel = FileChannel.open(getCachedFile(), StandardOpenOption.WRITE)) {
+            channel.truncate(block.length - 10);
+        }
+
+        CachedKtxOctreeBlockTileSource source = openCachedSource();
+        assertArrayEquals(block, readBlock(source, blockKey));
+        assertEquals(2, remoteSource.streamCount.get());
+        assertArrayEquals(block, Files.readAllBytes(getCachedFile()));
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testCorruptCacheFileIsRefetched() throws IOException {
+        readBlock(openCachedSource(), blockKey);
+        // Damage the endianness marker
+        byte[] corrupt = block.clone();
+        corrupt[12] = 0;
+        Files.write(getCachedFile(), corrupt);
+
+        CachedKtxOctreeBlockTileSource source = openCachedSource();
+        assertArrayEquals(block, readBlock(source, blockKey));
+        assertEquals(2, remoteSource.streamCount.get());
+        assertArrayEquals(block, Files.readAllBytes(getCachedFile()));
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testBlockIsStreamedWhileCaching() throws IOException {
+        remoteSource.headerRead = new CountDownLatch(1);
+        CachedKtxOctreeBlockTileSource source = openCachedSource();
+        try (InputStream stream = source.streamKeyBlock(blockKey)) {
+            // The header arrives before the rest of the block is released
+            byte[] header = new byte[64];
+            ByteStreams.readFully(stream, header);
+            assertArrayEquals(Arrays.copyOf(block, 64), header);
+            assertNull(getCachedFile());
+            remoteSource.headerRead.countDown();
+            byte[] rest = ByteStreams.toByteArray(stream);
+            assertArrayEquals(Arrays.copyOfRange(block, 64, block.length), rest);
+        }
+        assertArrayEquals(block, Files.readAllBytes(getCachedFile()));
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testPartlyReadBlockIsNotCached() throws IOException {
+        CachedKtxOctreeBlockTileSource source = openCachedSource();
+        try (InputStream stream = source.streamKeyBlock(blockKey)) {
+            ByteStreams.readFully(stream, new byte[64]);
+        }
+        assertNull(getCachedFile());
+        assertArrayEquals(block, readBlock(source, blockKey));
+        assertEquals(2, remoteSource.streamCount.get());
+    }
+
+    @Test(expected = IOException.class)
+    @Category(TestCategories.FastTests.class)
+    public void testRemoteFailureIsAnIOException() throws IOException {
+        KtxOctreeBlockTileKey missingKey = new KtxOctreeBlockTileKey(remoteSource, Arrays.asList(3));
+        openCachedSource().streamKeyBlock(missingKey);
+    }
+}
@@ -0,0 +1,131 @@
+package org.janelia.horta.blocks;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.janelia.geometry3d.ConstVector3;
+import org.janelia.geometry3d.Vector3;
+import org.janelia.model.domain.tiledMicroscope.TmSample;
+
+/**
+ * Replays a synthetic camera path against the block cache, with and without
+ * prefetching, and reports how often blocks were already loaded when they came
+ * into view. Loads take a fixed time instead of reading real blocks.
+ */
+public class CameraPathBenchmark {
+
+    private static final int OCTREE_LEVELS = 5;
+    private static final float BLOCK_SIZE = 100.0f;
+    private static final long FRAME_MILLIS = 16;
+    private static final long LOAD_MILLIS = 40;
+    // Scene units per second
+    private static final float PAN_SPEED = 150.0f;
+
+    public static void main(String[] args) throws Exception {
+        SyntheticBlockTileSource source = new SyntheticBlockTileSource();
+        run("display only", new Finest8DisplayBlockChooser(), source);
+        run("prefetch", new PredictiveBlockChooser(new Finest8DisplayBlockChooser()), source);
+    }
+
+    private static void run(String name, BlockChooser<KtxOctreeBlockTileKey, KtxOctreeBlockTileSource> chooser,
+            KtxOctreeBlockTileSource source) throws InterruptedException {
+        BlockDisplayUpdater<KtxOctreeBlockTileKey, KtxOctreeBlockTileSource> updater = new BlockDisplayUpdater<>(chooser);
+        updater.setBlockTileSource(source);
+        DelayedTileCache cache = new DelayedTileCache();
+
+        int frameCount = 0;
+        int stalledFrameCount = 0;
+        long startMillis = System.currentTimeMillis();
+        for (CameraSegment segment : CameraSegment.PATH) {
+            long segmentFrames = segment.millis / FRAME_MILLIS;
+            for (int f = 0; f < segmentFrames; ++f) {
+                updater.refreshBlocks(segment.focusAt(f * FRAME_MILLIS));
+                cache.updateDesiredTiles(updater.getDesiredBlocks(), updater.getPrefetchBlocks());
+                frameCount += 1;
+                if (cache.getDisplayedActors().size() < updater.getDesiredBlocks().size()) {
+                    stalledFrameCount += 1;
+                }
+                Thread.sleep(FRAME_MILLIS);
+            }
+        }
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+        cache.clearDesiredTiles();
+
+        long hits = cache.getDisplayHitCount();
+        long misses = cache.getDisplayMissCount();
+        System.out.println(String.format("%-12s: %d hits, %d misses (%.0f%% hit rate), %d of %d frames stalled, %d loads, %d ms",
+                name, hits, misses, 100.0 * hits / Math.max(1, hits + misses),
+                stalledFrameCount, frameCount, cache.loadCount.get(), elapsedMillis));
+        // Let cancelled loads drain before the next run
+        Thread.sleep(500);
+    }
+
+    /**
+     * Moves the camera focus in a straight line at constant speed.
+     */
+    private static class CameraSegment {
+        private static final Vector3 START = new Vector3(1050, 1050, 1050);
+        private static final CameraSegment[] PATH = {
+            // pan along x, turn back, then pan diagonally
+            new CameraSegment(START, new Vector3(1, 0, 0), 3000),
+            new CameraSegment(new Vector3(1500, 1050, 1050), new Vector3(-1, 0, 0), 1000),
+            new CameraSegment(new Vector3(1350, 1050, 1050), new Vector3(0.7f, 0.7f, 0), 3000),
+        };
+
+        private final ConstVector3 start;
+        private final ConstVector3 direction;
+        private final long millis;
+
+        private CameraSegment(ConstVector3 start, ConstVector3 direction, long millis) {
+            this.start = start;
+            this.direction = direction;
+            this.millis = millis;
+        }
+
+        ConstVector3 focusAt(long elapsedMillis) {
+            return new Vector3(direction).multiplyScalar(PAN_SPEED * elapsedMillis / 1000.0f).add(start);
+        }
+    }
+
+    /**
+     * Octree of equally sized blocks, without any block data.
+     */
+    private static class SyntheticBlockTileSource extends KtxOctreeBlockTileSource {
+        SyntheticBlockTileSource() throws Exception {
+            super(new URL("file:/synthetic/"));
+            float extent = BLOCK_SIZE * (1 << OCTREE_LEVELS);
+            this.maximumResolution = new KtxOctreeResolution(OCTREE_LEVELS);
+            this.origin = new Vector3(0, 0, 0);
+            this.outerCorner = new Vector3(extent, extent, extent);
+        }
+
+        @Override
+        protected String getSourceServerURL(TmSample sample) {
+            return null;
+        }
+
+        @Override
+        protected InputStream streamKeyBlock(KtxOctreeBlockTileKey octreeKey) {
+            throw new UnsupportedOperationException("Synthetic blocks have no data");
+        }
+    }
+
+    /**
+     * Pretends to load each tile, taking the same time for every one.
+     */
+    private static class DelayedTileCache extends BasicTileCache<KtxOctreeBlockTileKey, Object> {
+        private final AtomicInteger loadCount = new AtomicInteger();
+
+        @Override
+        LoadRunner<KtxOctreeBlockTileKey, Object> getLoadRunner() {
+            return new LoadRunner<KtxOctreeBlockTileKey, Object>() {
+                @Override
+                public Object loadTile(KtxOctreeBlockTileKey key) throws InterruptedException {
+                    loadCount.incrementAndGet();
+                    Thread.sleep(LOAD_MILLIS);
+                    return key;
+                }
+            };
+        }
+    }
+}
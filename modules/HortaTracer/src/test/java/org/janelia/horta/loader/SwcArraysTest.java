@@ -0,0 +1,195 @@
+package org.janelia.horta.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.it.jacs.shared.swc.SWCData;
+import org.janelia.it.jacs.shared.swc.SWCNode;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the hand written SWC number parsing in {@link SwcArrays} against
+ * Float.parseFloat, and against the SWCData reader used by the annotation model.
+ */
+public class SwcArraysTest {
+
+    private static SwcArrays parse(String swc) throws IOException {
+        return SwcArrays.parse(ByteBuffer.wrap(swc.getBytes(StandardCharsets.US_ASCII)), "test.swc");
+    }
+
+    // One vertex per token, with the token as its radius, which has no offset added
+    private static void assertParsedLikeFloatParseFloat(List<String> tokens) throws IOException {
+        StringBuilder swc = new StringBuilder();
+        for (int i = 0; i < tokens.size(); ++i) {
+            swc.append(i + 1).append(" 2 0 0 0 ").append(tokens.get(i)).append(" -1\n");
+        }
+        SwcArrays arrays = parse(swc.toString());
+        assertEquals(tokens.size(), arrays.getVertexCount());
+        for (int i = 0; i < tokens.size(); ++i) {
+            float expected = Float.parseFloat(tokens.get(i));
+            assertEquals(tokens.get(i), Float.floatToIntBits(expected), Float.floatToIntBits(arrays.getRadius(i)));
+        }
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testNumberFormats() throws IOException {
+        List<String> tokens = new ArrayList<>();
+        String[] values = {
+            "0", "-0", "+0", "0.0", ".5", "5.", "-.5", "+7", "+77299.3", "-56354.5",
+            "1e3", "1E3", "-2.5e-2", "+2.5E+2", "1.5e-7", "-3e10", "6.02214076e23",
+            "1e-22", "1e22", "1e-23", "1e23", "1e-45", "3.4028235e38", "007.250", "000000000000000000001.5"};
+        for (String value : values) {
+            tokens.add(value);
+        }
+        assertParsedLikeFloatParseFloat(tokens);
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testLongMantissas() throws IOException {
+        List<String> tokens = new ArrayList<>();
+        tokens.add("77299.312345678901234567");
+        tokens.add("-0.1000000000000000055511151231257827");
+        tokens.add("123456789012345678901234567890");
+        tokens.add("0.000000000000000000000000000000000000011754943508222875");
+        // Halfway between two floats, and just either side of it
+        float f = 77299.31f;
+        BigDecimal halfway = new BigDecimal(f).add(new BigDecimal(Math.ulp(f)).divide(BigDecimal.valueOf(2)));
+        tokens.add(halfway.toPlainString());
+        tokens.add(halfway.add(new BigDecimal("1e-30")).toPlainString());
+        tokens.add(halfway.subtract(new BigDecimal("1e-30")).toPlainString());
+        tokens.add("16777217");
+        tokens.add("16777219");
+        assertParsedLikeFloatParseFloat(tokens);
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testRandomNumbers() throws IOException {
+        Random random = new Random(42);
+        String[] formats = {"%.6f", "%.3f", "%.0f", "%e", "%.9e", "%.15g", "%.17g", "%.20f"};
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 100000; ++i) {
+            double value = Math.pow(10, random.nextInt(16) - 8) * random.nextDouble();
+            if (random.nextBoolean()) {
+                value = -value;
+            }
+            String token;
+            switch (random.nextInt(3)) {
+                case 0:
+                    token = Float.toString((float) value);
+                    break;
+                case 1:
+                    token = Double.toString(value);
+                    break;
+                default:
+                    token = String.format(Locale.US, formats[random.nextInt(formats.length)], value);
+            }
+            tokens.add(token.startsWith("-") || random.nextInt(4) > 0 ? token : "+" + token);
+        }
+        assertParsedLikeFloatParseFloat(tokens);
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testCommentsBlankAndCrlfLines() throws IOException {
+        SwcArrays arrays = parse(
+                "# a comment\r\n"
+                + "\r\n"
+                + "   \t \r\n"
+                + "#COMMENT 1 2 3\r\n"
+                + "1 1 10.5 20 30 1.25 -1\r\n"
+                + "# OFFSET 100 200 300\r\n"
+                + "\t2  3  1e1  -2E1  +3.0e1  0.5  1 \r\n"
+                + "3 3 1 2\r\n" // too few fields
+                + "#   COLOR 0.5,0.25,1\r\n"
+                + "4 3 0 0 0 1 2"); // no line end
+        assertEquals(3, arrays.getVertexCount());
+        assertEquals(1, arrays.getLabel(0));
+        assertEquals(1, arrays.getTypeIndex(0));
+        assertEquals(10.5f, arrays.getX(0), 0);
+        assertEquals(20f, arrays.getY(0), 0);
+        assertEquals(30f, arrays.getZ(0), 0);
+        assertEquals(1.25f, arrays.getRadius(0), 0);
+        assertEquals(-1, arrays.getParentLabel(0));
+
+        // Offset applies to the vertices after it
+        assertEquals(2, arrays.getLabel(1));
+        assertEquals(3, arrays.getTypeIndex(1));
+        assertEquals(110f, arrays.getX(1), 0);
+        assertEquals(180f, arrays.getY(1), 0);
+        assertEquals(330f, arrays.getZ(1), 0);
+        assertEquals(0.5f, arrays.getRadius(1), 0);
+        assertEquals(1, arrays.getParentLabel(1));
+        assertEquals(100f, arrays.getX(2), 0);
+
+        assertArrayEquals(new float[] {0.5f, 0.25f, 1f}, arrays.getColor(), 0);
+        assertArrayEquals(new int[] {-1, 0, 1}, arrays.getParentIndexes());
+    }
+
+    @Test(expected = IOException.class)
+    @Category(TestCategories.FastTests.class)
+    public void testBadNumberIsAnIOException() throws IOException {
+        parse("1 2 3 4 5x 6 -1\n");
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testSameAsSWCData() throws Exception {
+        File swcFile = Files.createTempFile("neuron", ".swc").toFile();
+        try {
+            Random random = new Random(1234);
+            StringBuilder swc = new StringBuilder();
+            swc.append("# ORIGINAL_SOURCE test\n");
+            swc.append("# OFFSET 77277.017247 44351.723117 24137.592725\n");
+            swc.append("# COLOR 0.000000,1.000000,0.000000\n");
+            double x = 0, y = 0, z = 0;
+            for (int v = 1; v <= 2000; ++v) {
+                x += 10 * random.nextGaussian();
+                y += 10 * random.nextGaussian();
+                z += 10 * random.nextGaussian();
+                int parent = (v == 1) ? -1 : Math.max(1, v - 1 - random.nextInt(3));
+                swc.append(String.format(Locale.US, "%d %d %.6f %.6f %.6f %.6f %d\n",
+                        v, 2, x, y, z, 1.0 + random.nextDouble(), parent));
+            }
+            Files.write(swcFile.toPath(), swc.toString().getBytes(StandardCharsets.US_ASCII));
+
+            SwcArrays arrays = SwcArrays.read(swcFile);
+            SWCData swcData = SWCData.read(swcFile);
+            assertTrue(swcData.isValid());
+            double[] offset = swcData.parseOffset();
+            List<SWCNode> nodes = swcData.getNodeList();
+            assertEquals(nodes.size(), arrays.getVertexCount());
+            for (int i = 0; i < nodes.size(); ++i) {
+                SWCNode node = nodes.get(i);
+                assertEquals(node.getIndex(), arrays.getLabel(i));
+                assertEquals(node.getParentIndex(), arrays.getParentLabel(i));
+                assertCoordinate(node.getX() + offset[0], arrays.getX(i));
+                assertCoordinate(node.getY() + offset[1], arrays.getY(i));
+                assertCoordinate(node.getZ() + offset[2], arrays.getZ(i));
+                assertEquals((float) node.getRadius(), arrays.getRadius(i), Math.ulp(arrays.getRadius(i)));
+            }
+            assertArrayEquals(swcData.parseColorFloats(), arrays.getColor(), 0);
+        }
+        finally {
+            swcFile.delete();
+        }
+    }
+
+    // SWCData adds the offset in double precision, SwcArrays in float
+    private static void assertCoordinate(double expected, float actual) {
+        assertEquals(expected, actual, 2 * Math.ulp((float) expected));
+    }
+}
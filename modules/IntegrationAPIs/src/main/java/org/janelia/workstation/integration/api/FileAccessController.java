@@ -1,6 +1,8 @@
 package org.janelia.workstation.integration.api;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
 
 /**
  * Service for unified remote file access.
@@ -12,4 +14,10 @@ public interface FileAccessController {
     public static final String LOOKUP_PATH = "FileAccessController/Location/Nodes";
 
     public File getCachedFile(String standardPath, boolean forceRefresh);
+
+    /**
+     * Opens a read only channel on the file, which retrieves only the parts
+     * that are read, e.g. to read a header before fetching the whole file.
+     */
+    public SeekableByteChannel openChannel(String standardPath) throws IOException;
 }
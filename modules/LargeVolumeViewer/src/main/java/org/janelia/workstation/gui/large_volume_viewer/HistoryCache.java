@@ -9,7 +9,16 @@ import org.slf4j.LoggerFactory;
 public class HistoryCache
 implements Map<TileIndex, TileTexture>
 {
+	/**
+	 * Notified when a texture is dropped to make room, or the cache is cleared.
+	 */
+	public interface EvictionListener {
+		void textureEvicted(TileTexture texture);
+	}
+
 	private static final Logger log = LoggerFactory.getLogger(HistoryCache.class);	
+	// The map grows as needed; a size limit of Integer.MAX_VALUE must not be allocated up front
+	private static final int MAX_INITIAL_CAPACITY = 1024;
 	
 	// Store deleted opengl texture ids, for deferred disposal.
 	private Set<Integer> obsoleteGlTextures = new HashSet<Integer>();
@@ -18,15 +27,24 @@ implements Map<TileIndex, TileTexture>
 	// To allow lookup by index
 	private Map<TileIndex, TileTexture> map;
 	private int maxEntries;
+	// Byte budget for decoded pixels, and the pixel bytes currently held
+	private long maxBytes = Long.MAX_VALUE;
+	private long currentBytes = 0;
+	private EvictionListener evictionListener;
 
 	public HistoryCache(int maxSize) {
+		this(maxSize, Long.MAX_VALUE);
+	}
+
+	public HistoryCache(int maxSize, long maxBytes) {
 		this.maxEntries = maxSize;
+		this.maxBytes = maxBytes;
 		// Create a synchronized, least-recently-used map container, with a size limit.
 		// Use synchronizedMap() to generate thread-safe container.
 		//map = Collections.synchronizedMap(new LinkedHashMap<TileIndex, TileTexture>(
 				map = new LinkedHashMap<TileIndex, TileTexture>(
 
-						maxSize, 0.75f, true) { // "true" for access-order, based on get()/add() calls
+						Math.min(maxSize, MAX_INITIAL_CAPACITY), 0.75f, true) { // "true" for access-order, based on get()/add() calls
 			private static final long serialVersionUID = 1L;
 			@Override
 			// Fix size of LRU cache
@@ -50,8 +68,16 @@ implements Map<TileIndex, TileTexture>
 				continue;
 			obsoleteGlTextures.add(id); // remember OpenGl texture IDs for later deletion.			
 		}
+		for (TileTexture tile : map.values()) {
+			if (tile == null)
+				continue;
+			if (evictionListener != null)
+				evictionListener.textureEvicted(tile);
+			tile.releaseMemory();
+		}
 		obsoleteGlTextures.addAll(removedOpenGLTexturesSinceClear);
 		map.clear();
+		currentBytes = 0;
 	}
 
 	public Set<Integer> popObsoleteGlTextures() {
@@ -70,6 +96,7 @@ implements Map<TileIndex, TileTexture>
 		TileTexture tile = map.remove(item);
 		if (tile == null)
 			return tile;
+		currentBytes -= tile.getPixelBytes();
 		// Stored OpenGL texture ID, if any.
 		PyramidTexture texture1 = tile.getTexture();
 		if (texture1 == null)
@@ -117,6 +144,21 @@ implements Map<TileIndex, TileTexture>
 		return maxEntries;
 	}
 
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @return bytes of decoded pixels currently held by this cache
+	 */
+	public synchronized long getCurrentBytes() {
+		return currentBytes;
+	}
+
 	@Override
 	public boolean isEmpty() {
 		return map.isEmpty();
@@ -135,46 +177,69 @@ implements Map<TileIndex, TileTexture>
 	 */
 	@Override
 	public synchronized TileTexture put(TileIndex key, TileTexture value) {
+		long valueBytes = (value == null) ? 0 : value.getPixelBytes();
+		TileTexture previous = map.remove(key);
+		if (previous != null) {
+			currentBytes -= previous.getPixelBytes();
+			// A replaced texture is released just like an evicted one
+			if (previous != value)
+				release(previous);
+		}
 
-		int mapSize=map.size();
-		//log.info("put() mapSize="+mapSize+" maxEntries="+maxEntries);
-		boolean result = (map.size() > (maxEntries - 1));
-		int i=0;
-
-		if (result) {
+		boolean overCount = (map.size() > (maxEntries - 1));
+		boolean overBytes = (currentBytes + valueBytes > maxBytes);
+		if (overCount || overBytes) {
 			try {
-
-				// We will iterate over all members, and remove the earlier 50%.
-				// This will avoid constant calls to glDeleteTextureIds once we
-				// hit the ceiling.
-				int cutoff = mapSize / 2;
-				List<TileIndex> keyList=new ArrayList<>();
-				Iterator<TileIndex> it = map.keySet().iterator();
-				while (it.hasNext()) {
-					keyList.add(it.next());
-				}
-				//log.info("keyList has "+keyList.size()+" entries, cutoff="+cutoff);
-				for (;(i<cutoff && i<keyList.size());i++) {
-					TileIndex tileIndex=keyList.get(i);
-					TileTexture tileTexture = map.get(tileIndex);
-					if (tileTexture.getTexture() != null) {
-						final int textureId = tileTexture.getTexture().getTextureId();
-						obsoleteGlTextures.add(textureId);
-					}
-					map.remove(tileIndex);
+				// Evict least recently used entries until we are down to
+				// 50% of the limit that was hit. This will avoid constant
+				// calls to glDeleteTextureIds once we hit the ceiling.
+				long byteCutoff = overBytes ? maxBytes / 2 : Long.MAX_VALUE;
+				int countCutoff = overCount ? map.size() / 2 : Integer.MAX_VALUE;
+				List<TileIndex> keyList = new ArrayList<>(map.keySet());
+				int i = 0;
+				for (; i < keyList.size(); i++) {
+					if (map.size() <= countCutoff && currentBytes + valueBytes <= byteCutoff)
+						break;
+					evict(keyList.get(i));
 				}
+				log.debug("Evicted {} TileTextures, {} bytes remain", i, currentBytes);
 			} catch (Exception ex) {
-				ex.printStackTrace();
+				log.error("Error evicting textures", ex);
 			}
-			//log.info("Removed " + i + " TileTextures and tagged " + obsoleteGlTextures.size() + " textureIds as obsolete");
 		}
 
-		return map.put(key, value);
+		currentBytes += valueBytes;
+		map.put(key, value);
+		return previous;
+	}
+
+	private void evict(TileIndex tileIndex) {
+		TileTexture tileTexture = map.remove(tileIndex);
+		if (tileTexture == null)
+			return;
+		currentBytes -= tileTexture.getPixelBytes();
+		release(tileTexture);
+	}
+
+	private void release(TileTexture tileTexture) {
+		if (tileTexture.getTexture() != null) {
+			final int textureId = tileTexture.getTexture().getTextureId();
+			obsoleteGlTextures.add(textureId);
+		}
+		if (evictionListener != null)
+			evictionListener.textureEvicted(tileTexture);
+		// Pooled pixels are only recycled once readers still using them are done
+		tileTexture.releaseMemory();
+	}
+
+	public synchronized void setEvictionListener(EvictionListener evictionListener) {
+		this.evictionListener = evictionListener;
 	}
 
 	@Override
 	public synchronized void putAll(Map<? extends TileIndex, ? extends TileTexture> m) {
-		map.putAll(m);
+		for (Map.Entry<? extends TileIndex, ? extends TileTexture> entry : m.entrySet())
+			put(entry.getKey(), entry.getValue());
 	}
 
 	@Override
@@ -25,6 +25,10 @@ public class PersistentCache
 				continue;
 			obsoleteGlTextures.add(id); // remember OpenGl texture IDs for later deletion.			
 		}
+		for (TileTexture tile : map.values()) {
+			if (tile != null)
+				tile.releaseMemory();
+		}
 		map.clear();
 	}
 	
@@ -18,10 +18,13 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import org.janelia.it.jacs.model.util.ThreadUtils;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.janelia.it.jacs.shared.geom.CoordinateAxis;
 import org.janelia.it.jacs.shared.geom.Vec3;
 import org.janelia.it.jacs.shared.lvv.AbstractTextureLoadAdapter;
@@ -41,6 +44,9 @@ import org.slf4j.LoggerFactory;
 public class Subvolume {
 
     public static final int N_THREADS = 20;
+    private static final long FETCH_TIMEOUT_MINUTES = 5;
+    // Shared by all subvolume requests; threads exit when idle
+    private static final ThreadPoolExecutor FETCH_EXECUTOR = createFetchExecutor();
     private static final String PROGRESS_REPORT_FORMAT = "%d of %d to go...";
 
     private IndeterminateNoteProgressMonitor progressMonitor;
@@ -53,7 +59,7 @@ public class Subvolume {
     private int bytesPerIntensity = 1;
     private int channelCount = 1;
     private int totalTiles = 0;
-    private int remainingTiles = 0;
+    private final AtomicInteger remainingTiles = new AtomicInteger();
 
     private static final Logger logger = LoggerFactory.getLogger(Subvolume.class);
 
@@ -348,6 +354,16 @@ public class Subvolume {
         }
     }
 
+    private static ThreadPoolExecutor createFetchExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                N_THREADS, N_THREADS,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new CustomNamedThreadFactory("SubvolumeFetch"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * Report how much is left to be done, for this phase.
      *
@@ -372,10 +388,9 @@ public class Subvolume {
     }
 
     private void multiThreadedFetch(Set<TileIndex> neededTiles, final TextureCache textureCache, final AbstractTextureLoadAdapter loadAdapter, final TileFormat tileFormat, final ZoomLevel zoom, final ZoomedVoxelIndex farCorner) {
-        ExecutorService executorService = ThreadUtils.establishExecutor(N_THREADS, new CustomNamedThreadFactory("SubvolumeFetch"));
         List<Future<Boolean>> followUps = new ArrayList<>();
         totalTiles = neededTiles.size();
-        remainingTiles = neededTiles.size();
+        remainingTiles.set(neededTiles.size());
         reportProgress(totalTiles, totalTiles);
         for (final TileIndex tileIx : neededTiles) {
             Callable<Boolean> fetchTask = new Callable<Boolean>() {
@@ -386,25 +401,36 @@ public class Subvolume {
                     );
                 }
             };
-            followUps.add(executorService.submit(fetchTask));
+            // Count down when the task is done, also when it is cancelled before it ever ran
+            FutureTask<Boolean> followUp = new FutureTask<Boolean>(fetchTask) {
+                @Override
+                protected void done() {
+                    reportProgress(remainingTiles.decrementAndGet(), totalTiles);
+                }
+            };
+            FETCH_EXECUTOR.execute(followUp);
+            followUps.add(followUp);
         }
-        executorService.shutdown();
 
+        // The executor is shared, so wait on our own tasks rather than on the executor
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(FETCH_TIMEOUT_MINUTES);
         try {
-            executorService.awaitTermination(5, TimeUnit.MINUTES);
             for (Future<Boolean> result : followUps) {
                 logger.debug("DEBUG: checking a follow-up.");
                 boolean failureOnResult = false;
                 try {
-                    if (result == null || !result.get()) {
+                    if (result == null || !result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
                         failureOnResult = true;
                     }
                 } catch (ExecutionException | RuntimeException rte) {
                     logger.error(
                             "Exception during subvolume fetch.  Request {}..{}.  Exception report follows.",
-                            origin, extent
+                            origin, extent, rte
                     );
-                    rte.printStackTrace();
+                    failureOnResult = true;
+                } catch (TimeoutException te) {
+                    logger.error("Timed out waiting for subvolume fetch.  Request {}..{}.", origin, extent);
+                    result.cancel(true);
                     failureOnResult = true;
                 }
                 if (failureOnResult) {
@@ -412,30 +438,39 @@ public class Subvolume {
                 }
             }
         } catch (InterruptedException ex) {
+            for (Future<Boolean> result : followUps) {
+                result.cancel(true);
+            }
             if (progressMonitor != null) {
                 progressMonitor.close();
             }
             logger.error(
                     "Failure awaiting completion of fetch threads for request {}..{}.  Exception report follows.",
-                    origin, extent
+                    origin, extent, ex
             );
-            ex.printStackTrace();
+            Thread.currentThread().interrupt();
         }
 
     }
 
     private boolean fetchTileData(TextureCache textureCache, TileIndex tileIx, AbstractTextureLoadAdapter loadAdapter, TileFormat tileFormat, ZoomLevel zoom, ZoomedVoxelIndex farCorner) {
         boolean filledToEnd = true;
+        // Keeps cached pixels from being recycled while they are copied
+        TileTexture.TextureDataLease lease = null;
         try {
             if (tileIx.getX() < 0 || tileIx.getY() < 0 || tileIx.getZ() < 0) {
-                remainingTiles--;
                 return false;
             }
             TextureData2dGL tileData = null;
             // First try to get image from cache...
-            if ((textureCache != null) && (textureCache.containsKey(tileIx))) {
+            if (textureCache != null) {
                 TileTexture tt = textureCache.get(tileIx);
-                tileData = tt.getTextureData();
+                if (tt != null) {
+                    lease = tt.leaseTextureData();
+                    if (lease != null) {
+                        tileData = lease.getTextureData();
+                    }
+                }
             }
             // ... if that fails, load the data right now.
             if (tileData == null) {
@@ -458,74 +493,55 @@ public class Subvolume {
                 int startY = Math.max(origin.getY(), tileOrigin.getY());
                 int endY = Math.min(farCorner.getY(), tileOrigin.getY() + tileData.getHeight());
                 int overlapY = endY - startY;
-                //System.out.println("TileXyz=" + tileXyz.getX() + "," + tileXyz.getY() + "," + tileXyz.getZ() + ". Start Y=" + startY + ", End Y=" + endY + ", overlapY=" + overlapY);
                 // X
                 int startX = Math.max(origin.getX(), tileOrigin.getX());
                 int endX = Math.min(farCorner.getX(), tileOrigin.getX() + tileData.getUsedWidth());
                 int overlapX = endX - startX;
+                if (overlapX <= 0 || overlapY <= 0) {
+                    return filledToEnd;
+                }
                 // byte array offsets
                 int pixelBytes = channelCount * bytesPerIntensity;
                 int tileLineBytes = pixelBytes * tileData.getWidth();
                 int subvolumeLineBytes = pixelBytes * extent.getX();
+                int copyLineBytes = overlapX * pixelBytes;
                 // Where to start putting bytes into subvolume?
-                // Probable source of bug: may not be getting proper start location in "subsequent" volume, and/or wrong overlap values.
                 int dstOffset = dstZ * subvolumeLineBytes * extent.getY() // z plane offset
                         + (startY - origin.getY()) * subvolumeLineBytes // y scan-line offset
                         + (startX - origin.getX()) * pixelBytes;
                 int srcOffset = (startY - tileOrigin.getY()) * tileLineBytes // y scan-line offset
                         + (startX - tileOrigin.getX()) * pixelBytes;
+                // Check the whole copy up front, rather than every byte
+                ByteBuffer src = lease != null ? lease.getPixels() : tileData.getPixels().duplicate();
+                long lastDstEnd = dstOffset + (long) (overlapY - 1) * subvolumeLineBytes + copyLineBytes;
+                long lastSrcEnd = srcOffset + (long) (overlapY - 1) * tileLineBytes + copyLineBytes;
+                if (dstOffset < 0 || srcOffset < 0 || lastDstEnd > bytes.capacity() || lastSrcEnd > src.capacity()) {
+                    logger.error("Tile {} does not fit in subvolume {}..{}: destination {}..{} of {}, source {}..{} of {}.  Skipping tile.",
+                            tileIx, origin, extent, dstOffset, lastDstEnd, bytes.capacity(), srcOffset, lastSrcEnd, src.capacity());
+                    return false;
+                }
+                // Each task writes its own region, through its own view of the raster
+                ByteBuffer dst = bytes.duplicate();
+                src.clear();
                 // Copy one scan line at a time
-                OVERFLOW_LABEL:
                 for (int y = 0; y < overlapY; ++y) {
-                    for (int x = 0; x < overlapX; ++x) {
-                        // TODO faster copy
-                        for (int b = 0; b < pixelBytes; ++b) {
-                            int d = dstOffset + x * pixelBytes + b;
-                            int s = srcOffset + x * pixelBytes + b;
-                            try {
-                                bytes.put(d, tileData.getPixels().get(s));
-                            } catch (Exception ex) {
-                                logger.error("Failed to copy data into pixels buffer: " + ex.getMessage() + ".  Skipping remainder.");
-                                /* for debugging */
-                                if (logger.isDebugEnabled() && d >= bytes.capacity()) {
-                                    logger.info("overflow destination: {} vs {}.", d, bytes.capacity());
-                                    logger.info("dstOffset={}; dstZ={}; extent-Y={}; subvolumeLineBytes={}", dstOffset, dstZ, extent.getY(), subvolumeLineBytes);
-                                    logger.info("dstZ=tileOrigin.getZ() - origin.getZ(); tileOrigin.getZ()={}; origin.getZ()={}.", tileOrigin.getZ(), origin.getZ());
-                                    logger.info("startX={}. endX={}. startY={}. endY={}", startX, endX, startY, endY);
-                                    logger.info("Destination X={}, Y={}, dstZ={}. srcOffset={}.", x, y, dstZ, srcOffset);
-                                    logger.info("overlapX={}, overlapY={}.   tileLineBytes={}.", overlapX, overlapY, tileLineBytes);
-                                }
-                                if (s >= tileData.getPixels().capacity()) {
-                                    logger.info("overflow source: {} vs {}.", s, bytes.capacity());
-                                }
-                                if (s < 0) {
-                                    logger.info("Underflow source: {} vs {}.", s, bytes.capacity());
-                                }
-                                if (d < 0) {
-                                    logger.info("underflow destination: {} vs {}.", d, bytes.capacity());
-                                }
-                                break OVERFLOW_LABEL;
-                            }
-                        }
-                    }
+                    src.limit(srcOffset + copyLineBytes);
+                    src.position(srcOffset);
+                    dst.position(dstOffset);
+                    dst.put(src);
+                    src.limit(src.capacity());
                     dstOffset += subvolumeLineBytes;
                     srcOffset += tileLineBytes;
                 }
-
-                // There is a slim chance this could be decremented to sub-zero,
-                // since there are multiple threads using this method.  However,
-                // we will avoid incurring the overhead of AtomicInteger by simple
-                // accepting that risk (off-by-a-few is not terrible, here), and
-                // simply ensuring the user never sees a negative remainder.
-                remainingTiles--;
-                int remaining = Math.max(0, remainingTiles);
-                reportProgress(remaining, totalTiles);
             }
 
         } catch (AbstractTextureLoadAdapter.TileLoadError | AbstractTextureLoadAdapter.MissingTileException e) {
-            // TODO Auto-generated catch block
             logger.error("Request for {}..{} failed with error {}.", origin, extent, e.getMessage());
-            e.printStackTrace();
+            filledToEnd = false;
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
         }
         return filledToEnd;
     }
@@ -1,11 +1,15 @@
 package org.janelia.workstation.gui.large_volume_viewer;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.janelia.it.jacs.shared.lvv.TileIndex;
+import org.janelia.workstation.core.util.ConsoleProperties;
 import org.janelia.workstation.gui.large_volume_viewer.controller.StatusUpdateListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,83 +22,225 @@ public class TextureCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(TextureCache.class);
 
-    private HistoryCache historyCache = new HistoryCache(2000); // textures that have been displayed, ordered by LRU
-    private HistoryCache futureCache = new HistoryCache(3000); // textures we predict will be displayed
-    private PersistentCache persistentCache = new PersistentCache(); // lowest resolution textures for everything
-    private Map<TileIndex, Long> queuedTextureTime = new HashMap<>();
-    private StatusUpdateListener queueDrainedListener;
+    // Decoded pixels live off-heap, so the budgets are in bytes rather than
+    // tile counts; 16-bit multichannel tiles simply get fewer entries.
+    private static final long MAX_HISTORY_BYTES = ConsoleProperties.getLong("console.lvv.textureCache.historyBytes",
+            (long) (0.20 * Runtime.getRuntime().maxMemory()));
+    private static final long MAX_FUTURE_BYTES = ConsoleProperties.getLong("console.lvv.textureCache.futureBytes",
+            (long) (0.30 * Runtime.getRuntime().maxMemory()));
 
-    public synchronized void add(TileTexture texture) {
+    // Give up on a queued or loading texture after this long, so it can be requested again
+    private static final long MAX_LOAD_NANOS = 10L * 1000000000L;
+    // Upper bound on deferred LRU updates from get(); extra ones are simply dropped
+    private static final int MAX_PENDING_TOUCHES = 4096;
+
+    /**
+     * Load progress of a single tile. Tiles that are neither queued nor
+     * loading have no entry at all.
+     */
+    public enum LoadState {
+        QUEUED,
+        LOADING
+    }
+
+    public static final class LoadTicket {
+        private final LoadState state;
+        private final long startTime;
+
+        private LoadTicket(LoadState state) {
+            this.state = state;
+            this.startTime = System.nanoTime();
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - startTime > MAX_LOAD_NANOS;
+        }
+    }
+
+    private final TexturePixelPool pixelPool;
+    private final HistoryCache historyCache; // textures that have been displayed, ordered by LRU
+    private final HistoryCache futureCache; // textures we predict will be displayed
+    private final PersistentCache persistentCache; // lowest resolution textures for everything
+    // Every texture held by the three caches above, for lookups that do not
+    // take the cache monitor. Only updated while holding the monitor.
+    private final ConcurrentMap<TileIndex, TileTexture> residentTextures = new ConcurrentHashMap<>();
+    // LRU updates requested by get(), applied the next time the monitor is taken
+    private final Queue<TileIndex> pendingTouches = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingTouchCount = new AtomicInteger();
+    // Tiles currently queued or loading; transitions are atomic per tile
+    private final ConcurrentMap<TileIndex, LoadTicket> loadStates = new ConcurrentHashMap<>();
+    private volatile StatusUpdateListener queueDrainedListener;
+
+    public TextureCache() {
+        this(MAX_HISTORY_BYTES, MAX_FUTURE_BYTES);
+    }
+
+    public TextureCache(long maxHistoryBytes, long maxFutureBytes) {
+        // Keep at most one history cache's worth of released buffers for reuse
+        pixelPool = new TexturePixelPool(maxHistoryBytes / 2);
+        historyCache = new HistoryCache(Integer.MAX_VALUE, maxHistoryBytes);
+        futureCache = new HistoryCache(Integer.MAX_VALUE, maxFutureBytes);
+        persistentCache = new PersistentCache();
+        HistoryCache.EvictionListener evictionListener = new HistoryCache.EvictionListener() {
+            @Override
+            public void textureEvicted(TileTexture texture) {
+                residentTextures.remove(texture.getIndex(), texture);
+            }
+        };
+        historyCache.setEvictionListener(evictionListener);
+        futureCache.setEvictionListener(evictionListener);
+    }
+
+    public void add(TileTexture texture) {
+        // Copy pixels off-heap before taking the cache lock, so the
+        // render thread is not held up by the copy.
+        texture.moveToOffHeap(pixelPool);
+        addToCache(texture);
+    }
+
+    private synchronized void addToCache(TileTexture texture) {
+        applyPendingTouches();
         TileIndex index = texture.getIndex();
         if (index.getZoom() == index.getMaxZoom()) {
             persistentCache.put(texture.getIndex(), texture);
         } else {
             futureCache.put(index, texture);
         }
+        residentTextures.put(index, texture);
     }
 
     synchronized public void clear() {
         futureCache.clear();
         historyCache.clear();
         persistentCache.clear();
-        queuedTextureTime.clear();
+        residentTextures.clear();
+        pendingTouches.clear();
+        pendingTouchCount.set(0);
+        loadStates.clear();
+        pixelPool.clear();
     }
 
     boolean containsKey(TileIndex index) {
-        return persistentCache.containsKey(index)
-                || historyCache.containsKey(index)
-                || futureCache.containsKey(index);
+        return residentTextures.containsKey(index);
     }
 
-    synchronized TileTexture get(TileIndex index) {
-        if (persistentCache.containsKey(index)) {
-            return persistentCache.get(index);
-        } else if (historyCache.containsKey(index)) {
-            return historyCache.get(index);
-        } else {
-            return futureCache.get(index);
+    /**
+     * Never blocks; safe to call from the render thread while loader
+     * threads are adding textures.
+     */
+    TileTexture get(TileIndex index) {
+        TileTexture result = residentTextures.get(index);
+        if (result != null && index.getZoom() != index.getMaxZoom()) {
+            if (pendingTouchCount.incrementAndGet() <= MAX_PENDING_TOUCHES) {
+                pendingTouches.offer(index);
+            } else {
+                pendingTouchCount.decrementAndGet();
+            }
+        }
+        return result;
+    }
+
+    // Replays get() calls against the LRU caches; must hold the monitor
+    private void applyPendingTouches() {
+        TileIndex index;
+        while ((index = pendingTouches.poll()) != null) {
+            pendingTouchCount.decrementAndGet();
+            if (historyCache.containsKey(index)) {
+                historyCache.get(index);
+            } else if (futureCache.containsKey(index)) {
+                futureCache.get(index);
+            }
         }
     }
 
     // Keep track of recently queued textures, to avoid redundant loads
     public boolean hasQueuedTextures() {
-        if (queuedTextureTime.isEmpty()) {
-            return false;
-        }
-        return true;
+        return !loadStates.isEmpty();
+    }
+
+    /**
+     * @return LoadState of the tile, or null if it is neither queued nor
+     * loading
+     */
+    public LoadState getLoadState(TileIndex index) {
+        LoadTicket ticket = loadStates.get(index);
+        return ticket == null ? null : ticket.state;
     }
 
+    /**
+     * @return true if the tile is queued or loading, and has not been at it
+     * for too long
+     */
     public boolean isLoadQueued(TileIndex index) {
-        if (!queuedTextureTime.containsKey(index)) {
+        LoadTicket ticket = loadStates.get(index);
+        if (ticket == null) {
             return false;
         }
-        Long queuedTextureTimeForIndex = queuedTextureTime.get(index);
-        if (queuedTextureTimeForIndex == null) {
-            LOG.warn("Queued Texture Time had no entry for index {}.  Setting queued time to 0.", index);
-            queuedTextureTimeForIndex = System.nanoTime();
-        }
-        long elapsed = System.nanoTime() - queuedTextureTimeForIndex;
-        // Don't wait longer than ten seconds
-        long maxSeconds = 10;
-        if (elapsed > maxSeconds * 1e9) {
-            // log.warn("Waited more than "+maxSeconds+" seconds for texture load "+index);
-            queuedTextureTime.remove(index);
+        if (ticket.isExpired()) {
+            // log.warn("Waited more than 10 seconds for texture load "+index);
+            if (loadStates.remove(index, ticket)) {
+                notifyIfDrained();
+            }
             return false;
         }
-        return true; // queued for less than 5 seconds
+        return true;
     }
 
-    public void setLoadQueued(TileIndex index, boolean isQueued) {
-        if (isQueued) {
-            queuedTextureTime.put(index, System.nanoTime());
-        } else {
-            if (!queuedTextureTime.containsKey(index)) {
-                return;
-            }
-            queuedTextureTime.remove(index);
-            if (queuedTextureTime.isEmpty() && queueDrainedListener != null) {
-                queueDrainedListener.update();
-            }
+    /**
+     * Atomically claims the load of a tile. Only the caller that gets "true"
+     * should queue a load for it.
+     */
+    public boolean markLoadQueued(TileIndex index) {
+        LoadTicket ticket = new LoadTicket(LoadState.QUEUED);
+        LoadTicket previous = loadStates.putIfAbsent(index, ticket);
+        if (previous == null) {
+            return true;
+        }
+        // Take over a load that has been stuck for too long
+        return previous.isExpired() && loadStates.replace(index, previous, ticket);
+    }
+
+    /**
+     * Moves a tile from QUEUED to LOADING.
+     *
+     * @return the ticket to pass to markLoadFinished, or null if the request
+     * was cancelled, or another thread is already loading the tile
+     */
+    public LoadTicket markLoadStarted(TileIndex index) {
+        LoadTicket ticket = loadStates.get(index);
+        if (ticket == null || ticket.state != LoadState.QUEUED) {
+            return null;
+        }
+        LoadTicket loading = new LoadTicket(LoadState.LOADING);
+        return loadStates.replace(index, ticket, loading) ? loading : null;
+    }
+
+    /**
+     * Drops a queued tile that will not be loaded after all. Tiles that are
+     * already loading are left alone.
+     */
+    public void cancelQueuedLoad(TileIndex index) {
+        LoadTicket ticket = loadStates.get(index);
+        if (ticket != null && ticket.state == LoadState.QUEUED && loadStates.remove(index, ticket)) {
+            notifyIfDrained();
+        }
+    }
+
+    /**
+     * Clears the load state of a tile once its load has finished, whether
+     * or not it succeeded. A newer load that took over an expired one keeps
+     * its own state.
+     */
+    public void markLoadFinished(TileIndex index, LoadTicket ticket) {
+        if (loadStates.remove(index, ticket)) {
+            notifyIfDrained();
+        }
+    }
+
+    private void notifyIfDrained() {
+        StatusUpdateListener listener = queueDrainedListener;
+        if (loadStates.isEmpty() && listener != null) {
+            listener.update();
         }
     }
 
@@ -104,6 +250,7 @@ public class TextureCache {
         if (tile == null) {
             return;
         }
+        applyPendingTouches();
         // Only future cached textures need to be moved.
         // (textures in the persistent cache should remain there)
         if (persistentCache.containsKey(tile.getIndex())) {
@@ -119,12 +266,15 @@ public class TextureCache {
         return futureCache.size() + historyCache.size() + persistentCache.size();
     }
 
-    public synchronized Collection<TileTexture> values() {
-        Set<TileTexture> result = new HashSet<>();
-        result.addAll(historyCache.values());
-        result.addAll(futureCache.values());
-        result.addAll(persistentCache.values());
-        return result;
+    /**
+     * @return off-heap bytes currently held by decoded textures
+     */
+    public long getPixelBytes() {
+        return pixelPool.getLiveBytes();
+    }
+
+    public Collection<TileTexture> values() {
+        return new HashSet<>(residentTextures.values());
     }
 
     /**
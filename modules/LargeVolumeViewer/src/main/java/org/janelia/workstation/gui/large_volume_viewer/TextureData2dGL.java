@@ -1,5 +1,7 @@
 package org.janelia.workstation.gui.large_volume_viewer;
 
+import java.nio.ByteBuffer;
+
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 import javax.media.opengl.GL2GL3;
@@ -41,6 +43,24 @@ implements TextureDataI
 		updateTexImageParams();
 	}
 
+	/**
+	 * Wrap pixels that are already in memory, e.g. a slice of a mapped tile
+	 * store segment, without copying them.
+	 */
+	public TextureData2dGL(int width, int usedWidth, int height, int border, int mipmapLevel,
+			int bitDepth, int channelCount, boolean srgb, ByteBuffer pixels) {
+		this.mipmapLevel=mipmapLevel;
+		setWidth(width);
+		setUsedWidth(usedWidth);
+		this.height=height;
+		this.border=border;
+		this.pixels=pixels;
+		this.srgb=srgb;
+		this.bitDepth=bitDepth;
+		this.channelCount=channelCount;
+		updateTexImageParams();
+	}
+
 	@Override
 	public PyramidTexture createTexture(GL2GL3 gl) {
 		Texture2dGL texture = new Texture2dGL(width, height);
@@ -79,6 +99,13 @@ implements TextureDataI
 		return swapBytes;
 	}
 
+	/**
+	 * Replace the pixel storage, e.g. with an off-heap copy of the same data.
+	 */
+	public void setPixels(ByteBuffer pixels) {
+		this.pixels = pixels;
+	}
+
 	public void setSwapBytes(boolean swapBytes) {
 		this.swapBytes = swapBytes;
 	}
@@ -31,10 +31,27 @@ public class TextureLoadWorker implements Runnable {
         return texture;
     }
 
+    public TextureCache getTextureCache() {
+        return textureCache;
+    }
+
     @Override
     public void run() {
         TileIndex index = texture.getIndex();
 
+        // Claim the load; bail out if it was cancelled or another worker has it
+        TextureCache.LoadTicket ticket = textureCache.markLoadStarted(index);
+        if (ticket == null) {
+            return;
+        }
+        try {
+            load(index);
+        } finally {
+            textureCache.markLoadFinished(index, ticket);
+        }
+    }
+
+    private void load(TileIndex index) {
         if (textureCache.containsKey(index)) {
             // log.info("Skipping duplicate load of texture (2) "+index);
         } // Don't load this texture if it is already loaded
@@ -53,8 +70,6 @@ public class TextureLoadWorker implements Runnable {
                 tileServer.textureLoaded(texture.getIndex());
             }
         }
-
-        textureCache.setLoadQueued(index, false);
     }
 
 }
@@ -0,0 +1,90 @@
+package org.janelia.workstation.gui.large_volume_viewer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of direct (off-heap) byte buffers used to hold decoded tile pixels.
+ *
+ * Tiles of a given volume all have the same size, so released buffers are
+ * kept in per-capacity free lists and handed out again for the next tile
+ * load instead of being left for the garbage collector. The number of idle
+ * bytes kept around is bounded; anything above that is dropped.
+ */
+public class TexturePixelPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TexturePixelPool.class);
+
+    private final Map<Integer, Deque<ByteBuffer>> freeBuffers = new HashMap<>();
+    private final long maxIdleBytes;
+    private long idleBytes = 0;
+    private long liveBytes = 0;
+
+    public TexturePixelPool(long maxIdleBytes) {
+        this.maxIdleBytes = maxIdleBytes;
+    }
+
+    /**
+     * Returns a direct buffer of exactly the requested capacity, positioned
+     * at zero, reusing a released buffer when one is available.
+     */
+    public synchronized ByteBuffer acquire(int capacity) {
+        ByteBuffer result = null;
+        Deque<ByteBuffer> buffers = freeBuffers.get(capacity);
+        if (buffers != null) {
+            result = buffers.pollFirst();
+        }
+        if (result != null) {
+            idleBytes -= capacity;
+            result.clear();
+        } else {
+            result = ByteBuffer.allocateDirect(capacity);
+        }
+        liveBytes += capacity;
+        return result;
+    }
+
+    /**
+     * Hands a buffer obtained from {@link #acquire(int)} back to the pool.
+     * The caller must not touch the buffer afterwards.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        liveBytes -= capacity;
+        if (idleBytes + capacity > maxIdleBytes) {
+            return; // let the collector have it
+        }
+        Deque<ByteBuffer> buffers = freeBuffers.get(capacity);
+        if (buffers == null) {
+            buffers = new ArrayDeque<>();
+            freeBuffers.put(capacity, buffers);
+        }
+        buffers.addFirst(buffer);
+        idleBytes += capacity;
+    }
+
+    public synchronized void clear() {
+        if (idleBytes > 0) {
+            LOG.debug("Dropping {} idle texture bytes", idleBytes);
+        }
+        freeBuffers.clear();
+        idleBytes = 0;
+    }
+
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    public synchronized long getIdleBytes() {
+        return idleBytes;
+    }
+
+}
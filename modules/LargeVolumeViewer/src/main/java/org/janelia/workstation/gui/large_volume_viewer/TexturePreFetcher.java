@@ -1,31 +1,49 @@
 package org.janelia.workstation.gui.large_volume_viewer;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import org.janelia.it.jacs.shared.lvv.AbstractTextureLoadAdapter;
 import org.janelia.it.jacs.shared.lvv.TileIndex;
 
+/**
+ * Loads textures in the background, lowest priority value first.
+ *
+ * Queued requests can be re-prioritized in place: bracket a round of
+ * loadDisplayedTexture() calls with beginReprioritization() and
+ * cancelStaleLoads(), and only the requests that were not renewed during
+ * that round are dropped. Loads already in progress are never interrupted.
+ */
 public class TexturePreFetcher {
 
+    // Priority bands; within a band, smaller values (e.g. closer to focus) load first
+    public static final double PRIORITY_DISPLAYED = 0;
+    public static final double PRIORITY_UMBRELLA = 1e6;
+    public static final double PRIORITY_NEIGHBOR = 2e6;
+
     private static final String TEX_FETCH_THREADNAME_PREFIX = "TexturePreFetch";
     private final ThreadPoolExecutor textureLoadExecutor;
-    private final Map<Future<?>, TileIndex> futures = new HashMap<>();
+    private final Map<TileIndex, QueuedLoad> queuedLoads = new HashMap<>();
     private TextureCache textureCache; // holds texture
     private AbstractTextureLoadAdapter loadAdapter; // knows how to load textures
+    private long sequence = 0; // breaks ties between equal priorities, FIFO
+    private long generation = 0; // current re-prioritization round
 
     public TexturePreFetcher(int threadPoolSize) {
         textureLoadExecutor = new ThreadPoolExecutor(
                 threadPoolSize,
                 threadPoolSize,
                 0, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<>(),
+                new PriorityBlockingQueue<Runnable>(),
                 new CustomNamedThreadFactory(TEX_FETCH_THREADNAME_PREFIX)
         );
+        // Workers must exist before we start moving entries around in the queue directly
+        textureLoadExecutor.prestartAllCoreThreads();
     }
 
     /**
@@ -34,13 +52,30 @@ public class TexturePreFetcher {
      * Returns "true" if this tile would occupy desired space in the future
      * cache.
      */
-    public synchronized boolean loadDisplayedTexture(TileIndex index, TileServer tileServer) {
+    public boolean loadDisplayedTexture(TileIndex index, TileServer tileServer) {
+        return loadDisplayedTexture(index, tileServer, PRIORITY_DISPLAYED);
+    }
+
+    /**
+     * Queues a texture load with the given priority (lower loads sooner). If
+     * the texture is already queued, its priority is updated in place.
+     *
+     * Returns "true" if this tile would occupy desired space in the future
+     * cache.
+     */
+    public synchronized boolean loadDisplayedTexture(TileIndex index, TileServer tileServer, double priority) {
         if (textureCache == null) {
             return false;
         }
         if (loadAdapter == null) {
             return false;
         }
+        QueuedLoad queued = queuedLoads.get(index);
+        if (queued != null) {
+            queued.generation = generation;
+            reprioritize(queued, priority);
+            return (index.getZoom() != index.getMaxZoom());
+        }
         if (textureCache.getFutureCache().containsKey(index)) {
             textureCache.getFutureCache().get(index); // move cached texture to back of queue
             return true;
@@ -48,39 +83,86 @@ public class TexturePreFetcher {
         if (textureCache.containsKey(index)) {
             return false; // we already have this one!
         }
-        if (textureCache.isLoadQueued(index)) {
-            return false;
+        if (!textureCache.markLoadQueued(index)) {
+            return false; // loading right now
         }
         TileTexture texture = new TileTexture(index, loadAdapter);
         TextureLoadWorker textureLoadWorker = new TextureLoadWorker(texture, textureCache, tileServer);
         // TODO - handle MISSING textures vs. ERROR textures
-        Future<?> foo = textureLoadExecutor.submit(textureLoadWorker);
-        futures.put(foo, texture.getIndex());
-        textureCache.setLoadQueued(index, true);
+        queued = new QueuedLoad(textureLoadWorker, priority, sequence++, generation);
+        queuedLoads.put(index, queued);
+        textureLoadExecutor.execute(queued);
         // Lowest resolution textures are in the persistent cache, and thus
         // do not impact the future cache.
         return (index.getZoom() != index.getMaxZoom());
     }
 
+    /**
+     * Starts a new round of requests. Loads that are still queued keep their
+     * place until cancelStaleLoads() is called.
+     */
+    public synchronized void beginReprioritization() {
+        generation += 1;
+    }
+
+    /**
+     * Cancels queued loads that were not requested again since the last
+     * call to beginReprioritization().
+     *
+     * @return number of cancelled loads
+     */
+    public synchronized int cancelStaleLoads() {
+        List<QueuedLoad> stale = new ArrayList<>();
+        for (QueuedLoad queued : queuedLoads.values()) {
+            if (queued.generation < generation) {
+                stale.add(queued);
+            }
+        }
+        int result = 0;
+        for (QueuedLoad queued : stale) {
+            if (cancel(queued)) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
     public synchronized void clear() {
         if (textureCache == null) {
             return;
         }
-        BlockingQueue<Runnable> blockingQueue = textureLoadExecutor.getQueue();
-        if (blockingQueue == null) {
+        for (QueuedLoad queued : new ArrayList<>(queuedLoads.values())) {
+            cancel(queued);
+        }
+    }
+
+    private boolean cancel(QueuedLoad queued) {
+        TileIndex index = queued.getIndex();
+        queuedLoads.remove(index);
+        // If it is no longer in the queue, a worker has already picked it up
+        if (textureLoadExecutor.getQueue().remove(queued)) {
+            queued.worker.getTextureCache().cancelQueuedLoad(index);
+            return true;
+        }
+        return false;
+    }
+
+    private void reprioritize(QueuedLoad queued, double priority) {
+        if (queued.priority == priority) {
             return;
         }
-        //synchronize on it to prevent tasks from being polled
-        synchronized (blockingQueue) {
-            //clear the Queue
-            for (Runnable r : blockingQueue) {
-                if (futures.containsKey(r)) {
-                    textureCache.setLoadQueued(futures.get(r), false);
-                }
-            }
-            blockingQueue.clear();
+        BlockingQueue<Runnable> queue = textureLoadExecutor.getQueue();
+        // Must not change the ordering key while the entry is in the heap
+        if (queue.remove(queued)) {
+            queued.priority = priority;
+            queue.offer(queued);
+        }
+    }
+
+    private synchronized void loadStarted(QueuedLoad queued) {
+        if (queuedLoads.get(queued.getIndex()) == queued) {
+            queuedLoads.remove(queued.getIndex());
         }
-        futures.clear();
     }
 
     public AbstractTextureLoadAdapter getLoadAdapter() {
@@ -99,4 +181,39 @@ public class TexturePreFetcher {
         this.textureCache = textureCache;
     }
 
+    private class QueuedLoad implements Runnable, Comparable<QueuedLoad> {
+
+        private final TextureLoadWorker worker;
+        private final long sequence;
+        private volatile double priority;
+        private long generation;
+
+        QueuedLoad(TextureLoadWorker worker, double priority, long sequence, long generation) {
+            this.worker = worker;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.generation = generation;
+        }
+
+        TileIndex getIndex() {
+            return worker.getTexture().getIndex();
+        }
+
+        @Override
+        public void run() {
+            loadStarted(this);
+            worker.run();
+        }
+
+        @Override
+        public int compareTo(QueuedLoad other) {
+            int result = Double.compare(priority, other.priority);
+            if (result != 0) {
+                return result;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+
+    }
+
 }
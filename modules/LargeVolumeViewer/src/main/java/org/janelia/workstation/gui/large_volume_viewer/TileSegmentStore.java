@@ -0,0 +1,609 @@
+package org.janelia.workstation.gui.large_volume_viewer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.janelia.it.jacs.shared.lvv.TextureData2d;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent store for decoded tile slices, kept in a few large append-only
+ * segment files instead of one file per slice.
+ *
+ * Each segment is preallocated and mapped read-only; records are appended
+ * with positional channel writes, and a cache hit is returned as a slice of
+ * the mapping, without copying. A record is only valid once its magic number
+ * is written (last) and its checksum matches, so after a crash the index is
+ * rebuilt by scanning record headers and stopping at the first bad record.
+ *
+ * Recency is tracked in memory per record. When the store grows past its
+ * budget, a background task compacts the least recently used segments: the
+ * most recently used records that fit in half of the budget are copied
+ * forward into a separate compaction segment, and the rest are dropped
+ * together with the segment file. Copying happens outside the store's lock,
+ * so loader threads keep appending while a compaction runs.
+ *
+ * A store owns its directory: it holds an exclusive lock on a lock file for
+ * as long as it is open, and {@link #open} hands out one shared store per
+ * directory within this process.
+ */
+public class TileSegmentStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TileSegmentStore.class);
+
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String SEGMENT_EXT = ".tiles";
+    // Marks a segment that could not be deleted yet, e.g. because it was still mapped on Windows
+    private static final String DEAD_EXT = ".dead";
+    private static final String LOCK_FILE_NAME = "store.lock";
+    private static final int RECORD_MAGIC = 0x54494C45; // "TILE"
+    // magic, key length, payload length, crc
+    private static final int RECORD_HEADER_BYTES = 16;
+    // width, usedWidth, height, border, mipmapLevel, bitDepth, channelCount, srgb, byte order
+    private static final int TEXTURE_HEADER_BYTES = 7 * 4 + 2;
+
+    private static final ExecutorService COMPACTION_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("tile-store-compaction-%d")
+            .setDaemon(true)
+            .build());
+
+    // Open stores by canonical directory, so every loader of a volume shares one
+    private static final Map<Path, TileSegmentStore> OPEN_STORES = new HashMap<>();
+
+    private static class Segment {
+        private final int number;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer mapping;
+        private long writePosition;
+        private volatile long lastAccess;
+
+        private Segment(int number, Path path, FileChannel channel, MappedByteBuffer mapping) {
+            this.number = number;
+            this.path = path;
+            this.channel = channel;
+            this.mapping = mapping;
+        }
+    }
+
+    private static class Entry {
+        private final Segment segment;
+        private final int offset; // of the record header
+        private final int recordBytes;
+        private final int payloadOffset; // of the texture header
+        private final int payloadBytes;
+        private volatile long lastAccess;
+
+        private Entry(Segment segment, int offset, int keyBytes, int payloadBytes) {
+            this.segment = segment;
+            this.offset = offset;
+            this.payloadOffset = offset + RECORD_HEADER_BYTES + keyBytes;
+            this.payloadBytes = payloadBytes;
+            this.recordBytes = RECORD_HEADER_BYTES + keyBytes + payloadBytes;
+        }
+    }
+
+    private final Path storeDir;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final Executor compactionExecutor;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final ConcurrentMap<String, Entry> index = new ConcurrentHashMap<>();
+    private final Map<Integer, Segment> segments = new TreeMap<>();
+    // Logical clock for recency; avoids touching file times on every hit
+    private final AtomicLong accessClock = new AtomicLong();
+    private Segment activeSegment;
+    // Receives the records copied by compaction; only the compaction task writes to it
+    private Segment compactionSegment;
+    private long totalBytes = 0;
+    private boolean closed;
+
+    /**
+     * @return the store for the directory, shared with everyone else who
+     * opened it in this process and has not closed it yet
+     * @throws IOException if the store cannot be opened, e.g. because
+     * another process has it open
+     */
+    public static TileSegmentStore open(Path storeDir, int segmentBytes, long maxBytes) throws IOException {
+        Files.createDirectories(storeDir);
+        Path canonicalDir = storeDir.toRealPath();
+        synchronized (OPEN_STORES) {
+            TileSegmentStore store = OPEN_STORES.get(canonicalDir);
+            if (store == null) {
+                store = new TileSegmentStore(canonicalDir, segmentBytes, maxBytes, COMPACTION_EXECUTOR);
+                OPEN_STORES.put(canonicalDir, store);
+            }
+            return store;
+        }
+    }
+
+    TileSegmentStore(Path storeDir, int segmentBytes, long maxBytes, Executor compactionExecutor) throws IOException {
+        this.storeDir = storeDir;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.compactionExecutor = compactionExecutor;
+        Files.createDirectories(storeDir);
+        this.lockChannel = FileChannel.open(storeDir.resolve(LOCK_FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            this.lock = tryLock(lockChannel);
+            if (lock == null) {
+                throw new IOException("Tile store " + storeDir + " is in use by another process");
+            }
+            deleteDeadSegments();
+            recover();
+        } catch (IOException | RuntimeException e) {
+            closeSegments();
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another store in this process
+            return null;
+        }
+    }
+
+    /**
+     * @return the cached slice, backed directly by the mapped segment, or
+     * null if it is not in the store
+     */
+    public TextureData2d get(String key) {
+        Entry entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        long now = accessClock.incrementAndGet();
+        entry.lastAccess = now;
+        entry.segment.lastAccess = now;
+        return readTexture(entry);
+    }
+
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    public synchronized void put(String key, TextureData2d texture) throws IOException {
+        if (index.containsKey(key)) {
+            return;
+        }
+        // duplicate() does not carry over the byte order
+        ByteBuffer pixels = texture.getPixels().duplicate().order(texture.getPixels().order());
+        pixels.rewind();
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int payloadBytes = TEXTURE_HEADER_BYTES + pixels.remaining();
+        int recordBytes = RECORD_HEADER_BYTES + keyBytes.length + payloadBytes;
+        if (recordBytes > segmentBytes) {
+            LOG.warn("Tile {} of {} bytes does not fit in a {} byte segment", key, recordBytes, segmentBytes);
+            return;
+        }
+        ByteBuffer textureHeader = ByteBuffer.allocate(TEXTURE_HEADER_BYTES);
+        textureHeader.putInt(texture.getWidth())
+                .putInt(texture.getUsedWidth())
+                .putInt(texture.getHeight())
+                .putInt(texture.getBorder())
+                .putInt(texture.getMipmapLevel())
+                .putInt(texture.getBitDepth())
+                .putInt(texture.getChannelCount())
+                .put((byte) (texture.isSrgb() ? 1 : 0))
+                .put((byte) (pixels.order() == ByteOrder.LITTLE_ENDIAN ? 1 : 0));
+        textureHeader.flip();
+        appendRecord(key, keyBytes, textureHeader, pixels);
+        scheduleCompaction();
+    }
+
+    public synchronized void remove(String key) {
+        index.remove(key);
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public void close() {
+        synchronized (OPEN_STORES) {
+            OPEN_STORES.remove(storeDir, this);
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeSegments();
+            try {
+                lock.release();
+                lockChannel.close();
+            } catch (IOException e) {
+                LOG.warn("Error unlocking {}", storeDir, e);
+            }
+        }
+    }
+
+    private void closeSegments() {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing {}", segment.path, e);
+            }
+        }
+        segments.clear();
+        index.clear();
+        activeSegment = null;
+        compactionSegment = null;
+    }
+
+    private TextureData2d readTexture(Entry entry) {
+        ByteBuffer payload = entry.segment.mapping.duplicate();
+        payload.position(entry.payloadOffset);
+        payload.limit(entry.payloadOffset + entry.payloadBytes);
+        payload = payload.slice();
+        int width = payload.getInt();
+        int usedWidth = payload.getInt();
+        int height = payload.getInt();
+        int border = payload.getInt();
+        int mipmapLevel = payload.getInt();
+        int bitDepth = payload.getInt();
+        int channelCount = payload.getInt();
+        boolean srgb = payload.get() != 0;
+        ByteOrder order = payload.get() != 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        ByteBuffer pixels = payload.slice().order(order);
+        return new TextureData2dGL(width, usedWidth, height, border, mipmapLevel,
+                bitDepth, channelCount, srgb, pixels);
+    }
+
+    private void appendRecord(String key, byte[] keyBytes, ByteBuffer textureHeader, ByteBuffer pixels) throws IOException {
+        int recordBytes = RECORD_HEADER_BYTES + keyBytes.length + textureHeader.remaining() + pixels.remaining();
+        if (activeSegment == null || activeSegment.writePosition + recordBytes > segmentBytes) {
+            activeSegment = createSegment(nextSegmentNumber());
+        }
+        Entry entry = writeRecord(activeSegment, keyBytes, textureHeader, pixels);
+        totalBytes += recordBytes;
+        long now = accessClock.incrementAndGet();
+        entry.lastAccess = now;
+        activeSegment.lastAccess = now;
+        index.put(key, entry);
+    }
+
+    /**
+     * Writes a record at the end of the segment. Only one thread may write to
+     * a segment; the caller accounts for the record and indexes it.
+     */
+    private static Entry writeRecord(Segment segment, byte[] keyBytes, ByteBuffer textureHeader, ByteBuffer pixels) throws IOException {
+        int payloadBytes = textureHeader.remaining() + pixels.remaining();
+        int recordBytes = RECORD_HEADER_BYTES + keyBytes.length + payloadBytes;
+        int offset = (int) segment.writePosition;
+
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        crc.update(textureHeader.duplicate());
+        crc.update(pixels.duplicate());
+
+        // Body first, then the header with the magic number, so a torn write
+        // never looks like a valid record
+        long position = offset + RECORD_HEADER_BYTES;
+        position += writeFully(segment.channel, ByteBuffer.wrap(keyBytes), position);
+        position += writeFully(segment.channel, textureHeader, position);
+        writeFully(segment.channel, pixels, position);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        header.putInt(RECORD_MAGIC)
+                .putInt(keyBytes.length)
+                .putInt(payloadBytes)
+                .putInt((int) crc.getValue());
+        header.flip();
+        writeFully(segment.channel, header, offset);
+
+        segment.writePosition += recordBytes;
+        return new Entry(segment, offset, keyBytes.length, payloadBytes);
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    private void scheduleCompaction() {
+        if (totalBytes > maxBytes && compactionScheduled.compareAndSet(false, true)) {
+            compactionExecutor.execute(this::makeSpace);
+        }
+    }
+
+    /**
+     * Compacts least recently used segments until the store is back under
+     * 75% of its budget.
+     */
+    private void makeSpace() {
+        try {
+            long cutoff;
+            List<Segment> victims;
+            synchronized (this) {
+                if (closed || totalBytes <= maxBytes) {
+                    return;
+                }
+                cutoff = getSurvivorCutoff();
+                // Snapshot the access times, which keep changing while we sort
+                Map<Segment, Long> lastAccess = new HashMap<>();
+                for (Segment segment : segments.values()) {
+                    if (segment != activeSegment && segment != compactionSegment) {
+                        lastAccess.put(segment, segment.lastAccess);
+                    }
+                }
+                victims = new ArrayList<>(lastAccess.keySet());
+                victims.sort((s1, s2) -> Long.compare(lastAccess.get(s1), lastAccess.get(s2)));
+            }
+            for (Segment victim : victims) {
+                synchronized (this) {
+                    if (closed || totalBytes <= maxBytes * 3 / 4) {
+                        return;
+                    }
+                }
+                compact(victim, cutoff);
+            }
+        } finally {
+            compactionScheduled.set(false);
+        }
+    }
+
+    /**
+     * @return the access time from which records survive compaction, so that
+     * the most recently used records that fit in half of the budget are kept
+     */
+    private long getSurvivorCutoff() {
+        List<long[]> records = new ArrayList<>(index.size());
+        for (Entry entry : index.values()) {
+            records.add(new long[] {entry.lastAccess, entry.recordBytes});
+        }
+        records.sort((r1, r2) -> Long.compare(r2[0], r1[0]));
+        long keptBytes = 0;
+        for (long[] record : records) {
+            keptBytes += record[1];
+            if (keptBytes > maxBytes / 2) {
+                return record[0] + 1;
+            }
+        }
+        return 0;
+    }
+
+    private void compact(Segment victim, long cutoff) {
+        Map<String, Entry> survivors = new LinkedHashMap<>();
+        synchronized (this) {
+            if (segments.get(victim.number) != victim) {
+                return;
+            }
+            for (Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, Entry> mapEntry = it.next();
+                Entry entry = mapEntry.getValue();
+                if (entry.segment != victim) {
+                    continue;
+                }
+                if (entry.lastAccess >= cutoff) {
+                    survivors.put(mapEntry.getKey(), entry);
+                } else {
+                    it.remove();
+                }
+            }
+        }
+        Map<String, Entry> copies = new HashMap<>();
+        long copiedBytes = 0;
+        for (Map.Entry<String, Entry> survivor : survivors.entrySet()) {
+            String key = survivor.getKey();
+            Entry entry = survivor.getValue();
+            try {
+                ByteBuffer payload = victim.mapping.duplicate();
+                payload.position(entry.payloadOffset);
+                payload.limit(entry.payloadOffset + entry.payloadBytes);
+                ByteBuffer textureHeader = payload.slice();
+                textureHeader.limit(TEXTURE_HEADER_BYTES);
+                payload.position(entry.payloadOffset + TEXTURE_HEADER_BYTES);
+                Segment target = getCompactionSegment(entry.recordBytes);
+                copies.put(key, writeRecord(target, key.getBytes(StandardCharsets.UTF_8), textureHeader, payload.slice()));
+                copiedBytes += entry.recordBytes;
+            } catch (IOException e) {
+                LOG.warn("Error copying {} out of {}", key, victim.path, e);
+            }
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            totalBytes += copiedBytes;
+            int kept = 0;
+            for (Map.Entry<String, Entry> survivor : survivors.entrySet()) {
+                Entry entry = survivor.getValue();
+                Entry copy = copies.get(survivor.getKey());
+                if (copy == null) {
+                    index.remove(survivor.getKey(), entry);
+                    continue;
+                }
+                // Hits on the original while it was copied still count
+                copy.lastAccess = entry.lastAccess;
+                copy.segment.lastAccess = Math.max(copy.segment.lastAccess, entry.lastAccess);
+                if (index.replace(survivor.getKey(), entry, copy)) {
+                    kept += 1;
+                }
+            }
+            LOG.debug("Compacted {}, kept {} of its tiles", victim.path, kept);
+            dropSegment(victim);
+        }
+    }
+
+    private synchronized Segment getCompactionSegment(int recordBytes) throws IOException {
+        if (closed) {
+            throw new IOException("Tile store " + storeDir + " is closed");
+        }
+        if (compactionSegment == null || compactionSegment.writePosition + recordBytes > segmentBytes) {
+            compactionSegment = createSegment(nextSegmentNumber());
+        }
+        return compactionSegment;
+    }
+
+    private void dropSegment(Segment segment) {
+        segments.remove(segment.number);
+        totalBytes -= segment.writePosition;
+        try {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            // Still mapped somewhere; leave a marker so it is removed on next startup
+            LOG.debug("Could not delete {} yet", segment.path, e);
+            try {
+                Files.createFile(deadMarker(segment.path));
+            } catch (IOException e2) {
+                LOG.warn("Could not mark {} for deletion", segment.path, e2);
+            }
+        }
+    }
+
+    private Segment createSegment(int number) throws IOException {
+        Path path = storeDir.resolve(SEGMENT_PREFIX + number + SEGMENT_EXT);
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return openSegment(number, path, channel);
+    }
+
+    private Segment openSegment(int number, Path path, FileChannel channel) throws IOException {
+        if (channel.size() < segmentBytes) {
+            // Preallocate so the mapping below covers everything we will append
+            channel.write(ByteBuffer.wrap(new byte[1]), segmentBytes - 1);
+        }
+        MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, segmentBytes);
+        Segment segment = new Segment(number, path, channel, mapping);
+        segments.put(number, segment);
+        return segment;
+    }
+
+    private int nextSegmentNumber() {
+        int result = 0;
+        for (Integer number : segments.keySet()) {
+            result = Math.max(result, number + 1);
+        }
+        return result;
+    }
+
+    private void deleteDeadSegments() throws IOException {
+        try (DirectoryStream<Path> markers = Files.newDirectoryStream(storeDir, "*" + DEAD_EXT)) {
+            for (Path marker : markers) {
+                String name = marker.getFileName().toString();
+                Path segmentPath = storeDir.resolve(name.substring(0, name.length() - DEAD_EXT.length()));
+                try {
+                    Files.deleteIfExists(segmentPath);
+                    Files.deleteIfExists(marker);
+                } catch (IOException e) {
+                    LOG.warn("Could not delete {}", segmentPath, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the in-memory index from the record headers of all segments.
+     * Scanning stops at the first incomplete or corrupt record of each
+     * segment; anything after it is overwritten by later appends.
+     */
+    private void recover() throws IOException {
+        Map<Integer, Path> segmentPaths = new TreeMap<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(storeDir, SEGMENT_PREFIX + "*" + SEGMENT_EXT)) {
+            for (Path path : paths) {
+                String name = path.getFileName().toString();
+                try {
+                    int number = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_EXT.length()));
+                    segmentPaths.put(number, path);
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unexpected file {} in tile store", path);
+                }
+            }
+        }
+        for (Map.Entry<Integer, Path> segmentPath : segmentPaths.entrySet()) {
+            Segment segment;
+            try {
+                FileChannel channel = FileChannel.open(segmentPath.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                segment = openSegment(segmentPath.getKey(), segmentPath.getValue(), channel);
+            } catch (IOException e) {
+                LOG.warn("Could not open tile store segment {}", segmentPath.getValue(), e);
+                continue;
+            }
+            // Older segments count as less recently used
+            segment.lastAccess = accessClock.incrementAndGet();
+            int recovered = scanSegment(segment);
+            totalBytes += segment.writePosition;
+            LOG.debug("Recovered {} tiles from {}", recovered, segment.path);
+            activeSegment = segment;
+        }
+        LOG.info("Tile store {} holds {} tiles in {} segments", storeDir, index.size(), segments.size());
+    }
+
+    private int scanSegment(Segment segment) {
+        ByteBuffer buffer = segment.mapping.duplicate();
+        int offset = 0;
+        int recovered = 0;
+        while (offset + RECORD_HEADER_BYTES <= segmentBytes) {
+            buffer.position(offset);
+            int magic = buffer.getInt();
+            int keyBytes = buffer.getInt();
+            int payloadBytes = buffer.getInt();
+            int expectedCrc = buffer.getInt();
+            if (magic != RECORD_MAGIC || keyBytes <= 0 || payloadBytes < TEXTURE_HEADER_BYTES
+                    || (long) offset + RECORD_HEADER_BYTES + keyBytes + payloadBytes > segmentBytes) {
+                break;
+            }
+            ByteBuffer body = buffer.duplicate();
+            body.position(offset + RECORD_HEADER_BYTES);
+            body.limit(offset + RECORD_HEADER_BYTES + keyBytes + payloadBytes);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != expectedCrc) {
+                LOG.warn("Corrupt record at offset {} of {}, discarding the rest of the segment", offset, segment.path);
+                break;
+            }
+            byte[] key = new byte[keyBytes];
+            body.get(key);
+            Entry entry = new Entry(segment, offset, keyBytes, payloadBytes);
+            entry.lastAccess = segment.lastAccess;
+            index.put(new String(key, StandardCharsets.UTF_8), entry);
+            offset += entry.recordBytes;
+            recovered += 1;
+        }
+        segment.writePosition = offset;
+        return recovered;
+    }
+
+    private static Path deadMarker(Path segmentPath) {
+        return segmentPath.resolveSibling(segmentPath.getFileName().toString() + DEAD_EXT);
+    }
+
+}
@@ -250,10 +250,14 @@ public class TileServer implements ComponentListener, // so changes in viewer si
         updateLoadStatus();
 
         // log.info("updatePreFetchSlot");
-        futurePreFetcher.clear();
+        // Requests made below renew queued loads in place; whatever is not
+        // requested again has left the working set and is cancelled at the end.
+        futurePreFetcher.beginReprioritization();
 
         Set<TileIndex> cacheableTextures = new HashSet<TileIndex>();
-        int maxCacheable = (int) (0.90 * getTextureCache().getFutureCache().getMaxSize());
+        long tileBytes = getLoadAdapter() == null ? 1L : Math.max(1L, getLoadAdapter().getTileFormat().getTileBytes());
+        int maxCacheable = (int) Math.min(Integer.MAX_VALUE,
+                0.90 * getTextureCache().getFutureCache().getMaxBytes() / tileBytes);
 
         // First in line are current display tiles
         // Prepare to analyze each ViewTileManager's loadStatus
@@ -265,8 +269,7 @@ public class TileServer implements ComponentListener, // so changes in viewer si
                 if (cacheableTextures.contains(ix)) {
                     continue; // already noted
                 }
-                long t1 = System.nanoTime();
-                if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this)) {
+                if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this, TexturePreFetcher.PRIORITY_DISPLAYED)) {
                     cacheableTextures.add(ix);
                 }
             }
@@ -275,11 +278,14 @@ public class TileServer implements ComponentListener, // so changes in viewer si
         if (doPrefetch && !VolumeCache.useVolumeCache()) {
             // Sort tiles into X, Y, and Z slices to help with generators
             Map<CoordinateAxis, TileSet> axisTiles = new HashMap<CoordinateAxis, TileSet>();
+            // Current slice for each axis, to rank prefetch tiles by distance
+            Map<CoordinateAxis, Integer> focusSlices = new HashMap<>();
             for (Tile2d tile : currentTiles) {
                 TileIndex i = tile.getIndex();
                 CoordinateAxis axis = i.getSliceAxis();
                 if (!axisTiles.containsKey(axis)) {
                     axisTiles.put(axis, new TileSet());
+                    focusSlices.put(axis, i.getCoordinate(axis.index()));
                 }
                 axisTiles.get(axis).add(tile);
             }
@@ -325,7 +331,8 @@ public class TileServer implements ComponentListener, // so changes in viewer si
                         break;
                     }
 
-                    if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this)) {
+                    double priority = TexturePreFetcher.PRIORITY_UMBRELLA + sliceDistance(ix, focusSlices);
+                    if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this, priority)) {
                         cacheableTextures.add(ix);
                     }
                 }
@@ -339,15 +346,25 @@ public class TileServer implements ComponentListener, // so changes in viewer si
                         break;
                     }
 
-                    if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this)) {
+                    double priority = TexturePreFetcher.PRIORITY_NEIGHBOR + sliceDistance(ix, focusSlices);
+                    if (futurePreFetcher.loadDisplayedTexture(ix, TileServer.this, priority)) {
                         cacheableTextures.add(ix);
                     }
                 }
             }
         }
+        futurePreFetcher.cancelStaleLoads();
         updateLoadStatus();
     }
 
+    private static int sliceDistance(TileIndex ix, Map<CoordinateAxis, Integer> focusSlices) {
+        Integer focusSlice = focusSlices.get(ix.getSliceAxis());
+        if (focusSlice == null) {
+            return 0;
+        }
+        return Math.abs(ix.getCoordinate(ix.getSliceAxis().index()) - focusSlice);
+    }
+
     // Part of new way July 9, 2013
     public void refreshCurrentTileSet() {
         TileSet tiles = createLatestTiles();
@@ -367,19 +384,17 @@ public class TileServer implements ComponentListener, // so changes in viewer si
         if ((historyFraction + futureFraction) >= 1.0) {
             LOG.warn("Combined cache sizes are larger than max heap size.");
         }
+        // Pixels are held off-heap, but direct memory defaults to the heap limit
         Runtime rt = Runtime.getRuntime();
         long maxHeapBytes = rt.maxMemory();
-        TileFormat format = sharedVolumeImage.getLoadAdapter().getTileFormat();
-        long tileBytes = format.getTileBytes();
-        int historyTileMax = (int) (historyFraction * maxHeapBytes / tileBytes);
-        int futureTileMax = (int) (futureFraction * maxHeapBytes / tileBytes);
-        getTextureCache().getHistoryCache().setMaxEntries(historyTileMax);
-        getTextureCache().getFutureCache().setMaxEntries(futureTileMax);
+        getTextureCache().getHistoryCache().setMaxBytes((long) (historyFraction * maxHeapBytes));
+        getTextureCache().getFutureCache().setMaxBytes((long) (futureFraction * maxHeapBytes));
     }
 
     public void setCachedSizesSmall() {
-        getTextureCache().getHistoryCache().setMaxEntries(50);
-        getTextureCache().getFutureCache().setMaxEntries(150);
+        long tileBytes = sharedVolumeImage.getLoadAdapter().getTileFormat().getTileBytes();
+        getTextureCache().getHistoryCache().setMaxBytes(50 * tileBytes);
+        getTextureCache().getFutureCache().setMaxBytes(150 * tileBytes);
     }
 
     public AbstractTextureLoadAdapter getLoadAdapter() {
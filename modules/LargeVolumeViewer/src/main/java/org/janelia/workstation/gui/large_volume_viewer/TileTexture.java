@@ -1,5 +1,6 @@
 package org.janelia.workstation.gui.large_volume_viewer;
 
+import java.nio.ByteBuffer;
 import javax.media.opengl.GL2;
 import org.janelia.it.jacs.shared.lvv.AbstractTextureLoadAdapter;
 import org.janelia.it.jacs.shared.lvv.ImageBrightnessStats;
@@ -32,6 +33,8 @@ public class TileTexture {
     // private URL url;
     private TextureData2dGL textureData;
     private PyramidTexture texture = null;
+    // Pool storage behind the textureData pixels, or null if they are not pooled
+    private PooledPixels pooledPixels;
     private AbstractTextureLoadAdapter loadAdapter;
 
     // time stamps for performance measurement
@@ -87,8 +90,12 @@ public class TileTexture {
         return true;
     }
 
-    public void releaseMemory() {
-        if (textureData != null) {
+    public synchronized void releaseMemory() {
+        if (pooledPixels != null) {
+            // Readers holding a lease keep the buffer until they close it
+            pooledPixels.release();
+            pooledPixels = null;
+        } else if (textureData != null) {
             textureData.releaseMemory();
         }
         textureData = null;
@@ -97,6 +104,53 @@ public class TileTexture {
         texture = null;
     }
 
+    /**
+     * Move decoded pixels into a direct buffer from the given pool, so the
+     * bulk of the texture does not live on the Java heap.
+     */
+    public synchronized void moveToOffHeap(TexturePixelPool pool) {
+        if (textureData == null) {
+            return;
+        }
+        ByteBuffer pixels = textureData.getPixels();
+        if (pixels == null || pixels.isDirect()) {
+            return;
+        }
+        ByteBuffer source = pixels.duplicate();
+        source.rewind();
+        ByteBuffer offHeap = pool.acquire(source.remaining());
+        offHeap.order(pixels.order());
+        offHeap.put(source);
+        offHeap.rewind();
+        textureData.setPixels(offHeap);
+        pooledPixels = new PooledPixels(pool, offHeap);
+    }
+
+    /**
+     * Returns the texture data for reading outside this texture's lock, or
+     * null if it is not in memory. Pooled pixels are not recycled, even if
+     * the texture is evicted, until the lease is closed.
+     */
+    public synchronized TextureDataLease leaseTextureData() {
+        if (textureData == null || textureData.getPixels() == null) {
+            return null;
+        }
+        if (pooledPixels != null) {
+            pooledPixels.retain();
+        }
+        return new TextureDataLease(textureData, pooledPixels);
+    }
+
+    /**
+     * @return number of bytes used by decoded pixels, zero if not in memory.
+     */
+    public synchronized long getPixelBytes() {
+        if (textureData == null || textureData.getPixels() == null) {
+            return 0;
+        }
+        return textureData.getPixels().capacity();
+    }
+
     public void setFirstDisplayTime(long firstDisplayTime) {
         this.firstDisplayTime = firstDisplayTime;
     }
@@ -131,13 +185,15 @@ public class TileTexture {
 
     /**
      * Allows client to use data contents, rather than data contents being used
-     * exclusively/directly for GL display.
+     * exclusively/directly for GL display. Pooled pixels may be recycled once
+     * the texture is evicted; readers on other threads should use
+     * leaseTextureData instead.
      */
     public TextureData2dGL getTextureData() {
         return textureData;
     }
 
-    public void init(GL2 gl) {
+    public synchronized void init(GL2 gl) {
         if (textureData == null) {
             return;
         }
@@ -179,11 +235,72 @@ public class TileTexture {
         this.loadStatus = stage;
     }
 
-    public ImageBrightnessStats getBrightnessStats() {
-        if (loadStatus.ordinal() < LoadStatus.RAM_LOADED.ordinal()) {
+    public synchronized ImageBrightnessStats getBrightnessStats() {
+        if (loadStatus.ordinal() < LoadStatus.RAM_LOADED.ordinal() || textureData == null) {
             return null;
         }
         return textureData.getBrightnessStats();
     }
 
+    /**
+     * Pixel buffer from a TexturePixelPool, shared by the texture and any
+     * readers holding a lease. It goes back to the pool when the last of
+     * them lets go.
+     */
+    private static final class PooledPixels {
+        private final TexturePixelPool pool;
+        private final ByteBuffer buffer;
+        private int references = 1; // held by the texture itself
+
+        private PooledPixels(TexturePixelPool pool, ByteBuffer buffer) {
+            this.pool = pool;
+            this.buffer = buffer;
+        }
+
+        private synchronized void retain() {
+            references++;
+        }
+
+        private synchronized void release() {
+            if (--references == 0) {
+                pool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Texture data held for reading while the texture may be evicted.
+     */
+    public static final class TextureDataLease implements AutoCloseable {
+        private final TextureData2dGL textureData;
+        private final ByteBuffer pixels;
+        private PooledPixels pooledPixels;
+
+        private TextureDataLease(TextureData2dGL textureData, PooledPixels pooledPixels) {
+            this.textureData = textureData;
+            this.pixels = textureData.getPixels();
+            this.pooledPixels = pooledPixels;
+        }
+
+        /**
+         * @return the texture data; use getPixels() for its pixels, which
+         * stay valid after the texture releases its memory
+         */
+        public TextureData2dGL getTextureData() {
+            return textureData;
+        }
+
+        public ByteBuffer getPixels() {
+            return pixels.duplicate().order(pixels.order());
+        }
+
+        @Override
+        public synchronized void close() {
+            if (pooledPixels != null) {
+                pooledPixels.release();
+                pooledPixels = null;
+            }
+        }
+    }
+
 }
@@ -2102,14 +2102,24 @@ public class AnnotationManager implements UpdateAnchorListener, PathTraceListene
                 int index = 0;
                 int total = swcFiles.size();
                 TmWorkspace workspace = annotationModel.getCurrentWorkspace();
-                for (File swcFile : swcFiles) {
-                    setStatus(swcFile.getName());
-                    if (swcFile.exists()) {
-                        annotationModel.importBulkSWCData(swcFile, workspace);
-                        activityLog.logImportSWCFile(workspace.getId(), swcFile.getName());
-                        imported++;
+                TmNeuronMetadata lastNeuron = null;
+                try {
+                    for (File swcFile : swcFiles) {
+                        setStatus(swcFile.getName());
+                        if (swcFile.exists()) {
+                            TmNeuronMetadata importedNeuron = annotationModel.importBulkSWCData(swcFile, workspace);
+                            if (importedNeuron != null) {
+                                lastNeuron = importedNeuron;
+                            }
+                            activityLog.logImportSWCFile(workspace.getId(), swcFile.getName());
+                            imported++;
+                        }
+                        setProgress(index++, total);
                     }
-                    setProgress(index++, total);
+                }
+                finally {
+                    // one workspace update for all the files, instead of one per neuron
+                    annotationModel.postWorkspaceUpdate(lastNeuron);
                 }
                 setStatus("Successfully imported "+imported+" files");
             }
@@ -21,7 +21,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
 import javax.swing.*;
 import org.apache.commons.io.FilenameUtils;
 import org.janelia.console.viewerapi.controller.TransactionManager;
@@ -1844,7 +1843,13 @@ public class AnnotationModel implements DomainObjectSelectionSupport {
         progress.setStatus("Done");
     }
 
-    public synchronized void importBulkSWCData(final File swcFile, TmWorkspace tmWorkspace) throws Exception {
+    /**
+     * Creates a neuron from the SWC file and saves it. The workspace is not updated,
+     * so that importing many files can end with a single postWorkspaceUpdate().
+     *
+     * @return the new neuron, or null if it could not be created
+     */
+    public synchronized TmNeuronMetadata importBulkSWCData(final File swcFile, TmWorkspace tmWorkspace) throws Exception {
 
         log.info("Importing neuron from SWC file {}",swcFile);
         
@@ -1865,7 +1870,6 @@ public class AnnotationModel implements DomainObjectSelectionSupport {
         if (neuronName.endsWith(SWCData.STD_SWC_EXTENSION)) {
             neuronName = neuronName.substring(0, neuronName.length() - SWCData.STD_SWC_EXTENSION.length());
         }
-        Consumer<Map<String,Object>> callback = this::finishBulkSWCData;
         Map<String,Object> parameters = new HashMap<String,Object>();
         parameters.put("swc", swcData);
         parameters.put("file", swcFile);
@@ -1873,26 +1877,27 @@ public class AnnotationModel implements DomainObjectSelectionSupport {
         // Must create the neuron up front, because we need the id when adding the linked geometric annotations below.
         CompletableFuture<TmNeuronMetadata> future = neuronManager.createTiledMicroscopeNeuron(tmWorkspace, neuronName);
         if (future==null) 
-            return;
+            return null;
         try {
             TmNeuronMetadata updatedNeuron = future.get(2, TimeUnit.SECONDS);
             parameters.put("neuron", updatedNeuron);
-            finishBulkSWCData(parameters);
+            return finishBulkSWCData(parameters);
         } catch (Exception error) {
             FrameworkAccess.handleException(error);
+            return null;
         }
 
     }
         
 
-    public synchronized void finishBulkSWCData(Map<String,Object> neuronData) {
+    public synchronized TmNeuronMetadata finishBulkSWCData(Map<String,Object> neuronData) {
         TmNeuronMetadata neuron = (TmNeuronMetadata)neuronData.get("neuron");
         if (neuron==null)
-            return;
+            return null;
         
         SWCData swcData = (SWCData)neuronData.get("swc");
         if (swcData==null)
-            return;
+            return null;
         
         File swcFile = (File)neuronData.get("file");
         // note from CB, July 2013: Vaa3d can't handle large coordinates in swc files,
@@ -1991,9 +1996,10 @@ public class AnnotationModel implements DomainObjectSelectionSupport {
                 }
             }
             
-            postWorkspaceUpdate(neuron);
+            return neuron;
         } catch (Exception e) {
             e.printStackTrace();
+            return null;
         }
     }
 
@@ -2361,6 +2367,28 @@ public class AnnotationModel implements DomainObjectSelectionSupport {
         }
     }
     
+    public void fireBackgroundNeuronsUpdated(List<NeuronUpdatePipeline.NeuronUpdate> updates) {
+        List<TmNeuronMetadata> created = new ArrayList<>();
+        List<TmNeuronMetadata> changed = new ArrayList<>();
+        List<TmNeuronMetadata> deleted = new ArrayList<>();
+        for (NeuronUpdatePipeline.NeuronUpdate update: updates) {
+            switch (update.getType()) {
+                case CREATED:
+                    created.add(update.getNeuron());
+                    break;
+                case CHANGED:
+                    changed.add(update.getNeuron());
+                    break;
+                case DELETED:
+                    deleted.add(update.getNeuron());
+                    break;
+            }
+        }
+        for (BackgroundAnnotationListener b: backgroundAnnotationListeners) {
+            b.neuronModelsUpdated(created, changed, deleted);
+        }
+    }
+
     public void fireBackgroundNeuronOwnershipChanged(TmNeuronMetadata neuron) {
         for (BackgroundAnnotationListener b: backgroundAnnotationListeners) {
             b.neuronOwnerChanged(neuron);
@@ -19,6 +19,11 @@ import java.awt.event.MouseEvent;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.janelia.console.viewerapi.SampleLocation;
 import org.janelia.console.viewerapi.SynchronizationHelper;
 import org.janelia.console.viewerapi.Tiled3dSampleLocationProviderAcceptor;
@@ -26,6 +31,8 @@ import org.janelia.workstation.gui.large_volume_viewer.top_component.LargeVolume
 import org.janelia.model.domain.tiledMicroscope.TmGeoAnnotation;
 import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
 import org.janelia.model.domain.tiledMicroscope.TmWorkspace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * this UI element displays a list of annotations according to a
@@ -34,9 +41,11 @@ import org.janelia.model.domain.tiledMicroscope.TmWorkspace;
  * filtering conditions will include both geometry (eg,
  * end or branch) and notes (and terms contained therein)
  *
- * implementation note: updates are really brute force
- * right now; essentially end up rebuilding the whole model
- * and view every time anything changes
+ * implementation note: the interesting annotations are kept in an
+ * index that's updated as neurons and annotations change; changed
+ * annotations are described on the EDT, where the model is read, then
+ * the index and the filters are handled on a background thread, and
+ * only the resulting row changes are applied to the table on the EDT
  *
  * another implementation note: OK, I admit it, I prefer Python
  * over Java; as such, I thought throwing one or two support classes
@@ -50,6 +59,8 @@ import org.janelia.model.domain.tiledMicroscope.TmWorkspace;
  */
 public class FilteredAnnotationList extends JPanel {
 
+    private static final Logger log = LoggerFactory.getLogger(FilteredAnnotationList.class);
+
     // GUI stuff
     private int width;
     private static final int height = 3 * AnnotationPanel.SUBPANEL_STD_HEIGHT;
@@ -74,8 +85,17 @@ public class FilteredAnnotationList extends JPanel {
     //  imagine allowing note editing from this widget in the future
     private EditNoteRequestedListener editNoteRequestedListener;
 
+    // the index is only used on this thread, which never reads the model
+    private final ExecutorService updateExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("filtered-annotation-list-%d")
+            .setDaemon(true)
+            .build());
+    private final InterestingAnnotationIndex index = new InterestingAnnotationIndex();
+    // neurons which have been submitted to the index; only used on the EDT
+    private final Set<Long> indexedNeuronIDs = new HashSet<>();
+
     private static FilteredAnnotationList theInstance;
-    private boolean skipUpdate=false;
+    private volatile boolean skipUpdate=false;
 
     public static FilteredAnnotationList createInstance(final AnnotationManager annotationMgr, final AnnotationModel annotationModel, int width) {
         theInstance = new FilteredAnnotationList(annotationMgr, annotationModel, width);
@@ -92,12 +112,12 @@ public class FilteredAnnotationList extends JPanel {
     
     public void beginTransaction() {
         this.skipUpdate = true;
-        updateData();
     }
     
     public void endTransaction() {
         this.skipUpdate = false;
-        updateData();
+        // apply everything that changed during the transaction
+        updateFilter();
     }
 
     private FilteredAnnotationList(final AnnotationManager annotationMgr, final AnnotationModel annotationModel, int width) {
@@ -183,10 +203,26 @@ public class FilteredAnnotationList extends JPanel {
     }
 
     // the next routines are called by PanelController (etc) when data changes;
-    //   for now, they all call the same internal, brute force update
+    //   each snapshots what changed on the EDT, then the background thread
+    //   updates the index and the table for the annotations which changed
 
     public void loadNeuron(TmNeuronMetadata neuron) {
-        updateData();
+        onEDT(() -> {
+            if (indexedNeuronIDs.contains(neuron.getId())) {
+                submitUpdate(indexNeuron(neuron));
+            } else {
+                submitUpdate(index -> {});
+            }
+        });
+    }
+
+    public void neuronDeleted(TmNeuronMetadata neuron) {
+        onEDT(() -> submitUpdate(removeNeuron(neuron.getId())));
+    }
+
+    public void neuronSelected(TmNeuronMetadata neuron) {
+        // only matters if showing the current neuron only, which the filter takes care of
+        updateFilter();
     }
 
     public void loadWorkspace(TmWorkspace workspace) {
@@ -194,98 +230,202 @@ public class FilteredAnnotationList extends JPanel {
     }
 
     public void notesChanged(TmGeoAnnotation ann) {
-        updateData();
+        annotationChanged(ann);
     }
 
     public void annotationChanged(TmGeoAnnotation ann) {
-        updateData();
+        annotationsChanged(Collections.singletonList(ann));
     }
 
     public void annotationsChanged(List<TmGeoAnnotation> annotationList) {
-        updateData();
+        List<TmGeoAnnotation> annotations = new ArrayList<>(annotationList);
+        onEDT(() -> {
+            Consumer<InterestingAnnotationIndex> update = index -> {};
+            for (TmGeoAnnotation ann: annotations) {
+                update = update.andThen(indexAnnotation(ann));
+            }
+            submitUpdate(update);
+        });
     }
 
-    public synchronized void updateData() {
+    public void annotationReparented(TmGeoAnnotation ann, Long prevNeuronId) {
+        onEDT(() -> {
+            Consumer<InterestingAnnotationIndex> update = index -> {};
+            for (Long neuronId: Arrays.asList(prevNeuronId, ann.getNeuronId())) {
+                TmNeuronMetadata neuron = annotationModel.getNeuronFromNeuronID(neuronId);
+                if (neuron == null) {
+                    update = update.andThen(removeNeuron(neuronId));
+                } else if (indexedNeuronIDs.contains(neuronId)) {
+                    update = update.andThen(indexNeuron(neuron));
+                }
+            }
+            submitUpdate(update);
+        });
+    }
 
-        if (skipUpdate)
-            return;
+    /**
+     * rebuild the list from scratch
+     */
+    public void updateData() {
+        onEDT(() -> {
+            indexedNeuronIDs.clear();
+            submitUpdate(InterestingAnnotationIndex::clear);
+        });
+    }
 
-        // check how long to update
-        // ans: with ~2k annotations, <20ms to update
-        // Stopwatch stopwatch = new Stopwatch();
-        // stopwatch.start();
+    /**
+     * re-apply the filter, eg, after it changed
+     */
+    private void updateFilter() {
+        onEDT(() -> submitUpdate(index -> {}));
+    }
 
-        // totally brute force; we don't know what updated, so
-        //  start from scratch each time
+    /**
+     * the model may only be read on the EDT, so that's where updates are
+     * described; calls from other threads are queued there
+     */
+    private static void onEDT(Runnable runnable) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            runnable.run();
+        } else {
+            SwingUtilities.invokeLater(runnable);
+        }
+    }
 
-        int savedSelectionRow = filteredTable.getSelectedRow();
-        InterestingAnnotation savedAnn = null;
-        if (savedSelectionRow >= 0) {
-            savedAnn = model.getAnnotationAtRow(filteredTable.convertRowIndexToModel(savedSelectionRow));
+    /**
+     * queue an update of the index, followed by an update of the table
+     * unless updates are being skipped; called on the EDT, where the filter
+     * state and any neurons which need indexing are snapshotted, so that the
+     * background thread never reads the model
+     */
+    private void submitUpdate(Consumer<InterestingAnnotationIndex> indexUpdate) {
+        final AnnotationFilter filter = currentFilter;
+        final boolean currentNeuronOnly = currentNeuronCheckbox.isSelected();
+        TmNeuronMetadata currentNeuron = annotationModel.getCurrentNeuron();
+        final Long currentNeuronId = currentNeuron == null ? null : currentNeuron.getId();
+        // otherwise the changes are applied together at the next update
+        final boolean evaluate = !skipUpdate && annotationModel.getCurrentWorkspace() != null;
+        final Consumer<InterestingAnnotationIndex> update = evaluate
+                ? indexUpdate.andThen(indexShownNeurons(currentNeuronOnly, currentNeuronId))
+                : indexUpdate;
+        updateExecutor.execute(() -> {
+            try {
+                update.accept(index);
+                index.setFilter(filter, currentNeuronOnly, currentNeuronId);
+                if (!evaluate) {
+                    return;
+                }
+                InterestingAnnotationIndex.Changes changes = index.evaluate();
+                if (!changes.isEmpty()) {
+                    SwingUtilities.invokeLater(() -> applyChanges(changes));
+                }
+            } catch (Exception e) {
+                log.error("Error updating filtered annotation list", e);
+            }
+        });
+    }
+
+    /**
+     * make sure every neuron which may be shown has been indexed
+     */
+    private Consumer<InterestingAnnotationIndex> indexShownNeurons(boolean currentNeuronOnly, Long currentNeuronId) {
+        Consumer<InterestingAnnotationIndex> update = index -> {};
+        if (currentNeuronOnly) {
+            // Necessary optimization: only consider current neuron
+            if (currentNeuronId != null && !indexedNeuronIDs.contains(currentNeuronId)) {
+                TmNeuronMetadata currentNeuron = annotationModel.getNeuronFromNeuronID(currentNeuronId);
+                if (currentNeuron != null) {
+                    update = update.andThen(indexNeuron(currentNeuron));
+                }
+            }
+        } else {
+            for (TmNeuronMetadata neuron: annotationModel.getNeuronList()) {
+                if (!indexedNeuronIDs.contains(neuron.getId())) {
+                    update = update.andThen(indexNeuron(neuron));
+                }
+            }
         }
+        return update;
+    }
 
-        TmWorkspace currentWorkspace = annotationModel.getCurrentWorkspace();
-        if (currentWorkspace == null) {
-            return;
+    private Consumer<InterestingAnnotationIndex> indexNeuron(TmNeuronMetadata neuron) {
+        final Long neuronId = neuron.getId();
+        final List<InterestingAnnotation> annotations = new ArrayList<>();
+        for (TmGeoAnnotation ann: neuron.getGeoAnnotationMap().values()) {
+            annotations.add(describeAnnotation(neuron, ann));
         }
-        
-        model.clear();
+        indexedNeuronIDs.add(neuronId);
+        return index -> index.setNeuron(neuronId, annotations);
+    }
 
-        if (currentNeuronCheckbox.isSelected()) {
-            // Necessary optimization: only consider current neuron
-            TmNeuronMetadata currentNeuron = annotationModel.getCurrentNeuron();
-            if (currentNeuron!=null) {
-                updateData(currentNeuron);
+    private Consumer<InterestingAnnotationIndex> removeNeuron(Long neuronId) {
+        indexedNeuronIDs.remove(neuronId);
+        return index -> index.removeNeuron(neuronId);
+    }
+
+    /**
+     * reindex an annotation along with its parent and children, whose
+     * geometry depends on it; annotations no longer in the neuron are removed
+     */
+    private Consumer<InterestingAnnotationIndex> indexAnnotation(TmGeoAnnotation ann) {
+        final Long neuronId = ann.getNeuronId();
+        if (!indexedNeuronIDs.contains(neuronId)) {
+            return index -> {};
+        }
+        TmNeuronMetadata neuron = annotationModel.getNeuronFromNeuronID(neuronId);
+        if (neuron == null) {
+            return removeNeuron(neuronId);
+        }
+        List<Long> annotationIds = new ArrayList<>();
+        annotationIds.add(ann.getId());
+        annotationIds.add(ann.getParentId());
+        annotationIds.addAll(ann.getChildIds());
+        final List<InterestingAnnotation> updated = new ArrayList<>();
+        final List<Long> removedIds = new ArrayList<>();
+        for (Long annotationId: annotationIds) {
+            TmGeoAnnotation indexedAnn = neuron.getGeoAnnotationMap().get(annotationId);
+            if (indexedAnn != null) {
+                updated.add(describeAnnotation(neuron, indexedAnn));
+            } else {
+                removedIds.add(annotationId);
             }
         }
-        else {
-            // Consider all neurons
-            for (TmNeuronMetadata neuron: new ArrayList<>(annotationModel.getNeuronList())) {
-                updateData(neuron);
+        return index -> {
+            for (InterestingAnnotation interestingAnnotation: updated) {
+                index.setAnnotation(interestingAnnotation);
+            }
+            for (Long annotationId: removedIds) {
+                index.removeAnnotation(neuronId, annotationId);
             }
+        };
+    }
+
+    private InterestingAnnotation describeAnnotation(TmNeuronMetadata neuron, TmGeoAnnotation ann) {
+        return new InterestingAnnotation(ann.getId(),
+            neuron.getId(),
+            ann.getCreationDate(),
+            ann.getModificationDate(),
+            getAnnotationGeometry(ann),
+            annotationModel.getNote(ann.getId(), neuron));
+    }
+
+    private void applyChanges(InterestingAnnotationIndex.Changes changes) {
+        int savedSelectionRow = filteredTable.getSelectedRow();
+        InterestingAnnotation savedAnn = null;
+        if (savedSelectionRow >= 0) {
+            savedAnn = model.getAnnotationAtRow(filteredTable.convertRowIndexToModel(savedSelectionRow));
         }
 
-        model.fireTableDataChanged();
+        boolean replaced = model.applyChanges(changes.getRemovedIDs(), changes.getUpdated(), changes.getAdded());
 
-        // restore selection
-        if (savedSelectionRow >= 0 && savedAnn != null) {
+        // row-level changes keep the selection; restore it if the whole table changed
+        if (replaced && savedAnn != null) {
             int newRow = model.findAnnotation(savedAnn);
             if (newRow >= 0) {
                 int viewRow = filteredTable.convertRowIndexToView(newRow);
                 filteredTable.setRowSelectionInterval(viewRow, viewRow);
             }
         }
-
-        // stopwatch.stop();
-        // System.out.println("updated filtered annotation list; elapsed time = " + stopwatch.toString());
-    }
-    
-    public void updateData(TmNeuronMetadata neuron) {
-
-        // loop over roots in neuron, annotations per root;
-        //  put all the "interesting" annotations in a list
-        
-        AnnotationFilter filter = getCurrentFilter();
-        String note;
-        
-        for (TmGeoAnnotation root: neuron.getRootAnnotations()) {
-            for (TmGeoAnnotation ann: neuron.getSubTreeList(root)) {
-                note = annotationMgr.getNote(neuron.getId(), ann.getId());
-                if (note.length() == 0) {
-                    note = "";
-                }
-                InterestingAnnotation maybeInteresting =
-                    new InterestingAnnotation(ann.getId(),
-                        neuron.getId(),
-                        ann.getCreationDate(),
-                        ann.getModificationDate(),
-                        getAnnotationGeometry(ann),
-                        note);
-                if (filter.isInteresting(maybeInteresting)) {
-                    model.addAnnotation(maybeInteresting);
-                }
-            }
-        }
     }
 
     private void setupFilters() {
@@ -413,7 +553,7 @@ public class FilteredAnnotationList extends JPanel {
                 JComboBox<String> cb = (JComboBox<String>) e.getSource();
                 String name = (String) cb.getSelectedItem();
                 setCurrentFilter(filters.get(name));
-                updateData();
+                updateFilter();
             }
         });
         filterMenuPanel.add(filterMenu, BorderLayout.CENTER);
@@ -480,7 +620,7 @@ public class FilteredAnnotationList extends JPanel {
         currentNeuronCheckbox.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                updateData();
+                updateFilter();
             }
         });
 
@@ -1,7 +1,13 @@
 package org.janelia.workstation.gui.large_volume_viewer.annotation;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import javax.swing.table.AbstractTableModel;
 
 /**
@@ -13,16 +19,103 @@ public class FilteredAnnotationModel extends AbstractTableModel {
 
     private String[] columnNames = {"date", "geo", "note"};
 
+    // above this fraction of the rows, changes are applied as one table change
+    private static final double BULK_CHANGE_FRACTION = 0.5;
+
     private ArrayList<InterestingAnnotation> annotations = new ArrayList<>();
+    // row of each annotation, by annotation ID
+    private Map<Long, Integer> rows = new HashMap<>();
 
     public void clear() {
         annotations = new ArrayList<>();
+        rows = new HashMap<>();
     }
 
     public void addAnnotation(InterestingAnnotation ann) {
+        rows.put(ann.getAnnotationID(), annotations.size());
         annotations.add(ann);
     }
 
+    /**
+     * apply changes to the annotations with row-level table events;
+     * if most of the table changes, the whole table is replaced instead
+     *
+     * @return true if the whole table was replaced, in which case the
+     * selection isn't preserved
+     */
+    public boolean applyChanges(Collection<Long> removedIDs, Collection<InterestingAnnotation> updated,
+            Collection<InterestingAnnotation> added) {
+        int changeCount = removedIDs.size() + added.size();
+        if (changeCount > 1 && changeCount > BULK_CHANGE_FRACTION * annotations.size()) {
+            replaceAnnotations(removedIDs, updated, added);
+            fireTableDataChanged();
+            return true;
+        }
+
+        // remove from the bottom up, so the rows above don't move
+        List<Integer> removedRows = new ArrayList<>();
+        for (Long annotationID: removedIDs) {
+            Integer row = rows.remove(annotationID);
+            if (row != null) {
+                removedRows.add(row);
+            }
+        }
+        if (!removedRows.isEmpty()) {
+            removedRows.sort((row1, row2) -> Integer.compare(row2, row1));
+            for (int row: removedRows) {
+                annotations.remove(row);
+                fireTableRowsDeleted(row, row);
+            }
+            int firstMoved = removedRows.get(removedRows.size() - 1);
+            for (int row = firstMoved; row < annotations.size(); row++) {
+                rows.put(annotations.get(row).getAnnotationID(), row);
+            }
+        }
+
+        List<InterestingAnnotation> newAnnotations = new ArrayList<>(added);
+        for (InterestingAnnotation ann: updated) {
+            Integer row = rows.get(ann.getAnnotationID());
+            if (row != null) {
+                annotations.set(row, ann);
+                fireTableRowsUpdated(row, row);
+            } else {
+                newAnnotations.add(ann);
+            }
+        }
+
+        if (!newAnnotations.isEmpty()) {
+            int firstRow = annotations.size();
+            for (InterestingAnnotation ann: newAnnotations) {
+                addAnnotation(ann);
+            }
+            fireTableRowsInserted(firstRow, annotations.size() - 1);
+        }
+        return false;
+    }
+
+    private void replaceAnnotations(Collection<Long> removedIDs, Collection<InterestingAnnotation> updated,
+            Collection<InterestingAnnotation> added) {
+        Set<Long> removed = new HashSet<>(removedIDs);
+        Map<Long, InterestingAnnotation> updates = new HashMap<>();
+        for (InterestingAnnotation ann: updated) {
+            updates.put(ann.getAnnotationID(), ann);
+        }
+        List<InterestingAnnotation> previous = annotations;
+        clear();
+        for (InterestingAnnotation ann: previous) {
+            if (!removed.contains(ann.getAnnotationID())) {
+                InterestingAnnotation update = updates.remove(ann.getAnnotationID());
+                addAnnotation(update != null ? update : ann);
+            }
+        }
+        for (InterestingAnnotation ann: updates.values()) {
+            addAnnotation(ann);
+        }
+        for (InterestingAnnotation ann: added) {
+            addAnnotation(ann);
+        }
+    }
+
     // boilerplate stuff
     @Override
     public String getColumnName(int column) {
@@ -57,11 +150,8 @@ public class FilteredAnnotationModel extends AbstractTableModel {
 
     // find annotation based on ID; returns its row or -1 if not found
     public int findAnnotation(InterestingAnnotation ann) {
-        for (int row = 0; row < annotations.size(); row++)
-            if (ann.getAnnotationID().equals(annotations.get(row).getAnnotationID())) {
-                return row;
-        }
-        return -1;
+        Integer row = rows.get(ann.getAnnotationID());
+        return row != null ? row : -1;
     }
 
     // this needs to be done to get Date column to sort right
@@ -1,6 +1,7 @@
 package org.janelia.workstation.gui.large_volume_viewer.annotation;
 
 import java.util.Date;
+import java.util.Objects;
 
 /**
  *
@@ -66,4 +67,26 @@ public class InterestingAnnotation {
     public String getGeometryText() {
         return geometry.getTexticon();
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        InterestingAnnotation that = (InterestingAnnotation) o;
+        return Objects.equals(annotationID, that.annotationID) &&
+                Objects.equals(neuronID, that.neuronID) &&
+                Objects.equals(noteText, that.noteText) &&
+                geometry == that.geometry &&
+                Objects.equals(creationDate, that.creationDate) &&
+                Objects.equals(modificationDate, that.modificationDate);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(annotationID, neuronID);
+    }
 }
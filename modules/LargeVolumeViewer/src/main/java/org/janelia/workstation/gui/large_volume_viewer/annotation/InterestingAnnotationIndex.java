@@ -0,0 +1,189 @@
+package org.janelia.workstation.gui.large_volume_viewer.annotation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Index of the annotations which may be shown in the filtered annotation
+ * list, keyed by neuron and annotation ID, and of the ones which are
+ * currently shown.
+ *
+ * The index is updated piecemeal as neurons and annotations change; each
+ * evaluation only applies the filter to the annotations which changed since
+ * the last one (or to all of them, if the filter changed), and returns the
+ * changes to the shown annotations.
+ *
+ * Not thread safe; FilteredAnnotationList uses it from a single background thread.
+ */
+class InterestingAnnotationIndex {
+
+    /**
+     * Changes to the shown annotations since the last evaluation.
+     */
+    static class Changes {
+        private final List<Long> removedIDs = new ArrayList<>();
+        private final List<InterestingAnnotation> updated = new ArrayList<>();
+        private final List<InterestingAnnotation> added = new ArrayList<>();
+
+        List<Long> getRemovedIDs() {
+            return removedIDs;
+        }
+
+        List<InterestingAnnotation> getUpdated() {
+            return updated;
+        }
+
+        List<InterestingAnnotation> getAdded() {
+            return added;
+        }
+
+        boolean isEmpty() {
+            return removedIDs.isEmpty() && updated.isEmpty() && added.isEmpty();
+        }
+    }
+
+    // all indexed annotations, by annotation ID
+    private final Map<Long, InterestingAnnotation> annotations = new HashMap<>();
+    private final Map<Long, Set<Long>> neuronAnnotationIDs = new HashMap<>();
+
+    // annotations passing the filter at the last evaluation, by annotation ID
+    private final Map<Long, InterestingAnnotation> shown = new HashMap<>();
+    private final Set<Long> changedIDs = new HashSet<>();
+
+    private AnnotationFilter filter;
+    private boolean currentNeuronOnly;
+    private Long currentNeuronID;
+    private boolean filterChanged;
+
+    boolean isIndexed(Long neuronID) {
+        return neuronAnnotationIDs.containsKey(neuronID);
+    }
+
+    /**
+     * replaces all the annotations of a neuron
+     */
+    void setNeuron(Long neuronID, Collection<InterestingAnnotation> neuronAnnotations) {
+        removeNeuron(neuronID);
+        Set<Long> annotationIDs = new HashSet<>();
+        for (InterestingAnnotation ann: neuronAnnotations) {
+            annotations.put(ann.getAnnotationID(), ann);
+            annotationIDs.add(ann.getAnnotationID());
+        }
+        neuronAnnotationIDs.put(neuronID, annotationIDs);
+        changedIDs.addAll(annotationIDs);
+    }
+
+    void removeNeuron(Long neuronID) {
+        Set<Long> annotationIDs = neuronAnnotationIDs.remove(neuronID);
+        if (annotationIDs != null) {
+            annotations.keySet().removeAll(annotationIDs);
+            changedIDs.addAll(annotationIDs);
+        }
+    }
+
+    /**
+     * adds or replaces one annotation; ignored if its neuron isn't indexed,
+     * since the whole neuron is read when it's needed
+     */
+    void setAnnotation(InterestingAnnotation ann) {
+        Set<Long> annotationIDs = neuronAnnotationIDs.get(ann.getNeuronID());
+        if (annotationIDs == null) {
+            return;
+        }
+        annotationIDs.add(ann.getAnnotationID());
+        annotations.put(ann.getAnnotationID(), ann);
+        changedIDs.add(ann.getAnnotationID());
+    }
+
+    void removeAnnotation(Long neuronID, Long annotationID) {
+        Set<Long> annotationIDs = neuronAnnotationIDs.get(neuronID);
+        if (annotationIDs != null && annotationIDs.remove(annotationID)) {
+            annotations.remove(annotationID);
+            changedIDs.add(annotationID);
+        }
+    }
+
+    /**
+     * forgets all neurons; the shown annotations are removed at the next evaluation
+     */
+    void clear() {
+        annotations.clear();
+        neuronAnnotationIDs.clear();
+        changedIDs.addAll(shown.keySet());
+    }
+
+    /**
+     * @param filter filter on annotations, or null to show none
+     * @param currentNeuronOnly whether only the annotations of the current neuron are shown
+     * @param currentNeuronID the current neuron, or null if there's none
+     */
+    void setFilter(AnnotationFilter filter, boolean currentNeuronOnly, Long currentNeuronID) {
+        if (filter != this.filter || currentNeuronOnly != this.currentNeuronOnly
+                || (currentNeuronOnly && !Objects.equals(currentNeuronID, this.currentNeuronID))) {
+            filterChanged = true;
+        }
+        this.filter = filter;
+        this.currentNeuronOnly = currentNeuronOnly;
+        this.currentNeuronID = currentNeuronID;
+    }
+
+    /**
+     * applies the filter to the annotations changed since the last evaluation
+     */
+    Changes evaluate() {
+        Collection<Long> candidateIDs;
+        if (filterChanged) {
+            candidateIDs = new HashSet<>(shown.keySet());
+            if (currentNeuronOnly) {
+                Set<Long> currentAnnotationIDs = neuronAnnotationIDs.get(currentNeuronID);
+                if (currentAnnotationIDs != null) {
+                    candidateIDs.addAll(currentAnnotationIDs);
+                }
+            } else {
+                candidateIDs.addAll(annotations.keySet());
+            }
+        } else {
+            candidateIDs = changedIDs;
+        }
+
+        Changes changes = new Changes();
+        for (Long annotationID: candidateIDs) {
+            InterestingAnnotation ann = annotations.get(annotationID);
+            InterestingAnnotation shownAnn = shown.get(annotationID);
+            if (ann != null && isShown(ann)) {
+                if (shownAnn == null) {
+                    changes.added.add(ann);
+                } else if (!shownAnn.equals(ann)) {
+                    changes.updated.add(ann);
+                }
+                shown.put(annotationID, ann);
+            } else if (shownAnn != null) {
+                changes.removedIDs.add(annotationID);
+                shown.remove(annotationID);
+            }
+        }
+        changedIDs.clear();
+        filterChanged = false;
+        return changes;
+    }
+
+    private boolean isShown(InterestingAnnotation ann) {
+        if (filter == null) {
+            return false;
+        }
+        if (currentNeuronOnly && !ann.getNeuronID().equals(currentNeuronID)) {
+            return false;
+        }
+        return filter.isInteresting(ann);
+    }
+
+    int getShownCount() {
+        return shown.size();
+    }
+}
@@ -0,0 +1,291 @@
+package org.janelia.workstation.gui.large_volume_viewer.annotation;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.LongString;
+import com.rabbitmq.client.impl.LongStringHelper;
+import org.janelia.messaging.broker.sharedworkspace.HeaderConstants;
+import org.janelia.messaging.broker.sharedworkspace.MessageType;
+import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
+import org.janelia.model.domain.tiledMicroscope.TmProtobufExchanger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turns neuron update messages from other users into batches of model updates.
+ *
+ * Messages are decoded off the receiving thread on a small bounded pool, and the
+ * decoded updates are coalesced per neuron: a later update replaces an earlier one,
+ * a deletion replaces anything else, and a change to a neuron which was created
+ * in the same batch is still delivered as a creation. Each batch is handed to the
+ * consumer once the window after its first update has elapsed, or, while updates
+ * are held, when they are released.
+ */
+public class NeuronUpdatePipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(NeuronUpdatePipeline.class);
+
+    private static final int DECODE_THREADS = 2;
+    private static final int MAX_PENDING_DECODES = 500;
+
+    // shared, since the mapper is thread safe once configured
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ThreadLocal<TmProtobufExchanger> EXCHANGER = ThreadLocal.withInitial(TmProtobufExchanger::new);
+
+    public enum UpdateType {
+        CREATED,
+        CHANGED,
+        DELETED
+    }
+
+    /**
+     * A decoded update of one neuron.
+     */
+    public static class NeuronUpdate {
+        private final UpdateType type;
+        private final TmNeuronMetadata neuron;
+        private final long sequence;
+
+        NeuronUpdate(UpdateType type, TmNeuronMetadata neuron, long sequence) {
+            this.type = type;
+            this.neuron = neuron;
+            this.sequence = sequence;
+        }
+
+        public UpdateType getType() {
+            return type;
+        }
+
+        public TmNeuronMetadata getNeuron() {
+            return neuron;
+        }
+
+        /**
+         * @return order in which the message was received.
+         */
+        long getSequence() {
+            return sequence;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + neuron.getId();
+        }
+    }
+
+    private final Consumer<List<NeuronUpdate>> batchConsumer;
+    private final long windowMillis;
+    private final ExecutorService decodeExecutor;
+    private final ScheduledExecutorService flushExecutor;
+    private final AtomicLong sequenceCounter = new AtomicLong();
+
+    // guarded by this
+    private final Map<Long, NeuronUpdate> pendingUpdates = new LinkedHashMap<>();
+    private final Map<Long, Long> deliveredSequences = new HashMap<>();
+    private boolean held;
+    private boolean flushScheduled;
+
+    /**
+     * @param batchConsumer receives each batch of updates, on the flushing thread.
+     * @param windowMillis how long updates are collected before they are delivered.
+     */
+    public NeuronUpdatePipeline(Consumer<List<NeuronUpdate>> batchConsumer, long windowMillis) {
+        // when decoding falls behind, the receiving thread decodes, which holds back the broker
+        this(batchConsumer, windowMillis, new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_PENDING_DECODES),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("neuron-update-decode-%d")
+                        .setDaemon(true)
+                        .build(),
+                new ThreadPoolExecutor.CallerRunsPolicy()));
+    }
+
+    NeuronUpdatePipeline(Consumer<List<NeuronUpdate>> batchConsumer, long windowMillis, ExecutorService decodeExecutor) {
+        this.batchConsumer = batchConsumer;
+        this.windowMillis = windowMillis;
+        this.decodeExecutor = decodeExecutor;
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("neuron-update-flush-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * @return the value of a message header, or null if it's missing.
+     */
+    public static String getHeader(Map<String, Object> headers, String name) {
+        Object value = headers.get(name);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof LongString) {
+            return LongStringHelper.asLongString(((LongString) value).getBytes()).toString();
+        }
+        return value.toString();
+    }
+
+    /**
+     * @return the neuron described by the metadata header of a message, without its annotations.
+     */
+    public static TmNeuronMetadata readNeuronMetadata(Map<String, Object> headers) throws Exception {
+        String metadata = getHeader(headers, HeaderConstants.METADATA);
+        if (metadata == null) {
+            throw new IllegalArgumentException("Message includes no neuron information");
+        }
+        return MAPPER.readValue(metadata, TmNeuronMetadata.class);
+    }
+
+    public static boolean isNeuronUpdate(MessageType action) {
+        return getUpdateType(action) != null;
+    }
+
+    private static UpdateType getUpdateType(MessageType action) {
+        switch (action) {
+            case NEURON_CREATE:
+                return UpdateType.CREATED;
+            case NEURON_SAVE_NEURONDATA:
+            case NEURON_SAVE_METADATA:
+                return UpdateType.CHANGED;
+            case NEURON_DELETE:
+                return UpdateType.DELETED;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Queues a neuron create, save or delete message for decoding. Messages of
+     * other types are ignored.
+     */
+    public void submit(Delivery message) {
+        Map<String, Object> headers = message.getProperties().getHeaders();
+        String type = headers == null ? null : getHeader(headers, HeaderConstants.TYPE);
+        if (type == null) {
+            log.warn("Ignoring neuron update with no message type");
+            return;
+        }
+        UpdateType updateType = getUpdateType(MessageType.valueOf(type));
+        if (updateType == null) {
+            return;
+        }
+        long sequence = sequenceCounter.incrementAndGet();
+        decodeExecutor.execute(() -> decode(message, updateType, sequence));
+    }
+
+    private void decode(Delivery message, UpdateType updateType, long sequence) {
+        try {
+            TmNeuronMetadata neuron = readNeuronMetadata(message.getProperties().getHeaders());
+            EXCHANGER.get().deserializeNeuron(new ByteArrayInputStream(message.getBody()), neuron);
+            if (neuron.getId() == null) {
+                log.warn("Ignoring {} update of neuron {} with no id", updateType, neuron.getName());
+                return;
+            }
+            add(new NeuronUpdate(updateType, neuron, sequence));
+        } catch (Exception e) {
+            log.error("Error decoding {} neuron update", updateType, e);
+        }
+    }
+
+    synchronized void add(NeuronUpdate update) {
+        Long neuronId = update.getNeuron().getId();
+        Long deliveredSequence = deliveredSequences.get(neuronId);
+        if (deliveredSequence != null && deliveredSequence > update.getSequence()) {
+            // decoded after a later update of the same neuron was delivered
+            log.debug("Dropping stale update {}", update);
+            return;
+        }
+        NeuronUpdate pendingUpdate = pendingUpdates.get(neuronId);
+        if (pendingUpdate == null) {
+            pendingUpdates.put(neuronId, update);
+        } else if (pendingUpdate.getSequence() < update.getSequence()) {
+            pendingUpdates.put(neuronId, merge(pendingUpdate, update));
+        } else {
+            pendingUpdates.put(neuronId, merge(update, pendingUpdate));
+        }
+        if (!held && !flushScheduled) {
+            flushScheduled = true;
+            flushExecutor.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static NeuronUpdate merge(NeuronUpdate earlier, NeuronUpdate later) {
+        if (earlier.getType() == UpdateType.DELETED) {
+            return new NeuronUpdate(UpdateType.DELETED, earlier.getNeuron(), later.getSequence());
+        }
+        if (earlier.getType() == UpdateType.CREATED && later.getType() == UpdateType.CHANGED) {
+            return new NeuronUpdate(UpdateType.CREATED, later.getNeuron(), later.getSequence());
+        }
+        return later;
+    }
+
+    /**
+     * While updates are held they are collected but not delivered, until they
+     * are released by {@link #flush()} or by no longer holding them.
+     */
+    public void setHeld(boolean held) {
+        synchronized (this) {
+            this.held = held;
+            if (held || pendingUpdates.isEmpty() || flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        flushExecutor.execute(this::flush);
+    }
+
+    public synchronized boolean isHeld() {
+        return held;
+    }
+
+    public synchronized int getPendingCount() {
+        return pendingUpdates.size();
+    }
+
+    /**
+     * Delivers the updates collected so far as one batch, on the calling thread.
+     */
+    public void flush() {
+        List<NeuronUpdate> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pendingUpdates.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pendingUpdates.values());
+            pendingUpdates.clear();
+            for (NeuronUpdate update : batch) {
+                deliveredSequences.put(update.getNeuron().getId(), update.getSequence());
+            }
+        }
+        log.info("Delivering batch of {} neuron updates", batch.size());
+        try {
+            batchConsumer.accept(batch);
+        } catch (Exception e) {
+            log.error("Error delivering batch of {} neuron updates", batch.size(), e);
+        }
+    }
+
+    /**
+     * Discards pending updates, e.g. when another workspace is loaded.
+     */
+    public synchronized void clear() {
+        pendingUpdates.clear();
+        deliveredSequences.clear();
+    }
+}
@@ -1,17 +1,13 @@
 package org.janelia.workstation.gui.large_volume_viewer.annotation;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rabbitmq.client.CancelCallback;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.DeliverCallback;
 import com.rabbitmq.client.Delivery;
-import com.rabbitmq.client.LongString;
-import com.rabbitmq.client.impl.LongStringHelper;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Consumer;
@@ -41,14 +37,15 @@ public class RefreshHandler implements DeliverCallback, CancelCallback {
     private static final String MESSAGESERVER_USERACCOUNT = ConsoleProperties.getInstance().getProperty("domain.msgserver.useraccount").trim();
     private static final String MESSAGESERVER_PASSWORD = ConsoleProperties.getInstance().getProperty("domain.msgserver.password").trim();
     private static final String MESSAGESERVER_REFRESHEXCHANGE = ConsoleProperties.getInstance().getProperty("domain.msgserver.exchange.refresh").trim();
+    // how long updates from other users are collected before they're applied together
+    private static final long UPDATE_WINDOW_MS = 100;
     
     private AnnotationModel annotationModel;
     private Channel msgChannel;
     private Receiver msgReceiver;
     static RefreshHandler handler;
-    private boolean receiveUpdates = true;
-    private boolean freezeUpdates = false;
-    private Map<Long, Map<String,Object>> updatesMap = new HashMap<>();
+    private volatile boolean receiveUpdates = true;
+    private final NeuronUpdatePipeline updatePipeline = new NeuronUpdatePipeline(this::applyNeuronUpdates, UPDATE_WINDOW_MS);
     
     /**
      * @return the receiveUpdates
@@ -62,6 +59,7 @@ public class RefreshHandler implements DeliverCallback, CancelCallback {
      */
     public void setReceiveUpdates(boolean receiveUpdates) {
         this.receiveUpdates = receiveUpdates;
+        updatePipeline.setHeld(!receiveUpdates);
     }
     
     private RefreshHandler() {
@@ -100,75 +98,38 @@ public class RefreshHandler implements DeliverCallback, CancelCallback {
         }
     }
     
-    private String convertLongString (LongString data) {
-        return LongStringHelper.asLongString(data.getBytes()).toString();
-    }
-    
+    /**
+     * Applies the shared updates held while updates weren't being received.
+     */
     public void refreshNeuronUpdates() {
-        // freeze neuron updates 
-        freezeUpdates = true;
-        // play back all the latest neurons and empty the map
-        Iterator<Long> neuronIterator = updatesMap.keySet().iterator();
-        log.info ("Number of updates to refresh: {}",updatesMap.size());
-        while (neuronIterator.hasNext()) {
-             try {
-                 Long neuronId = neuronIterator.next();
-                 Map<String, Object> neuronData = updatesMap.get(neuronId);
-                 TmNeuronMetadata neuron = (TmNeuronMetadata)neuronData.get("neuron");
-                 MessageType action = (MessageType) neuronData.get("action");
-                 String user = (String) neuronData.get("user");
-                 // if not a neuron CRUD action, ignore
-                 switch (action) {
-                     case NEURON_CREATE:
-                         log.info("processing remote create: {}",neuron.getName());
-                         annotationModel.getNeuronManager().addNeuron(neuron);
-                         annotationModel.fireBackgroundNeuronCreated(neuron);
-                         break;
-                     case NEURON_SAVE_NEURONDATA:
-                     case NEURON_SAVE_METADATA:
-                          log.info("processing remote save: {},",neuron.getName());
-                          annotationModel.getNeuronManager().addNeuron(neuron);
-                          annotationModel.fireBackgroundNeuronChanged(neuron);
-                         break;
-                     case NEURON_DELETE:
-                         log.info("processing remote delete: {},",neuron.getName());
-                         annotationModel.fireBackgroundNeuronDeleted(neuron);
-                         break;
-                 }                 
-                 
-             } catch (Exception e) {
-                 // skip this update
-                 log.error("Error refreshing the annotation model", e);
-             }
-        }
-        updatesMap.clear();
-        
-        freezeUpdates = true;
+        log.info("Number of updates to refresh: {}", updatePipeline.getPendingCount());
+        updatePipeline.flush();
     }
-    
-    private void addNeuronUpdate (Delivery message,  Map<String, Object> msgHeaders, MessageType action, String user) {
-         try {             
-             ObjectMapper mapper = new ObjectMapper();
-             String metadata = convertLongString((LongString) msgHeaders.get(HeaderConstants.METADATA));
-             TmNeuronMetadata neuron = mapper.readValue(metadata, TmNeuronMetadata.class);
 
-             TmProtobufExchanger exchanger = new TmProtobufExchanger();
-             byte[] msgBody = message.getBody();
-             exchanger.deserializeNeuron(new ByteArrayInputStream(msgBody), neuron);
-             
-             // assume this has to do with neuron CRUD; otherwise ignore
-             Map neuronData = new HashMap<>();
-             neuronData.put("neuron", neuron);
-             neuronData.put("action", action);
-             neuronData.put("user", user);
-             log.info ("Adding neuron remote update: {}",neuron.getName());
-             if (neuron!=null && neuron.getId()!=null) {
-                 this.updatesMap.put(neuron.getId(), neuronData);
-             }
-         } catch (Exception e) {
-             // any type of exception, log the exception and dump the neuron
-             log.info("Problem storing update {}",e.getMessage());
-         }
+    /**
+     * Applies a batch of coalesced updates from other users to the model, in one pass on the GUI thread.
+     */
+    private void applyNeuronUpdates(List<NeuronUpdatePipeline.NeuronUpdate> updates) {
+        SwingUtilities.invokeLater(() -> {
+            StopWatch stopWatch = new StopWatch();
+            for (NeuronUpdatePipeline.NeuronUpdate update : updates) {
+                if (update.getType() != NeuronUpdatePipeline.UpdateType.DELETED) {
+                    try {
+                        annotationModel.getNeuronManager().addNeuron(update.getNeuron());
+                    } catch (Exception e) {
+                        log.error("Error applying remote update {}", update, e);
+                    }
+                }
+            }
+            try {
+                annotationModel.fireBackgroundNeuronsUpdated(updates);
+            } catch (Exception e) {
+                log.error("Exception thrown in main GUI thread during message processing", e);
+                logError(e.getMessage());
+            }
+            stopWatch.stop();
+            log.info("RefreshHandler.invokeLater: handled {} remote updates in {} ms", updates.size(), stopWatch.getElapsedTime());
+        });
     }
 
     /**
@@ -191,16 +152,16 @@ public class RefreshHandler implements DeliverCallback, CancelCallback {
             log.debug("message properties: TYPE={},USER={},WORKSPACE={},METADATA={}", msgHeaders.get(HeaderConstants.TYPE), msgHeaders.get(HeaderConstants.USER),
                     msgHeaders.get(HeaderConstants.WORKSPACE), msgHeaders.get(HeaderConstants.METADATA));
 
-            MessageType action = MessageType.valueOf(convertLongString((LongString) msgHeaders.get(HeaderConstants.TYPE)));
-            String user = convertLongString((LongString) msgHeaders.get(HeaderConstants.USER));
+            MessageType action = MessageType.valueOf(NeuronUpdatePipeline.getHeader(msgHeaders, HeaderConstants.TYPE));
+            String user = NeuronUpdatePipeline.getHeader(msgHeaders, HeaderConstants.USER);
             
-            Long workspace = Long.parseLong(convertLongString((LongString) msgHeaders.get(HeaderConstants.WORKSPACE)));
+            Long workspace = Long.parseLong(NeuronUpdatePipeline.getHeader(msgHeaders, HeaderConstants.WORKSPACE));
             
-            // flag to suppress shared updates
-            if (!receiveUpdates && !freezeUpdates && !user.equals(AccessManager.getSubjectKey())) {
+            // flag to suppress shared updates; they're held by the pipeline until refreshed
+            if (!receiveUpdates && !user.equals(AccessManager.getSubjectKey())) {
                 if (workspace != null && annotationModel!=null && annotationModel.getCurrentWorkspace() != null
                     && workspace.longValue()==annotationModel.getCurrentWorkspace().getId().longValue()) {
-                    addNeuronUpdate (message, msgHeaders, action, user);
+                    updatePipeline.submit(message);
                     log.debug("SHARED UPDATE TIME: {}", stopWatch.getElapsedTime());
                 }
                 return;
@@ -220,9 +181,7 @@ public class RefreshHandler implements DeliverCallback, CancelCallback {
                 return;
             }
                 
-            String metadata = convertLongString((LongString) msgHeaders.get(HeaderConstants.METADATA));
-            ObjectMapper mapper = new ObjectMapper();
-            TmNeuronMetadata neuron = mapper.readValue(metadata, TmNeuronMetadata.class);
+            TmNeuronMetadata neuron = NeuronUpdatePipeline.readNeuronMetadata(msgHeaders);
 
             TmNeuronMetadata localNeuron = annotationModel.getNeuronManager().getNeuronById(neuron.getId());// decrease the sync level
             if (localNeuron != null) {
@@ -242,7 +201,7 @@ public class RefreshHandler implements DeliverCallback, CancelCallback {
             }
 
             if (action == MessageType.NEURON_OWNERSHIP_DECISION) {
-                boolean decision = Boolean.parseBoolean(convertLongString((LongString) msgHeaders.get(HeaderConstants.DECISION)));
+                boolean decision = Boolean.parseBoolean(NeuronUpdatePipeline.getHeader(msgHeaders, HeaderConstants.DECISION));
                 if (decision) {
                     TmNeuronMetadata origNeuron = annotationModel.getNeuronManager().getNeuronById(neuron.getId());
                     origNeuron.setOwnerKey(neuron.getOwnerKey());
@@ -265,39 +224,10 @@ public class RefreshHandler implements DeliverCallback, CancelCallback {
                 log.debug("TOTAL MESSAGING PROCESSING TIME: {}", stopWatch.getElapsedTime());
             } else if (action == MessageType.REQUEST_NEURON_OWNERSHIP) {
                 // some other user is asking for ownership of this neuron... process accordingly
-            } else {
-                SwingUtilities.invokeLater(new Runnable() {
-                    public void run() {
-                        try {
-                            StopWatch stopWatch2 = new StopWatch();
-                            // fire notice to AnnotationModel
-                            // change relevant to this workspace and not executed on this client,
-                            // update model or process request
-                            switch (action) {
-                                case NEURON_CREATE:
-                                    handleNeuronCreate(message, neuron, n -> annotationModel.getNeuronManager().addNeuron(n));
-                                    break;
-                                case NEURON_SAVE_NEURONDATA:
-                                case NEURON_SAVE_METADATA:
-                                    if (!user.equals(AccessManager.getSubjectKey())) {
-                                        handleNeuronChanged(message, neuron);
-                                    }
-                                    break;
-                                case NEURON_DELETE:
-                                    if (!user.equals(AccessManager.getSubjectKey())) {
-                                        handleNeuronDeleted(message, neuron);
-                                    }
-                                    break;
-                            }
-                            stopWatch2.stop();
-                            log.debug("RefreshHandler.invokeLater: handled update in {} ms", stopWatch2.getElapsedTime());
-                        } catch (Exception e) {
-                            log.error("Exception thrown in main GUI thread during message processing", e);
-                            logError(e.getMessage());
-                        }
-                       log.debug("TOTAL MESSAGING PROCESSING TIME: {}", stopWatch.getElapsedTime());
-                    }
-                });
+            } else if (NeuronUpdatePipeline.isNeuronUpdate(action) && !user.equals(AccessManager.getSubjectKey())) {
+                // change relevant to this workspace and not executed on this client;
+                // decoded off the GUI thread, and applied with the other updates in its window
+                updatePipeline.submit(message);
             }
             stopWatch.stop();
             log.info("RefreshHandler: handled message in {} ms", stopWatch.getElapsedTime());
@@ -320,33 +250,6 @@ public class RefreshHandler implements DeliverCallback, CancelCallback {
        }  
     }
 
-    private void handleNeuronChanged(Delivery message, TmNeuronMetadata neuron) {
-        try {
-            log.info("remote processing change neuron " + neuron.getName());
-            TmProtobufExchanger exchanger = new TmProtobufExchanger();
-            byte[] msgBody = message.getBody();
-            exchanger.deserializeNeuron(new ByteArrayInputStream(msgBody), neuron);
-            annotationModel.getNeuronManager().addNeuron(neuron);
-            annotationModel.fireBackgroundNeuronChanged(neuron);
-        } catch (Exception e) {
-           logError("Error handling neuron change: " + e.getMessage());
-           log.error("Error handling neuron changed message for {}", neuron, e);
-        }
-    }
-
-    private void handleNeuronDeleted(Delivery message, TmNeuronMetadata neuron) {
-        try {
-            log.info("remote processing delete neuron" + neuron.getName());
-            TmProtobufExchanger exchanger = new TmProtobufExchanger();
-            byte[] msgBody = message.getBody();
-            exchanger.deserializeNeuron(new ByteArrayInputStream(msgBody), neuron);
-            annotationModel.fireBackgroundNeuronDeleted(neuron);
-        } catch (Exception e) {
-           logError("Error handling neuron change: " + e.getMessage());
-           log.error("Error handling neuron changed message for {}", neuron, e);
-        }
-    }
-
     public void logError(String errorMsg) {
         String error = "Problems receiving message updates, " + errorMsg;
         SwingUtilities.invokeLater(new Runnable() {
@@ -373,6 +276,8 @@ public class RefreshHandler implements DeliverCallback, CancelCallback {
 
     public void setAnnotationModel(AnnotationModel annotationModel) {
         this.annotationModel = annotationModel;
+        // updates collected for the previous workspace no longer apply
+        updatePipeline.clear();
     }
  
     
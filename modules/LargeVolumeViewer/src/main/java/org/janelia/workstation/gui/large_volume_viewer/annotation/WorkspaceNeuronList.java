@@ -713,6 +713,28 @@ public class WorkspaceNeuronList extends JPanel implements NeuronListProvider {
         updateFilteredNeuronList();
     }
 
+    /**
+     * apply a batch of background updates, refreshing the
+     * table and filters once rather than once per neuron
+     */
+    public void updateModel(Collection<TmNeuronMetadata> created,
+                            Collection<TmNeuronMetadata> changed,
+                            Collection<TmNeuronMetadata> deleted) {
+        saveSelection();
+        if (!created.isEmpty()) {
+            neuronTableModel.addNeurons(created);
+        }
+        for (TmNeuronMetadata neuron: deleted) {
+            neuronTableModel.deleteNeuron(neuron);
+        }
+        if (!changed.isEmpty()) {
+            neuronTableModel.updateNeurons(new ArrayList<>(changed));
+        }
+        restoreSelection();
+        updateFilteredNeuronList();
+        updateNeuronLabel();
+    }
+
     private void onNeuronDoubleClicked(TmNeuronMetadata neuron) {
         // should pan to center of neuron; let's call that the center
         //  of the bounding cube for its annotations
@@ -0,0 +1,169 @@
+package org.janelia.workstation.gui.large_volume_viewer.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the parts of a multipart/mixed body one at a time, as they arrive,
+ * rather than buffering the whole body before the first part can be used.
+ * Only the part bodies are returned; part headers are skipped.
+ */
+public class MultipartStreamReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEADERS_END = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final InputStream input;
+    private final byte[] firstDelimiter;
+    private final byte[] delimiter;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean started;
+    private boolean finished;
+
+    /**
+     * @param input body of the response, which is closed once the last part is read.
+     * @param boundary boundary parameter of the multipart content type.
+     */
+    public MultipartStreamReader(InputStream input, String boundary) {
+        if (boundary == null || boundary.isEmpty()) {
+            throw new IllegalArgumentException("Multipart boundary is missing");
+        }
+        this.input = input;
+        this.firstDelimiter = ("--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the body of the next part, or null after the last part.
+     * @throws IOException if the body can't be read, or ends before the closing boundary.
+     */
+    public byte[] nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (!started) {
+            // Skip the preamble
+            if (!readUntil(firstDelimiter, null)) {
+                throw new IOException("Multipart body has no boundary");
+            }
+            started = true;
+        }
+        if (!fill(2)) {
+            throw new IOException("Multipart body ended after a boundary");
+        }
+        if (buffer[position] == '-' && buffer[position + 1] == '-') {
+            finished = true;
+            input.close();
+            return null;
+        }
+        // Skip the rest of the boundary line, and the part headers
+        if (!readUntil(CRLF, null)) {
+            throw new IOException("Multipart body ended in a boundary line");
+        }
+        if (!fill(2)) {
+            throw new IOException("Multipart body ended in part headers");
+        }
+        if (buffer[position] == '\r' && buffer[position + 1] == '\n') {
+            position += 2;
+        }
+        else if (!readUntil(HEADERS_END, null)) {
+            throw new IOException("Multipart body ended in part headers");
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if (!readUntil(delimiter, body)) {
+            throw new IOException("Multipart body ended in a part");
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Closes the underlying stream, e.g. if the remaining parts aren't needed.
+     */
+    public void close() throws IOException {
+        finished = true;
+        input.close();
+    }
+
+    /**
+     * Copies the input up to the next occurrence of the pattern, and
+     * consumes the pattern.
+     *
+     * @param out receives the bytes before the pattern, or null to skip them.
+     * @return false if the input ended before the pattern.
+     */
+    private boolean readUntil(byte[] pattern, OutputStream out) throws IOException {
+        while (true) {
+            int found = indexOf(pattern);
+            if (found >= 0) {
+                write(out, position, found - position);
+                position = found + pattern.length;
+                return true;
+            }
+            // Keep enough bytes to match a pattern which straddles the next read
+            int safe = limit - pattern.length + 1;
+            if (safe > position) {
+                write(out, position, safe - position);
+                position = safe;
+            }
+            if (!fill(limit - position + 1)) {
+                write(out, position, limit - position);
+                position = limit;
+                return false;
+            }
+        }
+    }
+
+    private int indexOf(byte[] pattern) {
+        final byte first = pattern[0];
+        final int last = limit - pattern.length;
+        outer:
+        for (int i = position; i <= last; i++) {
+            if (buffer[i] != first) {
+                continue;
+            }
+            for (int j = 1; j < pattern.length; j++) {
+                if (buffer[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads until at least the given number of bytes are buffered.
+     *
+     * @return false if the input ended first.
+     */
+    private boolean fill(int count) throws IOException {
+        if (limit - position >= count) {
+            return true;
+        }
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        while (limit < count) {
+            int n = input.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                return false;
+            }
+            limit += n;
+        }
+        return true;
+    }
+
+    private void write(OutputStream out, int offset, int length) throws IOException {
+        if (out != null && length > 0) {
+            out.write(buffer, offset, length);
+        }
+    }
+}
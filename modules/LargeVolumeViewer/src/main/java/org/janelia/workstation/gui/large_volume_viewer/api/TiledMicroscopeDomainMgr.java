@@ -7,7 +7,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import org.apache.commons.lang3.tuple.Pair;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.janelia.it.jacs.model.user_data.tiledMicroscope.CoordinateToRawTransform;
 import org.janelia.workstation.core.api.AccessManager;
 import org.janelia.workstation.core.api.DomainMgr;
@@ -34,6 +40,13 @@ public class TiledMicroscopeDomainMgr {
 
     private static final Logger LOG = LoggerFactory.getLogger(TiledMicroscopeDomainMgr.class);
 
+    // Decodes and checks neurons while workspaces are loaded
+    private static final ExecutorService NEURON_LOAD_EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setNameFormat("neuron-load-%d").setDaemon(true).build());
+    private static final int MAX_PENDING_NEURON_LOADS = 64 * Runtime.getRuntime().availableProcessors();
+    private static final ThreadLocal<TmProtobufExchanger> PROTOBUF_EXCHANGER = ThreadLocal.withInitial(TmProtobufExchanger::new);
+
     // Singleton
     private static TiledMicroscopeDomainMgr instance;
     
@@ -216,19 +229,105 @@ public class TiledMicroscopeDomainMgr {
     }
     
     public List<TmNeuronMetadata> getWorkspaceNeurons(Long workspaceId) throws Exception {
+        return getWorkspaceNeurons(workspaceId, null);
+    }
+
+    /**
+     * Loads the neurons of a workspace. Neurons are decoded, and checked,
+     * on a pool of threads while the rest of the response is read. Neurons
+     * which passed the check before, and have not changed since, according
+     * to the workspace's local snapshot, are not checked again.
+     *
+     * @param check optional check to apply to each neuron, or null
+     * @return neurons in the order the server sent them
+     */
+    public List<TmNeuronMetadata> getWorkspaceNeurons(Long workspaceId, NeuronCheck check) throws Exception {
         LOG.debug("getWorkspaceNeurons(workspaceId={})",workspaceId);
-        TmProtobufExchanger exchanger = new TmProtobufExchanger();
-        List<TmNeuronMetadata> neurons = new ArrayList<>();
-        for(Pair<TmNeuronMetadata, InputStream> pair : client.getWorkspaceNeuronPairs(workspaceId)) {
-            TmNeuronMetadata neuronMetadata = pair.getLeft();
-            exchanger.deserializeNeuron(pair.getRight(), neuronMetadata);
-            LOG.trace("Got neuron {} with payload '{}'", neuronMetadata.getId(), neuronMetadata);
-            neurons.add(neuronMetadata);
+        WorkspaceNeuronSnapshot snapshot = check == null ? null : WorkspaceNeuronSnapshot.load(workspaceId);
+        List<Future<TmNeuronMetadata>> loads = new ArrayList<>();
+        // Bounds the decoded neurons waiting on the pool, so that memory use follows the pool, not the network
+        Semaphore pendingLoads = new Semaphore(MAX_PENDING_NEURON_LOADS);
+        AtomicInteger checkedCount = new AtomicInteger();
+        try {
+            client.readWorkspaceNeuronParts(workspaceId, (jsonBytes, protobufBytes) -> {
+                pendingLoads.acquire();
+                try {
+                    loads.add(NEURON_LOAD_EXECUTOR.submit(() -> {
+                        try {
+                            TmNeuronMetadata neuronMetadata = client.readNeuronMetadata(jsonBytes);
+                            PROTOBUF_EXCHANGER.get().deserializeNeuron(new ByteArrayInputStream(protobufBytes), neuronMetadata);
+                            LOG.trace("Got neuron {} with payload '{}'", neuronMetadata.getId(), neuronMetadata);
+                            if (check == null) {
+                                return neuronMetadata;
+                            }
+                            long contentHash = WorkspaceNeuronSnapshot.getContentHash(jsonBytes, protobufBytes);
+                            if (snapshot.isVerified(neuronMetadata.getId(), contentHash)) {
+                                return neuronMetadata;
+                            }
+                            checkedCount.incrementAndGet();
+                            TmNeuronMetadata checkedNeuron = check.check(neuronMetadata);
+                            if (checkedNeuron == neuronMetadata) {
+                                // Repaired neurons are saved, so they will come back with other content
+                                snapshot.setVerified(neuronMetadata.getId(), contentHash);
+                            }
+                            return checkedNeuron;
+                        }
+                        finally {
+                            pendingLoads.release();
+                        }
+                    }));
+                }
+                catch (RuntimeException e) {
+                    pendingLoads.release();
+                    throw e;
+                }
+            });
+        }
+        catch (Exception e) {
+            for (Future<TmNeuronMetadata> load : loads) {
+                load.cancel(true);
+            }
+            throw e;
+        }
+
+        List<TmNeuronMetadata> neurons = new ArrayList<>(loads.size());
+        try {
+            for (Future<TmNeuronMetadata> load : loads) {
+                neurons.add(load.get());
+            }
+        }
+        catch (ExecutionException e) {
+            for (Future<TmNeuronMetadata> load : loads) {
+                load.cancel(true);
+            }
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        if (snapshot != null) {
+            List<Long> neuronIds = new ArrayList<>(neurons.size());
+            for (TmNeuronMetadata neuron : neurons) {
+                neuronIds.add(neuron.getId());
+            }
+            snapshot.retainNeurons(neuronIds);
+            snapshot.save();
+            LOG.info("Checked {} of {} neurons for workspace {}", checkedCount.get(), neurons.size(), workspaceId);
         }
         LOG.trace("Loaded {} neurons for workspace {}", neurons.size(), workspaceId);
         return neurons;
     }
 
+    /**
+     * Check applied to each neuron as it is loaded, e.g. to repair inconsistent data.
+     */
+    public interface NeuronCheck {
+        /**
+         * @return the neuron itself if it passed, or its repaired replacement
+         */
+        TmNeuronMetadata check(TmNeuronMetadata neuron) throws Exception;
+    }
+
     public TmNeuronMetadata saveMetadata(TmNeuronMetadata neuronMetadata) throws Exception {
         LOG.debug("save({})", neuronMetadata);
         TmNeuronMetadata savedMetadata;
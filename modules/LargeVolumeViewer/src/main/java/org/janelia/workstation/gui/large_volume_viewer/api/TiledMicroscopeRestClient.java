@@ -69,6 +69,7 @@ public class TiledMicroscopeRestClient {
     private static final String REMOTE_STORAGE_URL = ConsoleProperties.getInstance().getProperty("jadestorage.rest.url");
 
     private final Client client;
+    private final ObjectMapper objectMapper;
 
     public TiledMicroscopeRestClient() {
         LOG.info("Using server URL: {}",REMOTE_API_URL);
@@ -83,6 +84,7 @@ public class TiledMicroscopeRestClient {
         
         JacksonJsonProvider provider = new JacksonJaxbJsonProvider();
         ObjectMapper mapper = provider.locateMapper(Object.class, MediaType.APPLICATION_JSON_TYPE);
+        this.objectMapper = mapper;
         mapper.addHandler(new DeserializationProblemHandler() {
             @Override
             public boolean handleUnknownProperty(DeserializationContext ctxt, JsonParser jp, JsonDeserializer<?> deserializer, Object beanOrClass, String propertyName) throws IOException, JsonProcessingException {
@@ -301,6 +303,53 @@ public class TiledMicroscopeRestClient {
         return neurons;
     }
 
+    /**
+     * Streams the neurons of the workspace, handing each one's JSON and
+     * protobuf parts to the consumer as soon as they have been read, so
+     * that they can be decoded while the rest of the response arrives.
+     * The parts are not decoded here; see {@link #readNeuronMetadata(byte[])}.
+     */
+    public void readWorkspaceNeuronParts(Long workspaceId, NeuronPartsConsumer consumer) throws Exception {
+        Response response = getMouselightDataEndpoint("/workspace/neuron")
+                .queryParam("workspaceId", workspaceId)
+                .request("multipart/mixed")
+                .get();
+        if (checkBadResponse(response, "readWorkspaceNeuronParts: "+workspaceId)) {
+            throw new WebApplicationException(response);
+        }
+        String boundary = response.getMediaType().getParameters().get("boundary");
+        MultipartStreamReader reader = new MultipartStreamReader(response.readEntity(InputStream.class), boundary);
+        try {
+            byte[] jsonBytes;
+            while ((jsonBytes = reader.nextPart()) != null) {
+                // Every other part is the protobuf byte representation
+                byte[] protobufBytes = reader.nextPart();
+                if (protobufBytes == null) {
+                    throw new IOException("Missing point data for the last neuron of workspace "+workspaceId);
+                }
+                consumer.accept(jsonBytes, protobufBytes);
+            }
+        }
+        finally {
+            reader.close();
+            response.close();
+        }
+    }
+
+    /**
+     * Decodes a JSON part, as read by {@link #readWorkspaceNeuronParts(Long, NeuronPartsConsumer)}.
+     */
+    public TmNeuronMetadata readNeuronMetadata(byte[] jsonBytes) throws IOException {
+        return objectMapper.readValue(jsonBytes, TmNeuronMetadata.class);
+    }
+
+    /**
+     * Receives the undecoded parts of each neuron of a workspace.
+     */
+    public interface NeuronPartsConsumer {
+        void accept(byte[] jsonBytes, byte[] protobufBytes) throws Exception;
+    }
+
     public TmNeuronMetadata createMetadata(TmNeuronMetadata neuronMetadata) throws Exception {
         FormDataMultiPart multiPart = new FormDataMultiPart()
                 .field("neuronMetadata", neuronMetadata, MediaType.APPLICATION_JSON_TYPE);
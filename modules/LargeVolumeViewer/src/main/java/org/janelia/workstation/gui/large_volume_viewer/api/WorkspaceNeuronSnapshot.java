@@ -0,0 +1,146 @@
+package org.janelia.workstation.gui.large_volume_viewer.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.hash.Hashing;
+import org.janelia.workstation.core.util.ConsoleProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local record of the neurons in a workspace which have already been
+ * checked for consistency, keyed by a hash of the neuron's content as
+ * served, so that reopening the workspace only checks the neurons which
+ * changed since it was last opened.
+ *
+ * Snapshots are kept in the console home directory, one file per workspace,
+ * and are ignored if they were written in another format version.
+ */
+public class WorkspaceNeuronSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkspaceNeuronSnapshot.class);
+
+    private static final String SNAPSHOT_DIRECTORY_NAME = "neuronSnapshots";
+    private static final int FORMAT_VERSION = 1;
+
+    private final Path snapshotFile;
+    private final Long workspaceId;
+    private final Map<Long, Long> verifiedContentHashes = new ConcurrentHashMap<>();
+
+    WorkspaceNeuronSnapshot(Path snapshotFile, Long workspaceId) {
+        this.snapshotFile = snapshotFile;
+        this.workspaceId = workspaceId;
+    }
+
+    /**
+     * @return the saved snapshot of the workspace, which is empty if there is none.
+     */
+    public static WorkspaceNeuronSnapshot load(Long workspaceId) {
+        String consolePrefsDir = System.getProperty("user.home") + ConsoleProperties.getString("Console.Home.Path");
+        Path snapshotFile = Paths.get(consolePrefsDir, SNAPSHOT_DIRECTORY_NAME, "workspace-" + workspaceId + ".snapshot");
+        WorkspaceNeuronSnapshot snapshot = new WorkspaceNeuronSnapshot(snapshotFile, workspaceId);
+        snapshot.read();
+        return snapshot;
+    }
+
+    /**
+     * @return hash identifying the version of a neuron, as served.
+     */
+    public static long getContentHash(byte[] jsonBytes, byte[] protobufBytes) {
+        return Hashing.murmur3_128().newHasher()
+                .putBytes(jsonBytes)
+                .putBytes(protobufBytes)
+                .hash()
+                .asLong();
+    }
+
+    public boolean isVerified(Long neuronId, long contentHash) {
+        Long verifiedHash = verifiedContentHashes.get(neuronId);
+        return verifiedHash != null && verifiedHash == contentHash;
+    }
+
+    public void setVerified(Long neuronId, long contentHash) {
+        verifiedContentHashes.put(neuronId, contentHash);
+    }
+
+    /**
+     * Forgets the neurons which are no longer in the workspace.
+     */
+    public void retainNeurons(Collection<Long> neuronIds) {
+        verifiedContentHashes.keySet().retainAll(neuronIds);
+    }
+
+    public int size() {
+        return verifiedContentHashes.size();
+    }
+
+    void read() {
+        verifiedContentHashes.clear();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            int formatVersion = in.readInt();
+            long snapshotWorkspaceId = in.readLong();
+            if (formatVersion != FORMAT_VERSION || snapshotWorkspaceId != workspaceId) {
+                LOG.info("Ignoring snapshot {} of format version {} for workspace {}", snapshotFile, formatVersion, snapshotWorkspaceId);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long neuronId = in.readLong();
+                verifiedContentHashes.put(neuronId, in.readLong());
+            }
+            LOG.info("Read snapshot of {} neurons for workspace {}", count, workspaceId);
+        }
+        catch (NoSuchFileException e) {
+            LOG.debug("No snapshot for workspace {}", workspaceId);
+        }
+        catch (IOException e) {
+            LOG.warn("Ignoring unreadable snapshot {}", snapshotFile, e);
+            verifiedContentHashes.clear();
+        }
+    }
+
+    /**
+     * Saves the snapshot, replacing the previous one. Failures are logged,
+     * since they only mean that the next load checks every neuron.
+     */
+    public void save() {
+        Path tempFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(snapshotFile.getParent());
+            Map<Long, Long> contentHashes = new HashMap<>(verifiedContentHashes);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(workspaceId);
+                out.writeInt(contentHashes.size());
+                for (Map.Entry<Long, Long> entry : contentHashes.entrySet()) {
+                    out.writeLong(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+            }
+            Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("Saved snapshot of {} neurons for workspace {}", contentHashes.size(), workspaceId);
+        }
+        catch (IOException e) {
+            LOG.warn("Failed to save snapshot {}", snapshotFile, e);
+            try {
+                Files.deleteIfExists(tempFile);
+            }
+            catch (IOException e2) {
+                LOG.warn("Failed to remove {}", tempFile, e2);
+            }
+        }
+    }
+}
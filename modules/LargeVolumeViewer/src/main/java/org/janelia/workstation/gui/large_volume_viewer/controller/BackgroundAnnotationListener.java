@@ -1,5 +1,7 @@
 package org.janelia.workstation.gui.large_volume_viewer.controller;
 
+import java.util.Collection;
+
 import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
 
 /**
@@ -12,5 +14,23 @@ public interface BackgroundAnnotationListener {
     void neuronModelCreated(TmNeuronMetadata neuron);
     void neuronModelDeleted(TmNeuronMetadata neuron);
     public void neuronOwnerChanged(TmNeuronMetadata neuron);
+
+    /**
+     * Handles a batch of coalesced updates, with at most one update per neuron.
+     * Listeners which can update their views once per batch should override this.
+     */
+    default void neuronModelsUpdated(Collection<TmNeuronMetadata> created,
+                                     Collection<TmNeuronMetadata> changed,
+                                     Collection<TmNeuronMetadata> deleted) {
+        for (TmNeuronMetadata neuron : created) {
+            neuronModelCreated(neuron);
+        }
+        for (TmNeuronMetadata neuron : changed) {
+            neuronModelChanged(neuron);
+        }
+        for (TmNeuronMetadata neuron : deleted) {
+            neuronModelDeleted(neuron);
+        }
+    }
 }
 
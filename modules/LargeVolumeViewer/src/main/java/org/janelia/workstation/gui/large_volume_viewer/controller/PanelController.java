@@ -1,5 +1,6 @@
 package org.janelia.workstation.gui.large_volume_viewer.controller;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -123,7 +124,7 @@ public class PanelController {
         @Override
         public void neuronDeleted(TmNeuronMetadata neuron) {
             TmWorkspace workspace = annotationPanel.getAnnotationModel().getCurrentWorkspace();
-            filteredAnnotationList.loadNeuron(neuron);
+            filteredAnnotationList.neuronDeleted(neuron);
             // TODO: could use a more granular update
             wsNeuronList.deleteFromModel(neuron);
         }
@@ -157,7 +158,7 @@ public class PanelController {
 
         @Override
         public void neuronSelected(TmNeuronMetadata neuron) {
-            filteredAnnotationList.loadNeuron(neuron);
+            filteredAnnotationList.neuronSelected(neuron);
             wsNeuronList.selectNeuron(neuron);
         }
 
@@ -197,7 +198,7 @@ public class PanelController {
 
         @Override
         public void annotationReparented(TmGeoAnnotation annotation, Long prevNeuronId) {
-            filteredAnnotationList.annotationChanged(annotation);
+            filteredAnnotationList.annotationReparented(annotation, prevNeuronId);
         }
 
         @Override
@@ -294,5 +295,12 @@ public class PanelController {
         public void neuronOwnerChanged(TmNeuronMetadata neuron) {
             wsNeuronList.updateModel(neuron);
         }
+
+        @Override
+        public void neuronModelsUpdated(Collection<TmNeuronMetadata> created,
+                                        Collection<TmNeuronMetadata> changed,
+                                        Collection<TmNeuronMetadata> deleted) {
+            wsNeuronList.updateModel(created, changed, deleted);
+        }
     }
 }
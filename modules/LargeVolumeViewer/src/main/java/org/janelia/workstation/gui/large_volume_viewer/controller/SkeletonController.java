@@ -454,12 +454,13 @@ public class SkeletonController implements AnchoredVoxelPathListener, TmGeoAnnot
         @Override
         public void anchorMoved(Anchor anchor) {
             annoMgr.moveAnchor(anchor);
-            skeleton.incrementAnchorVersion();
+            skeleton.markNeuronChanged(anchor.getNeuronID());
             skeletonChanged();
         }
         
         @Override
         public void anchorMovedSilent(Anchor anchor) {
+            skeleton.markNeuronChanged(anchor.getNeuronID());
             skeletonChanged(true); // update display, but don't update all listeners
         }
         
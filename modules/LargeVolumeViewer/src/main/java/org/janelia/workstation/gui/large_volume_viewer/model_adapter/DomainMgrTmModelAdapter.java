@@ -57,37 +57,28 @@ public class DomainMgrTmModelAdapter implements TmModelAdapter {
 
         try {            
             StopWatch stopWatch = new StopWatch();
-            List<TmNeuronMetadata> neuronList = tmDomainMgr.getWorkspaceNeurons(workspace.getId());
-            log.info("Loading {} neurons took {} ms", neuronList.size(), stopWatch.getElapsedTime());
-            
-            if (ClientDomainUtils.hasWriteAccess(workspace)) {
-                if (ApplicationPanel.isVerifyNeurons()) {
-                    log.info("Checking neuron data consistency");
-                        
-                    // check neuron consistency and repair (some) problems
-                    for (TmNeuronMetadata neuron: neuronList) {
-                        log.debug("Checking neuron data for TmNeuronMetadata#{}", neuron.getId());
-                        List<String> results = neuron.checkRepairNeuron();
-                        if (results.size() > 0) {
-                            // save results, then output to log; this is unfortunately
-                            //  not visible to the user; we aren't in a place in the
-                            //  code where we can pop a dialog
-                            for (String s: results) {
-                                log.warn(s);
-                            }
-                        	neuron = tmDomainMgr.save(neuron);
+            if (ClientDomainUtils.hasWriteAccess(workspace) && ApplicationPanel.isVerifyNeurons()) {
+                log.info("Checking neuron data consistency");
+                // check neuron consistency and repair (some) problems, on the loading threads
+                neurons.addAll(tmDomainMgr.getWorkspaceNeurons(workspace.getId(), neuron -> {
+                    log.debug("Checking neuron data for TmNeuronMetadata#{}", neuron.getId());
+                    List<String> results = neuron.checkRepairNeuron();
+                    if (results.size() > 0) {
+                        // save results, then output to log; this is unfortunately
+                        //  not visible to the user; we aren't in a place in the
+                        //  code where we can pop a dialog
+                        for (String s: results) {
+                            log.warn(s);
                         }
-                        neurons.add(neuron);
+                        return tmDomainMgr.save(neuron);
                     }
-                }
-                else {
-                    neurons.addAll(neuronList);
-                }
+                    return neuron;
+                }));
             }
             else {
-                neurons.addAll(neuronList);
+                neurons.addAll(tmDomainMgr.getWorkspaceNeurons(workspace.getId()));
             }
-
+            log.info("Loading {} neurons took {} ms", neurons.size(), stopWatch.getElapsedTime());
         }
         catch (Exception ex) {
             throw ex;
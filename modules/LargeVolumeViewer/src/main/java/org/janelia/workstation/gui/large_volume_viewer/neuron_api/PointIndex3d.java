@@ -0,0 +1,472 @@
+package org.janelia.workstation.gui.large_volume_viewer.neuron_api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Spatial index of items located at points in 3D, for nearest neighbor and
+ * box queries.
+ *
+ * Points are kept in a few balanced k-d trees over primitive coordinate
+ * arrays. The trees have sizes that are powers of two, as in a binary
+ * counter. Adding a point merges the smaller trees into the next larger
+ * one, so each point is rebuilt O(log n) times in total. Removed points are
+ * only marked with the version that removed them. A tree is rebuilt once
+ * half of its points are gone.
+ *
+ * Queries run against an immutable snapshot of the trees, so they never
+ * wait for edits. Trees are never changed after they are built, except for
+ * the removal marks, which snapshots from before the removal ignore.
+ *
+ * Any number of items may share a position. Items are told apart by equals().
+ *
+ * @param <T> item type
+ */
+public class PointIndex3d<T> {
+
+    private static final int ALIVE = Integer.MAX_VALUE;
+    private static final int MAX_LEVELS = 32;
+
+    private static class Tree {
+        final float[] xyz;
+        final Object[] items;
+        final int[] removedAt; // version that removed each slot, or ALIVE
+        final int size;
+        int removedCount = 0; // only used by the writer
+
+        Tree(float[] xyz, Object[] items, int size) {
+            this.xyz = xyz;
+            this.items = items;
+            this.size = size;
+            this.removedAt = new int[size];
+            Arrays.fill(removedAt, ALIVE);
+        }
+    }
+
+    private static class Snapshot {
+        final Tree[] trees;
+        final int version;
+
+        Snapshot(Tree[] trees, int version) {
+            this.trees = trees;
+            this.version = version;
+        }
+    }
+
+    // Where an item is stored
+    private static class Location {
+        final Tree tree;
+        final int slot;
+
+        Location(Tree tree, int slot) {
+            this.tree = tree;
+            this.slot = slot;
+        }
+    }
+
+    private final Function<? super T, float[]> locationFunction;
+
+    // Writer state, guarded by this
+    private final Map<T, Location> locations = new HashMap<>();
+    private final Tree[] levels = new Tree[MAX_LEVELS]; // level i holds at most 2^i points
+    private int version = 0;
+
+    private volatile Snapshot snapshot = new Snapshot(new Tree[0], 0);
+
+    /**
+     * @param locationFunction returns the current x, y, z location of an item
+     */
+    public PointIndex3d(Function<? super T, float[]> locationFunction) {
+        this.locationFunction = locationFunction;
+    }
+
+    /**
+     * Replaces the whole contents of the index, in O(n log n).
+     */
+    public synchronized void rebuild(Collection<? extends T> newItems) {
+        locations.clear();
+        Arrays.fill(levels, null);
+        version = 0;
+        int count = newItems.size();
+        float[] xyz = new float[3 * count];
+        Object[] items = new Object[count];
+        int p = 0;
+        for (T item : newItems) {
+            float[] location = locationFunction.apply(item);
+            System.arraycopy(location, 0, xyz, 3 * p, 3);
+            items[p] = item;
+            p++;
+        }
+        if (count > 0) {
+            levels[levelForSize(count)] = buildTree(xyz, items, count);
+        }
+        publish();
+    }
+
+    public synchronized void clear() {
+        locations.clear();
+        Arrays.fill(levels, null);
+        version = 0;
+        publish();
+    }
+
+    /**
+     * Adds the item at its current location. An item that is already in the
+     * index is moved instead.
+     */
+    public synchronized void add(T item) {
+        version++;
+        Location oldLocation = locations.remove(item);
+        if (oldLocation != null) {
+            markRemoved(oldLocation);
+        }
+        insert(item);
+        publish();
+    }
+
+    /**
+     * @return false if the item was not in the index
+     */
+    public synchronized boolean remove(T item) {
+        Location oldLocation = locations.remove(item);
+        if (oldLocation == null) {
+            return false;
+        }
+        version++;
+        markRemoved(oldLocation);
+        publish();
+        return true;
+    }
+
+    /**
+     * Moves the item to its current location. Queries see the item either at
+     * its old or at its new location, never at both or neither.
+     *
+     * @return false if the item was not in the index
+     */
+    public synchronized boolean update(T item) {
+        if (!locations.containsKey(item)) {
+            return false;
+        }
+        add(item);
+        return true;
+    }
+
+    public int size() {
+        Snapshot s = snapshot;
+        int result = 0;
+        for (Tree tree : s.trees) {
+            for (int slot = 0; slot < tree.size; slot++) {
+                if (tree.removedAt[slot] > s.version) {
+                    result++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return up to n items closest to the location, closest first
+     */
+    public List<T> nearest(double[] location, int n) {
+        return nearest(location, n, null);
+    }
+
+    /**
+     * @param filter only items it accepts are returned; null accepts all items
+     * @return up to n accepted items closest to the location, closest first
+     */
+    public List<T> nearest(double[] location, int n, Predicate<? super T> filter) {
+        if (n <= 0) {
+            return Collections.emptyList();
+        }
+        Snapshot s = snapshot;
+        Neighbors neighbors = new Neighbors(n);
+        // Largest tree first, as it most likely holds the closest points
+        for (int t = s.trees.length - 1; t >= 0; t--) {
+            nearestInTree(s.trees[t], s.version, location, 0, s.trees[t].size, 0, filter, neighbors);
+        }
+        List<T> result = new ArrayList<>(neighbors.count);
+        for (int i = 0; i < neighbors.count; i++) {
+            result.add(itemAt(neighbors.trees[i], neighbors.slots[i]));
+        }
+        return result;
+    }
+
+    /**
+     * @return all items inside the box with the given corners, bounds included
+     */
+    public List<T> inBox(double[] corner1, double[] corner2) {
+        double[] min = new double[3];
+        double[] max = new double[3];
+        for (int axis = 0; axis < 3; axis++) {
+            min[axis] = Math.min(corner1[axis], corner2[axis]);
+            max[axis] = Math.max(corner1[axis], corner2[axis]);
+        }
+        Snapshot s = snapshot;
+        List<T> result = new ArrayList<>();
+        for (Tree tree : s.trees) {
+            inBoxInTree(tree, s.version, min, max, 0, tree.size, 0, result);
+        }
+        return result;
+    }
+
+    private static int levelForSize(int size) {
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    // Merges the new point with all the smaller trees, like carrying a bit in a binary counter
+    private void insert(T item) {
+        int level = 0;
+        int count = 1;
+        while (levels[level] != null) {
+            count += levels[level].size - levels[level].removedCount;
+            level++;
+        }
+        // Level i holds at most 2^i points, so all of them fit in the first empty level
+        float[] xyz = new float[3 * count];
+        Object[] items = new Object[count];
+        System.arraycopy(locationFunction.apply(item), 0, xyz, 0, 3);
+        items[0] = item;
+        int p = 1;
+        for (int i = 0; i < level; i++) {
+            if (levels[i] != null) {
+                p = copyLivePoints(levels[i], xyz, items, p);
+                levels[i] = null;
+            }
+        }
+        levels[level] = buildTree(xyz, items, count);
+    }
+
+    private void markRemoved(Location location) {
+        Tree tree = location.tree;
+        tree.removedAt[location.slot] = version;
+        tree.removedCount++;
+        if (2 * tree.removedCount > tree.size) {
+            // Rebuild the tree from its remaining points, in place of the old one
+            for (int level = 0; level < MAX_LEVELS; level++) {
+                if (levels[level] == tree) {
+                    int count = tree.size - tree.removedCount;
+                    float[] xyz = new float[3 * count];
+                    Object[] items = new Object[count];
+                    copyLivePoints(tree, xyz, items, 0);
+                    levels[level] = count > 0 ? buildTree(xyz, items, count) : null;
+                    break;
+                }
+            }
+        }
+    }
+
+    private static int copyLivePoints(Tree tree, float[] xyz, Object[] items, int p) {
+        for (int slot = 0; slot < tree.size; slot++) {
+            if (tree.removedAt[slot] == ALIVE) {
+                System.arraycopy(tree.xyz, 3 * slot, xyz, 3 * p, 3);
+                items[p] = tree.items[slot];
+                p++;
+            }
+        }
+        return p;
+    }
+
+    private void publish() {
+        List<Tree> trees = new ArrayList<>();
+        for (Tree tree : levels) {
+            if (tree != null) {
+                trees.add(tree);
+            }
+        }
+        snapshot = new Snapshot(trees.toArray(new Tree[trees.size()]), version);
+    }
+
+    private Tree buildTree(float[] pointXyz, Object[] pointItems, int count) {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        arrangeTree(pointXyz, order, 0, count, 0);
+        float[] xyz = new float[3 * count];
+        Object[] items = new Object[count];
+        for (int slot = 0; slot < count; slot++) {
+            int point = order[slot];
+            System.arraycopy(pointXyz, 3 * point, xyz, 3 * slot, 3);
+            items[slot] = pointItems[point];
+        }
+        Tree tree = new Tree(xyz, items, count);
+        for (int slot = 0; slot < count; slot++) {
+            @SuppressWarnings("unchecked")
+            T item = (T) items[slot];
+            Location previous = locations.put(item, new Location(tree, slot));
+            if (previous != null && previous.tree == tree) {
+                // Listed twice in a bulk load; keep only the last one
+                tree.removedAt[previous.slot] = version;
+                tree.removedCount++;
+            }
+        }
+        return tree;
+    }
+
+    // Orders the range so that each node sits at the middle of its sub-range,
+    // with smaller coordinates along the node's axis to its left
+    private static void arrangeTree(float[] pointXyz, int[] order, int lo, int hi, int depth) {
+        while (hi - lo > 1) {
+            int axis = depth % 3;
+            int mid = (lo + hi) >>> 1;
+            select(pointXyz, order, lo, hi - 1, mid, axis);
+            arrangeTree(pointXyz, order, lo, mid, depth + 1);
+            lo = mid + 1;
+            depth++;
+        }
+    }
+
+    // Quickselect: puts the k-th smallest coordinate along axis at order[k]
+    private static void select(float[] pointXyz, int[] order, int left, int right, int k, int axis) {
+        while (right > left) {
+            float pivot = pointXyz[3 * order[(left + right) >>> 1] + axis];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (pointXyz[3 * order[i] + axis] < pivot) {
+                    i++;
+                }
+                while (pointXyz[3 * order[j] + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void nearestInTree(Tree tree, int version, double[] location, int lo, int hi, int depth,
+            Predicate<? super T> filter, Neighbors neighbors) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int axis = depth % 3;
+            if (tree.removedAt[mid] > version) {
+                consider(tree, location, mid, filter, neighbors);
+            }
+            double offset = location[axis] - tree.xyz[3 * mid + axis];
+            // Descend the near side first, then the far side only if it can still hold a closer point
+            if (offset < 0) {
+                nearestInTree(tree, version, location, lo, mid, depth + 1, filter, neighbors);
+                if (offset * offset >= neighbors.worstDistance()) {
+                    return;
+                }
+                lo = mid + 1;
+            } else {
+                nearestInTree(tree, version, location, mid + 1, hi, depth + 1, filter, neighbors);
+                if (offset * offset >= neighbors.worstDistance()) {
+                    return;
+                }
+                hi = mid;
+            }
+            depth++;
+        }
+    }
+
+    private void consider(Tree tree, double[] location, int slot, Predicate<? super T> filter, Neighbors neighbors) {
+        double dx = location[0] - tree.xyz[3 * slot];
+        double dy = location[1] - tree.xyz[3 * slot + 1];
+        double dz = location[2] - tree.xyz[3 * slot + 2];
+        double distance = dx * dx + dy * dy + dz * dz;
+        if (distance >= neighbors.worstDistance()) {
+            return;
+        }
+        if (filter != null && !filter.test(itemAt(tree, slot))) {
+            return;
+        }
+        neighbors.insert(distance, tree, slot);
+    }
+
+    private void inBoxInTree(Tree tree, int version, double[] min, double[] max, int lo, int hi, int depth, List<T> result) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int axis = depth % 3;
+            if (tree.removedAt[mid] > version && isInBox(tree, mid, min, max)) {
+                result.add(itemAt(tree, mid));
+            }
+            float coordinate = tree.xyz[3 * mid + axis];
+            boolean searchLeft = min[axis] <= coordinate;
+            boolean searchRight = max[axis] >= coordinate;
+            if (searchLeft && searchRight) {
+                inBoxInTree(tree, version, min, max, lo, mid, depth + 1, result);
+                lo = mid + 1;
+            } else if (searchLeft) {
+                hi = mid;
+            } else if (searchRight) {
+                lo = mid + 1;
+            } else {
+                return;
+            }
+            depth++;
+        }
+    }
+
+    private static boolean isInBox(Tree tree, int slot, double[] min, double[] max) {
+        for (int axis = 0; axis < 3; axis++) {
+            float coordinate = tree.xyz[3 * slot + axis];
+            if (coordinate < min[axis] || coordinate > max[axis]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T itemAt(Tree tree, int slot) {
+        return (T) tree.items[slot];
+    }
+
+    /**
+     * The closest points found so far, sorted by increasing squared distance.
+     */
+    private static class Neighbors {
+        final double[] distances;
+        final Tree[] trees;
+        final int[] slots;
+        int count = 0;
+
+        Neighbors(int capacity) {
+            distances = new double[capacity];
+            trees = new Tree[capacity];
+            slots = new int[capacity];
+        }
+
+        double worstDistance() {
+            return count < distances.length ? Double.POSITIVE_INFINITY : distances[count - 1];
+        }
+
+        void insert(double distance, Tree tree, int slot) {
+            int i = count < distances.length ? count++ : count - 1;
+            while (i > 0 && distances[i - 1] > distance) {
+                distances[i] = distances[i - 1];
+                trees[i] = trees[i - 1];
+                slots[i] = slots[i - 1];
+                i--;
+            }
+            distances[i] = distance;
+            trees[i] = tree;
+            slots[i] = slot;
+        }
+    }
+
+}
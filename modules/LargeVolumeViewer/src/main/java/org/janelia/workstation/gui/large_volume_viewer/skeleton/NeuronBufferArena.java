@@ -0,0 +1,343 @@
+package org.janelia.workstation.gui.large_volume_viewer.skeleton;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One persistent direct buffer, holding a slot of bytes for each neuron, that
+ * mirrors one OpenGL buffer object.
+ *
+ * Each slot keeps some headroom, so a neuron that grows by a few anchors is
+ * rewritten in place. A neuron that outgrows its slot moves to the end of the
+ * buffer, and leaves a hole behind. Writes record the byte ranges they touch,
+ * so the OpenGL buffer only needs those ranges re-uploaded; only growing the
+ * whole buffer, or compacting it, requires a full upload.
+ *
+ * Not thread safe; SkeletonActorModel guards its arenas with its own lock.
+ * Only {@link Compaction#pack()} may run without that lock.
+ */
+public class NeuronBufferArena {
+
+    private static final int MIN_CAPACITY_BYTES = 64 * 1024;
+    // Extra room given to a slot, relative to its contents, when it is (re)allocated
+    private static final float SLOT_HEADROOM = 0.25f;
+    // Don't bother compacting small buffers
+    private static final int MIN_COMPACTION_BYTES = 1024 * 1024;
+    // Compact once this fraction of the used bytes is holes
+    private static final float COMPACTION_THRESHOLD = 0.5f;
+    // Beyond this many dirty ranges, upload one range spanning them all
+    private static final int MAX_DIRTY_RANGES = 32;
+
+    private ByteBuffer bytes = allocate(MIN_CAPACITY_BYTES);
+    private int usedBytes = 0; // end of the last slot
+    private int slotBytes = 0; // total capacity of all slots
+    private final Map<Long, Slot> slots = new HashMap<>();
+    private boolean needsFullUpload = true;
+    private final List<int[]> dirtyRanges = new ArrayList<>();
+    // Bumped by every change to the bytes or the slots, so a compaction can tell it is stale
+    private int modCount = 0;
+
+    public void writeFloats(Long id, FloatBuffer data) {
+        FloatBuffer source = data.duplicate();
+        source.rewind();
+        int size = source.remaining() * SkeletonActorModel.FLOAT_BYTE_COUNT;
+        Slot slot = slotFor(id, size);
+        ByteBuffer target = bytes.duplicate().order(ByteOrder.nativeOrder());
+        target.position(slot.offset);
+        target.asFloatBuffer().put(source);
+        modCount++;
+        markDirty(slot.offset, size);
+    }
+
+    public void writeInts(Long id, IntBuffer data) {
+        IntBuffer source = data.duplicate();
+        source.rewind();
+        int size = source.remaining() * SkeletonActorModel.INT_BYTE_COUNT;
+        Slot slot = slotFor(id, size);
+        ByteBuffer target = bytes.duplicate().order(ByteOrder.nativeOrder());
+        target.position(slot.offset);
+        target.asIntBuffer().put(source);
+        modCount++;
+        markDirty(slot.offset, size);
+    }
+
+    public boolean contains(Long id) {
+        return slots.containsKey(id);
+    }
+
+    public void remove(Long id) {
+        Slot slot = slots.remove(id);
+        if (slot != null) {
+            slotBytes -= slot.capacity;
+            modCount++;
+        }
+    }
+
+    /**
+     * Removes the slots of all neurons not in keep.
+     */
+    public void retainAll(Collection<Long> keep) {
+        Iterator<Map.Entry<Long, Slot>> iter = slots.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Long, Slot> entry = iter.next();
+            if (!keep.contains(entry.getKey())) {
+                slotBytes -= entry.getValue().capacity;
+                iter.remove();
+                modCount++;
+            }
+        }
+    }
+
+    /**
+     * @return the byte offset of the neuron's data, or -1 if the neuron has no slot
+     */
+    public int getOffset(Long id) {
+        Slot slot = slots.get(id);
+        return slot == null ? -1 : slot.offset;
+    }
+
+    /**
+     * @return the number of bytes of data in the neuron's slot
+     */
+    public int getSize(Long id) {
+        Slot slot = slots.get(id);
+        return slot == null ? 0 : slot.size;
+    }
+
+    /**
+     * @return true when enough of the buffer is holes that compact() is worth its full upload
+     */
+    public boolean isFragmented() {
+        return usedBytes >= MIN_COMPACTION_BYTES
+                && (usedBytes - slotBytes) > COMPACTION_THRESHOLD * usedBytes;
+    }
+
+    /**
+     * Packs the slots together, in the given order, with fresh headroom.
+     * Neurons not in order lose their slots.
+     */
+    public void compact(Collection<Long> order) {
+        Compaction compaction = prepareCompaction(order);
+        compaction.pack();
+        compaction.apply();
+    }
+
+    /**
+     * Starts a compaction whose copying can run without the owner's lock,
+     * like {@link #compact}, in three steps: this method and
+     * {@link Compaction#apply()} under the lock, {@link Compaction#pack()}
+     * in between without it.
+     */
+    public Compaction prepareCompaction(Collection<Long> order) {
+        Map<Long, Slot> sourceSlots = new LinkedHashMap<>();
+        for (Long id : order) {
+            Slot slot = slots.get(id);
+            if (slot != null) {
+                sourceSlots.put(id, slot.copy());
+            }
+        }
+        return new Compaction(bytes, sourceSlots, modCount);
+    }
+
+    /**
+     * A packed copy of the arena, built from a snapshot of its slots.
+     */
+    public final class Compaction {
+        private final ByteBuffer source;
+        private final Map<Long, Slot> sourceSlots;
+        private final int sourceModCount;
+        private ByteBuffer packed;
+        private final Map<Long, Slot> packedSlots = new HashMap<>();
+        private int packedBytes = 0;
+
+        private Compaction(ByteBuffer source, Map<Long, Slot> sourceSlots, int sourceModCount) {
+            this.source = source;
+            this.sourceSlots = sourceSlots;
+            this.sourceModCount = sourceModCount;
+        }
+
+        /**
+         * Copies the slots into a new buffer. If the arena is written
+         * meanwhile, the copy may be torn, but apply() then discards it.
+         */
+        public void pack() {
+            int needed = 0;
+            for (Slot slot : sourceSlots.values()) {
+                needed += withHeadroom(slot.size);
+            }
+            packed = allocate(Math.max(MIN_CAPACITY_BYTES, needed));
+            for (Map.Entry<Long, Slot> entry : sourceSlots.entrySet()) {
+                Slot slot = entry.getValue();
+                ByteBuffer slotBytes = source.duplicate();
+                slotBytes.position(slot.offset);
+                slotBytes.limit(slot.offset + slot.size);
+                packed.position(packedBytes);
+                packed.put(slotBytes);
+                Slot packedSlot = new Slot(packedBytes, withHeadroom(slot.size));
+                packedSlot.size = slot.size;
+                packedSlots.put(entry.getKey(), packedSlot);
+                packedBytes += packedSlot.capacity;
+            }
+            packed.clear();
+        }
+
+        /**
+         * Swaps the packed buffer in, unless the arena changed since
+         * prepareCompaction().
+         *
+         * @return true if the arena was compacted
+         */
+        public boolean apply() {
+            if (packed == null || modCount != sourceModCount) {
+                return false;
+            }
+            bytes = packed;
+            slots.clear();
+            slots.putAll(packedSlots);
+            usedBytes = packedBytes;
+            slotBytes = packedBytes;
+            modCount++;
+            invalidate();
+            return true;
+        }
+    }
+
+    /**
+     * The whole buffer, in native byte order; read it between position zero and getCapacity().
+     */
+    public ByteBuffer getBytes() {
+        return bytes;
+    }
+
+    public int getCapacity() {
+        return bytes.capacity();
+    }
+
+    /**
+     * @return true if the OpenGL buffer must be reallocated and refilled with all of getBytes()
+     */
+    public boolean needsFullUpload() {
+        return needsFullUpload;
+    }
+
+    /**
+     * @return byte ranges {offset, length} written since the last markUploaded()
+     */
+    public List<int[]> getDirtyRanges() {
+        return dirtyRanges;
+    }
+
+    public boolean hasPendingUpload() {
+        return needsFullUpload || !dirtyRanges.isEmpty();
+    }
+
+    public void markUploaded() {
+        needsFullUpload = false;
+        dirtyRanges.clear();
+    }
+
+    /**
+     * For example after the OpenGL buffer object was recreated.
+     */
+    public void invalidate() {
+        needsFullUpload = true;
+        dirtyRanges.clear();
+    }
+
+    // The neuron's slot, moved or grown as needed to hold size bytes
+    private Slot slotFor(Long id, int size) {
+        Slot slot = slots.get(id);
+        if (slot == null || slot.capacity < size) {
+            if (slot != null) {
+                slotBytes -= slot.capacity; // leave a hole
+            }
+            int capacity = withHeadroom(size);
+            ensureCapacity(usedBytes + capacity);
+            slot = new Slot(usedBytes, capacity);
+            slots.put(id, slot);
+            usedBytes += capacity;
+            slotBytes += capacity;
+        }
+        slot.size = size;
+        return slot;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= bytes.capacity()) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, 2 * bytes.capacity());
+        ByteBuffer grown = allocate(newCapacity);
+        ByteBuffer source = bytes.duplicate();
+        source.position(0);
+        source.limit(usedBytes);
+        grown.put(source);
+        grown.clear();
+        bytes = grown;
+        modCount++;
+        invalidate();
+    }
+
+    private void markDirty(int offset, int length) {
+        if (needsFullUpload || length == 0) {
+            return;
+        }
+        int end = offset + length;
+        // merge with an overlapping or adjacent range
+        for (int[] range : dirtyRanges) {
+            if (offset <= range[0] + range[1] && end >= range[0]) {
+                int start = Math.min(offset, range[0]);
+                range[1] = Math.max(end, range[0] + range[1]) - start;
+                range[0] = start;
+                return;
+            }
+        }
+        dirtyRanges.add(new int[]{offset, length});
+        if (dirtyRanges.size() > MAX_DIRTY_RANGES) {
+            int start = Integer.MAX_VALUE;
+            int stop = 0;
+            for (int[] range : dirtyRanges) {
+                start = Math.min(start, range[0]);
+                stop = Math.max(stop, range[0] + range[1]);
+            }
+            dirtyRanges.clear();
+            dirtyRanges.add(new int[]{start, stop - start});
+        }
+    }
+
+    private static int withHeadroom(int size) {
+        // round up to a multiple of 4, to keep floats and ints aligned
+        int capacity = (int) (size * (1.0f + SLOT_HEADROOM));
+        return (capacity + 3) & ~3;
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+
+    private static class Slot {
+        private final int offset;
+        private final int capacity;
+        private int size = 0;
+
+        Slot(int offset, int capacity) {
+            this.offset = offset;
+            this.capacity = capacity;
+        }
+
+        Slot copy() {
+            Slot result = new Slot(offset, capacity);
+            result.size = size;
+            return result;
+        }
+    }
+}
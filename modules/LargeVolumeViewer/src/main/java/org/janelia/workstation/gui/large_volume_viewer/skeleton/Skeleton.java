@@ -2,6 +2,7 @@ package org.janelia.workstation.gui.large_volume_viewer.skeleton;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.janelia.it.jacs.shared.geom.Vec3;
 import org.janelia.workstation.tracing.AnchoredVoxelPath;
@@ -123,6 +124,12 @@ public class Skeleton {
 	private final Map<SegmentIndex, AnchoredVoxelPath> tracedSegments = new ConcurrentHashMap<>();
 	
 	private final Map<Long, Anchor> anchorsByGuid = new HashMap<>();
+    // Anchors of each neuron, in the order they were added; guarded by anchors
+    private final Map<Long, Set<Anchor>> anchorsByNeuron = new HashMap<>();
+    // Stamp of the last change to each neuron that has anchors, so viewers
+    //  only redraw the neurons that changed
+    private final Map<Long, Integer> neuronVersions = new ConcurrentHashMap<>();
+    private final AtomicInteger neuronChangeCount = new AtomicInteger();
 	// TODO - anchor browsing history should maybe move farther back
 //	private final HistoryStack<Anchor> anchorHistory = new HistoryStack<>();
 
@@ -136,6 +143,7 @@ public class Skeleton {
 		if (anchors.contains(anchor))
 			return anchor;
 		anchors.add(anchor);
+        indexAnchor(anchor);
 		Long guid = anchor.getGuid();
 		if (guid != null)
 			anchorsByGuid.put(guid, anchor);
@@ -186,7 +194,8 @@ public class Skeleton {
 			return false;
 		if (! anchor1.addNeighbor(anchor2))
 			return false;
-        _anchors.incrementVersion();
+        markNeuronChanged(anchor1.getNeuronID());
+        markNeuronChanged(anchor2.getNeuronID());
         controller.skeletonChanged();
 		return true;
 	}
@@ -274,9 +283,11 @@ public class Skeleton {
 			return false;
 		for (Anchor n : anchor.getNeighbors()) {
 			n.getNeighbors().remove(anchor);
+            markNeuronChanged(n.getNeuronID());
 		}
 		anchor.getNeighbors().clear();
 		anchors.remove(anchor);
+        unindexAnchor(anchor, anchor.getNeuronID());
 		Long guid = anchor.getGuid();
 		if (guid != null)
 			anchorsByGuid.remove(guid);
@@ -297,6 +308,9 @@ public class Skeleton {
         Anchor anchor = new Anchor(location, parentAnchor, tga.getNeuronId(), tileFormat);
         anchor.setGuid(tga.getId());
         addAnchor(anchor);
+        if (parentAnchor != null) {
+            markNeuronChanged(parentAnchor.getNeuronID());
+        }
         controller.annotationSelected(anchor.getGuid());
         return anchor;
     }
@@ -348,7 +362,12 @@ public class Skeleton {
         }
 
         // Update neuron id, in case the anchor was moved to another neuron
-        anchor.setNeuronID(annotation.getNeuronId());
+        Long oldNeuronID = anchor.getNeuronID();
+        if (!Objects.equals(oldNeuronID, annotation.getNeuronId())) {
+            unindexAnchor(anchor, oldNeuronID);
+            anchor.setNeuronID(annotation.getNeuronId());
+            indexAnchor(anchor);
+        }
         
         updateNeighbors(anchor, annotationNeighbors);
     }
@@ -359,6 +378,7 @@ public class Skeleton {
             return;
         }
         final Vec3 voxelVec3 = new Vec3(tga.getX(), tga.getY(), tga.getZ());
+        markNeuronChanged(anchor.getNeuronID());
         anchor.setLocationSilent(tileFormat.micronVec3ForVoxelVec3Centered(voxelVec3));
     }
     
@@ -370,6 +390,7 @@ public class Skeleton {
         final Vec3 voxelVec3 = new Vec3(tga.getX(), tga.getY(), tga.getZ());
         // "silent" because we don't want to trigger the whole "move or merge?" dialog,
         // especially when triggered from a Horta/NeuronModelAdapter move
+        markNeuronChanged(anchor.getNeuronID());
         anchor.setLocationSilent(tileFormat.micronVec3ForVoxelVec3Centered(voxelVec3));
     }
     
@@ -377,7 +398,11 @@ public class Skeleton {
 		if (anchors.size() == 0) {
 			return; // no change
 		}
-		anchors.clear();
+        synchronized (anchors) {
+            anchors.clear();
+            anchorsByNeuron.clear();
+            neuronVersions.clear();
+        }
 		anchorsByGuid.clear();
 //		anchorHistory.clear();
 	}
@@ -406,6 +431,7 @@ public class Skeleton {
             Anchor addAnchor = anchorsByGuid.get(id);
             anchor.addNeighbor(addAnchor);
             addAnchor.addNeighbor(anchor);
+            markNeuronChanged(addAnchor.getNeuronID());
         }
 
         // remove anchors that are in current but not in new
@@ -416,10 +442,80 @@ public class Skeleton {
             // hmm, Anchor class doesn't have remove method
             anchor.getNeighbors().remove(removeAnchor);
             removeAnchor.getNeighbors().remove(anchor);
+            markNeuronChanged(removeAnchor.getNeuronID());
+        }
+        markNeuronChanged(anchor.getNeuronID());
+    }
+
+    private void indexAnchor(Anchor anchor) {
+        Long neuronID = anchor.getNeuronID();
+        if (neuronID == null) {
+            return;
+        }
+        synchronized (anchors) {
+            Set<Anchor> neuronAnchors = anchorsByNeuron.get(neuronID);
+            if (neuronAnchors == null) {
+                neuronAnchors = new LinkedHashSet<>();
+                anchorsByNeuron.put(neuronID, neuronAnchors);
+            }
+            neuronAnchors.add(anchor);
+        }
+        markNeuronChanged(neuronID);
+    }
+
+    private void unindexAnchor(Anchor anchor, Long neuronID) {
+        if (neuronID == null) {
+            return;
+        }
+        synchronized (anchors) {
+            Set<Anchor> neuronAnchors = anchorsByNeuron.get(neuronID);
+            if (neuronAnchors != null && neuronAnchors.remove(anchor) && neuronAnchors.isEmpty()) {
+                anchorsByNeuron.remove(neuronID);
+                neuronVersions.remove(neuronID);
+                _anchors.incrementVersion();
+                return;
+            }
+        }
+        markNeuronChanged(neuronID);
+    }
+
+    /**
+     * Records that a neuron must be redrawn. Changes made through this class
+     * record themselves; this is for anchors changed directly.
+     */
+    public void markNeuronChanged(Long neuronID) {
+        if (neuronID == null) {
+            return;
+        }
+        synchronized (anchors) {
+            if (anchorsByNeuron.containsKey(neuronID)) {
+                neuronVersions.put(neuronID, neuronChangeCount.incrementAndGet());
+            }
         }
         _anchors.incrementVersion();
     }
 
+    /**
+     * @return for every neuron with anchors, a stamp that changes whenever
+     * the neuron's anchors, links or traced paths change
+     */
+    public Map<Long, Integer> getNeuronVersions() {
+        return Collections.unmodifiableMap(neuronVersions);
+    }
+
+    /**
+     * @return a copy of the anchors of the neuron, in the order they were added
+     */
+    public List<Anchor> getNeuronAnchors(Long neuronID) {
+        synchronized (anchors) {
+            Set<Anchor> neuronAnchors = anchorsByNeuron.get(neuronID);
+            if (neuronAnchors == null) {
+                return Collections.emptyList();
+            }
+            return new ArrayList<>(neuronAnchors);
+        }
+    }
+
     /**
      * Returns a synchronized set of anchors. To safely iterate over this 
      * set, synchronize on it first.
@@ -453,6 +549,7 @@ public class Skeleton {
 	{
 	    SegmentIndex ix = path.getSegmentIndex();
 		tracedSegments.put(ix, path);
+        markNeuronChanged(path.getNeuronID());
 		// log.info("tracedSegments.size() [300] = "+tracedSegments.size());
 	}
 
@@ -460,12 +557,14 @@ public class Skeleton {
         for (AnchoredVoxelPath path: pathList) {
             SegmentIndex ix = path.getSegmentIndex();
             tracedSegments.put(ix, path);
+            markNeuronChanged(path.getNeuronID());
         }
     }
 
     public void removeTracedSegment(AnchoredVoxelPath path) {
         SegmentIndex ix = path.getSegmentIndex();
         tracedSegments.remove(ix);
+        markNeuronChanged(path.getNeuronID());
     }
 
     public void removeTracedSegments(Long neuronID) {
@@ -478,6 +577,7 @@ public class Skeleton {
         for (SegmentIndex segmentIndex : toDelete) {
             tracedSegments.remove(segmentIndex);
         }
+        markNeuronChanged(neuronID);
     }   
     
 	public Collection<AnchoredVoxelPath> getTracedSegments() {
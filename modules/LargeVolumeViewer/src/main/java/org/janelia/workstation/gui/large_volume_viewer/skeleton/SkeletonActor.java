@@ -226,6 +226,8 @@ public class SkeletonActor implements GLActor {
         lineIbo = ix[1];
         pointIbo = ix[2];
         colorBo = ix[3];
+        // new buffer objects need all of the skeleton data
+        model.invalidateBufferUploads();
         //
         PassThroughTextureShader.checkGlError(gl, "load anchor texture");
         transparencyDepthMode(gl, true);
@@ -280,17 +282,14 @@ public class SkeletonActor implements GLActor {
 
         int n = 0;
 
-        boolean refreshBufferData = model.updateVertices();
+        synchronized (model) {
+            boolean refreshBufferData = model.updateVertices();
 
-        if (refreshBufferData) {
-            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
-            gl.glBufferData(GL.GL_ARRAY_BUFFER, model.getCummulativeVertexOffset(), model.getVertexBuffer(), GL.GL_DYNAMIC_DRAW);
-
-            gl.glBindBuffer(GL.GL_ARRAY_BUFFER, colorBo);
-            gl.glBufferData(GL.GL_ARRAY_BUFFER, model.getCummulativeColorOffset(), model.getColorBuffer(), GL.GL_DYNAMIC_DRAW);
-
-            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, lineIbo);
-            gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, model.getCummulativeLineOffset(), model.getLineBuffer(), GL.GL_DYNAMIC_DRAW);
+            if (refreshBufferData) {
+                uploadArena(gl, GL.GL_ARRAY_BUFFER, vbo, model.getVertexArena());
+                uploadArena(gl, GL.GL_ARRAY_BUFFER, colorBo, model.getColorArena());
+                uploadArena(gl, GL.GL_ELEMENT_ARRAY_BUFFER, lineIbo, model.getLineArena());
+            }
         }
 
         gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
@@ -357,6 +356,28 @@ public class SkeletonActor implements GLActor {
         lineShader.unload(gl2);
     }
 
+    /**
+     * Re-uploads only the byte ranges of the arena that changed, unless the
+     * arena was reallocated or compacted since its last upload.
+     */
+    private void uploadArena(GL gl, int target, int bufferObject, NeuronBufferArena arena) {
+        gl.glBindBuffer(target, bufferObject);
+        ByteBuffer bytes = arena.getBytes().duplicate();
+        if (arena.needsFullUpload()) {
+            bytes.clear();
+            gl.glBufferData(target, arena.getCapacity(), bytes, GL.GL_DYNAMIC_DRAW);
+        }
+        else {
+            for (int[] range : arena.getDirtyRanges()) {
+                bytes.limit(range[0] + range[1]);
+                bytes.position(range[0]);
+                gl.glBufferSubData(target, range[0], range[1], bytes);
+                bytes.clear();
+            }
+        }
+        arena.markUploaded();
+    }
+
     protected void lineOffset(GL2GL3 gl, boolean enable) {
         if (rim == RenderInterpositionMethod.Occlusion) {
             if (enable) {
@@ -431,11 +452,12 @@ public class SkeletonActor implements GLActor {
         GL2 gl = glDrawable.getGL().getGL2();
         setupAnchorShaders(gl);
 
-        boolean refreshBufferData = model.updatePoints();
+        synchronized (model) {
+            boolean refreshBufferData = model.updatePoints();
 
-        if (refreshBufferData) {
-            gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, pointIbo);
-            gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, model.getCummulativePointOffset(), model.getPointBuffer(), GL.GL_DYNAMIC_DRAW);
+            if (refreshBufferData) {
+                uploadArena(gl, GL.GL_ELEMENT_ARRAY_BUFFER, pointIbo, model.getPointArena());
+            }
         }
 
         gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
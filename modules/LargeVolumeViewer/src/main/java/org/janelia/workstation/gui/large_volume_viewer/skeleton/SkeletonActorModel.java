@@ -16,6 +16,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.janelia.console.viewerapi.model.NeuronModel;
 import org.janelia.console.viewerapi.model.NeuronSet;
@@ -44,6 +46,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Created by murphys on 4/14/2016.
@@ -85,12 +88,14 @@ public class SkeletonActorModel {
 
     private NeuronStyleModel neuronStyles;
 
-    public void clearStyles() {
+    public synchronized void clearStyles() {
         neuronStyles.clear();
+        rebuildAllNeurons = true;
     }
 
-    public void setNeuronStyleModel(NeuronStyleModel nsModel) {
+    public synchronized void setNeuronStyleModel(NeuronStyleModel nsModel) {
         this.neuronStyles = nsModel;
+        rebuildAllNeurons = true;
     }
 
     public NeuronStyleModel getNeuronStyles() { return neuronStyles; }
@@ -100,17 +105,29 @@ public class SkeletonActorModel {
     private Skeleton skeleton;
     private SkeletonActorStateUpdater updater;
 
-    ByteBuffer vertexByteBuffer;
-    FloatBuffer vertexBuffer;
-
-    ByteBuffer colorByteBuffer;
-    FloatBuffer colorBuffer;
-
-    ByteBuffer lineByteBuffer;
-    IntBuffer lineBuffer;
-
-    ByteBuffer pointByteBuffer;
-    IntBuffer pointBuffer;
+    // Persistent per-neuron slots, mirrored by the OpenGL buffers of SkeletonActor
+    private final NeuronBufferArena vertexArena = new NeuronBufferArena();
+    private final NeuronBufferArena colorArena = new NeuronBufferArena();
+    private final NeuronBufferArena lineArena = new NeuronBufferArena();
+    private final NeuronBufferArena pointArena = new NeuronBufferArena();
+
+    // Neurons whose buffers changed since they were last copied into the arenas
+    private final Set<Long> changedVertexNeurons = new HashSet<>();
+    private final Set<Long> changedLineNeurons = new HashSet<>();
+    private final Set<Long> changedPointNeurons = new HashSet<>();
+
+    // Skeleton.getNeuronVersions() as of the last build of each neuron's buffers
+    private final Map<Long, Integer> builtNeuronVersions = new HashMap<>();
+    // Neurons to rebuild on the next update although the skeleton did not change them
+    private final Set<Long> restyledNeurons = new HashSet<>();
+    private boolean rebuildAllNeurons = true;
+    // Whether the buffers hold only the anchors in the viewport
+    private boolean builtFromViewport = false;
+
+    // Compaction copies whole arenas, so keep it off the edit path
+    private final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("SkeletonBufferCompaction-%d").setDaemon(true).build());
+    private boolean compactionPending = false;
 
     // arrays for draw
     private Multiset<Long> neuronVertexCount = HashMultiset.create();
@@ -135,24 +152,15 @@ public class SkeletonActorModel {
 
     public Map<Long, IntBuffer> getNeuronLineIndices() { return neuronLineIndices; }
 
-    int cummulativeVertexOffset = 0;
-    int cummulativeColorOffset = 0;
-    int cummulativeLineOffset = 0;
-    int cummulativePointOffset=0;
-
     private float zoomedZThicknessInPixels = 0f;
 
-    public int getCummulativeVertexOffset() { return cummulativeVertexOffset; }
-    public ByteBuffer getVertexBuffer() { return vertexByteBuffer; }
-    public int getCummulativeColorOffset() { return cummulativeColorOffset; }
-    public FloatBuffer getColorBuffer() { return colorBuffer; }
-    public int getCummulativeLineOffset() { return cummulativeLineOffset; }
-    public IntBuffer getLineBuffer() { return lineBuffer; }
+    NeuronBufferArena getVertexArena() { return vertexArena; }
+    NeuronBufferArena getColorArena() { return colorArena; }
+    NeuronBufferArena getLineArena() { return lineArena; }
+    NeuronBufferArena getPointArena() { return pointArena; }
     public List<ElementDataOffset> getLineOffsets() { return lineOffsets; }
     public List<ElementDataOffset> getVertexOffsets() { return vertexOffsets; }
     public List<ElementDataOffset> getColorOffsets() { return colorOffsets; }
-    public int getCummulativePointOffset() { return cummulativePointOffset; }
-    public IntBuffer getPointBuffer() { return pointBuffer; }
     public Map<Long, IntBuffer> getNeuronPointIndices() { return neuronPointIndices; }
     public List<ElementDataOffset> getPointOffsets() { return pointOffsets; }
     public Map<Long, ElementDataOffset> getVertexOffsetMap() { return vertexOffsetMap; }
@@ -171,6 +179,9 @@ public class SkeletonActorModel {
             return;
         }
         this.skeleton = skeleton;
+        synchronized (this) {
+            rebuildAllNeurons = true;
+        }
         updateAnchors();
     }
 
@@ -190,13 +201,34 @@ public class SkeletonActorModel {
         updater.update();
     }
 
+    /**
+     * Copies the buffers of neurons that changed into their arena slots, and
+     * lists the offsets of the visible neurons for drawing.
+     *
+     * @return true if the arenas have bytes that still need uploading
+     */
     public synchronized boolean updateVertices() {
         if (verticesNeedCopy) {
             log.trace("updateVertices - running");
-            
-            cummulativeVertexOffset=0;
-            cummulativeColorOffset=0;
-            cummulativeLineOffset=0;
+
+            vertexArena.retainAll(neuronVertices.keySet());
+            colorArena.retainAll(neuronVertices.keySet());
+            lineArena.retainAll(neuronLineIndices.keySet());
+            for (Long neuronID : changedVertexNeurons) {
+                FloatBuffer neuronVertexBuffer = neuronVertices.get(neuronID);
+                if (neuronVertexBuffer != null) {
+                    vertexArena.writeFloats(neuronID, neuronVertexBuffer);
+                    colorArena.writeFloats(neuronID, neuronColors.get(neuronID));
+                }
+            }
+            changedVertexNeurons.clear();
+            for (Long neuronID : changedLineNeurons) {
+                IntBuffer neuronLineBuffer = neuronLineIndices.get(neuronID);
+                if (neuronLineBuffer != null) {
+                    lineArena.writeInts(neuronID, neuronLineBuffer);
+                }
+            }
+            changedLineNeurons.clear();
 
             vertexOffsets.clear();
             colorOffsets.clear();
@@ -205,10 +237,6 @@ public class SkeletonActorModel {
             vertexOffsetMap.clear();
             colorOffsetMap.clear();
 
-            List<Long> neuronOrderList = new ArrayList<>();
-
-            //log.info("displayLines2 Check1");
-
             for (Long neuronID : neuronVertices.keySet()) {
 
                 NeuronStyle neuronStyle=neuronStyles.get(neuronID);
@@ -217,78 +245,24 @@ public class SkeletonActorModel {
                     continue;
                 }
 
-                neuronOrderList.add(neuronID);
-
-                int vertexCount=neuronVertexCount.count(neuronID);
-
-                int vertexBufferSize = vertexCount * FLOAT_BYTE_COUNT * VERTEX_FLOAT_COUNT;
-                int colorBufferSize = vertexCount * FLOAT_BYTE_COUNT * COLOR_FLOAT_COUNT;
-
-                int lineBufferSize = 0;
-                IntBuffer lineBuffer=neuronLineIndices.get(neuronID);
-                if (lineBuffer!=null) {
-                    lineBufferSize = lineBuffer.capacity() * INT_BYTE_COUNT;
-                }
-
-                ElementDataOffset vertexOffset = new ElementDataOffset(neuronID, vertexBufferSize, cummulativeVertexOffset);
+                ElementDataOffset vertexOffset = new ElementDataOffset(neuronID,
+                        vertexArena.getSize(neuronID), vertexArena.getOffset(neuronID));
                 vertexOffsets.add(vertexOffset);
                 vertexOffsetMap.put(neuronID, vertexOffset);
 
-                ElementDataOffset colorOffset = new ElementDataOffset(neuronID, colorBufferSize, cummulativeColorOffset);
+                ElementDataOffset colorOffset = new ElementDataOffset(neuronID,
+                        colorArena.getSize(neuronID), colorArena.getOffset(neuronID));
                 colorOffsets.add(colorOffset);
                 colorOffsetMap.put(neuronID, colorOffset);
 
-                lineOffsets.add(new ElementDataOffset(neuronID, lineBufferSize, cummulativeLineOffset));
-
-                cummulativeVertexOffset += vertexBufferSize;
-                cummulativeColorOffset += colorBufferSize;
-                cummulativeLineOffset += lineBufferSize;
+                // neurons without lines get an empty range
+                lineOffsets.add(new ElementDataOffset(neuronID,
+                        lineArena.getSize(neuronID), Math.max(0, lineArena.getOffset(neuronID))));
             }
 
-            if (vertexByteBuffer==null || vertexByteBuffer.limit()!=cummulativeVertexOffset) {
-                vertexByteBuffer = ByteBuffer.allocateDirect(cummulativeVertexOffset);
-                vertexBuffer = vertexByteBuffer.order(ByteOrder.nativeOrder()).asFloatBuffer();
-            }
-            int n = 0;
-            for (Long neuronID : neuronOrderList) {
-                ElementDataOffset elementDataOffset = vertexOffsets.get(n);
-                FloatBuffer neuronVertexBuffer = neuronVertices.get(elementDataOffset.id);
-                neuronVertexBuffer.rewind();
-                vertexBuffer.put(neuronVertexBuffer);
-                n++;
-            }
-            vertexBuffer.rewind();
-
-            if (colorByteBuffer==null || colorByteBuffer.limit()!=cummulativeColorOffset) {
-                colorByteBuffer = ByteBuffer.allocateDirect(cummulativeColorOffset);
-                colorBuffer = colorByteBuffer.order(ByteOrder.nativeOrder()).asFloatBuffer();
-            }
-            n = 0;
-            for (Long neuronID : neuronOrderList) {
-                ElementDataOffset elementDataOffset = colorOffsets.get(n);
-                FloatBuffer neuronColorBuffer = neuronColors.get(elementDataOffset.id);
-                neuronColorBuffer.rewind();
-                colorBuffer.put(neuronColorBuffer);
-                n++;
-            }
-            colorBuffer.rewind();
-
-            if (lineByteBuffer==null || lineByteBuffer.limit()!=cummulativeLineOffset) {
-                lineByteBuffer = ByteBuffer.allocateDirect(cummulativeLineOffset);
-                lineBuffer = lineByteBuffer.order(ByteOrder.nativeOrder()).asIntBuffer();
-            }
-            n = 0;
-            for (Long neuronID : neuronOrderList) {
-                ElementDataOffset elementDataOffset = lineOffsets.get(n);
-                if (elementDataOffset.size != 0) {
-                    IntBuffer neuronLineBuffer = neuronLineIndices.get(elementDataOffset.id);
-                    lineBuffer.put(neuronLineBuffer);
-                }
-                n++;
-            }
-            lineBuffer.rewind();
+            scheduleCompactionIfFragmented();
             verticesNeedCopy=false;
-            return true;
+            return vertexArena.hasPendingUpload() || colorArena.hasPendingUpload() || lineArena.hasPendingUpload();
         } else {
             return false;
         }
@@ -298,48 +272,100 @@ public class SkeletonActorModel {
         if (pointIndicesNeedCopy) {
             log.trace("updatePoints - running");
 
-            pointOffsets.clear();
+            pointArena.retainAll(neuronPointIndices.keySet());
+            for (Long neuronID : changedPointNeurons) {
+                IntBuffer neuronPointBuffer = neuronPointIndices.get(neuronID);
+                if (neuronPointBuffer != null) {
+                    pointArena.writeInts(neuronID, neuronPointBuffer);
+                }
+            }
+            changedPointNeurons.clear();
 
-            cummulativePointOffset=0;
-            List<Long> neuronOrderList=new ArrayList<>();
+            pointOffsets.clear();
 
             for (Long neuronID : neuronVertices.keySet()) {
                 NeuronStyle neuronStyle=neuronStyles.get(neuronID);
                 if (neuronStyle != null && !neuronStyle.isVisible()) {
                     continue;
                 }
-                neuronOrderList.add(neuronID);
-                IntBuffer intBuffer = neuronPointIndices.get(neuronID);
-                if (intBuffer==null) {
+                if (!pointArena.contains(neuronID)) {
                     log.warn("Missing neuron {} from neuronPointIndices",neuronID);
                 }
                 else {
-                    int pointBufferSize=intBuffer.capacity()*INT_BYTE_COUNT;
-                    pointOffsets.add(new ElementDataOffset(neuronID, pointBufferSize, cummulativePointOffset));
-                    cummulativePointOffset+=pointBufferSize;
+                    pointOffsets.add(new ElementDataOffset(neuronID,
+                            pointArena.getSize(neuronID), pointArena.getOffset(neuronID)));
                 }
             }
 
-            int n=0;
-            if (pointByteBuffer==null || pointByteBuffer.limit()!=cummulativePointOffset) {
-                pointByteBuffer = ByteBuffer.allocateDirect(cummulativePointOffset);
-                pointBuffer = pointByteBuffer.order(ByteOrder.nativeOrder()).asIntBuffer();
-            }
-            for (Long neuronID : neuronOrderList) {
-                ElementDataOffset elementDataOffset = pointOffsets.get(n);
-                IntBuffer neuronPointBuffer=neuronPointIndices.get(elementDataOffset.id);
-                neuronPointBuffer.rewind();
-                pointBuffer.put(neuronPointBuffer);
-                n++;
-            }
-            pointBuffer.rewind();
+            scheduleCompactionIfFragmented();
             pointIndicesNeedCopy=false;
-            return true;
+            return pointArena.hasPendingUpload();
         } else {
             return false;
         }
     }
 
+    /**
+     * The OpenGL buffers are new, and hold none of the arena contents yet.
+     */
+    public synchronized void invalidateBufferUploads() {
+        vertexArena.invalidate();
+        colorArena.invalidate();
+        lineArena.invalidate();
+        pointArena.invalidate();
+        verticesNeedCopy = true;
+        pointIndicesNeedCopy = true;
+    }
+
+    private void scheduleCompactionIfFragmented() {
+        if (compactionPending) {
+            return;
+        }
+        if (!(vertexArena.isFragmented() || colorArena.isFragmented()
+                || lineArena.isFragmented() || pointArena.isFragmented())) {
+            return;
+        }
+        compactionPending = true;
+        compactionExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                compactBuffers();
+                updater.update();
+            }
+        });
+    }
+
+    // Packing the arenas copies all of their bytes, so do it without holding
+    //  the lock that display() needs; edits in the meantime make the packed
+    //  copy stale, and compaction is tried again on a later update
+    private void compactBuffers() {
+        List<NeuronBufferArena.Compaction> compactions = new ArrayList<>();
+        synchronized (this) {
+            compactionPending = false;
+            List<Long> order = new ArrayList<>(neuronVertices.keySet());
+            for (NeuronBufferArena arena : new NeuronBufferArena[] {vertexArena, colorArena, lineArena, pointArena}) {
+                if (arena.isFragmented()) {
+                    log.debug("Compacting skeleton buffer of {} bytes", arena.getCapacity());
+                    compactions.add(arena.prepareCompaction(order));
+                }
+            }
+        }
+        for (NeuronBufferArena.Compaction compaction : compactions) {
+            compaction.pack();
+        }
+        synchronized (this) {
+            boolean compacted = false;
+            for (NeuronBufferArena.Compaction compaction : compactions) {
+                compacted |= compaction.apply();
+            }
+            if (compacted) {
+                // offsets moved
+                verticesNeedCopy = true;
+                pointIndicesNeedCopy = true;
+            }
+        }
+    }
+
     public int getIndexForAnchor(Anchor anchor) {
         if (anchor == null) {
             return -1;
@@ -350,16 +376,18 @@ public class SkeletonActorModel {
         return -1;
     }
 
-    public void changeNeuronStyle(TmNeuronMetadata neuron, NeuronStyle style) {
+    public synchronized void changeNeuronStyle(TmNeuronMetadata neuron, NeuronStyle style) {
         if (neuron != null) {
             neuronStyles.put(neuron.getId(), style);
+            restyledNeurons.add(neuron.getId());
             forceUpdateAnchors();
         }
     }
 
-    public void updateNeuronStyles(Map<TmNeuronMetadata, NeuronStyle> neuronStyleMap) {
+    public synchronized void updateNeuronStyles(Map<TmNeuronMetadata, NeuronStyle> neuronStyleMap) {
         for (TmNeuronMetadata neuron: neuronStyleMap.keySet()) {
             neuronStyles.put(neuron.getId(), neuronStyleMap.get(neuron));
+            restyledNeurons.add(neuron.getId());
         }
         forceUpdateAnchors();
     }
@@ -385,9 +413,9 @@ public class SkeletonActorModel {
      * (thus the name of the method), the lines between them, and the
      * automatically traced paths if present
      *
-     * the update in general consists of looping over all points, and copying
-     * their positions into appropriate byte array, getting the data ready for
-     * the next call to display()
+     * only the neurons that changed since the last update are rebuilt, each
+     * into its own buffers, getting the data ready for the next call to
+     * display()
      */
     public synchronized void updateAnchors() {
         if (skeleton == null) {
@@ -408,167 +436,191 @@ public class SkeletonActorModel {
             log.trace("updateAnchors() - updating to version = " + mostRecentAnchorVersion);
         }
 
-        // we do the point update in this method, then call out
-        //  to other methods for the lines and paths; no reason we
-        //  couldn't also refactor this into its own method, too
-        // clear out the maps first
-        neuronVertexCount.clear();
-        neuronVertices.clear();
-        neuronColors.clear();
-        // first, how many vertices per neuron; then, fill the buffers (one per neuron)
-        Collection<Anchor> anchors = getAnchorsSafe();
-        for (Anchor anchor : anchors) {
-            neuronVertexCount.add(anchor.getNeuronID());
-        }
-        for (Long neuronID : neuronVertexCount.elementSet()) {
-            int vertexCount=neuronVertexCount.count(neuronID);
-            ByteBuffer tempBytes = ByteBuffer.allocateDirect(vertexCount * FLOAT_BYTE_COUNT * VERTEX_FLOAT_COUNT);
-            tempBytes.order(ByteOrder.nativeOrder());
-            neuronVertices.put(neuronID, tempBytes.asFloatBuffer());
-            neuronVertices.get(neuronID).rewind();
-
-            tempBytes = ByteBuffer.allocateDirect(vertexCount * FLOAT_BYTE_COUNT * COLOR_FLOAT_COUNT);
-            tempBytes.order(ByteOrder.nativeOrder());
-            neuronColors.put(neuronID, tempBytes.asFloatBuffer());
-            neuronColors.get(neuronID).rewind();
-        }
-
-        neuronAnchorIndices.clear();
-        neuronIndexAnchors.clear();
-        Map<Long, Integer> neuronVertexIndex = new HashMap<>();
-        Integer currentVertexIndex;
-        NeuronStyle style;
-        for (Anchor anchor : anchors) {
-            Long neuronID = anchor.getNeuronID();
-
-            Vec3 xyz = anchor.getLocation();
-            FloatBuffer vertexBuffer=neuronVertices.get(neuronID);
-            vertexBuffer.put((float) xyz.getX());
-            vertexBuffer.put((float) xyz.getY());
-            vertexBuffer.put((float) xyz.getZ());
-
-            style=neuronStyles.get(neuronID);
-            if (style==null) {
-                style = NeuronStyle.getStyleForNeuron(neuronID);
-            }
-            float[] styleColorArr=style.getColorAsFloatArray();
-            FloatBuffer colorBuffer=neuronColors.get(neuronID);
-            colorBuffer.put(styleColorArr);
-
-            currentVertexIndex=neuronVertexIndex.get(neuronID);
-            if (currentVertexIndex==null) {
-                currentVertexIndex=0;
-                neuronVertexIndex.put(neuronID, currentVertexIndex);
-            }
-            neuronAnchorIndices.put(anchor, currentVertexIndex);
-
-            Map<Integer, Anchor> indexAnchorMap=neuronIndexAnchors.get(neuronID);
-            if (indexAnchorMap==null) {
-                indexAnchorMap=new HashMap<>();
-                neuronIndexAnchors.put(neuronID, indexAnchorMap);
-            }
-            indexAnchorMap.put(currentVertexIndex, anchor);
-
-            neuronVertexIndex.put(neuronID, currentVertexIndex + 1);
-        }
-
-        neuronPointIndices.clear();
-        for (Long neuronID : neuronVertexIndex.keySet()) {
-            // recall that the last value neuronVertexIndex takes is the
-            //  number of points:
-            ByteBuffer tempBytes = ByteBuffer.allocateDirect(neuronVertexIndex.get(neuronID) * INT_BYTE_COUNT);
-            tempBytes.order(ByteOrder.nativeOrder());
-            neuronPointIndices.put(neuronID, tempBytes.asIntBuffer());
-            neuronPointIndices.get(neuronID).rewind();
+        Map<Long, List<Anchor>> changedNeurons = collectChangedNeurons();
+        // forget the old anchors of all changed neurons before indexing the
+        //  new ones, since anchors can move from one neuron to another
+        for (Long neuronID : changedNeurons.keySet()) {
+            removeNeuronBuffers(neuronID);
         }
-        for (Anchor anchor : anchors) {
-            int i1 = neuronAnchorIndices.get(anchor);
-            neuronPointIndices.get(anchor.getNeuronID()).put(i1);
+        for (Map.Entry<Long, List<Anchor>> entry : changedNeurons.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                buildNeuronPoints(entry.getKey(), entry.getValue());
+            }
         }
-
         pointIndicesNeedCopy=true;
 
         // automatically traced paths
-        updateTracedPaths(anchors);
+        updateTracedPaths();
 
         // lines between points, if no path (must be done after path updates so
         //  we know where the paths are!)
-        updateLines(anchors);
+        for (Map.Entry<Long, List<Anchor>> entry : changedNeurons.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                buildNeuronLines(entry.getKey(), entry.getValue());
+            }
+        }
+        verticesNeedCopy=true;
 
-        if (!anchors.contains(getNextParent())) {
+        if (getIndexForAnchor(getNextParent()) < 0) {
             setNextParent(null);
         }
         
-        w.start();
-        log.trace("updateAnchors took {} ms",w.getElapsedTime());
+        w.stop();
+        log.trace("updateAnchors rebuilt {} neurons in {} ms", changedNeurons.size(), w.getElapsedTime());
         
         updater.update();
     }
 
-    private void updateLines(Collection<Anchor> anchors) {
-        // iterate through anchors and record lines where there are no traced
-        //  paths; then copy the line indices you get into an array
-        // note: I believe this works because we process the points and
-        //  lines in exactly the same order (the order skeleton.getAnchors()
-        //  returns them in)
+    /**
+     * @return the anchors of each neuron whose buffers need rebuilding; an
+     * empty list for neurons that are gone
+     */
+    private Map<Long, List<Anchor>> collectChangedNeurons() {
+        Map<Long, List<Anchor>> changedNeurons = new HashMap<>();
+        boolean fromViewport = isAnchorsInViewport();
+        if (fromViewport) {
+            // which anchors are in view changes with the camera, so rebuild all
+            //  of them; there are only as many as the view holds
+            for (Anchor anchor : getAnchorsSafe()) {
+                List<Anchor> neuronAnchors = changedNeurons.get(anchor.getNeuronID());
+                if (neuronAnchors == null) {
+                    neuronAnchors = new ArrayList<>();
+                    changedNeurons.put(anchor.getNeuronID(), neuronAnchors);
+                }
+                neuronAnchors.add(anchor);
+            }
+            builtNeuronVersions.clear();
+        }
+        else {
+            boolean rebuildAll = rebuildAllNeurons || builtFromViewport;
+            Map<Long, Integer> neuronVersions = skeleton.getNeuronVersions();
+            for (Map.Entry<Long, Integer> entry : neuronVersions.entrySet()) {
+                Long neuronID = entry.getKey();
+                Integer version = entry.getValue();
+                if (rebuildAll || restyledNeurons.contains(neuronID) || !version.equals(builtNeuronVersions.get(neuronID))) {
+                    // read the version before the anchors, so a change in between
+                    //  is picked up by the next update
+                    builtNeuronVersions.put(neuronID, version);
+                    changedNeurons.put(neuronID, skeleton.getNeuronAnchors(neuronID));
+                }
+            }
+            builtNeuronVersions.keySet().retainAll(neuronVersions.keySet());
+        }
+        for (Long neuronID : neuronVertices.keySet()) {
+            if (!changedNeurons.containsKey(neuronID) && (fromViewport || !builtNeuronVersions.containsKey(neuronID))) {
+                changedNeurons.put(neuronID, Collections.<Anchor>emptyList());
+            }
+        }
+        restyledNeurons.clear();
+        rebuildAllNeurons = false;
+        builtFromViewport = fromViewport;
+        return changedNeurons;
+    }
+
+    private void removeNeuronBuffers(Long neuronID) {
+        Map<Integer, Anchor> indexAnchors = neuronIndexAnchors.remove(neuronID);
+        if (indexAnchors != null) {
+            for (Anchor anchor : indexAnchors.values()) {
+                neuronAnchorIndices.remove(anchor);
+            }
+        }
+        neuronVertexCount.setCount(neuronID, 0);
+        neuronVertices.remove(neuronID);
+        neuronColors.remove(neuronID);
+        neuronPointIndices.remove(neuronID);
+        neuronLineIndices.remove(neuronID);
+    }
+
+    // fills the vertex, color and point buffers of one neuron
+    private void buildNeuronPoints(Long neuronID, List<Anchor> neuronAnchors) {
+        int vertexCount = neuronAnchors.size();
+        ByteBuffer tempBytes = ByteBuffer.allocateDirect(vertexCount * FLOAT_BYTE_COUNT * VERTEX_FLOAT_COUNT);
+        tempBytes.order(ByteOrder.nativeOrder());
+        FloatBuffer vertexBuffer = tempBytes.asFloatBuffer();
+
+        tempBytes = ByteBuffer.allocateDirect(vertexCount * FLOAT_BYTE_COUNT * COLOR_FLOAT_COUNT);
+        tempBytes.order(ByteOrder.nativeOrder());
+        FloatBuffer colorBuffer = tempBytes.asFloatBuffer();
+
+        tempBytes = ByteBuffer.allocateDirect(vertexCount * INT_BYTE_COUNT);
+        tempBytes.order(ByteOrder.nativeOrder());
+        IntBuffer pointBuffer = tempBytes.asIntBuffer();
 
-        log.trace("updateLines - running");
-        if (anchors==null) {
-            anchors=getAnchorsSafe();
+        NeuronStyle style = neuronStyles.get(neuronID);
+        if (style == null) {
+            style = NeuronStyle.getStyleForNeuron(neuronID);
         }
+        float[] styleColorArr = style.getColorAsFloatArray();
 
-        Map<Long, List<Integer>> tempLineIndices = new HashMap<>();
-        for (Anchor anchor : anchors) {
+        Map<Integer, Anchor> indexAnchorMap = new HashMap<>();
+        int vertexIndex = 0;
+        for (Anchor anchor : neuronAnchors) {
+            Vec3 xyz = anchor.getLocation();
+            vertexBuffer.put((float) xyz.getX());
+            vertexBuffer.put((float) xyz.getY());
+            vertexBuffer.put((float) xyz.getZ());
+            colorBuffer.put(styleColorArr);
+            pointBuffer.put(vertexIndex);
+
+            neuronAnchorIndices.put(anchor, vertexIndex);
+            indexAnchorMap.put(vertexIndex, anchor);
+            vertexIndex++;
+        }
+
+        neuronVertexCount.setCount(neuronID, vertexCount);
+        neuronVertices.put(neuronID, vertexBuffer);
+        neuronColors.put(neuronID, colorBuffer);
+        neuronPointIndices.put(neuronID, pointBuffer);
+        neuronIndexAnchors.put(neuronID, indexAnchorMap);
+        changedVertexNeurons.add(neuronID);
+        changedPointNeurons.add(neuronID);
+    }
+
+    private void buildNeuronLines(Long neuronID, List<Anchor> neuronAnchors) {
+        // record lines where there are no traced paths; then copy the line
+        //  indices you get into an array
+        Map<SegmentIndex, TracedPathActor> tracedSegments = neuronTracedSegments.get(neuronID);
+        List<Integer> lineIndices = new ArrayList<>();
+        for (Anchor anchor : neuronAnchors) {
             int i1 = getIndexForAnchor(anchor);
             if (i1 < 0) {
                 continue;
             }
             for (Anchor neighbor : anchor.getNeighbors()) {
                 Integer i2=neuronAnchorIndices.get(neighbor);
-                if (i2==null) {
-                    i2=-1;
-                }
-                if (i2 < 0) {
+                if (i2 == null || i2 < 0) {
                     continue;
                 }
                 if (i1 >= i2) {
                     continue; // only use ascending pairs, for uniqueness
                 }
-                Long neuronID=anchor.getNeuronID();
-                if (neuronTracedSegments.containsKey(neuronID)) {
-                    SegmentIndex segmentIndex = new SegmentIndex(anchor.getGuid(), neighbor.getGuid());
-                    // if neuron has any paths, check and don't draw line
-                    //  where there's already a traced segment
-                    if (neuronTracedSegments.get(neuronID).containsKey(segmentIndex)) {
-                        continue;
-                    }
-                }
-                if (!tempLineIndices.containsKey(neuronID)) {
-                    tempLineIndices.put(neuronID, new Vector<Integer>());
+                // if neuron has any paths, check and don't draw line
+                //  where there's already a traced segment
+                if (tracedSegments != null
+                        && tracedSegments.containsKey(new SegmentIndex(anchor.getGuid(), neighbor.getGuid()))) {
+                    continue;
                 }
-                tempLineIndices.get(neuronID).add(i1);
-                tempLineIndices.get(neuronID).add(i2);
+                lineIndices.add(i1);
+                lineIndices.add(i2);
             }
         }
 
-        // loop over neurons and fill the arrays
-        neuronLineIndices.clear();
-        for (Long neuronID : tempLineIndices.keySet()) {
-            ByteBuffer lineBytes = ByteBuffer.allocateDirect(tempLineIndices.get(neuronID).size() * INT_BYTE_COUNT);
-            lineBytes.order(ByteOrder.nativeOrder());
-            IntBuffer lineIndexBuffer=lineBytes.asIntBuffer();
-            neuronLineIndices.put(neuronID, lineIndexBuffer);
-            lineIndexBuffer.rewind();
-            for (int i : tempLineIndices.get(neuronID)) // fill actual int buffer
-            {
-                lineIndexBuffer.put(i);
-            }
-            lineIndexBuffer.rewind();
+        if (lineIndices.isEmpty()) {
+            neuronLineIndices.remove(neuronID);
+            return;
         }
-        verticesNeedCopy=true;
+        ByteBuffer lineBytes = ByteBuffer.allocateDirect(lineIndices.size() * INT_BYTE_COUNT);
+        lineBytes.order(ByteOrder.nativeOrder());
+        IntBuffer lineIndexBuffer=lineBytes.asIntBuffer();
+        for (int i : lineIndices) {
+            lineIndexBuffer.put(i);
+        }
+        lineIndexBuffer.rewind();
+        neuronLineIndices.put(neuronID, lineIndexBuffer);
+        changedLineNeurons.add(neuronID);
     }
 
-    private void updateTracedPaths(Collection<Anchor> anchors) {
+    private void updateTracedPaths() {
         // Update Traced path actors
 
         log.trace("updateTracedPaths - running");
@@ -577,10 +629,7 @@ public class SkeletonActorModel {
         //  this is necessary because unlike in the old not-per-neuron way of
         //  doing things, we would normally need some info from anchors that
         //  just isn't there when the whole skeleton is cleared
-        if (anchors==null) {
-            anchors = getAnchorsSafe();
-        }
-        if ( anchors.isEmpty() ) {
+        if ( neuronVertices.isEmpty() ) {
             neuronTracedSegments.clear();
             return;
         }
@@ -677,7 +726,8 @@ public class SkeletonActorModel {
         for (int i = 0; i < 3; ++i) {
             neuronVertices.get(dragAnchor.getNeuronID()).put(offset + i, (float) (double) location.get(i));
         }
-        updateLines(null);
+        changedVertexNeurons.add(dragAnchor.getNeuronID());
+        verticesNeedCopy = true;
         updater.update();
     }
 
@@ -708,13 +758,17 @@ public class SkeletonActorModel {
         }
     }
     
+    // only the anchors in the viewport are drawn
+    private boolean isAnchorsInViewport() {
+        return viewport != null && pointComputer != null && ApplicationPanel.isAnchorsInViewport();
+    }
+
     private Collection<Anchor> getAnchorsSafe() {
         if (skeleton == null || skeleton.getAnchors() == null) {
             return Collections.emptyList();
         }
 
-        boolean anchorsInViewport = ApplicationPanel.isAnchorsInViewport();
-        if (viewport==null || pointComputer==null || !anchorsInViewport) {
+        if (!isAnchorsInViewport()) {
             // Fallback on old inefficient behavior which always renders all anchors
             return getAllAnchors();
         }
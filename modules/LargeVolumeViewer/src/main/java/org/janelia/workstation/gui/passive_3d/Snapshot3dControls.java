@@ -15,6 +15,8 @@ import javax.swing.ProgressMonitor;
 
 import org.janelia.workstation.gui.large_volume_viewer.ColorButtonPanel;
 import org.janelia.workstation.gui.passive_3d.filter.MatrixFilter3D;
+import org.janelia.workstation.gui.passive_3d.filter.VolumeFilter3D;
+import org.janelia.workstation.gui.passive_3d.filter.VolumeFilter3DFactory;
 import org.janelia.workstation.integration.util.FrameworkAccess;
 import org.janelia.workstation.common.gui.support.Icons;
 import org.janelia.workstation.common.gui.support.StateDrivenIconToggleButton;
@@ -254,7 +256,7 @@ public class Snapshot3dControls {
                 }
                 for (VolumeDataChunk chunk : textureData.getTextureData().getVolumeChunks()) {
                     byte[] data = chunk.getData();
-                    MatrixFilter3D filter = new MatrixFilter3D(matrix, textureData.getByteOrder());
+                    VolumeFilter3D filter = VolumeFilter3DFactory.create(matrix, textureData.getByteOrder(), textureData.getPixelByteCount());
                     filter.setProgressMonitor(progressMonitor);
                     byte[] newBytes
                             = filter.filter(
@@ -0,0 +1,80 @@
+package org.janelia.workstation.gui.passive_3d.filter;
+
+/**
+ * Iterative radix-2 complex FFT, over split real and imaginary arrays, with
+ * the bit reversal and twiddle factors computed once per length.
+ */
+final class FFT {
+
+    private final int n;
+    private final int[] reversed;
+    private final float[] cos;
+    private final float[] sin;
+
+    /**
+     * @param n transform length, a power of two.
+     */
+    FFT( int n ) {
+        if ( n < 1 || Integer.bitCount( n ) != 1 ) {
+            throw new IllegalArgumentException( "FFT length must be a power of two, not " + n );
+        }
+        this.n = n;
+        this.reversed = new int[ n ];
+        int bits = Integer.numberOfTrailingZeros( n );
+        for ( int i = 0; i < n; i++ ) {
+            reversed[ i ] = bits == 0 ? 0 : Integer.reverse( i ) >>> ( 32 - bits );
+        }
+        this.cos = new float[ n / 2 ];
+        this.sin = new float[ n / 2 ];
+        for ( int i = 0; i < n / 2; i++ ) {
+            double angle = -2.0 * Math.PI * i / n;
+            cos[ i ] = (float) Math.cos( angle );
+            sin[ i ] = (float) Math.sin( angle );
+        }
+    }
+
+    static int nextPowerOfTwo( int value ) {
+        return value <= 1 ? 1 : Integer.highestOneBit( value - 1 ) << 1;
+    }
+
+    int getLength() {
+        return n;
+    }
+
+    /**
+     * Transforms the first n elements, in place.  The inverse transform is
+     * not scaled by 1/n.
+     */
+    void transform( float[] re, float[] im, boolean inverse ) {
+        for ( int i = 0; i < n; i++ ) {
+            int j = reversed[ i ];
+            if ( j > i ) {
+                float t = re[ i ];
+                re[ i ] = re[ j ];
+                re[ j ] = t;
+                t = im[ i ];
+                im[ i ] = im[ j ];
+                im[ j ] = t;
+            }
+        }
+        final float sign = inverse ? -1.0f : 1.0f;
+        for ( int size = 2; size <= n; size <<= 1 ) {
+            int half = size >> 1;
+            int twiddleStep = n / size;
+            for ( int start = 0; start < n; start += size ) {
+                for ( int k = 0; k < half; k++ ) {
+                    float wr = cos[ k * twiddleStep ];
+                    float wi = sign * sin[ k * twiddleStep ];
+                    int a = start + k;
+                    int b = a + half;
+                    float tr = re[ b ] * wr - im[ b ] * wi;
+                    float ti = re[ b ] * wi + im[ b ] * wr;
+                    re[ b ] = re[ a ] - tr;
+                    im[ b ] = im[ a ] - ti;
+                    re[ a ] += tr;
+                    im[ a ] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package org.janelia.workstation.gui.passive_3d.filter;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.ProgressMonitor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Carries out a 3D filtering with an arbitrary cubic matrix, as used by
+ * MatrixFilter3D, by FFT convolution.  The cost per voxel grows with the log
+ * of the block size rather than with the matrix size, so this pays off for
+ * large matrices which are not separable.
+ *
+ * The volume is processed in blocks (overlap-save), so that memory use is
+ * bounded by the block size rather than the volume size, and blocks are
+ * filtered in parallel.  Works on 8 or 16 bit voxels, and as with
+ * MatrixFilter3D, voxels outside the volume count as zero.
+ */
+public class FFTFilter3D implements VolumeFilter3D {
+
+    // Smallest block edge, in voxels.  Blocks are at least twice the matrix size.
+    private static final int MIN_BLOCK_DIM = 64;
+
+    private final double[] matrix;
+    private final int matrixCubicDim;
+    private final ByteOrder byteOrder;
+    private ProgressMonitor progressMonitor;
+
+    private static final Logger logger = LoggerFactory.getLogger( FFTFilter3D.class );
+
+    public FFTFilter3D( double[] matrix, ByteOrder byteOrder ) {
+        this.matrix = matrix;
+        this.matrixCubicDim = VolumeFilter3DFactory.getCubicDim( matrix );
+        this.byteOrder = byteOrder;
+    }
+
+    @Override
+    public void setProgressMonitor( ProgressMonitor progressMonitor ) {
+        this.progressMonitor = progressMonitor;
+    }
+
+    /**
+     * @param bytesPerCell 1 or 2
+     * @return filtered copy of the input, or the input itself if cancelled.
+     */
+    @Override
+    public byte[] filter( final byte[] inputBytes, final int bytesPerCell, final int channelCount, final int sx, final int sy, final int sz ) {
+        logger.info( "Starting the FFT filter run, matrix size {}.", matrixCubicDim );
+        long startTime = System.currentTimeMillis();
+
+        final Blocking blocking = new Blocking( sx, sy, sz, matrixCubicDim );
+        final float[][] kernelSpectrum = getKernelSpectrum( blocking );
+        final byte[] outputBytes = new byte[ inputBytes.length ];
+
+        final int blocksX = ceilDiv( sx, blocking.validX );
+        final int blocksY = ceilDiv( sy, blocking.validY );
+        final int blocksZ = ceilDiv( sz, blocking.validZ );
+        final int blockCount = blocksX * blocksY * blocksZ * channelCount;
+        final AtomicInteger nextBlock = new AtomicInteger();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        int taskCount = Math.min( blockCount, FilterExecution.getParallelism() );
+        for ( int task = 0; task < taskCount; task++ ) {
+            tasks.add( new Callable<Void>() {
+                @Override
+                public Void call() {
+                    float[] re = new float[ blocking.size() ];
+                    float[] im = new float[ blocking.size() ];
+                    Transform3D transform = new Transform3D( blocking );
+                    for ( int block = nextBlock.getAndIncrement(); block < blockCount; block = nextBlock.getAndIncrement() ) {
+                        if ( progressMonitor != null && progressMonitor.isCanceled() ) {
+                            cancelled.set( true );
+                            return null;
+                        }
+                        int ch = block % channelCount;
+                        int rest = block / channelCount;
+                        int originX = ( rest % blocksX ) * blocking.validX;
+                        rest /= blocksX;
+                        int originY = ( rest % blocksY ) * blocking.validY;
+                        int originZ = ( rest / blocksY ) * blocking.validZ;
+                        filterBlock(
+                                new VoxelAccess( inputBytes, bytesPerCell, channelCount, ch, byteOrder ),
+                                new VoxelAccess( outputBytes, bytesPerCell, channelCount, ch, byteOrder ),
+                                sx, sy, sz, originX, originY, originZ,
+                                blocking, kernelSpectrum, transform, re, im
+                        );
+                    }
+                    return null;
+                }
+            } );
+        }
+        FilterExecution.runAll( tasks );
+
+        if ( cancelled.get() ) {
+            return inputBytes;
+        }
+        logger.info( "Ending the FFT filter run, after {}ms.", System.currentTimeMillis() - startTime );
+        return outputBytes;
+    }
+
+    /**
+     * Loads the block, with a margin of the matrix size, convolves it, and
+     * writes the part that is free of wrap-around to the output.
+     */
+    private void filterBlock(
+            VoxelAccess input, VoxelAccess output,
+            int sx, int sy, int sz, int originX, int originY, int originZ,
+            Blocking blocking, float[][] kernelSpectrum, Transform3D transform, float[] re, float[] im ) {
+        final int nx = blocking.nx;
+        final int ny = blocking.ny;
+        final int nz = blocking.nz;
+        final int radius = matrixCubicDim / 2;
+        final int margin = matrixCubicDim - 1;
+
+        for ( int z = 0; z < nz; z++ ) {
+            int vz = originZ - radius + z;
+            for ( int y = 0; y < ny; y++ ) {
+                int vy = originY - radius + y;
+                int pos = ( z * ny + y ) * nx;
+                boolean inside = vz >= 0 && vz < sz && vy >= 0 && vy < sy;
+                for ( int x = 0; x < nx; x++ ) {
+                    int vx = originX - radius + x;
+                    re[ pos + x ] = inside && vx >= 0 && vx < sx ? input.get( ( vz * sy + vy ) * sx + vx ) : 0.0f;
+                    im[ pos + x ] = 0.0f;
+                }
+            }
+        }
+
+        transform.apply( re, im, false );
+        final float[] kre = kernelSpectrum[ 0 ];
+        final float[] kim = kernelSpectrum[ 1 ];
+        for ( int i = 0; i < re.length; i++ ) {
+            float r = re[ i ] * kre[ i ] - im[ i ] * kim[ i ];
+            im[ i ] = re[ i ] * kim[ i ] + im[ i ] * kre[ i ];
+            re[ i ] = r;
+        }
+        transform.apply( re, im, true );
+
+        final float scale = 1.0f / blocking.size();
+        final int endX = Math.min( blocking.validX, sx - originX );
+        final int endY = Math.min( blocking.validY, sy - originY );
+        final int endZ = Math.min( blocking.validZ, sz - originZ );
+        for ( int z = 0; z < endZ; z++ ) {
+            for ( int y = 0; y < endY; y++ ) {
+                int pos = ( ( z + margin ) * ny + ( y + margin ) ) * nx + margin;
+                int voxel = ( ( originZ + z ) * sy + ( originY + y ) ) * sx + originX;
+                for ( int x = 0; x < endX; x++ ) {
+                    output.set( voxel + x, re[ pos + x ] * scale );
+                }
+            }
+        }
+    }
+
+    /**
+     * Spectrum of the matrix, flipped so that the convolution lines up with
+     * MatrixFilter3D's neighborhood weighting, and padded to the block size.
+     */
+    private float[][] getKernelSpectrum( Blocking blocking ) {
+        final int dim = matrixCubicDim;
+        float[] re = new float[ blocking.size() ];
+        float[] im = new float[ blocking.size() ];
+        for ( int z = 0; z < dim; z++ ) {
+            for ( int y = 0; y < dim; y++ ) {
+                for ( int x = 0; x < dim; x++ ) {
+                    int flipped = ( ( dim - 1 - z ) * dim + ( dim - 1 - y ) ) * dim + ( dim - 1 - x );
+                    re[ ( z * blocking.ny + y ) * blocking.nx + x ] = (float) matrix[ flipped ];
+                }
+            }
+        }
+        new Transform3D( blocking ).apply( re, im, false );
+        return new float[][] { re, im };
+    }
+
+    private static int ceilDiv( int value, int divisor ) {
+        return ( value + divisor - 1 ) / divisor;
+    }
+
+    /**
+     * Block dimensions: the transform size along each axis, and how many
+     * output voxels each block yields along that axis.
+     */
+    private static class Blocking {
+        private final int nx;
+        private final int ny;
+        private final int nz;
+        private final int validX;
+        private final int validY;
+        private final int validZ;
+
+        Blocking( int sx, int sy, int sz, int matrixDim ) {
+            nx = getBlockDim( sx, matrixDim );
+            ny = getBlockDim( sy, matrixDim );
+            nz = getBlockDim( sz, matrixDim );
+            validX = nx - matrixDim + 1;
+            validY = ny - matrixDim + 1;
+            validZ = nz - matrixDim + 1;
+        }
+
+        int size() {
+            return nx * ny * nz;
+        }
+
+        private static int getBlockDim( int volumeDim, int matrixDim ) {
+            int blockDim = Math.max( MIN_BLOCK_DIM, FFT.nextPowerOfTwo( 2 * matrixDim ) );
+            // Small volumes need only be padded by the matrix size.
+            return Math.min( blockDim, FFT.nextPowerOfTwo( volumeDim + matrixDim - 1 ) );
+        }
+    }
+
+    /**
+     * 3D transform of a block, as 1D transforms along each axis.  Holds the
+     * line buffers, so each thread needs its own.
+     */
+    private static class Transform3D {
+        private final Blocking blocking;
+        private final FFT fftX;
+        private final FFT fftY;
+        private final FFT fftZ;
+        private final float[] lineRe;
+        private final float[] lineIm;
+
+        Transform3D( Blocking blocking ) {
+            this.blocking = blocking;
+            this.fftX = new FFT( blocking.nx );
+            this.fftY = new FFT( blocking.ny );
+            this.fftZ = new FFT( blocking.nz );
+            int maxDim = Math.max( blocking.nx, Math.max( blocking.ny, blocking.nz ) );
+            this.lineRe = new float[ maxDim ];
+            this.lineIm = new float[ maxDim ];
+        }
+
+        void apply( float[] re, float[] im, boolean inverse ) {
+            final int nx = blocking.nx;
+            final int ny = blocking.ny;
+            final int nz = blocking.nz;
+            for ( int z = 0; z < nz; z++ ) {
+                for ( int y = 0; y < ny; y++ ) {
+                    transformLine( fftX, re, im, ( z * ny + y ) * nx, 1, inverse );
+                }
+            }
+            for ( int z = 0; z < nz; z++ ) {
+                for ( int x = 0; x < nx; x++ ) {
+                    transformLine( fftY, re, im, z * ny * nx + x, nx, inverse );
+                }
+            }
+            for ( int y = 0; y < ny; y++ ) {
+                for ( int x = 0; x < nx; x++ ) {
+                    transformLine( fftZ, re, im, y * nx + x, ny * nx, inverse );
+                }
+            }
+        }
+
+        private void transformLine( FFT fft, float[] re, float[] im, int start, int step, boolean inverse ) {
+            final int n = fft.getLength();
+            if ( n == 1 ) {
+                return;
+            }
+            for ( int i = 0, pos = start; i < n; i++, pos += step ) {
+                lineRe[ i ] = re[ pos ];
+                lineIm[ i ] = im[ pos ];
+            }
+            fft.transform( lineRe, lineIm, inverse );
+            for ( int i = 0, pos = start; i < n; i++, pos += step ) {
+                re[ pos ] = lineRe[ i ];
+                im[ pos ] = lineIm[ i ];
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.janelia.workstation.gui.passive_3d.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the parallel parts of the filters on a pool shared by all filter runs,
+ * with one thread per core, rather than starting threads for every run.
+ */
+final class FilterExecution {
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setNameFormat("VolumeFilter-%d").setDaemon(true).build() );
+
+    private FilterExecution() {
+    }
+
+    static int getParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Runs all the tasks, and waits for them to finish.
+     *
+     * @throws IllegalStateException if any of the tasks failed.
+     */
+    static void runAll( List<Callable<Void>> tasks ) {
+        List<Future<Void>> futures = new ArrayList<>();
+        for ( Callable<Void> task : tasks ) {
+            futures.add( EXECUTOR.submit( task ) );
+        }
+        try {
+            for ( Future<Void> future : futures ) {
+                future.get();
+            }
+        }
+        catch ( InterruptedException ex ) {
+            for ( Future<Void> future : futures ) {
+                future.cancel( true );
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Interrupted while filtering.", ex );
+        }
+        catch ( ExecutionException ex ) {
+            for ( Future<Void> future : futures ) {
+                future.cancel( true );
+            }
+            throw new IllegalStateException( "Filtering failed.", ex.getCause() );
+        }
+    }
+}
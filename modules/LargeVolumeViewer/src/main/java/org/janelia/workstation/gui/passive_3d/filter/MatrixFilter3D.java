@@ -21,9 +21,12 @@ import org.slf4j.LoggerFactory;
  * NOTE: limited to byte array, which is constrained to an Integer.MAX_INT
  * divided by bytes-per-voxel, of filtered data.
  * 
+ * This sums whole neighborhoods, so for anything but small matrices, use
+ * VolumeFilter3DFactory, which picks a separable or FFT filter when it can.
+ * 
  * @author fosterl
  */
-public class MatrixFilter3D {
+public class MatrixFilter3D implements VolumeFilter3D {
     // On MacPro with 64Gb, seeing load of 256x taking 17s with 30 threads. 
     // At 20 threads: 21s.  At 15 threads: 24s.  At 10 threads: 26s. LLF
     private static final int NUM_THREADS = 30;
@@ -156,6 +159,7 @@ public class MatrixFilter3D {
         this.byteOrder = byteOrder;
     }
     
+    @Override
     public void setProgressMonitor( ProgressMonitor progressMonitor ) {
         this.progressMonitor = progressMonitor;
     }
@@ -171,6 +175,7 @@ public class MatrixFilter3D {
      * @param sz length of z.
      * @return filtered version of original.
      */
+    @Override
     public byte[] filter( byte[] inputBytes, final int bytesPerCell, int channelCount, int sx, int sy, int sz ) {
         logger.info("Starting the filter run.");
         // one-time precalculate some values used in filtering operation.
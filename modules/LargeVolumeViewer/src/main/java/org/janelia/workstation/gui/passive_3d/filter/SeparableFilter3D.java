@@ -0,0 +1,270 @@
+package org.janelia.workstation.gui.passive_3d.filter;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import javax.swing.ProgressMonitor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Carries out a 3D filtering with a separable kernel, that is, one which is
+ * the product of a 1D kernel along each axis, such as a Gaussian or a box.
+ * The volume is filtered by one 1D pass per axis, which costs the sum of the
+ * kernel widths per voxel, rather than their product.
+ *
+ * Filtering is done on a copy of 8 or 16 bit voxels, one plane at a time.
+ * As with MatrixFilter3D, voxels outside the volume count as zero.
+ *
+ * Cancellation through the progress monitor is checked between passes; a
+ * cancelled run returns the unfiltered input.
+ */
+public class SeparableFilter3D implements VolumeFilter3D {
+
+    // Relative tolerance when checking whether a matrix is separable.
+    private static final double SEPARABLE_TOLERANCE = 1.0e-5;
+
+    private final float[] kernelX;
+    private final float[] kernelY;
+    private final float[] kernelZ;
+    private final ByteOrder byteOrder;
+    private ProgressMonitor progressMonitor;
+
+    private static final Logger logger = LoggerFactory.getLogger( SeparableFilter3D.class );
+
+    /**
+     * Kernels must have odd lengths, and are centered on the filtered voxel.
+     */
+    public SeparableFilter3D( double[] kernelX, double[] kernelY, double[] kernelZ, ByteOrder byteOrder ) {
+        this.kernelX = toFloat( kernelX );
+        this.kernelY = toFloat( kernelY );
+        this.kernelZ = toFloat( kernelZ );
+        this.byteOrder = byteOrder;
+    }
+
+    /**
+     * Gaussian smoothing, with the given sigma (in voxels) along each axis.
+     * The kernels extend to three sigmas either side of the center.
+     */
+    public static SeparableFilter3D gaussian( double sigmaX, double sigmaY, double sigmaZ, ByteOrder byteOrder ) {
+        return new SeparableFilter3D(
+                getGaussianKernel( sigmaX ), getGaussianKernel( sigmaY ), getGaussianKernel( sigmaZ ), byteOrder
+        );
+    }
+
+    /**
+     * Averaging over a cube of size voxels on a side.
+     */
+    public static SeparableFilter3D box( int size, ByteOrder byteOrder ) {
+        if ( size < 1 || size % 2 == 0 ) {
+            throw new IllegalArgumentException( "Box size must be odd and positive." );
+        }
+        double[] kernel = new double[ size ];
+        Arrays.fill( kernel, 1.0 / size );
+        return new SeparableFilter3D( kernel, kernel, kernel, byteOrder );
+    }
+
+    /**
+     * Factors a cubic matrix, as used by MatrixFilter3D, into one kernel per
+     * axis.
+     *
+     * @return equivalent separable filter, or null if the matrix is not separable.
+     */
+    public static SeparableFilter3D fromMatrix( double[] matrix, ByteOrder byteOrder ) {
+        final int dim = VolumeFilter3DFactory.getCubicDim( matrix );
+        // Factor through the largest cell, which can't be zero unless all are.
+        int peak = 0;
+        for ( int i = 1; i < matrix.length; i++ ) {
+            if ( Math.abs( matrix[ i ] ) > Math.abs( matrix[ peak ] ) ) {
+                peak = i;
+            }
+        }
+        final double peakValue = matrix[ peak ];
+        if ( peakValue == 0.0 ) {
+            return null;
+        }
+        int peakX = peak % dim;
+        int peakY = ( peak / dim ) % dim;
+        int peakZ = peak / ( dim * dim );
+
+        double[] kernelX = new double[ dim ];
+        double[] kernelY = new double[ dim ];
+        double[] kernelZ = new double[ dim ];
+        for ( int i = 0; i < dim; i++ ) {
+            kernelX[ i ] = matrix[ ( peakZ * dim + peakY ) * dim + i ];
+            kernelY[ i ] = matrix[ ( peakZ * dim + i ) * dim + peakX ] / peakValue;
+            kernelZ[ i ] = matrix[ ( i * dim + peakY ) * dim + peakX ] / peakValue;
+        }
+
+        final double tolerance = Math.abs( peakValue ) * SEPARABLE_TOLERANCE;
+        for ( int z = 0; z < dim; z++ ) {
+            for ( int y = 0; y < dim; y++ ) {
+                for ( int x = 0; x < dim; x++ ) {
+                    double product = kernelZ[ z ] * kernelY[ y ] * kernelX[ x ];
+                    if ( Math.abs( matrix[ ( z * dim + y ) * dim + x ] - product ) > tolerance ) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return new SeparableFilter3D( kernelX, kernelY, kernelZ, byteOrder );
+    }
+
+    static double[] getGaussianKernel( double sigma ) {
+        if ( sigma <= 0.0 ) {
+            return new double[] { 1.0 };
+        }
+        int radius = Math.max( 1, (int) Math.ceil( 3.0 * sigma ) );
+        double[] kernel = new double[ 2 * radius + 1 ];
+        double sum = 0.0;
+        for ( int i = 0; i < kernel.length; i++ ) {
+            int offset = i - radius;
+            kernel[ i ] = Math.exp( -( offset * offset ) / ( 2.0 * sigma * sigma ) );
+            sum += kernel[ i ];
+        }
+        for ( int i = 0; i < kernel.length; i++ ) {
+            kernel[ i ] /= sum;
+        }
+        return kernel;
+    }
+
+    @Override
+    public void setProgressMonitor( ProgressMonitor progressMonitor ) {
+        this.progressMonitor = progressMonitor;
+    }
+
+    /**
+     * Filters a copy of the input array.
+     *
+     * @param inputBytes bytes of input data, left unchanged.
+     * @param bytesPerCell 1 or 2
+     * @return filtered copy of the input, or the input itself if cancelled.
+     */
+    @Override
+    public byte[] filter( byte[] inputBytes, int bytesPerCell, int channelCount, int sx, int sy, int sz ) {
+        logger.info( "Starting the separable filter run, kernel sizes {}x{}x{}.", kernelX.length, kernelY.length, kernelZ.length );
+        long startTime = System.currentTimeMillis();
+        final int lineStepX = 1;
+        final int lineStepY = sx;
+        final int lineStepZ = sx * sy;
+        final byte[] outputBytes = Arrays.copyOf( inputBytes, inputBytes.length );
+        for ( int ch = 0; ch < channelCount; ch++ ) {
+            VoxelAccess voxels = new VoxelAccess( outputBytes, bytesPerCell, channelCount, ch, byteOrder );
+            // Along x, each row is a plane one voxel wide.  Along y and z,
+            // the planes are as wide as a row, which keeps the reads sequential.
+            if ( ! filterPass( voxels, kernelX, sz * sy, sx, lineStepX, 1, sx ) ) {
+                return inputBytes;
+            }
+            if ( ! filterPass( voxels, kernelY, sz, sy, lineStepY, sx, lineStepZ ) ) {
+                return inputBytes;
+            }
+            if ( ! filterPass( voxels, kernelZ, sy, sz, lineStepZ, sx, lineStepY ) ) {
+                return inputBytes;
+            }
+        }
+        logger.info( "Ending the separable filter run, after {}ms.", System.currentTimeMillis() - startTime );
+        return outputBytes;
+    }
+
+    /**
+     * Convolves a set of planes with the kernel, along their lines.
+     *
+     * @param planeCount how many planes.
+     * @param lineCount lines in each plane, which is the length being filtered.
+     * @param lineStep voxel distance between subsequent lines of a plane.
+     * @param width voxels in each line, which are filtered independently.
+     * @param planeStep voxel distance between subsequent planes.
+     * @return false if the run was cancelled.
+     */
+    private boolean filterPass(
+            final VoxelAccess voxels, final float[] kernel,
+            final int planeCount, final int lineCount, final int lineStep, final int width, final int planeStep ) {
+        if ( progressMonitor != null && progressMonitor.isCanceled() ) {
+            return false;
+        }
+        if ( kernel.length == 1 && kernel[ 0 ] == 1.0f ) {
+            return true;
+        }
+        // A few tasks per thread, each re-using its buffers for a run of planes.
+        int taskCount = Math.min( planeCount, FilterExecution.getParallelism() * 4 );
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for ( int task = 0; task < taskCount; task++ ) {
+            final int firstPlane = (int) ( (long) planeCount * task / taskCount );
+            final int endPlane = (int) ( (long) planeCount * ( task + 1 ) / taskCount );
+            tasks.add( new Callable<Void>() {
+                @Override
+                public Void call() {
+                    float[] src = new float[ lineCount * width ];
+                    float[] dst = new float[ lineCount * width ];
+                    for ( int plane = firstPlane; plane < endPlane; plane++ ) {
+                        int base = plane * planeStep;
+                        for ( int line = 0; line < lineCount; line++ ) {
+                            int voxel = base + line * lineStep;
+                            int pos = line * width;
+                            for ( int w = 0; w < width; w++ ) {
+                                src[ pos + w ] = voxels.get( voxel + w );
+                            }
+                        }
+                        convolve( src, dst, lineCount, width, kernel );
+                        for ( int line = 0; line < lineCount; line++ ) {
+                            int voxel = base + line * lineStep;
+                            int pos = line * width;
+                            for ( int w = 0; w < width; w++ ) {
+                                voxels.set( voxel + w, dst[ pos + w ] );
+                            }
+                        }
+                    }
+                    return null;
+                }
+            } );
+        }
+        FilterExecution.runAll( tasks );
+        return true;
+    }
+
+    /**
+     * Centered 1D convolution along the lines of a plane, treating values
+     * beyond the ends of the lines as zero.
+     */
+    static void convolve( float[] src, float[] dst, int lineCount, int width, float[] kernel ) {
+        final int radius = kernel.length / 2;
+        Arrays.fill( dst, 0, lineCount * width, 0.0f );
+        for ( int i = 0; i < kernel.length; i++ ) {
+            final float k = kernel[ i ];
+            if ( k == 0.0f ) {
+                continue;
+            }
+            final int shift = i - radius;
+            final int start = Math.max( 0, -shift );
+            final int end = Math.min( lineCount, lineCount - shift );
+            if ( width == 1 ) {
+                for ( int line = start; line < end; line++ ) {
+                    dst[ line ] += k * src[ line + shift ];
+                }
+            }
+            else {
+                for ( int line = start; line < end; line++ ) {
+                    int d = line * width;
+                    int s = ( line + shift ) * width;
+                    for ( int w = 0; w < width; w++ ) {
+                        dst[ d + w ] += k * src[ s + w ];
+                    }
+                }
+            }
+        }
+    }
+
+    private static float[] toFloat( double[] kernel ) {
+        if ( kernel.length % 2 == 0 ) {
+            throw new IllegalArgumentException( "Kernel length must be odd." );
+        }
+        float[] rtnVal = new float[ kernel.length ];
+        for ( int i = 0; i < kernel.length; i++ ) {
+            rtnVal[ i ] = (float) kernel[ i ];
+        }
+        return rtnVal;
+    }
+}
@@ -0,0 +1,31 @@
+package org.janelia.workstation.gui.passive_3d.filter;
+
+import javax.swing.ProgressMonitor;
+
+/**
+ * A 3D filter (for things like smoothing) over a volume of interleaved
+ * channels, held in a byte array with N bytes per element.
+ *
+ * @see VolumeFilter3DFactory
+ */
+public interface VolumeFilter3D {
+
+    /**
+     * Filter the input array.  Implementations may filter in place, in which
+     * case the input array itself is returned.
+     *
+     * @param inputBytes bytes of input data
+     * @param bytesPerCell how many bytes make up the integer cell value
+     * @param channelCount how many separate channels in data
+     * @param sx length of x.
+     * @param sy length of y.
+     * @param sz length of z.
+     * @return filtered version of original.
+     */
+    byte[] filter( byte[] inputBytes, int bytesPerCell, int channelCount, int sx, int sy, int sz );
+
+    /**
+     * Cancellation through this monitor stops the filter early.
+     */
+    void setProgressMonitor( ProgressMonitor progressMonitor );
+}
@@ -0,0 +1,50 @@
+package org.janelia.workstation.gui.passive_3d.filter;
+
+import java.nio.ByteOrder;
+
+/**
+ * Picks the fastest filter implementation for a cubic filter matrix, as
+ * used by MatrixFilter3D.
+ *
+ * Separable matrices (Gaussians, boxes) are applied as three 1D passes.
+ * Other matrices are applied by FFT convolution once they are large enough
+ * for that to beat the neighborhood summation of MatrixFilter3D, which is
+ * also used for voxels of other than 8 or 16 bits.
+ */
+public class VolumeFilter3DFactory {
+
+    /** Non-separable matrices at least this wide are applied by FFT convolution. */
+    public static final int FFT_MIN_MATRIX_DIM = 5;
+
+    private VolumeFilter3DFactory() {
+    }
+
+    public static VolumeFilter3D create( double[] matrix, ByteOrder byteOrder, int bytesPerCell ) {
+        if ( ! VoxelAccess.isSupported( bytesPerCell ) ) {
+            return new MatrixFilter3D( matrix, byteOrder );
+        }
+        SeparableFilter3D separable = SeparableFilter3D.fromMatrix( matrix, byteOrder );
+        if ( separable != null ) {
+            return separable;
+        }
+        if ( getCubicDim( matrix ) >= FFT_MIN_MATRIX_DIM ) {
+            return new FFTFilter3D( matrix, byteOrder );
+        }
+        return new MatrixFilter3D( matrix, byteOrder );
+    }
+
+    /**
+     * @return edge length of the cubic matrix.
+     * @throws IllegalArgumentException if the matrix is not a cube of odd size.
+     */
+    static int getCubicDim( double[] matrix ) {
+        int matrixCubicDim = (int)Math.pow( matrix.length + 0.5, 1.0/3.0 );
+        if ( matrixCubicDim * matrixCubicDim * matrixCubicDim != matrix.length ) {
+            throw new IllegalArgumentException( "Matrix size not a cube." );
+        }
+        if ( matrixCubicDim % 2 == 0 ) {
+            throw new IllegalArgumentException( "Matrix size must be odd." );
+        }
+        return matrixCubicDim;
+    }
+}
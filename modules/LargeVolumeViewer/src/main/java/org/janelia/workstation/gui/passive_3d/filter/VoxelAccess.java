@@ -0,0 +1,73 @@
+package org.janelia.workstation.gui.passive_3d.filter;
+
+import java.nio.ByteOrder;
+
+/**
+ * Reads and writes unsigned 8 or 16 bit voxels of one channel, directly in
+ * the interleaved byte array of a volume.
+ */
+final class VoxelAccess {
+
+    private final byte[] data;
+    private final int stride;
+    private final int channelOffset;
+    private final boolean wide;
+    // Offsets of the high and low bytes of a 16 bit voxel
+    private final int hiOffset;
+    private final int loOffset;
+    private final int maxValue;
+
+    /**
+     * @throws IllegalArgumentException for voxels of other than 1 or 2 bytes.
+     */
+    VoxelAccess( byte[] data, int bytesPerCell, int channelCount, int channel, ByteOrder byteOrder ) {
+        if ( ! isSupported( bytesPerCell ) ) {
+            throw new IllegalArgumentException( "Only 8 and 16 bit voxels are supported, not " + bytesPerCell + " bytes." );
+        }
+        this.data = data;
+        this.stride = bytesPerCell * channelCount;
+        this.channelOffset = bytesPerCell * channel;
+        this.wide = bytesPerCell == 2;
+        boolean bigEndian = byteOrder == ByteOrder.BIG_ENDIAN;
+        this.hiOffset = bigEndian ? 0 : 1;
+        this.loOffset = bigEndian ? 1 : 0;
+        this.maxValue = wide ? 0xFFFF : 0xFF;
+    }
+
+    static boolean isSupported( int bytesPerCell ) {
+        return bytesPerCell == 1 || bytesPerCell == 2;
+    }
+
+    /**
+     * @param voxel linear index of the voxel: (z * sy + y) * sx + x
+     * @return unsigned value of the voxel.
+     */
+    int get( int voxel ) {
+        int pos = voxel * stride + channelOffset;
+        if ( wide ) {
+            return ( ( data[ pos + hiOffset ] & 0xFF ) << 8 ) | ( data[ pos + loOffset ] & 0xFF );
+        }
+        return data[ pos ] & 0xFF;
+    }
+
+    /**
+     * Rounds and clamps the value into the voxel's range, and stores it.
+     */
+    void set( int voxel, float value ) {
+        int intValue = Math.round( value );
+        if ( intValue < 0 ) {
+            intValue = 0;
+        }
+        else if ( intValue > maxValue ) {
+            intValue = maxValue;
+        }
+        int pos = voxel * stride + channelOffset;
+        if ( wide ) {
+            data[ pos + hiOffset ] = (byte) ( intValue >>> 8 );
+            data[ pos + loOffset ] = (byte) intValue;
+        }
+        else {
+            data[ pos ] = (byte) intValue;
+        }
+    }
+}
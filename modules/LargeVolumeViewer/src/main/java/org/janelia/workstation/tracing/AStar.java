@@ -2,12 +2,10 @@ package org.janelia.workstation.tracing;
 
 import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.Vector;
 import org.janelia.workstation.gui.large_volume_viewer.Subvolume;
 import org.janelia.it.jacs.shared.octree.ZoomLevel;
 import org.janelia.it.jacs.shared.octree.ZoomedVoxelIndex;
@@ -20,7 +18,14 @@ import org.slf4j.LoggerFactory;
 /**
  * Maybe implement my own version of AStar.
  * http://en.wikipedia.org/wiki/A*_search_algorithm
- * 
+ *
+ * Voxels are addressed by their flat offset into the subvolume raster, and
+ * all per-voxel search state lives in primitive arrays sized to the
+ * subvolume. The open set is an indexed binary heap, so the lowest fScore
+ * is found in O(1) and a better path to an open voxel is a decrease-key.
+ * The search can optionally run from both ends at once, and can be held to
+ * a corridor around a path traced at a coarser zoom level.
+ *
  * @author brunsc
  *
  * TODO - store log(probability), not probability
@@ -31,41 +36,80 @@ public class AStar {
         MANHATTAN,
     }
     private DistanceMetric distanceMetric = DistanceMetric.EUCLIDEAN;
-    
+
     // How many neighbors to examine for each voxel?
-    // TODO - not implemented yet
     enum NeighborClass {
         SIX_CONNECTED,
         // EIGHTEEN_CONNECTED, // I don't have all day here...
         TWENTYSIX_CONNECTED,
     }
     private NeighborClass neighborClass = NeighborClass.TWENTYSIX_CONNECTED;
-    
-    private boolean debug = false;
+
     // Cached values
     // stepCostLowerBound has a dramatic effect on performance 9-25-2013
     // Numbers larger than <some small amount> take more time and cause more nodes to be explored.
     // Non-zero values prevent meandering path.
     private final double stepCostLowerBound = 1e-60;
-    
+
+    // Voxel states
+    private static final byte UNVISITED = 0;
+    private static final byte OPEN = 1;
+    private static final byte CLOSED = 2;
+    private static final byte BLOCKED = 3; // outside the corridor
+    private static final byte NO_PARENT = -1;
+
     private double minStepCost = Double.NaN; // will be set from volume statistics
-    private Subvolume volume;
-    private Map<Integer, Double> pathCostForIntensity = new HashMap<Integer, Double>();
+    private final ZoomedVoxelIndex origin;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final int channelCount;
+    private final ByteBuffer bytes;
+    private final ShortBuffer shorts; // null for 8-bit volumes
+    // Path cost of stepping onto a voxel, indexed by intensity
+    private double[] pathCostForIntensity;
     private double meanIntensity = Double.NaN;
     private double stdDevIntensity = Double.NaN;
     // In case of anisotropic voxel size
     private double voxelSizeX = 1.0;
     private double voxelSizeY = 1.0;
     private double voxelSizeZ = 1.0;
-    Map<VoxelIndex, Node> allNodes = new HashMap<VoxelIndex, Node>();
+    private boolean bidirectional = false;
+    private BitSet corridor; // voxels the path may use, or null for all
+
+    // Neighbor steps, as voxel deltas, flat offset deltas and step lengths
+    private int[] neighborDx;
+    private int[] neighborDy;
+    private int[] neighborDz;
+    private int[] neighborOffset;
+    private double[] neighborDistance;
+
+    // Search from the start, and (when bidirectional) from the goal
+    private SearchFront forward;
+    private SearchFront backward;
 
     private static final Logger log = LoggerFactory.getLogger(AStar.class);
 
     public AStar(Subvolume volume) {
-        this.volume = volume;
+        this(volume.getByteBuffer(),
+                volume.getBytesPerIntensity(),
+                volume.getChannelCount(),
+                volume.getExtent(),
+                volume.getOrigin());
+    }
+
+    AStar(ByteBuffer intensityBytes, int bytesPerIntensity, int channelCount,
+            VoxelIndex extent, ZoomedVoxelIndex origin) {
+        this.origin = origin;
+        this.sizeX = extent.getX();
+        this.sizeY = extent.getY();
+        this.sizeZ = extent.getZ();
+        this.channelCount = channelCount;
+        this.bytes = intensityBytes;
+        this.shorts = bytesPerIntensity == 2 ? intensityBytes.asShortBuffer() : null;
         computeIntensityStats();
     }
-    
+
     public void setVoxelSizes(double[] sizes) {
         setVoxelSizes(sizes[0], sizes[1], sizes[2]);
     }
@@ -74,196 +118,316 @@ public class AStar {
         voxelSizeY = ySize;
         voxelSizeZ = zSize;
     }
-    
+
+    /**
+     * Search from both ends at once, and stop when the two searches meet.
+     * Finds a path of the same cost, usually after expanding fewer voxels.
+     */
+    public void setBidirectional(boolean bidirectional) {
+        this.bidirectional = bidirectional;
+    }
+
+    /**
+     * Restrict the search to a corridor around a path traced at a coarser
+     * zoom level. Each coarse voxel covers a block of voxels in this volume;
+     * those blocks, grown by radius voxels, are all the search may visit.
+     * Pass null to search the whole volume again.
+     */
+    public void setCorridor(List<ZoomedVoxelIndex> coarsePath, int radius) {
+        if (coarsePath == null) {
+            corridor = null;
+            return;
+        }
+        corridor = new BitSet(sizeX * sizeY * sizeZ);
+        for (ZoomedVoxelIndex coarse : coarsePath) {
+            int scale = coarse.getZoomLevel().getZoomOutFactor() / origin.getZoomLevel().getZoomOutFactor();
+            int x0 = Math.max(0, coarse.getX() * scale - origin.getX() - radius);
+            int y0 = Math.max(0, coarse.getY() * scale - origin.getY() - radius);
+            int z0 = Math.max(0, coarse.getZ() * scale - origin.getZ() - radius);
+            int x1 = Math.min(sizeX, (coarse.getX() + 1) * scale - origin.getX() + radius);
+            int y1 = Math.min(sizeY, (coarse.getY() + 1) * scale - origin.getY() + radius);
+            int z1 = Math.min(sizeZ, (coarse.getZ() + 1) * scale - origin.getZ() + radius);
+            for (int z = z0; z < z1; ++z) {
+                for (int y = y0; y < y1; ++y) {
+                    int rowStart = voxelOffset(0, y, z);
+                    corridor.set(rowStart + x0, rowStart + Math.max(x0, x1));
+                }
+            }
+        }
+    }
+
     public List<ZoomedVoxelIndex> trace(
             ZoomedVoxelIndex start0,
             ZoomedVoxelIndex goal0,
             double timout)
     {
-        Node start = getNode(new VoxelIndex(
-                start0.getX() - volume.getOrigin().getX(), 
-                start0.getY() - volume.getOrigin().getY(), 
-                start0.getZ() - volume.getOrigin().getZ()));
-        Node goal = getNode(new VoxelIndex(
-                goal0.getX() - volume.getOrigin().getX(), 
-                goal0.getY() - volume.getOrigin().getY(), 
-                goal0.getZ() - volume.getOrigin().getZ()));
-        // 
-        // The set of nodes already evaluated
-        Set<Node> closedSet = new HashSet<Node>();
-        // The set of tentative nodes to be evaluated, initially containing the start node.
-        Set<Node> openSet = new HashSet<Node>();
-        openSet.add(start);
-        // The map of navigated nodes
-        // Map<VoxelIndex, VoxelIndex> cameFrom = new HashMap<VoxelIndex, VoxelIndex>();
-        // Cost from start along best known path
-        // Map<VoxelIndex, Double> gScore = new HashMap<VoxelIndex, Double>();
-        // Map<VoxelIndex, Double> fScore = new HashMap<VoxelIndex, Double>();
-        //
-        start.gScore = 0.0;
-        start.fScore = start.gScore + heuristicCostEstimate(start.index, goal.index);
+        int startX = start0.getX() - origin.getX();
+        int startY = start0.getY() - origin.getY();
+        int startZ = start0.getZ() - origin.getZ();
+        int goalX = goal0.getX() - origin.getX();
+        int goalY = goal0.getY() - origin.getY();
+        int goalZ = goal0.getZ() - origin.getZ();
+        if (!contains(startX, startY, startZ) || !contains(goalX, goalY, goalZ)) {
+            log.warn("A-star trace end point lies outside the subvolume");
+            return null;
+        }
+        int start = voxelOffset(startX, startY, startZ);
+        int goal = voxelOffset(goalX, goalY, goalZ);
+
+        initializeNeighbors();
+        forward = initializeSearchState(forward, start, goal);
+        forward.open(start, 0.0, NO_PARENT,
+                heuristicCostEstimate(startX, startY, startZ, goalX, goalY, goalZ));
+        if (bidirectional) {
+            backward = initializeSearchState(backward, start, goal);
+            backward.open(goal, 0.0, NO_PARENT,
+                    heuristicCostEstimate(goalX, goalY, goalZ, startX, startY, startZ));
+            return traceBidirectional(start, goal, start0.getZoomLevel(), timout);
+        }
+        else {
+            backward = null;
+            return traceForward(start, goal, start0.getZoomLevel(), timout);
+        }
+    }
 
+    private List<ZoomedVoxelIndex> traceForward(int start, int goal, ZoomLevel zoomLevel, double timout) {
         long startTime = System.currentTimeMillis();
         long checkedVoxelCount = 0;
-        while (openSet.size() > 0) {
+        while (forward.heapSize > 0) {
             // Get node with lowest fScore in openSet
-            // TODO - perhaps a sorted list could be maintained, to avoid 
-            // exhaustive search each time.
-            Node current = null;
-            for (Node n : openSet) {
-                if (current == null) {
-                    current = n;
-                    continue;
-                }
-                if (n.fScore < current.fScore)
-                    current = n;
+            int current = forward.removeMin();
+            if (current == goal) {
+                log.debug("Examined {} voxels", checkedVoxelCount);
+                return reconstructPath(start, goal, goal, zoomLevel);
             }
-            if (current.equals(goal)) {
-                if (debug) {
-                    System.out.println("Examined "+checkedVoxelCount+" voxels");
+            forward.state[current] = CLOSED;
+            checkedVoxelCount += 1;
+            // check timeout every so often; reading the clock is not free
+            if (checkedVoxelCount % 1000 == 0) {
+                if (System.currentTimeMillis() - startTime > timout * 1000) {
+                    log.warn("A-star tracing timed out, " + checkedVoxelCount + " voxels examined");
+                    return null;
                 }
-                return reconstructPath(start, goal, start0.getZoomLevel());
             }
-            // Remove current from openSet
-            openSet.remove(current);
-            closedSet.add(current);
+            expand(forward, current, goal, true);
+        }
+        return null;
+    }
+
+    private List<ZoomedVoxelIndex> traceBidirectional(int start, int goal, ZoomLevel zoomLevel, double timout) {
+        long startTime = System.currentTimeMillis();
+        long checkedVoxelCount = 0;
+        // Cheapest complete path seen so far, through the voxel where the searches met
+        double bestCost = start == goal ? 0.0 : Double.POSITIVE_INFINITY;
+        int meeting = start == goal ? start : -1;
+        while (forward.heapSize > 0 && backward.heapSize > 0) {
+            // Every path not seen yet costs at least as much as either
+            // search's lowest fScore, because the heuristics are consistent
+            if (Math.max(forward.peekKey(), backward.peekKey()) >= bestCost) {
+                break;
+            }
+            // Grow the search with the smaller frontier
+            boolean isForward = forward.heapSize <= backward.heapSize;
+            SearchFront front = isForward ? forward : backward;
+            SearchFront other = isForward ? backward : forward;
+            int current = front.removeMin();
+            front.state[current] = CLOSED;
             checkedVoxelCount += 1;
-            if (debug && checkedVoxelCount % 10000 == 0)
-                System.out.println("Examined "+checkedVoxelCount+" voxels");
-            // check timeout; quick tests suggest about 5k/sec, so this ought to
-            //  be more than sensitive enough
             if (checkedVoxelCount % 1000 == 0) {
                 if (System.currentTimeMillis() - startTime > timout * 1000) {
-                    if (debug) {
-                        System.out.println("A-star tracing timed out");
-                        System.out.println("Examined "+checkedVoxelCount+" voxels");
-                    }
                     log.warn("A-star tracing timed out, " + checkedVoxelCount + " voxels examined");
                     return null;
                 }
             }
-            for (VoxelIndex neighborIndex : getNeighbors(current.index))
-            {
-                Node neighbor = getNode(neighborIndex);
-                double tentativeGScore = current.gScore
-                        + distanceBetween(current.index, neighbor.index);
-                if ( closedSet.contains(neighbor)
-                       && (tentativeGScore >= neighbor.gScore ) ) {
-                    continue;
-                }
-                if ( (! openSet.contains(neighbor)) 
-                       || (tentativeGScore < neighbor.gScore) )
-                {
-                    neighbor.cameFrom = current;
-                    neighbor.gScore = tentativeGScore;
-                    neighbor.fScore = neighbor.gScore + heuristicCostEstimate(neighbor.index, goal.index);
-                    openSet.add(neighbor);
+            int improved = expand(front, current, isForward ? goal : start, isForward);
+            for (int i = 0; i < improved; ++i) {
+                int voxel = front.improved[i];
+                byte otherState = other.state[voxel];
+                if (otherState == OPEN || otherState == CLOSED) {
+                    double cost = front.gScore[voxel] + other.gScore[voxel];
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        meeting = voxel;
+                    }
                 }
             }
         }
-        return null;
+        if (meeting < 0) {
+            return null;
+        }
+        log.debug("Examined {} voxels", checkedVoxelCount);
+        return reconstructPath(start, goal, meeting, zoomLevel);
     }
-    
-    private double distanceBetween(VoxelIndex current, VoxelIndex neighbor) {
-        // Set distance to cost of second node.
-        int intensity = volume.getIntensityLocal(neighbor, 0);
-        double pathScore = getPathStepCostForIntensity(intensity);
-        // Use Manhattan distance, and prohibit diagonal moves (for performance)
-        double dx = (current.getX() - neighbor.getX()) * voxelSizeX;
-        double dy = (current.getY() - neighbor.getY()) * voxelSizeY;
-        double dz = (current.getZ() - neighbor.getZ()) * voxelSizeZ;
-        double distance = 0;
-        if (distanceMetric == DistanceMetric.MANHATTAN) {
-            distance += Math.abs(dx);
-            distance += Math.abs(dy);
-            distance += Math.abs(dz);
-        } else if (distanceMetric == DistanceMetric.EUCLIDEAN) {
-            distance = Math.sqrt(dx*dx + dy*dy + dz*dz);
+
+    /**
+     * Relaxes the neighbors of a just-closed voxel. The forward search pays
+     * for the voxel being stepped onto; the backward search walks steps in
+     * reverse, so it pays for the current voxel instead.
+     *
+     * @return number of voxels whose gScore improved, listed in front.improved
+     */
+    private int expand(SearchFront front, int current, int target, boolean isForward) {
+        int x = current % sizeX;
+        int y = (current / sizeX) % sizeY;
+        int z = current / (sizeX * sizeY);
+        int targetX = target % sizeX;
+        int targetY = (target / sizeX) % sizeY;
+        int targetZ = target / (sizeX * sizeY);
+        double currentGScore = front.gScore[current];
+        double currentStepCost = pathCostForIntensity[intensityAt(current)];
+        byte[] state = front.state;
+        int improved = 0;
+        for (int n = 0; n < neighborOffset.length; ++n) {
+            int nx = x + neighborDx[n];
+            int ny = y + neighborDy[n];
+            int nz = z + neighborDz[n];
+            if (nx < 0 || nx >= sizeX || ny < 0 || ny >= sizeY || nz < 0 || nz >= sizeZ) {
+                continue;
+            }
+            int neighbor = current + neighborOffset[n];
+            byte neighborState = state[neighbor];
+            // The heuristic is consistent, so closed voxels never improve
+            if (neighborState == CLOSED || neighborState == BLOCKED) {
+                continue;
+            }
+            double stepCost = isForward ? pathCostForIntensity[intensityAt(neighbor)] : currentStepCost;
+            double tentativeGScore = currentGScore + neighborDistance[n] * stepCost;
+            if (neighborState == OPEN && tentativeGScore >= front.gScore[neighbor]) {
+                continue;
+            }
+            double fScore = tentativeGScore
+                    + heuristicCostEstimate(nx, ny, nz, targetX, targetY, targetZ);
+            front.open(neighbor, tentativeGScore, (byte) n, fScore);
+            front.improved[improved++] = neighbor;
         }
-        return pathScore * distance;
+        return improved;
+    }
+
+    private boolean contains(int x, int y, int z) {
+        return x >= 0 && x < sizeX && y >= 0 && y < sizeY && z >= 0 && z < sizeZ;
+    }
+
+    private int voxelOffset(int x, int y, int z) {
+        return x + sizeX * (y + sizeY * z);
     }
-    
-    private List<VoxelIndex> getNeighbors(VoxelIndex center) {
-        // For performance, don't step to diagonals
-        // Thus, up to six neighbors in 3D
-        List<VoxelIndex> result = new Vector<VoxelIndex>();
-        //
+
+    // Intensity of the first channel; color channel is fastest moving dimension
+    private int intensityAt(int voxel) {
+        int offset = voxel * channelCount;
+        if (shorts != null) {
+            return shorts.get(offset) & 0xffff;
+        } else {
+            return bytes.get(offset) & 0xff;
+        }
+    }
+
+    private void initializeNeighbors() {
+        List<int[]> steps = new ArrayList<>();
         if (neighborClass == NeighborClass.SIX_CONNECTED) {
-            if (center.getX() > 0)
-                result.add(new VoxelIndex(center.getX()-1, center.getY(), center.getZ()));
-            if (center.getY() > 0)
-                result.add(new VoxelIndex(center.getX(), center.getY()-1, center.getZ()));
-            if (center.getZ() > 0)
-                result.add(new VoxelIndex(center.getX(), center.getY(), center.getZ()-1));
-            //
-            if (center.getX() < volume.getExtent().getX() - 1)
-                result.add(new VoxelIndex(center.getX()+1, center.getY(), center.getZ()));
-            if (center.getX() < volume.getExtent().getY() - 1)
-                result.add(new VoxelIndex(center.getX(), center.getY()+1, center.getZ()));
-            if (center.getX() < volume.getExtent().getZ() - 1)
-                result.add(new VoxelIndex(center.getX(), center.getY(), center.getZ()+1));
+            steps.add(new int[] {-1, 0, 0});
+            steps.add(new int[] {1, 0, 0});
+            steps.add(new int[] {0, -1, 0});
+            steps.add(new int[] {0, 1, 0});
+            steps.add(new int[] {0, 0, -1});
+            steps.add(new int[] {0, 0, 1});
         }
-        else if (neighborClass == NeighborClass.TWENTYSIX_CONNECTED) {            
+        else if (neighborClass == NeighborClass.TWENTYSIX_CONNECTED) {
             for (int dx = -1; dx <= 1; ++dx) {
-                int x = center.getX() + dx;
-                if (x < 0) continue;
-                if (x >= volume.getExtent().getX() - 1) continue;
                 for (int dy = -1; dy <= 1; ++dy) {
-                    int y = center.getY() + dy;
-                    if (y < 0) continue;
-                    if (y >= volume.getExtent().getY() - 1) continue;
                     for (int dz = -1; dz <= 1; ++dz) {
-                        if ((dx == 0) && (dy == 0) && (dz == 0)) 
+                        if ((dx == 0) && (dy == 0) && (dz == 0))
                             continue; // self is not a neighbor
-                        int z = center.getZ() + dz;
-                        if (z < 0) continue;
-                        if (z >= volume.getExtent().getZ() - 1) continue;
-                        result.add(new VoxelIndex(x, y, z));
+                        steps.add(new int[] {dx, dy, dz});
                     }
                 }
             }
         }
-        //
-        return result;
+        int count = steps.size();
+        neighborDx = new int[count];
+        neighborDy = new int[count];
+        neighborDz = new int[count];
+        neighborOffset = new int[count];
+        neighborDistance = new double[count];
+        for (int n = 0; n < count; ++n) {
+            int[] step = steps.get(n);
+            neighborDx[n] = step[0];
+            neighborDy[n] = step[1];
+            neighborDz[n] = step[2];
+            neighborOffset[n] = step[0] + sizeX * (step[1] + sizeY * step[2]);
+            neighborDistance[n] = distance(step[0], step[1], step[2]);
+        }
     }
-    
-    private Node getNode(VoxelIndex index) {
-        if (! allNodes.containsKey(index))
-            allNodes.put(index, new Node(index));
-        return allNodes.get(index);
+
+    private SearchFront initializeSearchState(SearchFront front, int start, int goal) {
+        int voxelCount = sizeX * sizeY * sizeZ;
+        if (front == null || front.state.length != voxelCount) {
+            front = new SearchFront(voxelCount, neighborOffset.length);
+        } else {
+            front.reset(neighborOffset.length);
+        }
+        if (corridor != null) {
+            for (int v = corridor.nextClearBit(0); v < voxelCount; v = corridor.nextClearBit(v + 1)) {
+                front.state[v] = BLOCKED;
+            }
+            // The end points are always reachable
+            front.state[start] = UNVISITED;
+            front.state[goal] = UNVISITED;
+        }
+        return front;
     }
-    
+
+    /**
+     * Unwinds the forward search from the meeting voxel back to the start,
+     * then the backward search (if any) from the meeting voxel on to the goal.
+     */
     private List<ZoomedVoxelIndex> reconstructPath(
-            Node start,
-            Node goal,
-            ZoomLevel zoomLevel) 
+            int start,
+            int goal,
+            int meeting,
+            ZoomLevel zoomLevel)
     {
-        List<ZoomedVoxelIndex> result = new Vector<ZoomedVoxelIndex>();
-        Node p = goal;
-        while (! p.equals(start)) {
-            result.add(new ZoomedVoxelIndex(zoomLevel, 
-                    p.index.getX() + volume.getOrigin().getX(), 
-                    p.index.getY() + volume.getOrigin().getY(), 
-                    p.index.getZ() + volume.getOrigin().getZ()));
-            p = p.cameFrom;
+        List<ZoomedVoxelIndex> result = new ArrayList<ZoomedVoxelIndex>();
+        appendSearchPath(forward, meeting, start, zoomLevel, result);
+        result = new ArrayList<ZoomedVoxelIndex>(Lists.reverse(result));
+        if (meeting != goal) {
+            List<ZoomedVoxelIndex> toGoal = new ArrayList<ZoomedVoxelIndex>();
+            appendSearchPath(backward, meeting, goal, zoomLevel, toGoal);
+            result.addAll(toGoal.subList(1, toGoal.size()));
+        }
+        return result;
+    }
+
+    // Follows parent links of one search, from a voxel back to where that search began
+    private void appendSearchPath(SearchFront front, int from, int to, ZoomLevel zoomLevel,
+            List<ZoomedVoxelIndex> result) {
+        int x = from % sizeX;
+        int y = (from / sizeX) % sizeY;
+        int z = from / (sizeX * sizeY);
+        int p = from;
+        while (true) {
+            result.add(new ZoomedVoxelIndex(zoomLevel,
+                    x + origin.getX(),
+                    y + origin.getY(),
+                    z + origin.getZ()));
+            if (p == to) {
+                break;
+            }
+            int n = front.cameFrom[p];
+            p -= neighborOffset[n];
+            x -= neighborDx[n];
+            y -= neighborDy[n];
+            z -= neighborDz[n];
         }
-        result.add(new ZoomedVoxelIndex(zoomLevel, 
-                start.index.getX() + volume.getOrigin().getX(), 
-                start.index.getY() + volume.getOrigin().getY(), 
-                start.index.getZ() + volume.getOrigin().getZ()));
-        return Lists.reverse(result);
     }
 
     // Compute mean, standard deviation, and minimum path score
     void computeIntensityStats() {
         double sumIntensity = 0;
         long intensityCount = 0;
-        int maxIntensity = Integer.MIN_VALUE;
-        ByteBuffer intensityBytes = volume.getByteBuffer();
+        int maxIntensity = 0;
         // Mean and min path
-        if (volume.getBytesPerIntensity() == 2) {
+        if (shorts != null) {
             // two bytes per value ushort
-            ShortBuffer shorts = intensityBytes.asShortBuffer();
             shorts.rewind();
             while (shorts.hasRemaining()) {
                 int intensity = shorts.get() & 0xffff;
@@ -273,9 +437,9 @@ public class AStar {
             }
         }
         else { // one byte per value ubyte
-            intensityBytes.rewind();
-            while (intensityBytes.hasRemaining()) {
-                int intensity = intensityBytes.get() & 0xff;
+            bytes.rewind();
+            while (bytes.hasRemaining()) {
+                int intensity = bytes.get() & 0xff;
                 maxIntensity = Math.max(intensity, maxIntensity);
                 sumIntensity += intensity;
                 intensityCount += 1;
@@ -286,9 +450,8 @@ public class AStar {
             meanIntensity = sumIntensity / (double)intensityCount;
         // Standard deviation
         double delta = 0;
-        if (volume.getBytesPerIntensity() == 2) {
+        if (shorts != null) {
             // two bytes per value ushort
-            ShortBuffer shorts = intensityBytes.asShortBuffer();
             shorts.rewind();
             while (shorts.hasRemaining()) {
                 int intensity = shorts.get() & 0xffff;
@@ -297,22 +460,27 @@ public class AStar {
             }
         }
         else { // one byte per value ubyte
-            intensityBytes.rewind();
-            while (intensityBytes.hasRemaining()) {
-                int intensity = intensityBytes.get() & 0xff;
+            bytes.rewind();
+            while (bytes.hasRemaining()) {
+                int intensity = bytes.get() & 0xff;
                 double di = meanIntensity - intensity;
                 delta += di * di;
             }
         }
         stdDevIntensity = 1.0;
-        if (intensityCount > 0) 
+        if (intensityCount > 0)
             stdDevIntensity = Math.sqrt(delta/(double)intensityCount);
-        // minStepCost must be computed AFTER mean/stddev
-        minStepCost = getPathStepCostForIntensity(maxIntensity) 
+        // Cost table must be computed AFTER mean/stddev; nothing in the
+        // volume is brighter than maxIntensity
+        pathCostForIntensity = new double[maxIntensity + 1];
+        for (int intensity = 0; intensity <= maxIntensity; ++intensity) {
+            pathCostForIntensity[intensity] = getPathStepCostForIntensity(intensity);
+        }
+        minStepCost = pathCostForIntensity[maxIntensity]
                 + stepCostLowerBound
                 ;
     }
-    
+
     // fractional error in math formula less than 1.2 * 10 ^ -7.
     // although subject to catastrophic cancellation when z in very close to 0
     // from Chebyshev fitting formula for erf(z) from Numerical Recipes, 6.2
@@ -323,79 +491,141 @@ public class AStar {
         // use Horner's method
         double result = t * Math.exp( -z*z   -   1.26551223 +
                                             t * ( 1.00002368 +
-                                            t * ( 0.37409196 + 
-                                            t * ( 0.09678418 + 
-                                            t * (-0.18628806 + 
-                                            t * ( 0.27886807 + 
-                                            t * (-1.13520398 + 
-                                            t * ( 1.48851587 + 
-                                            t * (-0.82215223 + 
+                                            t * ( 0.37409196 +
+                                            t * ( 0.09678418 +
+                                            t * (-0.18628806 +
+                                            t * ( 0.27886807 +
+                                            t * (-1.13520398 +
+                                            t * ( 1.48851587 +
+                                            t * (-0.82215223 +
                                             t * ( 0.17087277))))))))));
-        if (z < 0) 
+        if (z < 0)
             result = 2.0 - result;
         return  result;
     }
 
-    // Let path step cost be the probability that this intensity could 
+    // Let path step cost be the probability that this intensity could
     // occur by chance, given the intensity statistics.
     private double getPathStepCostForIntensity(int intensity) {
-        double result;
-        if (pathCostForIntensity.containsKey(intensity))
-            result = pathCostForIntensity.get(intensity);
-        else {
-            double zScore = (intensity - meanIntensity) / stdDevIntensity;
-            // Reduce Z-score by a factor, so we can numerically distinguish more very bright values
-            final double zFudge = 0.80;
-            result = oneMinusErf(zFudge*zScore);
-            // Store computed value for future use
-            pathCostForIntensity.put(intensity, result);
-        }
-        return result;
+        double zScore = (intensity - meanIntensity) / stdDevIntensity;
+        // Reduce Z-score by a factor, so we can numerically distinguish more very bright values
+        final double zFudge = 0.80;
+        return oneMinusErf(zFudge*zScore);
     }
 
     // Must not overestimate actual cost of path to goal
-    double heuristicCostEstimate(VoxelIndex v1, VoxelIndex v2) {
-        double dx = (v1.getX() - v2.getX()) * voxelSizeX;
-        double dy = (v1.getY() - v2.getY()) * voxelSizeY;
-        double dz = (v1.getZ() - v2.getZ()) * voxelSizeZ;
+    private double heuristicCostEstimate(int x1, int y1, int z1, int x2, int y2, int z2) {
+        return distance(x1 - x2, y1 - y2, z1 - z2) * minStepCost;
+    }
+
+    private double distance(int dx0, int dy0, int dz0) {
+        double dx = dx0 * voxelSizeX;
+        double dy = dy0 * voxelSizeY;
+        double dz = dz0 * voxelSizeZ;
         double distance = 0;
         if (distanceMetric == DistanceMetric.MANHATTAN) {
-            // Use Manhattan distance, and prohibit diagonal moves (for performance)
             distance += Math.abs(dx);
             distance += Math.abs(dy);
             distance += Math.abs(dz);
         } else if (distanceMetric == DistanceMetric.EUCLIDEAN) {
-            // TODO - cache the 6? possible distances
             distance = Math.sqrt(dx*dx + dy*dy + dz*dz);
         }
-        return distance * minStepCost;
+        return distance;
     }
-    
-    static class Node {
-        Node(VoxelIndex index) {
-            this.index = index;
+
+    /**
+     * Search state for one direction: per-voxel scores, states and parent
+     * links, plus the open set as a binary min-heap of voxel offsets keyed by
+     * fScore.
+     */
+    private static final class SearchFront {
+        final double[] gScore;
+        final byte[] state;
+        final byte[] cameFrom; // index into the neighbor tables, for the step INTO the voxel
+        final int[] heapPosition;
+        int[] heapNodes = new int[1024];
+        double[] heapKeys = new double[1024];
+        int heapSize = 0;
+        int[] improved; // scratch list of voxels updated by one expansion
+
+        SearchFront(int voxelCount, int neighborCount) {
+            gScore = new double[voxelCount];
+            state = new byte[voxelCount];
+            cameFrom = new byte[voxelCount];
+            heapPosition = new int[voxelCount];
+            improved = new int[neighborCount];
+        }
+
+        void reset(int neighborCount) {
+            Arrays.fill(state, UNVISITED);
+            heapSize = 0;
+            if (improved.length != neighborCount) {
+                improved = new int[neighborCount];
+            }
+        }
+
+        // Adds the voxel to the open set, or moves it up if it is already there
+        void open(int node, double g, byte parent, double fScore) {
+            gScore[node] = g;
+            cameFrom[node] = parent;
+            if (state[node] == OPEN) {
+                siftUp(heapPosition[node], node, fScore);
+                return;
+            }
+            state[node] = OPEN;
+            if (heapSize == heapNodes.length) {
+                heapNodes = Arrays.copyOf(heapNodes, heapSize * 2);
+                heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+            }
+            siftUp(heapSize++, node, fScore);
+        }
+
+        double peekKey() {
+            return heapKeys[0];
         }
 
-        @Override
-        public int hashCode() {
-            return index.hashCode();
+        int removeMin() {
+            int result = heapNodes[0];
+            heapSize -= 1;
+            if (heapSize > 0) {
+                siftDown(0, heapNodes[heapSize], heapKeys[heapSize]);
+            }
+            return result;
         }
-        
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            Node other = (Node) obj;
-            return index.equals(other.index);
+
+        private void siftUp(int position, int node, double key) {
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (heapKeys[parent] <= key) {
+                    break;
+                }
+                place(position, heapNodes[parent], heapKeys[parent]);
+                position = parent;
+            }
+            place(position, node, key);
         }
 
-        double fScore = Double.NaN;
-        double gScore = Double.NaN;
-        Node cameFrom = null;
-        VoxelIndex index;
+        private void siftDown(int position, int node, double key) {
+            int half = heapSize >>> 1;
+            while (position < half) {
+                int child = 2 * position + 1;
+                int right = child + 1;
+                if (right < heapSize && heapKeys[right] < heapKeys[child]) {
+                    child = right;
+                }
+                if (key <= heapKeys[child]) {
+                    break;
+                }
+                place(position, heapNodes[child], heapKeys[child]);
+                position = child;
+            }
+            place(position, node, key);
+        }
+
+        private void place(int position, int node, double key) {
+            heapNodes[position] = node;
+            heapKeys[position] = key;
+            heapPosition[node] = position;
+        }
     }
 }
@@ -8,6 +8,7 @@ import org.janelia.it.jacs.shared.octree.ZoomedVoxelIndex;
 import org.janelia.workstation.core.workers.BackgroundWorker;
 import org.janelia.workstation.gui.large_volume_viewer.Subvolume;
 import org.janelia.workstation.gui.large_volume_viewer.controller.PathTraceListener;
+import org.janelia.workstation.raster.VoxelIndex;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -18,6 +19,10 @@ import java.util.List;
  * this worker traces a detailed path given a request; adapted from
  * PathTraceWorker, which didn't use the workstation's built-in workers
  *
+ * long gaps between anchors are traced coarse-to-fine: first at a lower
+ * zoom level, then at full resolution only within a corridor around the
+ * coarse path
+ *
  * djo, 1/14
  */
 public class PathTraceToParentWorker extends BackgroundWorker {
@@ -25,6 +30,15 @@ public class PathTraceToParentWorker extends BackgroundWorker {
     private PathTraceToParentRequest request;
     private PathTraceListener pathTraceListener;
 
+    // Padding around the neurite ends, in voxels
+    private static final int PAD_PIXELS = 10;
+    private static final int COARSE_PAD_PIXELS = 4;
+    // Gaps longer than this many voxels are traced coarse-to-fine
+    private static final int COARSE_SPAN = 64;
+    private static final int MAX_COARSE_ZOOM = 3;
+    // Coarse path steps refined at full resolution per subvolume
+    private static final int CORRIDOR_STEPS = 16;
+
     // timeout in seconds
     private double timeout = 10.0;
 
@@ -64,26 +78,19 @@ public class PathTraceToParentWorker extends BackgroundWorker {
         ZoomedVoxelIndex zv2 = zoomedVoxelIndexForVoxelVec3(
                 vec3_2, tileFormat, zoomLevel);
 
-        // Create some padding around the neurite ends.
-        final int padPixels = 10;
-        ZoomedVoxelIndex v1pad = new ZoomedVoxelIndex(
-                zv1.getZoomLevel(),
-                Math.min(zv1.getX(), zv2.getX()) - padPixels,
-                Math.min(zv1.getY(), zv2.getY()) - padPixels,
-                Math.min(zv1.getZ(), zv2.getZ()) - padPixels);
-        ZoomedVoxelIndex v2pad = new ZoomedVoxelIndex(
-                zv2.getZoomLevel(),
-                Math.max(zv1.getX(), zv2.getX()) + padPixels,
-                Math.max(zv1.getY(), zv2.getY()) + padPixels,
-                Math.max(zv1.getZ(), zv2.getZ()) + padPixels);
-
-        Subvolume subvolume = new Subvolume(v1pad, v2pad, request.getImageVolume(),
-                request.getTextureCache());
-        AStar astar = new AStar(subvolume);
-        astar.setVoxelSizes(tileFormat.getVoxelMicrometers());
-
-        setStatus("Tracing");
-        List<ZoomedVoxelIndex> path = astar.trace(zv1, zv2, timeout); // This is the slow part
+        long deadline = System.currentTimeMillis() + (long) (timeout * 1000);
+        List<Subvolume> subvolumes = new ArrayList<>();
+        List<ZoomedVoxelIndex> path = null;
+        ZoomLevel coarseZoom = coarseZoomLevel(zv1, zv2, tileFormat);
+        if (coarseZoom != null) {
+            path = traceCoarseToFine(zv1, zv2, coarseZoom, tileFormat, deadline, subvolumes);
+        }
+        if (path == null && System.currentTimeMillis() < deadline) {
+            // Short gap, or the coarse trace found nothing: search the whole box
+            setStatus("Retrieving data");
+            subvolumes.clear();
+            path = traceSubvolume(zv1, zv2, boundingBox(zv1, zv2, PAD_PIXELS), tileFormat, deadline, subvolumes);
+        }
         if (path == null) {
             // probably timed out; I don't see any other way it could fail
             // we don't do anything if we fail (would be nice to visually indicated it)
@@ -99,7 +106,7 @@ public class PathTraceToParentWorker extends BackgroundWorker {
             }
             List<Integer> intensities = new ArrayList<>();
             for (VoxelPosition p : reducedPath) {
-                int intensity = subvolume.getIntensityGlobal(p, 0);
+                int intensity = intensityAt(subvolumes, p);
                 intensities.add(intensity);
             }
 
@@ -118,6 +125,168 @@ public class PathTraceToParentWorker extends BackgroundWorker {
         }
     }
 
+    /**
+     * Zoom level for the first, coarse pass, chosen so the gap between the
+     * anchors spans about COARSE_SPAN voxels. Null if the gap is short enough
+     * to trace at full resolution straight away.
+     */
+    private ZoomLevel coarseZoomLevel(ZoomedVoxelIndex zv1, ZoomedVoxelIndex zv2, TileFormat tileFormat) {
+        int span = Math.max(Math.abs(zv1.getX() - zv2.getX()),
+                Math.max(Math.abs(zv1.getY() - zv2.getY()), Math.abs(zv1.getZ() - zv2.getZ())));
+        int maxZoom = Math.min(MAX_COARSE_ZOOM, tileFormat.getZoomLevelCount() - 1);
+        int zoom = 0;
+        while (zoom < maxZoom && (span >> zoom) > COARSE_SPAN) {
+            zoom += 1;
+        }
+        return zoom > 0 ? new ZoomLevel(zoom) : null;
+    }
+
+    /**
+     * Traces at a coarse zoom level first, then refines the path at full
+     * resolution one stretch at a time, each within a corridor around the
+     * coarse path. Only the corridor's bounding boxes are fetched, instead of
+     * the box around both anchors.
+     */
+    private List<ZoomedVoxelIndex> traceCoarseToFine(ZoomedVoxelIndex zv1, ZoomedVoxelIndex zv2,
+            ZoomLevel coarseZoom, TileFormat tileFormat, long deadline, List<Subvolume> subvolumes) {
+        setStatus("Retrieving coarse data");
+        TileFormat.VoxelXyz vox1 = new TileFormat.VoxelXyz(zv1.getX(), zv1.getY(), zv1.getZ());
+        TileFormat.VoxelXyz vox2 = new TileFormat.VoxelXyz(zv2.getX(), zv2.getY(), zv2.getZ());
+        ZoomedVoxelIndex coarse1 = tileFormat.zoomedVoxelIndexForVoxelXyz(vox1, coarseZoom, CoordinateAxis.Z);
+        ZoomedVoxelIndex coarse2 = tileFormat.zoomedVoxelIndexForVoxelXyz(vox2, coarseZoom, CoordinateAxis.Z);
+        List<Subvolume> coarseSubvolumes = new ArrayList<>();
+        List<ZoomedVoxelIndex> coarsePath = traceSubvolume(coarse1, coarse2,
+                boundingBox(coarse1, coarse2, COARSE_PAD_PIXELS), tileFormat, deadline, coarseSubvolumes);
+        if (coarsePath == null) {
+            return null;
+        }
+
+        setStatus("Refining");
+        int scale = coarseZoom.getZoomOutFactor();
+        int radius = scale; // one coarse voxel either side of the coarse path
+        List<ZoomedVoxelIndex> result = new ArrayList<>();
+        ZoomedVoxelIndex pieceStart = zv1;
+        for (int first = 0; first < coarsePath.size() - 1; first += CORRIDOR_STEPS) {
+            int last = Math.min(first + CORRIDOR_STEPS, coarsePath.size() - 1);
+            List<ZoomedVoxelIndex> corridor = coarsePath.subList(first, last + 1);
+            ZoomedVoxelIndex[] box = corridorBox(corridor, scale, radius, pieceStart,
+                    last == coarsePath.size() - 1 ? zv2 : pieceStart);
+            if (System.currentTimeMillis() >= deadline) {
+                return null;
+            }
+            Subvolume subvolume = new Subvolume(box[0], box[1], request.getImageVolume(),
+                    request.getTextureCache());
+            subvolumes.add(subvolume);
+            // Stretches end on the brightest voxel of the coarse voxel they end in
+            ZoomedVoxelIndex pieceGoal = last == coarsePath.size() - 1
+                    ? zv2 : brightestVoxel(subvolume, coarsePath.get(last), scale);
+            List<ZoomedVoxelIndex> piece = trace(subvolume, pieceStart, pieceGoal, corridor, radius,
+                    tileFormat, deadline);
+            if (piece == null) {
+                return null;
+            }
+            result.addAll(result.isEmpty() ? piece : piece.subList(1, piece.size()));
+            pieceStart = pieceGoal;
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    private List<ZoomedVoxelIndex> traceSubvolume(ZoomedVoxelIndex start, ZoomedVoxelIndex goal,
+            ZoomedVoxelIndex[] box, TileFormat tileFormat, long deadline, List<Subvolume> subvolumes) {
+        if (System.currentTimeMillis() >= deadline) {
+            return null;
+        }
+        Subvolume subvolume = new Subvolume(box[0], box[1], request.getImageVolume(),
+                request.getTextureCache());
+        subvolumes.add(subvolume);
+        return trace(subvolume, start, goal, null, 0, tileFormat, deadline);
+    }
+
+    private List<ZoomedVoxelIndex> trace(Subvolume subvolume, ZoomedVoxelIndex start, ZoomedVoxelIndex goal,
+            List<ZoomedVoxelIndex> corridor, int radius, TileFormat tileFormat, long deadline) {
+        AStar astar = new AStar(subvolume);
+        double[] voxelSizes = tileFormat.getVoxelMicrometers();
+        int scale = start.getZoomLevel().getZoomOutFactor();
+        astar.setVoxelSizes(voxelSizes[0] * scale, voxelSizes[1] * scale, voxelSizes[2] * scale);
+        astar.setBidirectional(true);
+        astar.setCorridor(corridor, radius);
+        setStatus("Tracing");
+        double remaining = (deadline - System.currentTimeMillis()) / 1000.0;
+        if (remaining <= 0) {
+            return null;
+        }
+        return astar.trace(start, goal, remaining); // This is the slow part
+    }
+
+    private ZoomedVoxelIndex[] boundingBox(ZoomedVoxelIndex zv1, ZoomedVoxelIndex zv2, int pad) {
+        // Create some padding around the neurite ends.
+        ZoomedVoxelIndex v1pad = new ZoomedVoxelIndex(
+                zv1.getZoomLevel(),
+                Math.min(zv1.getX(), zv2.getX()) - pad,
+                Math.min(zv1.getY(), zv2.getY()) - pad,
+                Math.min(zv1.getZ(), zv2.getZ()) - pad);
+        ZoomedVoxelIndex v2pad = new ZoomedVoxelIndex(
+                zv2.getZoomLevel(),
+                Math.max(zv1.getX(), zv2.getX()) + pad,
+                Math.max(zv1.getY(), zv2.getY()) + pad,
+                Math.max(zv1.getZ(), zv2.getZ()) + pad);
+        return new ZoomedVoxelIndex[] {v1pad, v2pad};
+    }
+
+    // Full resolution box around a stretch of the coarse path and its end points
+    private ZoomedVoxelIndex[] corridorBox(List<ZoomedVoxelIndex> corridor, int scale, int radius,
+            ZoomedVoxelIndex end1, ZoomedVoxelIndex end2) {
+        int[] min = {end1.getX(), end1.getY(), end1.getZ()};
+        int[] max = {end1.getX(), end1.getY(), end1.getZ()};
+        int[] other = {end2.getX(), end2.getY(), end2.getZ()};
+        for (int i = 0; i < 3; i++) {
+            min[i] = Math.min(min[i], other[i]);
+            max[i] = Math.max(max[i], other[i]);
+        }
+        for (ZoomedVoxelIndex coarse : corridor) {
+            int[] c = {coarse.getX(), coarse.getY(), coarse.getZ()};
+            for (int i = 0; i < 3; i++) {
+                min[i] = Math.min(min[i], c[i] * scale - radius);
+                max[i] = Math.max(max[i], (c[i] + 1) * scale - 1 + radius);
+            }
+        }
+        ZoomLevel zoomLevel = end1.getZoomLevel();
+        return new ZoomedVoxelIndex[] {
+                new ZoomedVoxelIndex(zoomLevel, min[0], min[1], min[2]),
+                new ZoomedVoxelIndex(zoomLevel, max[0], max[1], max[2])
+        };
+    }
+
+    private ZoomedVoxelIndex brightestVoxel(Subvolume subvolume, ZoomedVoxelIndex coarse, int scale) {
+        ZoomedVoxelIndex result = null;
+        int brightest = -1;
+        for (int z = coarse.getZ() * scale; z < (coarse.getZ() + 1) * scale; z++) {
+            for (int y = coarse.getY() * scale; y < (coarse.getY() + 1) * scale; y++) {
+                for (int x = coarse.getX() * scale; x < (coarse.getX() + 1) * scale; x++) {
+                    int intensity = subvolume.getIntensityGlobal(x, y, z, 0);
+                    if (intensity > brightest) {
+                        brightest = intensity;
+                        result = new ZoomedVoxelIndex(subvolume.getOrigin().getZoomLevel(), x, y, z);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private int intensityAt(List<Subvolume> subvolumes, VoxelPosition p) {
+        for (Subvolume subvolume : subvolumes) {
+            ZoomedVoxelIndex origin = subvolume.getOrigin();
+            VoxelIndex extent = subvolume.getExtent();
+            if (p.getX() >= origin.getX() && p.getX() < origin.getX() + extent.getX()
+                    && p.getY() >= origin.getY() && p.getY() < origin.getY() + extent.getY()
+                    && p.getZ() >= origin.getZ() && p.getZ() < origin.getZ() + extent.getZ()) {
+                return subvolume.getIntensityGlobal(p, 0);
+            }
+        }
+        return 0;
+    }
+
     private ZoomedVoxelIndex zoomedVoxelIndexForVoxelVec3(Vec3 vec3, TileFormat tileFormat, ZoomLevel zoomLevel) {
         TileFormat.VoxelXyz vox = new TileFormat.VoxelXyz(vec3);
         ZoomedVoxelIndex zv = tileFormat.zoomedVoxelIndexForVoxelXyz(
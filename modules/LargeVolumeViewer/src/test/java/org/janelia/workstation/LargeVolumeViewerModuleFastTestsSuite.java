@@ -2,9 +2,21 @@
 package org.janelia.workstation;
 
 
+import org.janelia.workstation.gui.large_volume_viewer.TestLocalFileTileCacheLoader;
+import org.janelia.workstation.gui.large_volume_viewer.TestTextureLoadConcurrency;
 import org.janelia.workstation.gui.large_volume_viewer.TestTileFormat;
+import org.janelia.workstation.gui.large_volume_viewer.TestTileSegmentStore;
+import org.janelia.workstation.gui.large_volume_viewer.TestTileTexture;
+import org.janelia.workstation.gui.large_volume_viewer.annotation.InterestingAnnotationIndexTest;
+import org.janelia.workstation.gui.large_volume_viewer.annotation.NeuronUpdatePipelineTest;
+import org.janelia.workstation.gui.large_volume_viewer.api.MultipartStreamReaderTest;
+import org.janelia.workstation.gui.large_volume_viewer.api.WorkspaceNeuronSnapshotTest;
+import org.janelia.workstation.gui.large_volume_viewer.neuron_api.TestPointIndex3d;
+import org.janelia.workstation.gui.large_volume_viewer.skeleton.TestNeuronBufferArena;
 import org.janelia.it.jacs.model.TestCategories;
 import org.janelia.workstation.gui.passive_3d.filter.MatrixFilter3DTest;
+import org.janelia.workstation.gui.passive_3d.filter.VolumeFilter3DTest;
+import org.janelia.workstation.tracing.TestAStar;
 import org.junit.experimental.categories.Categories;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
@@ -13,6 +25,18 @@ import org.junit.runners.Suite;
 @Categories.IncludeCategory(TestCategories.FastTests.class)
 @Suite.SuiteClasses({
         TestTileFormat.class,
-        MatrixFilter3DTest.class
+        TestTextureLoadConcurrency.class,
+        TestTileTexture.class,
+        TestTileSegmentStore.class,
+        TestLocalFileTileCacheLoader.class,
+        MatrixFilter3DTest.class,
+        VolumeFilter3DTest.class,
+        TestAStar.class,
+        TestPointIndex3d.class,
+        TestNeuronBufferArena.class,
+        MultipartStreamReaderTest.class,
+        WorkspaceNeuronSnapshotTest.class,
+        NeuronUpdatePipelineTest.class,
+        InterestingAnnotationIndexTest.class
 })
 public class LargeVolumeViewerModuleFastTestsSuite {}
@@ -0,0 +1,147 @@
+package org.janelia.workstation.gui.large_volume_viewer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.commons.io.FileUtils;
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.it.jacs.shared.geom.CoordinateAxis;
+import org.janelia.it.jacs.shared.lvv.BlockTiffOctreeLoadAdapter;
+import org.janelia.it.jacs.shared.lvv.TextureData2d;
+import org.janelia.it.jacs.shared.lvv.TileFormat;
+import org.janelia.it.jacs.shared.lvv.TileIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Checks that loaders of the same volume share its tile store, as happens
+ * each time the volume is reloaded, and that a store held elsewhere only
+ * turns off disk caching.
+ */
+public class TestLocalFileTileCacheLoader {
+
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 32;
+
+    private Path cacheDir;
+    private CountingLoadAdapter loadAdapter;
+
+    private static class CountingLoadAdapter extends BlockTiffOctreeLoadAdapter {
+
+        private final AtomicInteger loadCount = new AtomicInteger();
+
+        CountingLoadAdapter() {
+            super(createFormat(), URI.create("file:///nonexistent"));
+        }
+
+        @Override
+        public void loadMetadata() {
+        }
+
+        @Override
+        public TextureData2d loadToRam(TileIndex tileIndex) throws TileLoadError, MissingTileException {
+            loadCount.incrementAndGet();
+            return texture(tileIndex.getZ());
+        }
+    }
+
+    private static TileFormat createFormat() {
+        TileFormat tileFormat = new TileFormat();
+        tileFormat.setDefaultParameters();
+        tileFormat.setVolumeSize(new int[] {65536, 65536, 7936});
+        tileFormat.setVoxelMicrometers(new double[] {1.0, 1.0, 1.0});
+        tileFormat.setTileSize(new int[] {1024, 1024, 124});
+        tileFormat.setZoomLevelCount(7);
+        return tileFormat;
+    }
+
+    // Slices of one tile stack, so each has its own key
+    private static TileIndex tile(int z) {
+        return new TileIndex(0, 0, z, 0, 6, TileIndex.IndexStyle.OCTREE, CoordinateAxis.Z);
+    }
+
+    private static TextureData2d texture(int i) {
+        ByteBuffer pixels = ByteBuffer.allocate(WIDTH * HEIGHT);
+        for (int p = 0; p < pixels.capacity(); p++) {
+            pixels.put(p, (byte) (i + p));
+        }
+        return new TextureData2dGL(WIDTH, WIDTH, HEIGHT, 0, 0, 8, 1, false, pixels);
+    }
+
+    private static void assertTexture(int i, Optional<TextureData2d> loaded) {
+        assertTrue("missing slice " + i, loaded.isPresent());
+        ByteBuffer pixels = loaded.get().getPixels();
+        assertEquals(WIDTH * HEIGHT, pixels.remaining());
+        for (int p = 0; p < WIDTH * HEIGHT; p++) {
+            assertEquals((byte) (i + p), pixels.get(pixels.position() + p));
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = Files.createTempDirectory("tile_loader_test");
+        loadAdapter = new CountingLoadAdapter();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(cacheDir.toFile());
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testLoadersOfOneVolumeShareTheStore() throws IOException {
+        LocalFileTileCacheLoader firstLoader = new LocalFileTileCacheLoader(loadAdapter, cacheDir);
+        for (int z = 0; z < 4; z++) {
+            assertTexture(z, firstLoader.load(tile(z)));
+        }
+        // The volume is loaded again while the first loader is still around
+        LocalFileTileCacheLoader secondLoader = new LocalFileTileCacheLoader(loadAdapter, cacheDir);
+        assertSame(firstLoader.getTileStore(), secondLoader.getTileStore());
+        for (int z = 4; z < 8; z++) {
+            assertTexture(z, secondLoader.load(tile(z)));
+        }
+        for (int z = 0; z < 8; z++) {
+            assertTrue(firstLoader.isCachedLocally(tile(z)));
+            assertTexture(z, firstLoader.load(tile(z)));
+            assertTexture(z, secondLoader.load(tile(z)));
+        }
+        assertEquals(8, loadAdapter.loadCount.get());
+        firstLoader.getTileStore().close();
+
+        // Every tile survives a restart
+        LocalFileTileCacheLoader restartedLoader = new LocalFileTileCacheLoader(loadAdapter, cacheDir);
+        for (int z = 0; z < 8; z++) {
+            assertTexture(z, restartedLoader.load(tile(z)));
+        }
+        assertEquals(8, loadAdapter.loadCount.get());
+        restartedLoader.getTileStore().close();
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testLockedStoreTurnsOffDiskCaching() throws IOException {
+        // Stands in for another process holding the store
+        TileSegmentStore otherStore = new TileSegmentStore(cacheDir, 1 << 20, Long.MAX_VALUE, MoreExecutors.directExecutor());
+        try {
+            LocalFileTileCacheLoader loader = new LocalFileTileCacheLoader(loadAdapter, cacheDir);
+            assertNull(loader.getTileStore());
+            assertTexture(1, loader.load(tile(1)));
+            assertTexture(1, loader.load(tile(1)));
+            assertFalse(loader.isCachedLocally(tile(1)));
+            assertEquals(2, loadAdapter.loadCount.get());
+            assertEquals(0, otherStore.getTotalBytes());
+        } finally {
+            otherStore.close();
+        }
+    }
+}
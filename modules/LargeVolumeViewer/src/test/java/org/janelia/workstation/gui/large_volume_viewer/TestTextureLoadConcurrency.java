@@ -0,0 +1,158 @@
+package org.janelia.workstation.gui.large_volume_viewer;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.it.jacs.shared.geom.CoordinateAxis;
+import org.janelia.it.jacs.shared.lvv.BlockTiffOctreeLoadAdapter;
+import org.janelia.it.jacs.shared.lvv.TextureData2d;
+import org.janelia.it.jacs.shared.lvv.TileFormat;
+import org.janelia.it.jacs.shared.lvv.TileIndex;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Hammers the texture load path with concurrent camera moves, a second
+ * pre-fetcher, and render-thread lookups, then checks that every tile was
+ * loaded at most once and that no load state was left behind.
+ */
+public class TestTextureLoadConcurrency {
+
+    private static final int WINDOW = 8; // tiles per side of the "screen"
+    private static final int CAMERA_MOVES = 400;
+
+    private static class CountingLoadAdapter extends BlockTiffOctreeLoadAdapter {
+
+        private final ConcurrentMap<TileIndex, AtomicInteger> loadCounts = new ConcurrentHashMap<>();
+
+        CountingLoadAdapter() {
+            super(new TileFormat(), URI.create("file:///nonexistent"));
+        }
+
+        @Override
+        public void loadMetadata() {
+        }
+
+        @Override
+        public TextureData2d loadToRam(TileIndex tileIndex) throws TileLoadError, MissingTileException {
+            AtomicInteger count = loadCounts.get(tileIndex);
+            if (count == null) {
+                AtomicInteger newCount = new AtomicInteger();
+                count = loadCounts.putIfAbsent(tileIndex, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+            LockSupport.parkNanos(100000); // pretend to read from the file share
+            return new TextureData2d();
+        }
+    }
+
+    private static TileIndex tile(int x, int y, int z) {
+        return new TileIndex(x, y, z, 0, 3, TileIndex.IndexStyle.OCTREE, CoordinateAxis.Z);
+    }
+
+    private static List<TileIndex> window(int x0, int z) {
+        List<TileIndex> result = new ArrayList<>();
+        for (int y = 0; y < WINDOW; y++) {
+            for (int x = x0; x < x0 + WINDOW; x++) {
+                result.add(tile(x, y, z));
+            }
+        }
+        return result;
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testConcurrentLoadsAndCameraMoves() throws Exception {
+        final TileServer tileServer = new TileServer(new SharedVolumeImage());
+        final TextureCache textureCache = tileServer.getTextureCache();
+        final CountingLoadAdapter loadAdapter = new CountingLoadAdapter();
+        final TexturePreFetcher cameraFetcher = new TexturePreFetcher(10);
+        final TexturePreFetcher backgroundFetcher = new TexturePreFetcher(10);
+        for (TexturePreFetcher fetcher : new TexturePreFetcher[]{cameraFetcher, backgroundFetcher}) {
+            fetcher.setTextureCache(textureCache);
+            fetcher.setLoadAdapter(loadAdapter);
+        }
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final List<Throwable> failures = new ArrayList<>();
+
+        // Competes with the camera for the same tiles, like the min-res fetcher
+        Thread background = new Thread(() -> {
+            int step = 0;
+            while (!done.get()) {
+                for (TileIndex ix : window(step % 50, step % 3)) {
+                    backgroundFetcher.loadDisplayedTexture(ix, tileServer, TexturePreFetcher.PRIORITY_NEIGHBOR);
+                }
+                step++;
+            }
+        });
+        // Reads the cache like the GL thread does on every frame
+        Thread render = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    for (TileIndex ix : window(0, 0)) {
+                        TileTexture texture = textureCache.get(ix);
+                        if (texture != null) {
+                            textureCache.markHistorical(texture);
+                        }
+                        textureCache.isLoadQueued(ix);
+                    }
+                }
+            } catch (Throwable t) {
+                synchronized (failures) {
+                    failures.add(t);
+                }
+            }
+        });
+        background.start();
+        render.start();
+
+        // Pan back and forth, re-prioritizing the queue on every move
+        for (int move = 0; move < CAMERA_MOVES; move++) {
+            int x0 = (move * 3) % 60;
+            cameraFetcher.beginReprioritization();
+            double priority = 0;
+            for (TileIndex ix : window(x0, move % 3)) {
+                cameraFetcher.loadDisplayedTexture(ix, tileServer, priority++);
+            }
+            cameraFetcher.cancelStaleLoads();
+        }
+        done.set(true);
+        background.join();
+        render.join();
+
+        // Settle on a final view, and wait for everything to drain
+        List<TileIndex> finalView = window(5, 1);
+        cameraFetcher.beginReprioritization();
+        for (TileIndex ix : finalView) {
+            cameraFetcher.loadDisplayedTexture(ix, tileServer, TexturePreFetcher.PRIORITY_DISPLAYED);
+        }
+        cameraFetcher.cancelStaleLoads();
+        long deadline = System.currentTimeMillis() + 30000;
+        while (textureCache.hasQueuedTextures() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertTrue("Unexpected failures " + failures, failures.isEmpty());
+        assertFalse("Load states left behind", textureCache.hasQueuedTextures());
+        for (Map.Entry<TileIndex, AtomicInteger> entry : loadAdapter.loadCounts.entrySet()) {
+            assertEquals("Tile loaded more than once " + entry.getKey(), 1, entry.getValue().get());
+        }
+        for (TileIndex ix : finalView) {
+            assertNotNull("Tile missing from final view " + ix, textureCache.get(ix));
+            assertNull(textureCache.getLoadState(ix));
+        }
+    }
+
+}
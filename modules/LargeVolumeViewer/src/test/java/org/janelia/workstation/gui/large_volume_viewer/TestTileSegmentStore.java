@@ -0,0 +1,201 @@
+package org.janelia.workstation.gui.large_volume_viewer;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.commons.io.FileUtils;
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.it.jacs.shared.lvv.TextureData2d;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Checks that the tile store survives restarts, rejects torn records and
+ * keeps the most recently used tiles when it compacts.
+ */
+public class TestTileSegmentStore {
+
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 32;
+    // record header, key "tile_NN", texture header and pixels
+    private static final int RECORD_BYTES = 16 + 7 + 30 + WIDTH * HEIGHT;
+    private static final int SEGMENT_BYTES = 4 * RECORD_BYTES;
+
+    private Path storeDir;
+
+    @Before
+    public void setUp() throws IOException {
+        storeDir = Files.createTempDirectory("tile_store_test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(storeDir.toFile());
+    }
+
+    private static String key(int i) {
+        return String.format("tile_%02d", i);
+    }
+
+    private static TextureData2d texture(int i) {
+        ByteBuffer pixels = ByteBuffer.allocate(WIDTH * HEIGHT);
+        for (int p = 0; p < pixels.capacity(); p++) {
+            pixels.put(p, (byte) (i + p));
+        }
+        return new TextureData2dGL(WIDTH, WIDTH - 1, HEIGHT, 0, 2, 8, 1, false, pixels);
+    }
+
+    private static void assertTexture(int i, TextureData2d texture) {
+        assertNotNull("missing " + key(i), texture);
+        assertEquals(WIDTH, texture.getWidth());
+        assertEquals(WIDTH - 1, texture.getUsedWidth());
+        assertEquals(HEIGHT, texture.getHeight());
+        assertEquals(2, texture.getMipmapLevel());
+        assertEquals(8, texture.getBitDepth());
+        assertEquals(1, texture.getChannelCount());
+        ByteBuffer pixels = texture.getPixels();
+        assertEquals(WIDTH * HEIGHT, pixels.remaining());
+        for (int p = 0; p < WIDTH * HEIGHT; p++) {
+            assertEquals((byte) (i + p), pixels.get(pixels.position() + p));
+        }
+    }
+
+    private TileSegmentStore openStore(long maxBytes) throws IOException {
+        return new TileSegmentStore(storeDir, SEGMENT_BYTES, maxBytes, MoreExecutors.directExecutor());
+    }
+
+    private int countSegmentFiles() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(storeDir, "segment_*.tiles")) {
+            for (Path segment : segments) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testReopenAfterRestart() throws IOException {
+        TileSegmentStore store = openStore(Long.MAX_VALUE);
+        for (int i = 0; i < 6; i++) {
+            store.put(key(i), texture(i));
+        }
+        assertEquals(6 * RECORD_BYTES, store.getTotalBytes());
+        store.close();
+
+        store = openStore(Long.MAX_VALUE);
+        assertEquals(6 * RECORD_BYTES, store.getTotalBytes());
+        for (int i = 0; i < 6; i++) {
+            assertTexture(i, store.get(key(i)));
+        }
+        // Appends continue after the recovered records
+        store.put(key(6), texture(6));
+        store.close();
+
+        store = openStore(Long.MAX_VALUE);
+        for (int i = 0; i < 7; i++) {
+            assertTexture(i, store.get(key(i)));
+        }
+        store.close();
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testTornRecordIsRejected() throws IOException {
+        TileSegmentStore store = openStore(Long.MAX_VALUE);
+        for (int i = 0; i < 3; i++) {
+            store.put(key(i), texture(i));
+        }
+        store.close();
+
+        // Damage the last pixel of the second record, as if its write was cut short
+        Path segment = storeDir.resolve("segment_0.tiles");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer pixel = ByteBuffer.allocate(1);
+            long position = 2 * RECORD_BYTES - 1;
+            channel.read(pixel, position);
+            pixel.put(0, (byte) ~pixel.get(0));
+            pixel.rewind();
+            channel.write(pixel, position);
+        }
+
+        store = openStore(Long.MAX_VALUE);
+        assertTexture(0, store.get(key(0)));
+        // Nothing after the damaged record is trusted
+        assertNull(store.get(key(1)));
+        assertNull(store.get(key(2)));
+        assertEquals(RECORD_BYTES, store.getTotalBytes());
+
+        // The damaged record is overwritten by the next append
+        store.put(key(1), texture(1));
+        store.close();
+        store = openStore(Long.MAX_VALUE);
+        assertTexture(0, store.get(key(0)));
+        assertTexture(1, store.get(key(1)));
+        store.close();
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testOneStorePerDirectory() throws IOException {
+        TileSegmentStore store = TileSegmentStore.open(storeDir, SEGMENT_BYTES, Long.MAX_VALUE);
+        try {
+            assertSame(store, TileSegmentStore.open(storeDir.resolve(".").resolve("..").resolve(storeDir.getFileName()),
+                    SEGMENT_BYTES, Long.MAX_VALUE));
+            try {
+                openStore(Long.MAX_VALUE);
+                fail("Opened a second store on a locked directory");
+            } catch (IOException expected) {
+            }
+        } finally {
+            store.close();
+        }
+        // The lock goes with the store
+        openStore(Long.MAX_VALUE).close();
+        TileSegmentStore reopened = TileSegmentStore.open(storeDir, SEGMENT_BYTES, Long.MAX_VALUE);
+        assertNotSame(store, reopened);
+        reopened.close();
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testCompactionKeepsRecentlyUsedTiles() throws IOException {
+        long maxBytes = 4L * SEGMENT_BYTES;
+        TileSegmentStore store = openStore(maxBytes);
+        int count = 40;
+        for (int i = 0; i < count; i++) {
+            store.put(key(i), texture(i));
+            // Tile 0 is in use the whole time
+            assertTexture(0, store.get(key(0)));
+            assertTrue(store.getTotalBytes() <= maxBytes);
+        }
+        assertTrue(countSegmentFiles() <= maxBytes / SEGMENT_BYTES);
+
+        // The oldest unused tiles are gone, the newest are kept
+        for (int i = 1; i < 10; i++) {
+            assertFalse(store.contains(key(i)));
+        }
+        for (int i = count - 4; i < count; i++) {
+            assertTexture(i, store.get(key(i)));
+        }
+        store.close();
+
+        // Copied records are valid after a restart
+        store = openStore(maxBytes);
+        assertTexture(0, store.get(key(0)));
+        for (int i = count - 4; i < count; i++) {
+            assertTexture(i, store.get(key(i)));
+        }
+        store.close();
+    }
+}
@@ -0,0 +1,120 @@
+package org.janelia.workstation.gui.large_volume_viewer;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.it.jacs.shared.geom.CoordinateAxis;
+import org.janelia.it.jacs.shared.lvv.BlockTiffOctreeLoadAdapter;
+import org.janelia.it.jacs.shared.lvv.TextureData2d;
+import org.janelia.it.jacs.shared.lvv.TileFormat;
+import org.janelia.it.jacs.shared.lvv.TileIndex;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Checks that pooled texture pixels go back to the pool when a texture is
+ * dropped, but are not recycled while a reader still holds them.
+ */
+public class TestTileTexture {
+
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 8;
+
+    private static class PatternLoadAdapter extends BlockTiffOctreeLoadAdapter {
+
+        PatternLoadAdapter() {
+            super(new TileFormat(), URI.create("file:///nonexistent"));
+        }
+
+        @Override
+        public void loadMetadata() {
+        }
+
+        @Override
+        public TextureData2d loadToRam(TileIndex tileIndex) throws TileLoadError, MissingTileException {
+            ByteBuffer pixels = ByteBuffer.allocate(WIDTH * HEIGHT);
+            for (int i = 0; i < pixels.capacity(); i++) {
+                pixels.put(i, (byte) i);
+            }
+            return new TextureData2dGL(WIDTH, WIDTH, HEIGHT, 0, 0, 8, 1, false, pixels);
+        }
+    }
+
+    private static TileTexture loadTexture(TexturePixelPool pool) {
+        TileIndex index = new TileIndex(0, 0, 0, 0, 3, TileIndex.IndexStyle.OCTREE, CoordinateAxis.Z);
+        TileTexture texture = new TileTexture(index, new PatternLoadAdapter());
+        assertTrue(texture.loadImageToRam());
+        texture.moveToOffHeap(pool);
+        assertTrue(texture.getTextureData().getPixels().isDirect());
+        return texture;
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testEvictionWaitsForLeases() {
+        TexturePixelPool pool = new TexturePixelPool(1 << 20);
+        TileTexture texture = loadTexture(pool);
+
+        TileTexture.TextureDataLease lease = texture.leaseTextureData();
+        assertNotNull(lease);
+        texture.releaseMemory();
+        assertNull(texture.leaseTextureData());
+
+        // The buffer is still leased, so the next load gets a different one
+        assertEquals(0, pool.getIdleBytes());
+        ByteBuffer other = pool.acquire(WIDTH * HEIGHT);
+        for (int i = 0; i < other.capacity(); i++) {
+            other.put(i, (byte) 0xff);
+        }
+        ByteBuffer pixels = lease.getPixels();
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            assertEquals((byte) i, pixels.get(i));
+        }
+
+        lease.close();
+        assertEquals(WIDTH * HEIGHT, pool.getIdleBytes());
+        // Closing twice does not release twice
+        lease.close();
+        assertEquals(WIDTH * HEIGHT, pool.getIdleBytes());
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testReleaseWithoutLeases() {
+        TexturePixelPool pool = new TexturePixelPool(1 << 20);
+        TileTexture texture = loadTexture(pool);
+        assertEquals(WIDTH * HEIGHT, pool.getLiveBytes());
+        texture.releaseMemory();
+        assertEquals(0, pool.getLiveBytes());
+        assertEquals(WIDTH * HEIGHT, pool.getIdleBytes());
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testReplacedTextureIsReleased() {
+        TexturePixelPool pool = new TexturePixelPool(1 << 20);
+        HistoryCache cache = new HistoryCache(Integer.MAX_VALUE);
+        final List<TileTexture> evicted = new ArrayList<>();
+        cache.setEvictionListener(evicted::add);
+        TileTexture first = loadTexture(pool);
+        TileTexture second = loadTexture(pool);
+
+        cache.put(first.getIndex(), first);
+        // Putting the same texture again keeps it
+        assertSame(first, cache.put(first.getIndex(), first));
+        assertTrue(evicted.isEmpty());
+        assertEquals(2 * WIDTH * HEIGHT, pool.getLiveBytes());
+
+        assertSame(first, cache.put(second.getIndex(), second));
+        assertEquals(1, evicted.size());
+        assertSame(first, evicted.get(0));
+        assertNull(first.getTextureData());
+        assertEquals(WIDTH * HEIGHT, pool.getLiveBytes());
+        assertEquals(WIDTH * HEIGHT, pool.getIdleBytes());
+        assertEquals(WIDTH * HEIGHT, cache.getCurrentBytes());
+    }
+}
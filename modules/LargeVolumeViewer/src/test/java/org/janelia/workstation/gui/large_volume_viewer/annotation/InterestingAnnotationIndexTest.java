@@ -0,0 +1,170 @@
+package org.janelia.workstation.gui.large_volume_viewer.annotation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.swing.event.TableModelEvent;
+
+import org.janelia.it.jacs.model.TestCategories;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the incremental updates of the filtered annotation list: the
+ * index of interesting annotations, and the row-level table updates.
+ */
+@Category(TestCategories.FastTests.class)
+public class InterestingAnnotationIndexTest {
+
+    private static final AnnotationFilter HAS_NOTE = InterestingAnnotation::hasNote;
+    private static final AnnotationFilter IS_END = ann -> ann.getGeometry() == AnnotationGeometry.END;
+
+    @Test
+    public void evaluateOnlyChanges() {
+        InterestingAnnotationIndex index = new InterestingAnnotationIndex();
+        index.setFilter(HAS_NOTE, false, null);
+        index.setNeuron(1L, Arrays.asList(
+                annotation(10L, 1L, AnnotationGeometry.ROOT, "soma"),
+                annotation(11L, 1L, AnnotationGeometry.LINK, ""),
+                annotation(12L, 1L, AnnotationGeometry.END, "")));
+        index.setNeuron(2L, Collections.singletonList(annotation(20L, 2L, AnnotationGeometry.ROOT, "")));
+
+        InterestingAnnotationIndex.Changes changes = index.evaluate();
+        assertEquals(Collections.singletonList(10L), annotationIDs(changes.getAdded()));
+        assertTrue(changes.getRemovedIDs().isEmpty());
+
+        // nothing changed
+        assertTrue(index.evaluate().isEmpty());
+
+        // a note is added, one is removed, and reindexing an unchanged annotation is no change
+        index.setAnnotation(annotation(12L, 1L, AnnotationGeometry.END, "traced end"));
+        index.setAnnotation(annotation(10L, 1L, AnnotationGeometry.ROOT, ""));
+        index.setAnnotation(annotation(11L, 1L, AnnotationGeometry.LINK, ""));
+        changes = index.evaluate();
+        assertEquals(Collections.singletonList(12L), annotationIDs(changes.getAdded()));
+        assertEquals(Collections.singletonList(10L), changes.getRemovedIDs());
+        assertTrue(changes.getUpdated().isEmpty());
+
+        // the note changes
+        index.setAnnotation(annotation(12L, 1L, AnnotationGeometry.END, "problem end"));
+        changes = index.evaluate();
+        assertEquals(Collections.singletonList(12L), annotationIDs(changes.getUpdated()));
+
+        // annotations of neurons which aren't indexed are ignored until the neuron is
+        index.setAnnotation(annotation(30L, 3L, AnnotationGeometry.ROOT, "ignored"));
+        assertTrue(index.evaluate().isEmpty());
+
+        index.removeNeuron(1L);
+        changes = index.evaluate();
+        assertEquals(Collections.singletonList(12L), changes.getRemovedIDs());
+        assertEquals(0, index.getShownCount());
+    }
+
+    @Test
+    public void changeFilter() {
+        InterestingAnnotationIndex index = new InterestingAnnotationIndex();
+        index.setNeuron(1L, Arrays.asList(
+                annotation(10L, 1L, AnnotationGeometry.ROOT, "soma"),
+                annotation(11L, 1L, AnnotationGeometry.END, "")));
+        index.setNeuron(2L, Arrays.asList(
+                annotation(20L, 2L, AnnotationGeometry.END, "")));
+
+        index.setFilter(HAS_NOTE, false, null);
+        assertEquals(1, index.evaluate().getAdded().size());
+
+        index.setFilter(IS_END, false, null);
+        InterestingAnnotationIndex.Changes changes = index.evaluate();
+        assertEquals(Arrays.asList(11L, 20L), sorted(annotationIDs(changes.getAdded())));
+        assertEquals(Collections.singletonList(10L), changes.getRemovedIDs());
+
+        // current neuron only
+        index.setFilter(IS_END, true, 2L);
+        changes = index.evaluate();
+        assertEquals(Collections.singletonList(11L), changes.getRemovedIDs());
+        assertTrue(changes.getAdded().isEmpty());
+
+        // no current neuron shows nothing
+        index.setFilter(IS_END, true, null);
+        changes = index.evaluate();
+        assertEquals(Collections.singletonList(20L), changes.getRemovedIDs());
+        assertEquals(0, index.getShownCount());
+
+        // clearing removes what's shown
+        index.setFilter(IS_END, false, null);
+        assertEquals(2, index.evaluate().getAdded().size());
+        index.clear();
+        assertEquals(2, index.evaluate().getRemovedIDs().size());
+    }
+
+    @Test
+    public void applyRowChanges() {
+        FilteredAnnotationModel model = new FilteredAnnotationModel();
+        for (long id = 0; id < 10; id++) {
+            model.addAnnotation(annotation(id, 1L, AnnotationGeometry.END, ""));
+        }
+        List<TableModelEvent> events = new ArrayList<>();
+        model.addTableModelListener(events::add);
+
+        boolean replaced = model.applyChanges(
+                Arrays.asList(2L, 7L),
+                Collections.singletonList(annotation(5L, 1L, AnnotationGeometry.END, "updated")),
+                Collections.singletonList(annotation(10L, 1L, AnnotationGeometry.ROOT, "")));
+        assertFalse(replaced);
+        assertEquals(9, model.getRowCount());
+
+        // deletions from the bottom up, then the update, then the insertion
+        assertEvent(events.get(0), TableModelEvent.DELETE, 7, 7);
+        assertEvent(events.get(1), TableModelEvent.DELETE, 2, 2);
+        assertEvent(events.get(2), TableModelEvent.UPDATE, 4, 4);
+        assertEvent(events.get(3), TableModelEvent.INSERT, 8, 8);
+        assertEquals(4, events.size());
+
+        for (int row = 0; row < model.getRowCount(); row++) {
+            InterestingAnnotation ann = model.getAnnotationAtRow(row);
+            assertEquals(row, model.findAnnotation(ann));
+        }
+        assertEquals("updated", model.getAnnotationAtRow(model.findAnnotation(annotation(5L, 1L, null, ""))).getNoteText());
+        assertEquals(-1, model.findAnnotation(annotation(2L, 1L, null, "")));
+
+        // most of the table changing replaces it
+        events.clear();
+        replaced = model.applyChanges(Arrays.asList(0L, 1L, 3L, 4L, 5L, 6L), Collections.emptyList(),
+                Collections.emptyList());
+        assertTrue(replaced);
+        assertEquals(3, model.getRowCount());
+        assertEquals(1, events.size());
+        assertEquals(0, model.findAnnotation(annotation(8L, 1L, null, "")));
+        assertEquals(2, model.findAnnotation(annotation(10L, 1L, null, "")));
+    }
+
+    private static void assertEvent(TableModelEvent event, int type, int firstRow, int lastRow) {
+        assertEquals(type, event.getType());
+        assertEquals(firstRow, event.getFirstRow());
+        assertEquals(lastRow, event.getLastRow());
+    }
+
+    private static InterestingAnnotation annotation(Long annotationID, Long neuronID, AnnotationGeometry geometry,
+            String note) {
+        Date date = new Date(annotationID * 1000);
+        return new InterestingAnnotation(annotationID, neuronID, date, date, geometry, note);
+    }
+
+    private static List<Long> annotationIDs(List<InterestingAnnotation> annotations) {
+        List<Long> annotationIDs = new ArrayList<>();
+        for (InterestingAnnotation ann: annotations) {
+            annotationIDs.add(ann.getAnnotationID());
+        }
+        return annotationIDs;
+    }
+
+    private static List<Long> sorted(List<Long> values) {
+        List<Long> sortedValues = new ArrayList<>(values);
+        Collections.sort(sortedValues);
+        return sortedValues;
+    }
+}
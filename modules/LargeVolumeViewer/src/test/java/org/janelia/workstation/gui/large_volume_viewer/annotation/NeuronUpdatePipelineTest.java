@@ -0,0 +1,204 @@
+package org.janelia.workstation.gui.large_volume_viewer.annotation;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.impl.LongStringHelper;
+import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.messaging.broker.sharedworkspace.HeaderConstants;
+import org.janelia.messaging.broker.sharedworkspace.MessageType;
+import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
+import org.janelia.model.domain.tiledMicroscope.TmProtobufExchanger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the coalescing of shared workspace updates, by replaying messages
+ * built the way the broker delivers them, without a broker.
+ */
+@Category(TestCategories.FastTests.class)
+public class NeuronUpdatePipelineTest {
+
+    private static final Long WORKSPACE_ID = 100L;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final TmProtobufExchanger exchanger = new TmProtobufExchanger();
+    private BlockingQueue<List<NeuronUpdatePipeline.NeuronUpdate>> batches;
+    private long deliveryTag;
+
+    @Before
+    public void setUp() {
+        batches = new LinkedBlockingQueue<>();
+        deliveryTag = 0;
+    }
+
+    @Test
+    public void coalesceHeldUpdates() throws Exception {
+        NeuronUpdatePipeline pipeline = new NeuronUpdatePipeline(batches::add, 10,
+                MoreExecutors.newDirectExecutorService());
+        pipeline.setHeld(true);
+
+        pipeline.submit(delivery(MessageType.NEURON_CREATE, 1L, "created"));
+        pipeline.submit(delivery(MessageType.NEURON_SAVE_NEURONDATA, 1L, "created then saved"));
+        pipeline.submit(delivery(MessageType.NEURON_SAVE_METADATA, 2L, "saved"));
+        pipeline.submit(delivery(MessageType.NEURON_DELETE, 2L, "deleted"));
+        pipeline.submit(delivery(MessageType.NEURON_SAVE_NEURONDATA, 2L, "saved after delete"));
+        for (int i = 0; i < 10; i++) {
+            pipeline.submit(delivery(MessageType.NEURON_SAVE_NEURONDATA, 3L, "save " + i));
+        }
+        // not a neuron update
+        pipeline.submit(delivery(MessageType.REQUEST_NEURON_OWNERSHIP, 4L, "request"));
+
+        assertEquals(3, pipeline.getPendingCount());
+        assertNull("held updates were delivered", batches.poll(100, TimeUnit.MILLISECONDS));
+
+        pipeline.flush();
+        List<NeuronUpdatePipeline.NeuronUpdate> batch = batches.poll();
+        assertNotNull(batch);
+        assertEquals(3, batch.size());
+        assertUpdate(batch.get(0), NeuronUpdatePipeline.UpdateType.CREATED, 1L, "created then saved");
+        assertUpdate(batch.get(1), NeuronUpdatePipeline.UpdateType.DELETED, 2L, "deleted");
+        assertUpdate(batch.get(2), NeuronUpdatePipeline.UpdateType.CHANGED, 3L, "save 9");
+        assertEquals(0, pipeline.getPendingCount());
+    }
+
+    @Test
+    public void deliverOneBatchPerWindow() throws Exception {
+        NeuronUpdatePipeline pipeline = new NeuronUpdatePipeline(batches::add, 200,
+                MoreExecutors.newDirectExecutorService());
+        for (int i = 0; i < 100; i++) {
+            pipeline.submit(delivery(MessageType.NEURON_SAVE_NEURONDATA, (long) (i % 10), "save " + i));
+        }
+
+        List<NeuronUpdatePipeline.NeuronUpdate> batch = batches.poll(5, TimeUnit.SECONDS);
+        assertNotNull("no batch was delivered", batch);
+        assertEquals(10, batch.size());
+        for (NeuronUpdatePipeline.NeuronUpdate update : batch) {
+            long neuronId = update.getNeuron().getId();
+            assertUpdate(update, NeuronUpdatePipeline.UpdateType.CHANGED, neuronId, "save " + (90 + neuronId));
+        }
+        assertNull("updates were delivered twice", batches.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void releaseHeldUpdates() throws Exception {
+        NeuronUpdatePipeline pipeline = new NeuronUpdatePipeline(batches::add, 10,
+                MoreExecutors.newDirectExecutorService());
+        pipeline.setHeld(true);
+        pipeline.submit(delivery(MessageType.NEURON_CREATE, 1L, "created"));
+        assertNull(batches.poll(100, TimeUnit.MILLISECONDS));
+
+        pipeline.setHeld(false);
+        List<NeuronUpdatePipeline.NeuronUpdate> batch = batches.poll(5, TimeUnit.SECONDS);
+        assertNotNull("held updates were not released", batch);
+        assertEquals(1, batch.size());
+        assertUpdate(batch.get(0), NeuronUpdatePipeline.UpdateType.CREATED, 1L, "created");
+    }
+
+    @Test
+    public void orderBySequenceWhenDecodedOutOfOrder() throws Exception {
+        NeuronUpdatePipeline pipeline = new NeuronUpdatePipeline(batches::add, 10,
+                MoreExecutors.newDirectExecutorService());
+        pipeline.setHeld(true);
+
+        // the later save is decoded first
+        pipeline.add(update(NeuronUpdatePipeline.UpdateType.CHANGED, 1L, "second save", 2));
+        pipeline.add(update(NeuronUpdatePipeline.UpdateType.CHANGED, 1L, "first save", 1));
+        pipeline.flush();
+        assertUpdate(batches.poll().get(0), NeuronUpdatePipeline.UpdateType.CHANGED, 1L, "second save");
+
+        // an update older than one already delivered is dropped
+        pipeline.add(update(NeuronUpdatePipeline.UpdateType.CHANGED, 1L, "stale save", 0));
+        assertEquals(0, pipeline.getPendingCount());
+
+        // a deletion wins over a later save
+        pipeline.add(update(NeuronUpdatePipeline.UpdateType.CHANGED, 2L, "save", 4));
+        pipeline.add(update(NeuronUpdatePipeline.UpdateType.DELETED, 2L, "deleted", 3));
+        pipeline.flush();
+        assertUpdate(batches.poll().get(0), NeuronUpdatePipeline.UpdateType.DELETED, 2L, "deleted");
+    }
+
+    @Test
+    public void decodeOnPool() throws Exception {
+        NeuronUpdatePipeline pipeline = new NeuronUpdatePipeline(batches::add, 100);
+        int neuronCount = 50;
+        for (int save = 0; save < 20; save++) {
+            for (long neuronId = 0; neuronId < neuronCount; neuronId++) {
+                pipeline.submit(delivery(MessageType.NEURON_SAVE_NEURONDATA, neuronId, "save " + save));
+            }
+        }
+
+        Map<Long, NeuronUpdatePipeline.NeuronUpdate> latest = new HashMap<>();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (System.currentTimeMillis() < deadline && !allSaved(latest, neuronCount, "save 19")) {
+            List<NeuronUpdatePipeline.NeuronUpdate> batch = batches.poll(1, TimeUnit.SECONDS);
+            if (batch != null) {
+                for (NeuronUpdatePipeline.NeuronUpdate update : batch) {
+                    latest.put(update.getNeuron().getId(), update);
+                }
+            }
+        }
+        assertTrue("latest saves were not delivered", allSaved(latest, neuronCount, "save 19"));
+    }
+
+    private static boolean allSaved(Map<Long, NeuronUpdatePipeline.NeuronUpdate> latest, int neuronCount, String name) {
+        if (latest.size() < neuronCount) {
+            return false;
+        }
+        for (NeuronUpdatePipeline.NeuronUpdate update : latest.values()) {
+            if (!name.equals(update.getNeuron().getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void assertUpdate(NeuronUpdatePipeline.NeuronUpdate update,
+                                     NeuronUpdatePipeline.UpdateType type, Long neuronId, String name) {
+        assertEquals(type, update.getType());
+        assertEquals(neuronId, update.getNeuron().getId());
+        assertEquals(name, update.getNeuron().getName());
+    }
+
+    private static NeuronUpdatePipeline.NeuronUpdate update(NeuronUpdatePipeline.UpdateType type, Long neuronId,
+                                                            String name, long sequence) {
+        return new NeuronUpdatePipeline.NeuronUpdate(type, neuron(neuronId, name), sequence);
+    }
+
+    private static TmNeuronMetadata neuron(Long neuronId, String name) {
+        TmNeuronMetadata neuron = new TmNeuronMetadata();
+        neuron.setId(neuronId);
+        neuron.setName(name);
+        neuron.setOwnerKey("user:other");
+        return neuron;
+    }
+
+    /**
+     * @return a message with the headers and body which the broker sends for a neuron update.
+     */
+    private Delivery delivery(MessageType type, Long neuronId, String name) throws Exception {
+        TmNeuronMetadata neuron = neuron(neuronId, name);
+        Map<String, Object> headers = new HashMap<>();
+        headers.put(HeaderConstants.TYPE, LongStringHelper.asLongString(type.name()));
+        headers.put(HeaderConstants.USER, LongStringHelper.asLongString("user:other"));
+        headers.put(HeaderConstants.WORKSPACE, LongStringHelper.asLongString(WORKSPACE_ID.toString()));
+        headers.put(HeaderConstants.METADATA, LongStringHelper.asLongString(mapper.writeValueAsString(neuron)));
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+                .headers(headers)
+                .build();
+        Envelope envelope = new Envelope(++deliveryTag, false, "ModelRefresh", "");
+        return new Delivery(envelope, properties, exchanger.serializeNeuron(neuron));
+    }
+}
@@ -0,0 +1,179 @@
+package org.janelia.workstation.gui.large_volume_viewer.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+import org.janelia.it.jacs.model.TestCategories;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the streaming multipart parser used to load workspace neurons,
+ * and benchmarks it against a synthetic workspace served locally.
+ */
+public class MultipartStreamReaderTest {
+
+    private static final String BOUNDARY = "Boundary_1_123456_789";
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void readParts() throws Exception {
+        List<byte[]> parts = randomParts(20, 3000, 1L);
+        // Part bodies which contain most of the delimiter
+        parts.add(("x\r\n--" + BOUNDARY.substring(0, 10)).getBytes(StandardCharsets.US_ASCII));
+        parts.add(new byte[0]);
+        byte[] body = buildBody(parts, true);
+
+        assertParts(parts, new MultipartStreamReader(new ByteArrayInputStream(body), BOUNDARY));
+        // Also when the input arrives a few bytes at a time
+        assertParts(parts, new MultipartStreamReader(new TrickleInputStream(new ByteArrayInputStream(body), 7), BOUNDARY));
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void readPartsWithoutHeaders() throws Exception {
+        List<byte[]> parts = randomParts(5, 100, 2L);
+        byte[] body = buildBody(parts, false);
+        assertParts(parts, new MultipartStreamReader(new ByteArrayInputStream(body), BOUNDARY));
+    }
+
+    @Test(expected = IOException.class)
+    @Category(TestCategories.FastTests.class)
+    public void failOnTruncatedBody() throws Exception {
+        byte[] body = buildBody(randomParts(3, 100, 3L), true);
+        MultipartStreamReader reader = new MultipartStreamReader(
+                new ByteArrayInputStream(body, 0, body.length - 20), BOUNDARY);
+        while (reader.nextPart() != null) {
+            // read to the end
+        }
+    }
+
+    @Test
+    @Category(TestCategories.SlowTests.class)
+    public void benchmarkWorkspaceLoad() throws Exception {
+        final int neuronCount = 50000;
+        Random random = new Random(4L);
+        List<byte[]> parts = new ArrayList<>();
+        for (int i = 0; i < neuronCount; i++) {
+            parts.add(("{\"id\":" + (2000000L + i) + ",\"name\":\"Neuron " + i + "\",\"visible\":true}")
+                    .getBytes(StandardCharsets.UTF_8));
+            byte[] points = new byte[500 + random.nextInt(3000)];
+            random.nextBytes(points);
+            parts.add(points);
+        }
+        final byte[] body = buildBody(parts, true);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/workspace/neuron", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "multipart/mixed; boundary=" + BOUNDARY);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/workspace/neuron");
+            for (int run = 0; run < 3; run++) {
+                long start = System.currentTimeMillis();
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                byte[] buffered;
+                try (InputStream in = connection.getInputStream()) {
+                    buffered = ByteStreams.toByteArray(in);
+                }
+                int bufferedParts = countParts(new MultipartStreamReader(new ByteArrayInputStream(buffered), BOUNDARY));
+                long bufferedMs = System.currentTimeMillis() - start;
+
+                start = System.currentTimeMillis();
+                connection = (HttpURLConnection) url.openConnection();
+                int streamedParts = countParts(new MultipartStreamReader(connection.getInputStream(), BOUNDARY));
+                long streamedMs = System.currentTimeMillis() - start;
+
+                assertEquals(neuronCount * 2, bufferedParts);
+                assertEquals(neuronCount * 2, streamedParts);
+                System.out.println(String.format("%d neurons, %d MB: buffered then parsed %dms, streamed %dms",
+                        neuronCount, body.length / (1024 * 1024), bufferedMs, streamedMs));
+            }
+        }
+        finally {
+            server.stop(0);
+        }
+    }
+
+    private static List<byte[]> randomParts(int count, int maxLength, long seed) {
+        Random random = new Random(seed);
+        List<byte[]> parts = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] part = new byte[random.nextInt(maxLength)];
+            random.nextBytes(part);
+            parts.add(part);
+        }
+        return parts;
+    }
+
+    private static byte[] buildBody(List<byte[]> parts, boolean withHeaders) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("This is the preamble.\r\n".getBytes(StandardCharsets.US_ASCII));
+        for (int i = 0; i < parts.size(); i++) {
+            out.write(((i == 0 ? "--" : "\r\n--") + BOUNDARY + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            if (withHeaders) {
+                String contentType = i % 2 == 0 ? "application/json" : "application/octet-stream";
+                out.write(("Content-Type: " + contentType + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            }
+            out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.write(parts.get(i));
+        }
+        out.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        return out.toByteArray();
+    }
+
+    private static void assertParts(List<byte[]> expected, MultipartStreamReader reader) throws IOException {
+        for (int i = 0; i < expected.size(); i++) {
+            byte[] part = reader.nextPart();
+            assertNotNull("Part " + i + " is missing", part);
+            assertArrayEquals("Part " + i + " differs", expected.get(i), part);
+        }
+        assertNull(reader.nextPart());
+        assertNull(reader.nextPart());
+    }
+
+    private static int countParts(MultipartStreamReader reader) throws IOException {
+        int count = 0;
+        while (reader.nextPart() != null) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns at most a few bytes per read, like a slow network.
+     */
+    private static class TrickleInputStream extends FilterInputStream {
+        private final int maxRead;
+
+        TrickleInputStream(InputStream in, int maxRead) {
+            super(in);
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, maxRead));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.janelia.workstation.gui.large_volume_viewer.api;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.janelia.it.jacs.model.TestCategories;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the local record of checked workspace neurons.
+ */
+public class WorkspaceNeuronSnapshotTest {
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void saveAndRead() throws Exception {
+        Path directory = Files.createTempDirectory("neuron-snapshot");
+        Path snapshotFile = directory.resolve("workspace-1.snapshot");
+        try {
+            long hash1 = WorkspaceNeuronSnapshot.getContentHash(bytes("{\"id\":1}"), bytes("points 1"));
+            long hash2 = WorkspaceNeuronSnapshot.getContentHash(bytes("{\"id\":2}"), bytes("points 2"));
+            assertNotEquals(hash1, WorkspaceNeuronSnapshot.getContentHash(bytes("{\"id\":1}"), bytes("points 1 moved")));
+
+            WorkspaceNeuronSnapshot snapshot = new WorkspaceNeuronSnapshot(snapshotFile, 1L);
+            snapshot.read();
+            assertEquals(0, snapshot.size());
+            snapshot.setVerified(1L, hash1);
+            snapshot.setVerified(2L, hash2);
+            snapshot.setVerified(3L, 3L);
+            snapshot.retainNeurons(Arrays.asList(1L, 2L));
+            snapshot.save();
+
+            WorkspaceNeuronSnapshot reread = new WorkspaceNeuronSnapshot(snapshotFile, 1L);
+            reread.read();
+            assertEquals(2, reread.size());
+            assertTrue(reread.isVerified(1L, hash1));
+            assertTrue(reread.isVerified(2L, hash2));
+            assertFalse(reread.isVerified(2L, hash1));
+            assertFalse(reread.isVerified(3L, 3L));
+
+            // A snapshot of another workspace is ignored
+            WorkspaceNeuronSnapshot other = new WorkspaceNeuronSnapshot(snapshotFile, 2L);
+            other.read();
+            assertEquals(0, other.size());
+        }
+        finally {
+            Files.deleteIfExists(snapshotFile);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,363 @@
+package org.janelia.workstation.gui.large_volume_viewer.neuron_api;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.janelia.it.jacs.model.TestCategories;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import edu.wlu.cs.levy.CG.KDTree;
+
+/**
+ * Compares the point index against brute force searches, while it is bulk
+ * loaded, edited, and queried from another thread, and benchmarks it against
+ * the KDTree it replaced.
+ */
+public class TestPointIndex3d {
+
+    private static class Point {
+        final float[] location = new float[3];
+
+        Point(float x, float y, float z) {
+            move(x, y, z);
+        }
+
+        void move(float x, float y, float z) {
+            location[0] = x;
+            location[1] = y;
+            location[2] = z;
+        }
+
+        double distanceSquared(double[] xyz) {
+            double dx = location[0] - xyz[0];
+            double dy = location[1] - xyz[1];
+            double dz = location[2] - xyz[2];
+            return dx * dx + dy * dy + dz * dz;
+        }
+    }
+
+    private static Point randomPoint(Random random) {
+        // On a coarse grid, so that many points share a position
+        return new Point(random.nextInt(50), random.nextInt(50), random.nextInt(20));
+    }
+
+    private static double[] randomLocation(Random random) {
+        return new double[]{random.nextDouble() * 60 - 5, random.nextDouble() * 60 - 5, random.nextDouble() * 30 - 5};
+    }
+
+    private static void assertNearestMatches(PointIndex3d<Point> index, List<Point> points, double[] xyz, int n) {
+        List<Point> expected = new ArrayList<>(points);
+        expected.sort(Comparator.comparingDouble(p -> p.distanceSquared(xyz)));
+        List<Point> actual = index.nearest(xyz, n);
+        assertEquals(Math.min(n, points.size()), actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            // Ties may come in any order, so compare distances
+            assertEquals(expected.get(i).distanceSquared(xyz), actual.get(i).distanceSquared(xyz), 1e-9);
+        }
+    }
+
+    private static void assertBoxMatches(PointIndex3d<Point> index, List<Point> points, double[] corner1, double[] corner2) {
+        List<Point> expected = new ArrayList<>();
+        for (Point p : points) {
+            boolean inside = true;
+            for (int axis = 0; axis < 3; axis++) {
+                double min = Math.min(corner1[axis], corner2[axis]);
+                double max = Math.max(corner1[axis], corner2[axis]);
+                inside &= p.location[axis] >= min && p.location[axis] <= max;
+            }
+            if (inside) {
+                expected.add(p);
+            }
+        }
+        List<Point> actual = index.inBox(corner1, corner2);
+        assertEquals(expected.size(), actual.size());
+        assertTrue(actual.containsAll(expected));
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testBulkLoadMatchesBruteForce() {
+        Random random = new Random(42);
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            points.add(randomPoint(random));
+        }
+        PointIndex3d<Point> index = new PointIndex3d<>(p -> p.location);
+        index.rebuild(points);
+        assertEquals(points.size(), index.size());
+        for (int q = 0; q < 200; q++) {
+            assertNearestMatches(index, points, randomLocation(random), 1 + q % 20);
+            assertBoxMatches(index, points, randomLocation(random), randomLocation(random));
+        }
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testEditsMatchBruteForce() {
+        Random random = new Random(7);
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            points.add(randomPoint(random));
+        }
+        PointIndex3d<Point> index = new PointIndex3d<>(p -> p.location);
+        index.rebuild(points);
+        // Enough edits to go through several rebuilds of the tree
+        for (int step = 0; step < 6000; step++) {
+            int action = random.nextInt(3);
+            if (action == 0 || points.isEmpty()) {
+                Point p = randomPoint(random);
+                points.add(p);
+                index.add(p);
+            } else if (action == 1) {
+                Point p = points.remove(random.nextInt(points.size()));
+                assertTrue(index.remove(p));
+                assertFalse(index.remove(p));
+            } else {
+                Point p = points.get(random.nextInt(points.size()));
+                p.move(random.nextInt(50), random.nextInt(50), random.nextInt(20));
+                assertTrue(index.update(p));
+            }
+            if (step % 100 == 0) {
+                assertEquals(points.size(), index.size());
+                assertNearestMatches(index, points, randomLocation(random), 5);
+                assertBoxMatches(index, points, randomLocation(random), randomLocation(random));
+            }
+        }
+        assertNearestMatches(index, points, randomLocation(random), 1);
+        index.clear();
+        assertEquals(0, index.size());
+        assertTrue(index.nearest(randomLocation(random), 3).isEmpty());
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testFilteredNearest() {
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            points.add(new Point(i, 0, 0));
+        }
+        PointIndex3d<Point> index = new PointIndex3d<>(p -> p.location);
+        index.rebuild(points);
+        List<Point> result = index.nearest(new double[]{10.2, 0, 0}, 3, p -> p.location[0] % 2 == 1);
+        assertEquals(3, result.size());
+        assertEquals(11f, result.get(0).location[0], 0);
+        assertEquals(9f, result.get(1).location[0], 0);
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testQueriesDuringEdits() throws Exception {
+        final List<Point> fixed = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            fixed.add(new Point(i, i, i));
+        }
+        final Set<Point> fixedSet = new HashSet<>(fixed);
+        final PointIndex3d<Point> index = new PointIndex3d<>(p -> p.location);
+        index.rebuild(fixed);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final List<Throwable> failures = new ArrayList<>();
+        // Moved points pass right by the query location, which must always find a fixed point next to it
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    List<Point> nearest = index.nearest(new double[]{500, 500, 500}, 1, fixedSet::contains);
+                    assertEquals(1, nearest.size());
+                    assertSame(fixed.get(500), nearest.get(0));
+                    assertEquals(1, index.inBox(new double[]{499.5, 499.5, 499.5}, new double[]{500.5, 500.5, 500.5})
+                            .stream().filter(fixedSet::contains).count());
+                }
+            } catch (Throwable t) {
+                synchronized (failures) {
+                    failures.add(t);
+                }
+            }
+        });
+        reader.start();
+        Random random = new Random(3);
+        List<Point> moving = new ArrayList<>();
+        for (int step = 0; step < 20000; step++) {
+            if (moving.size() < 100) {
+                Point p = new Point(500, 500, 500 + random.nextFloat());
+                moving.add(p);
+                index.add(p);
+            } else {
+                Point p = moving.get(random.nextInt(moving.size()));
+                if (random.nextBoolean()) {
+                    p.move(500, 500 + random.nextFloat(), 500);
+                    index.update(p);
+                } else {
+                    moving.remove(p);
+                    index.remove(p);
+                }
+            }
+        }
+        done.set(true);
+        reader.join();
+        assertTrue("Unexpected failures " + failures, failures.isEmpty());
+        assertEquals(fixed.size() + moving.size(), index.size());
+    }
+
+    /**
+     * The index as NeuronVertexSpatialIndex kept it before PointIndex3d: one
+     * KDTree insert per point, each key jittered to avoid duplicates, and the
+     * key of every point remembered so that it can be removed.
+     */
+    private static class LevyIndex {
+        private static final double KEY_FUZZ = 0.2e-3;
+        private final Random fuzz = new Random(1);
+        private final Map<Point, double[]> keys = new HashMap<>();
+        private KDTree<Point> tree = new KDTree<>(3);
+
+        void rebuild(List<Point> points) throws Exception {
+            tree = new KDTree<>(3);
+            keys.clear();
+            for (Point p : points) {
+                add(p);
+            }
+        }
+
+        void add(Point p) throws Exception {
+            double[] key = {
+                p.location[0] + KEY_FUZZ * fuzz.nextDouble(),
+                p.location[1] + KEY_FUZZ * fuzz.nextDouble(),
+                p.location[2] + KEY_FUZZ * fuzz.nextDouble()
+            };
+            tree.insert(key, p);
+            keys.put(p, key);
+        }
+
+        void remove(Point p) throws Exception {
+            tree.delete(keys.remove(p));
+        }
+
+        void update(Point p) throws Exception {
+            remove(p);
+            add(p);
+        }
+
+        List<Point> nearest(double[] xyz, int n) throws Exception {
+            return tree.nearest(xyz, n);
+        }
+    }
+
+    @Test
+    @Category(TestCategories.SlowTests.class)
+    public void benchmarkAgainstLevyKDTree() throws Exception {
+        final int pointCount = 200000;
+        final int editCount = 20000;
+        final int queryCount = 20000;
+        Random random = new Random(11);
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < pointCount; i++) {
+            // Spread like the vertices of a workspace, in microns
+            points.add(new Point(random.nextInt(10000), random.nextInt(10000), random.nextInt(4000)));
+        }
+        List<Point> added = new ArrayList<>();
+        List<float[]> moves = new ArrayList<>();
+        List<double[]> queries = new ArrayList<>();
+        for (int i = 0; i < editCount; i++) {
+            added.add(new Point(random.nextInt(10000), random.nextInt(10000), random.nextInt(4000)));
+            moves.add(new float[]{random.nextInt(10000), random.nextInt(10000), random.nextInt(4000)});
+        }
+        for (int i = 0; i < queryCount; i++) {
+            queries.add(new double[]{random.nextDouble() * 10000, random.nextDouble() * 10000, random.nextDouble() * 4000});
+        }
+
+        for (int run = 0; run < 2; run++) {
+            // Same points and edits for both; moved points are put back after each
+            List<Point> moved = points.subList(0, editCount);
+            List<float[]> movedFrom = new ArrayList<>();
+            for (Point p : moved) {
+                movedFrom.add(p.location.clone());
+            }
+            List<Point> removed = points.subList(editCount, 2 * editCount);
+
+            LevyIndex levy = new LevyIndex();
+            long[] levyNanos = new long[5];
+            long start = System.nanoTime();
+            levy.rebuild(points);
+            levyNanos[0] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (Point p : added) {
+                levy.add(p);
+            }
+            levyNanos[1] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (Point p : removed) {
+                levy.remove(p);
+            }
+            levyNanos[2] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < editCount; i++) {
+                float[] to = moves.get(i);
+                moved.get(i).move(to[0], to[1], to[2]);
+                levy.update(moved.get(i));
+            }
+            levyNanos[3] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (double[] q : queries) {
+                levy.nearest(q, 3);
+            }
+            levyNanos[4] = System.nanoTime() - start;
+
+            for (int i = 0; i < editCount; i++) {
+                float[] from = movedFrom.get(i);
+                moved.get(i).move(from[0], from[1], from[2]);
+            }
+
+            PointIndex3d<Point> index = new PointIndex3d<>(p -> p.location);
+            long[] indexNanos = new long[5];
+            start = System.nanoTime();
+            index.rebuild(points);
+            indexNanos[0] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (Point p : added) {
+                index.add(p);
+            }
+            indexNanos[1] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (Point p : removed) {
+                index.remove(p);
+            }
+            indexNanos[2] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < editCount; i++) {
+                float[] to = moves.get(i);
+                moved.get(i).move(to[0], to[1], to[2]);
+                index.update(moved.get(i));
+            }
+            indexNanos[3] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (double[] q : queries) {
+                index.nearest(q, 3);
+            }
+            indexNanos[4] = System.nanoTime() - start;
+            assertEquals(pointCount, index.size());
+
+            for (int i = 0; i < editCount; i++) {
+                float[] from = movedFrom.get(i);
+                moved.get(i).move(from[0], from[1], from[2]);
+            }
+            if (run == 0) {
+                continue; // warm up
+            }
+            String[] names = {"build", "insert", "remove", "move", "3-NN query"};
+            int[] counts = {pointCount, editCount, editCount, editCount, queryCount};
+            for (int i = 0; i < names.length; i++) {
+                System.out.println(String.format("%d points, %-10s: KDTree %.2fus, PointIndex3d %.2fus per %s",
+                        pointCount, names[i], levyNanos[i] / 1000.0 / counts[i], indexNanos[i] / 1000.0 / counts[i],
+                        i == 0 ? "point" : "operation"));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+package org.janelia.workstation.gui.large_volume_viewer.skeleton;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.janelia.it.jacs.model.TestCategories;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Checks that the arena slots always hold the latest data of each neuron,
+ * and that replaying only the dirty ranges keeps a mirror of the buffer, as
+ * the OpenGL buffer object would be, identical to the arena.
+ */
+public class TestNeuronBufferArena {
+
+    private static FloatBuffer floats(float... values) {
+        FloatBuffer result = ByteBuffer.allocateDirect(values.length * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        result.put(values);
+        return result; // deliberately not rewound, like the model's buffers
+    }
+
+    private static float[] read(NeuronBufferArena arena, Long id) {
+        FloatBuffer view = arena.getBytes().duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer();
+        float[] result = new float[arena.getSize(id) / 4];
+        view.position(arena.getOffset(id) / 4);
+        view.get(result);
+        return result;
+    }
+
+    // Applies a pending upload to mirror, the way SkeletonActor does
+    private static byte[] upload(NeuronBufferArena arena, byte[] mirror) {
+        ByteBuffer bytes = arena.getBytes().duplicate();
+        if (arena.needsFullUpload()) {
+            mirror = new byte[arena.getCapacity()];
+            bytes.clear();
+            bytes.get(mirror);
+        }
+        else {
+            for (int[] range : arena.getDirtyRanges()) {
+                bytes.clear();
+                bytes.position(range[0]);
+                bytes.get(mirror, range[0], range[1]);
+            }
+        }
+        arena.markUploaded();
+        return mirror;
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testGrowInPlaceOnlyDirtiesOneSlot() {
+        NeuronBufferArena arena = new NeuronBufferArena();
+        arena.writeFloats(1L, floats(1, 2, 3, 4, 5, 6, 7, 8));
+        arena.writeFloats(2L, floats(9, 10, 11));
+        arena.markUploaded();
+        int offset = arena.getOffset(1L);
+
+        // fits within the slot headroom
+        arena.writeFloats(1L, floats(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+        assertEquals(offset, arena.getOffset(1L));
+        assertFalse(arena.needsFullUpload());
+        assertEquals(1, arena.getDirtyRanges().size());
+        assertEquals(offset, arena.getDirtyRanges().get(0)[0]);
+        assertEquals(40, arena.getDirtyRanges().get(0)[1]);
+        assertArrayEquals(new float[]{9, 10, 11}, read(arena, 2L), 0);
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testRandomEditsKeepMirrorInSync() {
+        Random random = new Random(5);
+        NeuronBufferArena arena = new NeuronBufferArena();
+        Map<Long, float[]> expected = new HashMap<>();
+        byte[] mirror = new byte[0];
+        for (int step = 0; step < 2000; ++step) {
+            Long id = (long) random.nextInt(40);
+            if (random.nextInt(10) == 0) {
+                arena.remove(id);
+                expected.remove(id);
+            }
+            else {
+                float[] values = new float[random.nextInt(3000)];
+                for (int i = 0; i < values.length; ++i) {
+                    values[i] = random.nextFloat();
+                }
+                arena.writeFloats(id, floats(values));
+                expected.put(id, values);
+            }
+            if (arena.isFragmented()) {
+                arena.compact(new ArrayList<>(expected.keySet()));
+            }
+            if (random.nextInt(5) == 0) {
+                mirror = upload(arena, mirror);
+                ByteBuffer uploaded = ByteBuffer.wrap(mirror).order(ByteOrder.nativeOrder());
+                for (Map.Entry<Long, float[]> entry : expected.entrySet()) {
+                    float[] actual = new float[entry.getValue().length];
+                    FloatBuffer view = uploaded.duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer();
+                    view.position(arena.getOffset(entry.getKey()) / 4);
+                    view.get(actual);
+                    assertArrayEquals(entry.getValue(), actual, 0);
+                }
+            }
+        }
+        for (Map.Entry<Long, float[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), read(arena, entry.getKey()), 0);
+        }
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testCompactPacksSlotsAndDropsOthers() {
+        NeuronBufferArena arena = new NeuronBufferArena();
+        float[] big = new float[100000];
+        Arrays.fill(big, 3f);
+        for (long id = 0; id < 10; ++id) {
+            arena.writeFloats(id, floats(big));
+        }
+        // every neuron outgrows its slot, leaving holes
+        float[] bigger = new float[200000];
+        Arrays.fill(bigger, 4f);
+        for (long id = 0; id < 10; ++id) {
+            arena.writeFloats(id, floats(bigger));
+        }
+        assertFalse(arena.isFragmented());
+        for (long id = 4; id < 10; ++id) {
+            arena.remove(id);
+        }
+        assertTrue(arena.isFragmented());
+
+        List<Long> order = Arrays.asList(3L, 1L, 2L);
+        arena.compact(order);
+        assertFalse(arena.isFragmented());
+        assertTrue(arena.needsFullUpload());
+        assertEquals(0, arena.getOffset(3L));
+        assertTrue(arena.getOffset(1L) > arena.getOffset(3L));
+        assertTrue(arena.getOffset(2L) > arena.getOffset(1L));
+        assertFalse(arena.contains(0L));
+        assertArrayEquals(bigger, read(arena, 2L), 0);
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testCompactionIsDiscardedAfterWrite() {
+        NeuronBufferArena arena = new NeuronBufferArena();
+        for (long id = 0; id < 4; ++id) {
+            arena.writeFloats(id, floats(id, id + 1, id + 2));
+        }
+        arena.remove(0L);
+        List<Long> order = Arrays.asList(3L, 2L, 1L);
+
+        // packed outside the lock while the model writes a neuron
+        NeuronBufferArena.Compaction stale = arena.prepareCompaction(order);
+        stale.pack();
+        arena.writeFloats(2L, floats(7, 8));
+        int offset = arena.getOffset(2L);
+        assertFalse(stale.apply());
+        assertEquals(offset, arena.getOffset(2L));
+        assertArrayEquals(new float[]{7, 8}, read(arena, 2L), 0);
+
+        NeuronBufferArena.Compaction clean = arena.prepareCompaction(order);
+        clean.pack();
+        assertTrue(clean.apply());
+        assertTrue(arena.needsFullUpload());
+        assertEquals(0, arena.getOffset(3L));
+        assertArrayEquals(new float[]{3, 4, 5}, read(arena, 3L), 0);
+        assertArrayEquals(new float[]{7, 8}, read(arena, 2L), 0);
+        assertArrayEquals(new float[]{1, 2, 3}, read(arena, 1L), 0);
+        assertFalse(arena.contains(0L));
+    }
+}
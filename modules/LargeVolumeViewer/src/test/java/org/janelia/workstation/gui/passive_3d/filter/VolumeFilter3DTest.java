@@ -0,0 +1,188 @@
+package org.janelia.workstation.gui.passive_3d.filter;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import javax.swing.ProgressMonitor;
+
+import org.janelia.it.jacs.model.TestCategories;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the separable and FFT filters against a direct summation of the
+ * matrix, and benchmarks them against MatrixFilter3D.
+ */
+public class VolumeFilter3DTest {
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void factorSeparableMatrices() {
+        assertNotNull( SeparableFilter3D.fromMatrix( MatrixFilter3D.AVG_MATRIX_3_3_3, ByteOrder.BIG_ENDIAN ) );
+        assertNotNull( SeparableFilter3D.fromMatrix( MatrixFilter3D.GAUSS_65_85_85, ByteOrder.BIG_ENDIAN ) );
+        assertNull( SeparableFilter3D.fromMatrix( MatrixFilter3D.SPHERE_3_3_3, ByteOrder.BIG_ENDIAN ) );
+        assertNull( SeparableFilter3D.fromMatrix( MatrixFilter3D.GAUSS_5_5_5, ByteOrder.BIG_ENDIAN ) );
+
+        assertTrue( VolumeFilter3DFactory.create( MatrixFilter3D.GAUSS_65_85_85, ByteOrder.BIG_ENDIAN, 2 ) instanceof SeparableFilter3D );
+        assertTrue( VolumeFilter3DFactory.create( MatrixFilter3D.GAUSS_5_5_5, ByteOrder.BIG_ENDIAN, 1 ) instanceof FFTFilter3D );
+        assertTrue( VolumeFilter3DFactory.create( MatrixFilter3D.SPHERE_3_3_3, ByteOrder.BIG_ENDIAN, 1 ) instanceof MatrixFilter3D );
+        assertTrue( VolumeFilter3DFactory.create( MatrixFilter3D.GAUSS_65_85_85, ByteOrder.BIG_ENDIAN, 4 ) instanceof MatrixFilter3D );
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void separableMatchesMatrix8Bit() {
+        int sx = 21, sy = 17, sz = 13, channels = 2;
+        byte[] input = randomVolume( 1, channels, sx, sy, sz, 255, 1L );
+        double[] matrix = MatrixFilter3D.GAUSS_65_85_85;
+        int[] expected = sumNeighborhoods( matrix, input, 1, channels, sx, sy, sz, ByteOrder.BIG_ENDIAN );
+
+        VolumeFilter3D filter = SeparableFilter3D.fromMatrix( matrix, ByteOrder.BIG_ENDIAN );
+        byte[] result = filter.filter( Arrays.copyOf( input, input.length ), 1, channels, sx, sy, sz );
+        // Each pass rounds to whole values.
+        assertClose( expected, result, 1, channels, ByteOrder.BIG_ENDIAN, 2 );
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void separableFiltersIntoCopy16Bit() {
+        int sx = 9, sy = 30, sz = 11;
+        byte[] input = randomVolume( 2, 1, sx, sy, sz, 65535, 2L );
+        byte[] original = Arrays.copyOf( input, input.length );
+        double[] kernel = SeparableFilter3D.getGaussianKernel( 1.0 );
+        int[] expected = sumNeighborhoods( outerProduct( kernel ), input, 2, 1, sx, sy, sz, ByteOrder.LITTLE_ENDIAN );
+
+        SeparableFilter3D filter = SeparableFilter3D.gaussian( 1.0, 1.0, 1.0, ByteOrder.LITTLE_ENDIAN );
+        byte[] result = filter.filter( input, 2, 1, sx, sy, sz );
+        assertNotSame( input, result );
+        assertArrayEquals( original, input );
+        assertClose( expected, result, 2, 1, ByteOrder.LITTLE_ENDIAN, 2 );
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void separableReturnsInputWhenCancelled() {
+        int sx = 9, sy = 30, sz = 11;
+        byte[] input = randomVolume( 1, 1, sx, sy, sz, 255, 5L );
+        byte[] original = Arrays.copyOf( input, input.length );
+
+        SeparableFilter3D filter = SeparableFilter3D.gaussian( 1.0, 1.0, 1.0, ByteOrder.BIG_ENDIAN );
+        // Cancelled after the first pass has run
+        filter.setProgressMonitor( new ProgressMonitor( null, "", "", 0, 1 ) {
+            private int checks = 0;
+
+            @Override
+            public boolean isCanceled() {
+                return ++checks > 1;
+            }
+        } );
+        byte[] result = filter.filter( input, 1, 1, sx, sy, sz );
+        assertSame( input, result );
+        assertArrayEquals( original, input );
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void fftMatchesMatrix() {
+        // Wider than one block in x, so that block seams are covered.
+        int sx = 70, sy = 33, sz = 9, channels = 2;
+        byte[] input = randomVolume( 2, channels, sx, sy, sz, 65535, 3L );
+        double[] matrix = MatrixFilter3D.GAUSS_5_5_5;
+        int[] expected = sumNeighborhoods( matrix, input, 2, channels, sx, sy, sz, ByteOrder.BIG_ENDIAN );
+
+        VolumeFilter3D filter = new FFTFilter3D( matrix, ByteOrder.BIG_ENDIAN );
+        byte[] result = filter.filter( input, 2, channels, sx, sy, sz );
+        assertClose( expected, result, 2, channels, ByteOrder.BIG_ENDIAN, 2 );
+    }
+
+    @Test
+    @Category(TestCategories.SlowTests.class)
+    public void benchmarkAgainstMatrixFilter() {
+        int sx = 128, sy = 128, sz = 128;
+        byte[] input = randomVolume( 1, 1, sx, sy, sz, 255, 4L );
+        for ( double[] matrix : new double[][] { MatrixFilter3D.GAUSS_65_85_85, MatrixFilter3D.GAUSS_5_5_5 } ) {
+            long start = System.currentTimeMillis();
+            new MatrixFilter3D( matrix, ByteOrder.BIG_ENDIAN ).filter( input, 1, 1, sx, sy, sz );
+            long matrixMs = System.currentTimeMillis() - start;
+
+            VolumeFilter3D filter = VolumeFilter3DFactory.create( matrix, ByteOrder.BIG_ENDIAN, 1 );
+            start = System.currentTimeMillis();
+            filter.filter( Arrays.copyOf( input, input.length ), 1, 1, sx, sy, sz );
+            long filterMs = System.currentTimeMillis() - start;
+
+            System.out.println( String.format( "%d^3 voxels: MatrixFilter3D %dms, %s %dms",
+                    sx, matrixMs, filter.getClass().getSimpleName(), filterMs ) );
+        }
+    }
+
+    private static byte[] randomVolume( int bytesPerCell, int channelCount, int sx, int sy, int sz, int maxValue, long seed ) {
+        Random random = new Random( seed );
+        byte[] volume = new byte[ sx * sy * sz * channelCount * bytesPerCell ];
+        for ( int ch = 0; ch < channelCount; ch++ ) {
+            VoxelAccess voxels = new VoxelAccess( volume, bytesPerCell, channelCount, ch, ByteOrder.BIG_ENDIAN );
+            for ( int i = 0; i < sx * sy * sz; i++ ) {
+                voxels.set( i, random.nextInt( maxValue + 1 ) );
+            }
+        }
+        return volume;
+    }
+
+    private static double[] outerProduct( double[] kernel ) {
+        int dim = kernel.length;
+        double[] matrix = new double[ dim * dim * dim ];
+        for ( int z = 0; z < dim; z++ ) {
+            for ( int y = 0; y < dim; y++ ) {
+                for ( int x = 0; x < dim; x++ ) {
+                    matrix[ ( z * dim + y ) * dim + x ] = kernel[ z ] * kernel[ y ] * kernel[ x ];
+                }
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Weights each voxel's neighborhood by the matrix, in double precision,
+     * with zeros outside the volume.  Values are per channel, then voxel.
+     */
+    private static int[] sumNeighborhoods( double[] matrix, byte[] input, int bytesPerCell, int channelCount,
+            int sx, int sy, int sz, ByteOrder byteOrder ) {
+        int dim = VolumeFilter3DFactory.getCubicDim( matrix );
+        int radius = dim / 2;
+        int voxelCount = sx * sy * sz;
+        int[] rtnVal = new int[ voxelCount * channelCount ];
+        for ( int ch = 0; ch < channelCount; ch++ ) {
+            VoxelAccess voxels = new VoxelAccess( input, bytesPerCell, channelCount, ch, byteOrder );
+            for ( int z = 0; z < sz; z++ ) {
+                for ( int y = 0; y < sy; y++ ) {
+                    for ( int x = 0; x < sx; x++ ) {
+                        double sum = 0.0;
+                        for ( int i = 0; i < matrix.length; i++ ) {
+                            int nx = x - radius + i % dim;
+                            int ny = y - radius + ( i / dim ) % dim;
+                            int nz = z - radius + i / ( dim * dim );
+                            if ( nx >= 0 && nx < sx && ny >= 0 && ny < sy && nz >= 0 && nz < sz ) {
+                                sum += matrix[ i ] * voxels.get( ( nz * sy + ny ) * sx + nx );
+                            }
+                        }
+                        rtnVal[ ch * voxelCount + ( z * sy + y ) * sx + x ] = (int) Math.round( sum );
+                    }
+                }
+            }
+        }
+        return rtnVal;
+    }
+
+    private static void assertClose( int[] expected, byte[] result, int bytesPerCell, int channelCount,
+            ByteOrder byteOrder, int tolerance ) {
+        int voxelCount = expected.length / channelCount;
+        for ( int ch = 0; ch < channelCount; ch++ ) {
+            VoxelAccess voxels = new VoxelAccess( result, bytesPerCell, channelCount, ch, byteOrder );
+            for ( int i = 0; i < voxelCount; i++ ) {
+                int difference = Math.abs( expected[ ch * voxelCount + i ] - voxels.get( i ) );
+                assertTrue( "Voxel " + i + " of channel " + ch + " is off by " + difference, difference <= tolerance );
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package org.janelia.workstation.tracing;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import org.janelia.it.jacs.shared.octree.ZoomLevel;
+import org.janelia.it.jacs.shared.octree.ZoomedVoxelIndex;
+import org.janelia.workstation.raster.VoxelIndex;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The search AStar used before its indexed heap and flat arrays, on single
+ * channel 8 bit volumes: one Node per voxel in a HashMap, and a scan of the
+ * whole open set for the lowest fScore on every step.  Kept only so that
+ * TestAStar can time the two on the same volume.
+ */
+class LegacyAStar {
+
+    private final double stepCostLowerBound = 1e-60;
+
+    private final ByteBuffer volume;
+    private final VoxelIndex extent;
+    private final ZoomedVoxelIndex origin;
+    private double minStepCost = Double.NaN;
+    private Map<Integer, Double> pathCostForIntensity = new HashMap<Integer, Double>();
+    private double meanIntensity = Double.NaN;
+    private double stdDevIntensity = Double.NaN;
+    Map<VoxelIndex, Node> allNodes = new HashMap<VoxelIndex, Node>();
+
+    LegacyAStar(ByteBuffer volume, VoxelIndex extent, ZoomedVoxelIndex origin) {
+        this.volume = volume;
+        this.extent = extent;
+        this.origin = origin;
+        computeIntensityStats();
+    }
+
+    public List<ZoomedVoxelIndex> trace(
+            ZoomedVoxelIndex start0,
+            ZoomedVoxelIndex goal0,
+            double timout)
+    {
+        Node start = getNode(new VoxelIndex(
+                start0.getX() - origin.getX(),
+                start0.getY() - origin.getY(),
+                start0.getZ() - origin.getZ()));
+        Node goal = getNode(new VoxelIndex(
+                goal0.getX() - origin.getX(),
+                goal0.getY() - origin.getY(),
+                goal0.getZ() - origin.getZ()));
+        Set<Node> closedSet = new HashSet<Node>();
+        Set<Node> openSet = new HashSet<Node>();
+        openSet.add(start);
+        start.gScore = 0.0;
+        start.fScore = start.gScore + heuristicCostEstimate(start.index, goal.index);
+
+        long startTime = System.currentTimeMillis();
+        long checkedVoxelCount = 0;
+        while (openSet.size() > 0) {
+            Node current = null;
+            for (Node n : openSet) {
+                if (current == null) {
+                    current = n;
+                    continue;
+                }
+                if (n.fScore < current.fScore)
+                    current = n;
+            }
+            if (current.equals(goal)) {
+                return reconstructPath(start, goal, start0.getZoomLevel());
+            }
+            openSet.remove(current);
+            closedSet.add(current);
+            checkedVoxelCount += 1;
+            if (checkedVoxelCount % 1000 == 0) {
+                if (System.currentTimeMillis() - startTime > timout * 1000) {
+                    return null;
+                }
+            }
+            for (VoxelIndex neighborIndex : getNeighbors(current.index))
+            {
+                Node neighbor = getNode(neighborIndex);
+                double tentativeGScore = current.gScore
+                        + distanceBetween(current.index, neighbor.index);
+                if ( closedSet.contains(neighbor)
+                       && (tentativeGScore >= neighbor.gScore ) ) {
+                    continue;
+                }
+                if ( (! openSet.contains(neighbor))
+                       || (tentativeGScore < neighbor.gScore) )
+                {
+                    neighbor.cameFrom = current;
+                    neighbor.gScore = tentativeGScore;
+                    neighbor.fScore = neighbor.gScore + heuristicCostEstimate(neighbor.index, goal.index);
+                    openSet.add(neighbor);
+                }
+            }
+        }
+        return null;
+    }
+
+    private int intensity(VoxelIndex index) {
+        return volume.get(index.getX() + extent.getX() * (index.getY() + extent.getY() * index.getZ())) & 0xff;
+    }
+
+    private double distanceBetween(VoxelIndex current, VoxelIndex neighbor) {
+        double pathScore = getPathStepCostForIntensity(intensity(neighbor));
+        double dx = current.getX() - neighbor.getX();
+        double dy = current.getY() - neighbor.getY();
+        double dz = current.getZ() - neighbor.getZ();
+        return pathScore * Math.sqrt(dx*dx + dy*dy + dz*dz);
+    }
+
+    private List<VoxelIndex> getNeighbors(VoxelIndex center) {
+        List<VoxelIndex> result = new Vector<VoxelIndex>();
+        for (int dx = -1; dx <= 1; ++dx) {
+            int x = center.getX() + dx;
+            if (x < 0) continue;
+            if (x >= extent.getX() - 1) continue;
+            for (int dy = -1; dy <= 1; ++dy) {
+                int y = center.getY() + dy;
+                if (y < 0) continue;
+                if (y >= extent.getY() - 1) continue;
+                for (int dz = -1; dz <= 1; ++dz) {
+                    if ((dx == 0) && (dy == 0) && (dz == 0))
+                        continue; // self is not a neighbor
+                    int z = center.getZ() + dz;
+                    if (z < 0) continue;
+                    if (z >= extent.getZ() - 1) continue;
+                    result.add(new VoxelIndex(x, y, z));
+                }
+            }
+        }
+        return result;
+    }
+
+    private Node getNode(VoxelIndex index) {
+        if (! allNodes.containsKey(index))
+            allNodes.put(index, new Node(index));
+        return allNodes.get(index);
+    }
+
+    private List<ZoomedVoxelIndex> reconstructPath(
+            Node start,
+            Node goal,
+            ZoomLevel zoomLevel)
+    {
+        List<ZoomedVoxelIndex> result = new Vector<ZoomedVoxelIndex>();
+        Node p = goal;
+        while (! p.equals(start)) {
+            result.add(new ZoomedVoxelIndex(zoomLevel,
+                    p.index.getX() + origin.getX(),
+                    p.index.getY() + origin.getY(),
+                    p.index.getZ() + origin.getZ()));
+            p = p.cameFrom;
+        }
+        result.add(new ZoomedVoxelIndex(zoomLevel,
+                start.index.getX() + origin.getX(),
+                start.index.getY() + origin.getY(),
+                start.index.getZ() + origin.getZ()));
+        return Lists.reverse(result);
+    }
+
+    private void computeIntensityStats() {
+        double sumIntensity = 0;
+        long intensityCount = 0;
+        int maxIntensity = Integer.MIN_VALUE;
+        for (int i = 0; i < volume.capacity(); ++i) {
+            int intensity = volume.get(i) & 0xff;
+            maxIntensity = Math.max(intensity, maxIntensity);
+            sumIntensity += intensity;
+            intensityCount += 1;
+        }
+        meanIntensity = 0.0;
+        if (intensityCount > 0)
+            meanIntensity = sumIntensity / (double)intensityCount;
+        double delta = 0;
+        for (int i = 0; i < volume.capacity(); ++i) {
+            double di = meanIntensity - (volume.get(i) & 0xff);
+            delta += di * di;
+        }
+        stdDevIntensity = 1.0;
+        if (intensityCount > 0)
+            stdDevIntensity = Math.sqrt(delta/(double)intensityCount);
+        minStepCost = getPathStepCostForIntensity(maxIntensity)
+                + stepCostLowerBound
+                ;
+    }
+
+    private double getPathStepCostForIntensity(int intensity) {
+        double result;
+        if (pathCostForIntensity.containsKey(intensity))
+            result = pathCostForIntensity.get(intensity);
+        else {
+            double zScore = (intensity - meanIntensity) / stdDevIntensity;
+            final double zFudge = 0.80;
+            result = AStar.oneMinusErf(zFudge*zScore);
+            pathCostForIntensity.put(intensity, result);
+        }
+        return result;
+    }
+
+    private double heuristicCostEstimate(VoxelIndex v1, VoxelIndex v2) {
+        double dx = v1.getX() - v2.getX();
+        double dy = v1.getY() - v2.getY();
+        double dz = v1.getZ() - v2.getZ();
+        return Math.sqrt(dx*dx + dy*dy + dz*dz) * minStepCost;
+    }
+
+    static class Node {
+        Node(VoxelIndex index) {
+            this.index = index;
+        }
+
+        @Override
+        public int hashCode() {
+            return index.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            Node other = (Node) obj;
+            return index.equals(other.index);
+        }
+
+        double fScore = Double.NaN;
+        double gScore = Double.NaN;
+        Node cameFrom = null;
+        VoxelIndex index;
+    }
+}
@@ -4,12 +4,16 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import org.janelia.workstation.gui.large_volume_viewer.SharedVolumeImage;
 import org.janelia.workstation.gui.large_volume_viewer.Subvolume;
 import org.janelia.it.jacs.shared.octree.ZoomLevel;
 import org.janelia.it.jacs.shared.octree.ZoomedVoxelIndex;
 import org.janelia.it.jacs.model.TestCategories;
+import org.janelia.workstation.raster.VoxelIndex;
 import org.janelia.workstation.tracing.AStar;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -63,4 +67,158 @@ public class TestAStar {
         }
     }
 
+    // Dim noisy background, with a bright bent neurite running through it
+    private static final int SIZE = 64;
+    private static final int BACKGROUND = 40;
+    private static final int NEURITE = 200;
+    private static final ZoomLevel ZOOM_0 = new ZoomLevel(0);
+    private static final ZoomedVoxelIndex ORIGIN = new ZoomedVoxelIndex(ZOOM_0, 1000, 2000, 3000);
+
+    private static ByteBuffer syntheticVolume(List<ZoomedVoxelIndex> neuritePath) {
+        Random random = new Random(42);
+        ByteBuffer voxels = ByteBuffer.allocateDirect(SIZE * SIZE * SIZE);
+        for (int i = 0; i < voxels.capacity(); ++i) {
+            voxels.put(i, (byte) (10 + random.nextInt(BACKGROUND - 10)));
+        }
+        for (int z = 5; z < SIZE - 5; ++z) {
+            // Straight in x, then bend off in y halfway along
+            int x = 10 + z / 2;
+            int y = z < SIZE / 2 ? 20 : 20 + (z - SIZE / 2);
+            neuritePath.add(new ZoomedVoxelIndex(ZOOM_0, ORIGIN.getX() + x, ORIGIN.getY() + y, ORIGIN.getZ() + z));
+            for (int dx = -1; dx <= 1; ++dx) {
+                for (int dy = -1; dy <= 1; ++dy) {
+                    voxels.put(offset(ORIGIN.getX() + x + dx, ORIGIN.getY() + y + dy, ORIGIN.getZ() + z),
+                            (byte) (NEURITE + random.nextInt(256 - NEURITE)));
+                }
+            }
+        }
+        return voxels;
+    }
+
+    private static int offset(int x, int y, int z) {
+        return (x - ORIGIN.getX()) + SIZE * ((y - ORIGIN.getY()) + SIZE * (z - ORIGIN.getZ()));
+    }
+
+    private static void assertFollowsNeurite(ByteBuffer voxels, ZoomedVoxelIndex start, ZoomedVoxelIndex goal,
+            List<ZoomedVoxelIndex> path) {
+        assertNotNull(path);
+        assertEquals(start.getX(), path.get(0).getX());
+        assertEquals(start.getY(), path.get(0).getY());
+        assertEquals(start.getZ(), path.get(0).getZ());
+        assertEquals(goal.getX(), path.get(path.size() - 1).getX());
+        assertEquals(goal.getY(), path.get(path.size() - 1).getY());
+        assertEquals(goal.getZ(), path.get(path.size() - 1).getZ());
+        ZoomedVoxelIndex previous = null;
+        for (ZoomedVoxelIndex p : path) {
+            int intensity = voxels.get(offset(p.getX(), p.getY(), p.getZ())) & 0xff;
+            assertTrue("Path left the neurite at " + p, intensity >= NEURITE);
+            if (previous != null) {
+                assertTrue(Math.abs(p.getX() - previous.getX()) <= 1);
+                assertTrue(Math.abs(p.getY() - previous.getY()) <= 1);
+                assertTrue(Math.abs(p.getZ() - previous.getZ()) <= 1);
+            }
+            previous = p;
+        }
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testTraceSyntheticNeurite() {
+        List<ZoomedVoxelIndex> neuritePath = new ArrayList<>();
+        ByteBuffer voxels = syntheticVolume(neuritePath);
+        AStar astar = new AStar(voxels, 1, 1, new VoxelIndex(SIZE, SIZE, SIZE), ORIGIN);
+        ZoomedVoxelIndex start = neuritePath.get(0);
+        ZoomedVoxelIndex goal = neuritePath.get(neuritePath.size() - 1);
+        List<ZoomedVoxelIndex> path = astar.trace(start, goal, 10.0);
+        assertFollowsNeurite(voxels, start, goal, path);
+
+        // Same search again, reusing the search state
+        assertEquals(path.size(), astar.trace(start, goal, 10.0).size());
+        // End points outside the subvolume cannot be traced
+        assertNull(astar.trace(start, new ZoomedVoxelIndex(ZOOM_0, 0, 0, 0), 10.0));
+    }
+
+    @Test
+    @Category(TestCategories.FastTests.class)
+    public void testBidirectionalTraceInCorridor() {
+        List<ZoomedVoxelIndex> neuritePath = new ArrayList<>();
+        ByteBuffer voxels = syntheticVolume(neuritePath);
+        AStar astar = new AStar(voxels, 1, 1, new VoxelIndex(SIZE, SIZE, SIZE), ORIGIN);
+        ZoomedVoxelIndex start = neuritePath.get(0);
+        ZoomedVoxelIndex goal = neuritePath.get(neuritePath.size() - 1);
+        List<ZoomedVoxelIndex> oneWay = astar.trace(start, goal, 10.0);
+
+        astar.setBidirectional(true);
+        List<ZoomedVoxelIndex> bothWays = astar.trace(start, goal, 10.0);
+        assertFollowsNeurite(voxels, start, goal, bothWays);
+        assertEquals(oneWay.size(), bothWays.size());
+
+        // Corridor from the same neurite, as seen at zoom level 2
+        ZoomLevel zoom2 = new ZoomLevel(2);
+        List<ZoomedVoxelIndex> coarsePath = new ArrayList<>();
+        for (ZoomedVoxelIndex p : neuritePath) {
+            ZoomedVoxelIndex coarse = new ZoomedVoxelIndex(zoom2, p.getX() / 4, p.getY() / 4, p.getZ() / 4);
+            ZoomedVoxelIndex previous = coarsePath.isEmpty() ? null : coarsePath.get(coarsePath.size() - 1);
+            if (previous == null || previous.getX() != coarse.getX()
+                    || previous.getY() != coarse.getY() || previous.getZ() != coarse.getZ()) {
+                coarsePath.add(coarse);
+            }
+        }
+        astar.setCorridor(coarsePath, 2);
+        assertFollowsNeurite(voxels, start, goal, astar.trace(start, goal, 10.0));
+
+        // No path when the corridor does not connect the ends
+        List<ZoomedVoxelIndex> wrongCorridor = new ArrayList<>();
+        wrongCorridor.add(new ZoomedVoxelIndex(zoom2, start.getX() / 4, start.getY() / 4, start.getZ() / 4));
+        wrongCorridor.add(new ZoomedVoxelIndex(zoom2, goal.getX() / 4, goal.getY() / 4, goal.getZ() / 4));
+        astar.setCorridor(wrongCorridor, 0);
+        assertNull(astar.trace(start, goal, 10.0));
+    }
+
+    @Test
+    @Category(TestCategories.SlowTests.class)
+    public void benchmarkAgainstLegacySearch() {
+        List<ZoomedVoxelIndex> neuritePath = new ArrayList<>();
+        ByteBuffer neuriteVoxels = syntheticVolume(neuritePath);
+        benchmark("neurite", neuriteVoxels, SIZE, neuritePath.get(0), neuritePath.get(neuritePath.size() - 1));
+
+        // With nothing to follow, the search floods the volume; the legacy
+        //  open set scan makes that quadratic, so keep the volume small
+        final int noiseSize = 32;
+        Random random = new Random(43);
+        ByteBuffer noiseVoxels = ByteBuffer.allocateDirect(noiseSize * noiseSize * noiseSize);
+        for (int i = 0; i < noiseVoxels.capacity(); ++i) {
+            noiseVoxels.put(i, (byte) (10 + random.nextInt(BACKGROUND - 10)));
+        }
+        benchmark("background", noiseVoxels, noiseSize,
+                new ZoomedVoxelIndex(ZOOM_0, ORIGIN.getX() + 1, ORIGIN.getY() + 1, ORIGIN.getZ() + 1),
+                new ZoomedVoxelIndex(ZOOM_0, ORIGIN.getX() + noiseSize - 3, ORIGIN.getY() + noiseSize - 3,
+                        ORIGIN.getZ() + noiseSize - 3));
+    }
+
+    private static void benchmark(String name, ByteBuffer voxels, int size,
+            ZoomedVoxelIndex start, ZoomedVoxelIndex goal) {
+        VoxelIndex extent = new VoxelIndex(size, size, size);
+        long legacyMs = Long.MAX_VALUE;
+        long heapMs = Long.MAX_VALUE;
+        List<ZoomedVoxelIndex> legacyPath = null;
+        List<ZoomedVoxelIndex> heapPath = null;
+        for (int r = 0; r < 3; ++r) {
+            LegacyAStar legacy = new LegacyAStar(voxels, extent, ORIGIN);
+            long startTime = System.currentTimeMillis();
+            legacyPath = legacy.trace(start, goal, 600.0);
+            legacyMs = Math.min(legacyMs, System.currentTimeMillis() - startTime);
+
+            AStar astar = new AStar(voxels, 1, 1, extent, ORIGIN);
+            startTime = System.currentTimeMillis();
+            heapPath = astar.trace(start, goal, 600.0);
+            heapMs = Math.min(heapMs, System.currentTimeMillis() - startTime);
+        }
+        assertNotNull(legacyPath);
+        assertNotNull(heapPath);
+        // Ties between equally cheap paths may break differently
+        System.out.println(String.format("%d^3 voxels, %s: legacy A* %dms (%d steps), AStar %dms (%d steps)",
+                size, name, legacyMs, legacyPath.size(), heapMs, heapPath.size()));
+    }
+
 }
@@ -16,10 +16,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
 import javax.media.opengl.GL2;
 import org.janelia.it.jacs.shared.img_3d_loader.H265FileLoader;
 import org.janelia.workstation.gui.viewer3d.loader.LociTextureBuilder;
 import org.janelia.it.jacs.shared.img_3d_loader.TifVolumeFileLoader;
+import org.janelia.workstation.gui.viewer3d.loader.V3dRawHeader;
 
 public class VolumeLoader implements VolumeLoaderI {
 
@@ -41,6 +43,9 @@ public class VolumeLoader implements VolumeLoaderI {
     {
         logger.info("Start load volume: " + new java.util.Date());
         try {
+            if ( isTooLargeToLoad( unCachedFileName ) ) {
+                return false;
+            }
             String localFileName = resolver.getResolvedFilename( unCachedFileName );
             if ( localFileName == null ) {
                 logger.error( "Cannot resolve {} to a local file name.", unCachedFileName );
@@ -191,6 +196,27 @@ public class VolumeLoader implements VolumeLoaderI {
         return false;
     }
 
+    /**
+     * Loaded volumes are held in a single array, so larger stacks would fail
+     * only after all of their bytes were fetched.  Their header tells first.
+     */
+    private boolean isTooLargeToLoad( String unCachedFileName ) {
+        if ( ! unCachedFileName.toLowerCase().endsWith( ".v3draw" ) ) {
+            return false;
+        }
+        try ( SeekableByteChannel channel = resolver.openChannel( unCachedFileName ) ) {
+            V3dRawHeader header = V3dRawHeader.read( channel );
+            if ( header != null && header.getVolumeBytes() > Integer.MAX_VALUE ) {
+                logger.error( "Cannot load {}, of {}, which is more than a volume can hold.", unCachedFileName, header );
+                return true;
+            }
+        } catch ( Exception ex ) {
+            // Not fatal: the whole file is fetched and loaded as before.
+            logger.debug( "Could not read the header of {}.", unCachedFileName, ex );
+        }
+        return false;
+    }
+
     /** This picks up the result of the build process carried out above. */
     @Override
     public void populateVolumeAcceptor(VolumeDataAcceptor dataAcceptor) {
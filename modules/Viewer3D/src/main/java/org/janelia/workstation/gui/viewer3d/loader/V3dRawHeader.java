@@ -0,0 +1,113 @@
+package org.janelia.workstation.gui.viewer3d.loader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Dimensions of an uncompressed Vaa3D (.v3draw) stack, read from its header:
+ * a format key, an endian code, the bytes per voxel, and the x, y, z and
+ * channel sizes.  The sizes are 4 byte integers, or 2 byte ones in older
+ * files; which applies is told by the length of the file.
+ */
+public class V3dRawHeader {
+
+    public static final String FORMAT_KEY = "raw_image_stack_by_hpeng";
+
+    private static final int PREFIX_LENGTH = FORMAT_KEY.length() + 1 + 2;
+
+    private final int bytesPerVoxel;
+    private final long[] sizes;
+
+    private V3dRawHeader( int bytesPerVoxel, long[] sizes ) {
+        this.bytesPerVoxel = bytesPerVoxel;
+        this.sizes = sizes;
+    }
+
+    /**
+     * Reads the header at the start of the channel.
+     *
+     * @return the header, or null if the channel does not hold a v3draw stack.
+     */
+    public static V3dRawHeader read( SeekableByteChannel channel ) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate( PREFIX_LENGTH + 4 * 4 );
+        channel.position( 0 );
+        while ( header.hasRemaining() && channel.read( header ) >= 0 ) {
+            // keep reading
+        }
+        header.flip();
+        if ( header.remaining() < PREFIX_LENGTH ) {
+            return null;
+        }
+        byte[] key = new byte[ FORMAT_KEY.length() ];
+        header.get( key );
+        if ( ! FORMAT_KEY.equals( new String( key, StandardCharsets.US_ASCII ) ) ) {
+            return null;
+        }
+        byte endianCode = header.get();
+        if ( endianCode == 'B' ) {
+            header.order( ByteOrder.BIG_ENDIAN );
+        }
+        else if ( endianCode == 'L' ) {
+            header.order( ByteOrder.LITTLE_ENDIAN );
+        }
+        else {
+            return null;
+        }
+        int bytesPerVoxel = header.getShort();
+        if ( bytesPerVoxel != 1 && bytesPerVoxel != 2 && bytesPerVoxel != 4 ) {
+            return null;
+        }
+
+        for ( int sizeBytes : new int[] { 4, 2 } ) {
+            if ( header.limit() < PREFIX_LENGTH + 4 * sizeBytes ) {
+                continue;
+            }
+            long[] sizes = new long[ 4 ];
+            long voxelCount = 1;
+            for ( int i = 0; i < 4; i++ ) {
+                int index = PREFIX_LENGTH + i * sizeBytes;
+                sizes[ i ] = sizeBytes == 4 ? header.getInt( index ) & 0xFFFFFFFFL : header.getShort( index ) & 0xFFFFL;
+                voxelCount *= sizes[ i ];
+            }
+            if ( PREFIX_LENGTH + 4 * sizeBytes + voxelCount * bytesPerVoxel == channel.size() ) {
+                return new V3dRawHeader( bytesPerVoxel, sizes );
+            }
+        }
+        return null;
+    }
+
+    public int getBytesPerVoxel() {
+        return bytesPerVoxel;
+    }
+
+    public long getSx() {
+        return sizes[ 0 ];
+    }
+
+    public long getSy() {
+        return sizes[ 1 ];
+    }
+
+    public long getSz() {
+        return sizes[ 2 ];
+    }
+
+    public long getChannelCount() {
+        return sizes[ 3 ];
+    }
+
+    /**
+     * @return bytes of voxel data, over all channels.
+     */
+    public long getVolumeBytes() {
+        return getSx() * getSy() * getSz() * getChannelCount() * bytesPerVoxel;
+    }
+
+    @Override
+    public String toString() {
+        return getSx() + "x" + getSy() + "x" + getSz() + "x" + getChannelCount() + " voxels of " + bytesPerVoxel + " bytes";
+    }
+}
@@ -1,6 +1,8 @@
 package org.janelia.workstation.gui.viewer3d.resolver;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
 
 import org.janelia.workstation.integration.util.FrameworkAccess;
 import org.slf4j.Logger;
@@ -31,4 +33,9 @@ public class CacheFileResolver implements FileResolver {
         else
             return fileName;
     }
+
+    @Override
+    public SeekableByteChannel openChannel(String fileName) throws IOException {
+        return FrameworkAccess.getFileAccessController().openChannel( fileName );
+    }
 }
@@ -1,5 +1,8 @@
 package org.janelia.workstation.gui.viewer3d.resolver;
 
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+
 /**
  * Created with IntelliJ IDEA.
  * User: fosterl
@@ -11,6 +14,12 @@ package org.janelia.workstation.gui.viewer3d.resolver;
  */
 public interface FileResolver {
     String getResolvedFilename( String fileName );
+
+    /**
+     * Opens the file for reading only the parts needed, without resolving
+     * (e.g. caching) all of it first.
+     */
+    SeekableByteChannel openChannel( String fileName ) throws IOException;
 }
 
 
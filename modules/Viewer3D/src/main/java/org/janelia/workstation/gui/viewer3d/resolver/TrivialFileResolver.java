@@ -1,5 +1,10 @@
 package org.janelia.workstation.gui.viewer3d.resolver;
 
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
 /**
  * Created with IntelliJ IDEA.
  * User: fosterl
@@ -14,4 +19,9 @@ public class TrivialFileResolver implements FileResolver {
     public String getResolvedFilename(String fileName) {
         return fileName;
     }
+
+    @Override
+    public SeekableByteChannel openChannel(String fileName) throws IOException {
+        return Files.newByteChannel(Paths.get(fileName));
+    }
 }